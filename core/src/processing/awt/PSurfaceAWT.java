@@ -1316,12 +1316,12 @@ public class PSurfaceAWT extends PSurfaceNone {
       peButton = PConstants.RIGHT;
     }
 
-    sketch.postEvent(new MouseEvent(nativeEvent, nativeEvent.getWhen(),
-                                    peAction, peModifiers,
-                                    nativeEvent.getX() / windowScaleFactor,
-                                    nativeEvent.getY() / windowScaleFactor,
-                                    peButton,
-                                    peCount));
+    sketch.postMouseEvent(nativeEvent, nativeEvent.getWhen(),
+                          peAction, peModifiers,
+                          nativeEvent.getX() / windowScaleFactor,
+                          nativeEvent.getY() / windowScaleFactor,
+                          peButton,
+                          peCount);
   }
 
 
@@ -1350,9 +1350,9 @@ public class PSurfaceAWT extends PSurfaceNone {
        InputEvent.META_MASK |
        InputEvent.ALT_MASK);
 
-    sketch.postEvent(new KeyEvent(event, event.getWhen(),
-                                  peAction, peModifiers,
-                                  event.getKeyChar(), event.getKeyCode()));
+    sketch.postKeyEvent(event, event.getWhen(),
+                        peAction, peModifiers,
+                        event.getKeyChar(), event.getKeyCode(), false);
   }
 
 
@@ -0,0 +1,250 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * The background loader shared by requestImage() and the loadXxxxAsync()
+ * methods of PApplet. Jobs with a higher priority are started first, and
+ * jobs with the same priority run in the order they were submitted. The
+ * threads are created as needed, and go away after they've been idle for
+ * a few seconds.
+ * <p/>
+ * Decoded images can also be kept in a cache, keyed by the file they came
+ * from and its modification time, so that loading the same file again is
+ * only a copy. The cache holds at most a set number of bytes of pixels,
+ * dropping the least recently used images first. It's off by default.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class AsyncLoader {
+  /** Used by loadImage() to see whether it's running on a loader thread */
+  static final String THREAD_PREFIX = "requestImage";
+  static final int DEFAULT_THREADS = 4;
+  static final long KEEP_ALIVE_SECONDS = 5;
+
+  private ThreadPoolExecutor pool;
+  private int threads = DEFAULT_THREADS;
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final LinkedHashMap<String, Cached> cache =
+    new LinkedHashMap<>(16, 0.75f, true);  // access order, for LRU
+  private volatile long cacheLimit;
+  private long cacheBytes;
+
+
+  static class Cached {
+    final long modified;
+    final PImage image;
+
+    Cached(long modified, PImage image) {
+      this.modified = modified;
+      this.image = image;
+    }
+
+    long bytes() {
+      return (long) image.pixels.length * 4;
+    }
+  }
+
+
+  /**
+   * A job waiting in the queue, or running. Ordered by priority, then by
+   * the order it was submitted.
+   */
+  static class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+    final int priority;
+    final long order;
+    final Consumer<T> callback;
+
+    Task(Callable<T> job, int priority, long order, Consumer<T> callback) {
+      super(job);
+      this.priority = priority;
+      this.order = order;
+      this.callback = callback;
+    }
+
+    @Override
+    public int compareTo(Task<?> o) {
+      if (priority != o.priority) {
+        return (priority > o.priority) ? -1 : 1;
+      }
+      return Long.compare(order, o.order);
+    }
+
+    @Override
+    protected void done() {
+      if (callback != null && !isCancelled()) {
+        try {
+          callback.accept(get());
+        } catch (ExecutionException e) {
+          e.getCause().printStackTrace();
+        } catch (InterruptedException e) { }
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Run a job on one of the loader threads. The callback (which may be
+   * null) is called on that same thread once the job has finished, unless
+   * the job was cancelled first.
+   */
+  synchronized <T> Future<T> submit(Callable<T> job, int priority,
+                                    Consumer<T> callback) {
+    if (pool == null) {
+      pool = new ThreadPoolExecutor(threads, threads,
+                                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                    new PriorityBlockingQueue<Runnable>(),
+                                    r -> {
+                                      Thread t = new Thread(r, THREAD_PREFIX);
+                                      t.setDaemon(true);
+                                      return t;
+                                    });
+      pool.allowCoreThreadTimeOut(true);
+    }
+    Task<T> task =
+      new Task<>(job, priority, sequence.getAndIncrement(), callback);
+    pool.execute(task);
+    return task;
+  }
+
+
+  /** Set the number of jobs that can run at once. */
+  synchronized void setThreads(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("The loader needs at least one thread");
+    }
+    if (pool != null) {
+      // the core size can't go above the maximum, nor the other way around
+      if (count > threads) {
+        pool.setMaximumPoolSize(count);
+        pool.setCorePoolSize(count);
+      } else {
+        pool.setCorePoolSize(count);
+        pool.setMaximumPoolSize(count);
+      }
+    }
+    threads = count;
+  }
+
+
+  /** Stop the threads, cancel anything waiting, and empty the cache. */
+  synchronized void dispose() {
+    if (pool != null) {
+      for (Runnable r : pool.shutdownNow()) {
+        ((Future<?>) r).cancel(false);
+      }
+      pool = null;
+    }
+    synchronized (cache) {
+      cache.clear();
+      cacheBytes = 0;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  boolean cacheEnabled() {
+    return cacheLimit > 0;
+  }
+
+
+  /** Set the size of the image cache in bytes, or 0 to turn it off. */
+  void setCacheLimit(long bytes) {
+    synchronized (cache) {
+      cacheLimit = Math.max(0, bytes);
+      trim();
+    }
+  }
+
+
+  /**
+   * Get a copy of the image decoded from this file, as long as the file
+   * hasn't been modified since. Returns null if there isn't one.
+   */
+  PImage getCached(File file, long modified) {
+    PImage image;
+    synchronized (cache) {
+      String key = file.getAbsolutePath();
+      Cached entry = cache.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.modified != modified) {
+        cache.remove(key);
+        cacheBytes -= entry.bytes();
+        return null;
+      }
+      image = entry.image;
+    }
+    // the cached image is never modified, so it's safe to copy without a lock
+    return image.get();
+  }
+
+
+  /** Keep a copy of an image that was just decoded from this file. */
+  void putCached(File file, long modified, PImage image) {
+    if (image.pixels == null || (long) image.pixels.length * 4 > cacheLimit) {
+      return;
+    }
+    Cached entry = new Cached(modified, image.get());
+    synchronized (cache) {
+      Cached previous = cache.put(file.getAbsolutePath(), entry);
+      if (previous != null) {
+        cacheBytes -= previous.bytes();
+      }
+      cacheBytes += entry.bytes();
+      trim();
+    }
+  }
+
+
+  /** Drop the least recently used images until the cache is small enough. */
+  private void trim() {
+    Iterator<Map.Entry<String, Cached>> it = cache.entrySet().iterator();
+    while (cacheBytes > cacheLimit && it.hasNext()) {
+      cacheBytes -= it.next().getValue().bytes();
+      it.remove();
+    }
+  }
+}
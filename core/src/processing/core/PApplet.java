@@ -41,9 +41,14 @@ import java.awt.Toolkit;
 
 // used by loadImage()
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 // allows us to remove our own MediaTracker code
 import javax.swing.ImageIcon;
 
@@ -67,16 +72,16 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
 
 import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.text.*;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.regex.*;
 import java.util.zip.*;
 
@@ -1416,25 +1421,84 @@ public class PApplet implements PConstants {
   private final Object registerLock = new Object[0];
 
 
+  /**
+   * Used to look up the registered methods, so that access is checked the
+   * same way as it was when they were called through reflection.
+   */
+  static private final MethodHandles.Lookup registerLookup =
+    MethodHandles.lookup();
+
+  /** Type of every handle in RegisteredMethods: one argument, no result */
+  static private final MethodType registerType =
+    MethodType.methodType(void.class, Object.class);
+
+
+  /**
+   * A MethodHandle that calls method on object, with the argument (if the
+   * method takes one) passed as the handle's only parameter. Methods that
+   * can't be reached from here (a public method of a class that isn't
+   * public, for instance) go through Method.invoke(), so that they fail
+   * when called, with the same IllegalAccessException as they always did.
+   */
+  static private MethodHandle bindRegistered(Object object, Method method) {
+    MethodHandle handle;
+    try {
+      handle = registerLookup.unreflect(method).bindTo(object);
+      if (method.getParameterTypes().length == 0) {
+        handle = MethodHandles.dropArguments(handle, 0, Object.class);
+      }
+    } catch (IllegalAccessException e) {
+      try {
+        handle = registerLookup.findStatic(PApplet.class, "invokeRegistered",
+          MethodType.methodType(void.class, Method.class,
+                                Object.class, Object.class));
+      } catch (ReflectiveOperationException roe) {
+        throw new RuntimeException(roe);  // can't happen
+      }
+      handle = MethodHandles.insertArguments(handle, 0, method, object);
+    }
+    return handle.asType(registerType);
+  }
+
+
+  static private void invokeRegistered(Method method, Object object,
+                                       Object arg) throws Exception {
+    if (method.getParameterTypes().length == 0) {
+      method.invoke(object);
+    } else {
+      method.invoke(object, arg);
+    }
+  }
+
+
   class RegisteredMethods {
     int count;
     Object[] objects;
     // Because the Method comes from the class being called,
     // it will be unique for most, if not all, objects.
     Method[] methods;
-    Object[] emptyArgs = new Object[] { };
+    // Calls methods[i] on objects[i], see bindRegistered(). Much faster
+    // than Method.invoke(), and no Object[] is needed to pass arguments.
+    MethodHandle[] handles;
 
 
     void handle() {
-      handle(emptyArgs);
+      handle((Object) null);
     }
 
 
     void handle(Object[] args) {
+      handle(args.length == 0 ? null : args[0]);
+    }
+
+
+    void handle(Object arg) {
+      // Fields are read on each pass (not copied to locals) so that methods
+      // added or removed by one of the calls are picked up straight away.
       for (int i = 0; i < count; i++) {
         try {
-          methods[i].invoke(objects[i], args);
-        } catch (Exception e) {
+          handles[i].invokeExact(arg);
+        } catch (Throwable e) {
           // check for wrapped exception, get root exception
           Throwable t;
           if (e instanceof InvocationTargetException) {
@@ -1458,16 +1522,20 @@ public class PApplet implements PConstants {
 
     void add(Object object, Method method) {
       if (findIndex(object) == -1) {
+        MethodHandle handle = bindRegistered(object, method);
         if (objects == null) {
           objects = new Object[5];
           methods = new Method[5];
+          handles = new MethodHandle[5];
 
         } else if (count == objects.length) {
           objects = (Object[]) PApplet.expand(objects);
           methods = (Method[]) PApplet.expand(methods);
+          handles = (MethodHandle[]) PApplet.expand(handles);
         }
         objects[count] = object;
         methods[count] = method;
+        handles[count] = handle;
         count++;
       } else {
         die(method.getName() + "() already added for this instance of " +
@@ -1491,10 +1559,12 @@ public class PApplet implements PConstants {
         for (int i = index; i < count; i++) {
           objects[i] = objects[i+1];
           methods[i] = methods[i+1];
+          handles[i] = handles[i+1];
         }
         // clean things out for the gc's sake
         objects[count] = null;
         methods[count] = null;
+        handles[count] = null;
       }
     }
 
@@ -1521,6 +1591,7 @@ public class PApplet implements PConstants {
    * Supported events include:
    * <ul>
    * <li>pre – at the very top of the draw() method (safe to draw)
+   * <li>update – at a fixed rate before draw(), see updateRate()
    * <li>draw – at the end of the draw() method (safe to draw)
    * <li>post – after draw() has exited (not safe to draw)
    * <li>pause – called when the sketch is paused
@@ -1641,6 +1712,17 @@ public class PApplet implements PConstants {
   }
 
 
+  /** Same as above, for the usual case of a single argument (an event). */
+  protected void handleMethods(String methodName, Object arg) {
+    synchronized (registerLock) {
+      RegisteredMethods meth = registerMap.get(methodName);
+      if (meth != null) {
+        meth.handle(arg);
+      }
+    }
+  }
+
+
   /*
   @Deprecated
   public void registerSize(Object o) {
@@ -2389,6 +2471,34 @@ public class PApplet implements PConstants {
   /** Last time in nanoseconds that frameRate was checked */
   protected long frameRateLastNanos = 0;
 
+  /** Set while frames are being profiled, see profileFrames() */
+  volatile PFrameProfiler frameProfiler;
+
+  /** Paces the animation thread, see frameScheduler() */
+  volatile PFrameScheduler frameScheduler = PFrameScheduler.sleep();
+
+  /** Nanoseconds between "update" steps, or 0 if updateRate() is off */
+  long updatePeriod;
+  /** Time not yet simulated by "update" methods, kept for the next frame */
+  long updateBacklog;
+  long updateLastNanos;
+
+  /**
+   * Most "update" steps run for a single frame. When the sketch falls
+   * further behind than this (a breakpoint, or a window being dragged),
+   * the extra time is dropped, rather than spending the next frames
+   * catching up and falling further behind.
+   */
+  static final int MAX_UPDATES_PER_FRAME = 8;
+
+  /**
+   * How far the sketch is between the last "update" step and the next,
+   * from 0 up to (not including) 1. Set before each draw() when
+   * updateRate() is in use, so that draw() can interpolate between the
+   * previous and current state for smooth motion.
+   */
+  public float updateFraction;
+
 
   public void handleDraw() {
     //debug("handleDraw() " + g + " " + looping + " " + redraw + " valid:" + this.isValid() + " visible:" + this.isVisible());
@@ -2415,6 +2525,12 @@ public class PApplet implements PConstants {
       System.exit(1);
     }
 
+    // setup() isn't profiled, only actual frames
+    PFrameProfiler profiler = (frameCount == 0) ? null : frameProfiler;
+    if (profiler != null) {
+      profiler.beginFrame(frameCount);
+    }
+
     insideDraw = true;
     g.beginDraw();
     if (recorder != null) {
@@ -2469,9 +2585,17 @@ public class PApplet implements PConstants {
         frameRate = (float) (1.0 / avgFrameTimeSecs);
       }
 
+      if (profiler != null) profiler.mark(PFrameProfiler.BEGIN_DRAW);
+
       if (frameCount != 0) {
         handleMethods("pre");
       }
+      if (profiler != null) profiler.mark(PFrameProfiler.PRE);
+
+      if (updatePeriod != 0) {
+        handleUpdates(now);
+      }
+      if (profiler != null) profiler.mark(PFrameProfiler.UPDATE);
 
       // use dmouseX/Y as previous mouse pos, since this is the
       // last position the mouse was in during the previous draw.
@@ -2481,6 +2605,7 @@ public class PApplet implements PConstants {
         //println("Calling draw()");
       draw();
         //println("Done calling draw()");
+      if (profiler != null) profiler.mark(PFrameProfiler.DRAW);
 
       // dmouseX/Y is updated only once per frame (unlike emouseX/Y)
       dmouseX = mouseX;
@@ -2491,8 +2616,10 @@ public class PApplet implements PConstants {
       // be before, since a call to background() would wipe
       // out anything that had been drawn so far.
       dequeueEvents();
+      if (profiler != null) profiler.mark(PFrameProfiler.EVENTS);
 
       handleMethods("draw");
+      if (profiler != null) profiler.mark(PFrameProfiler.DRAW_METHODS);
 
       redraw = false;  // unset 'redraw' flag in case it was set
       // (only do this once draw() has run, not just setup())
@@ -2507,16 +2634,47 @@ public class PApplet implements PConstants {
       recorder.endDraw();
     }
     insideDraw = false;
+    if (profiler != null) profiler.mark(PFrameProfiler.END_DRAW);
 
     if (frameCount != 0) {
       handleMethods("post");
     }
+    if (profiler != null) profiler.mark(PFrameProfiler.POST);
 
     frameRateLastNanos = now;
     frameCount++;
   }
 
 
+  /**
+   * Run the registered "update" methods once for each period that has
+   * passed since the last frame.
+   */
+  private void handleUpdates(long now) {
+    long period = updatePeriod;
+    if (updateLastNanos != 0) {
+      updateBacklog += now - updateLastNanos;
+    }
+    updateLastNanos = now;
+
+    int count = 0;
+    while (updateBacklog >= period) {
+      if (count == MAX_UPDATES_PER_FRAME) {
+        updateBacklog %= period;
+        break;
+      }
+      handleMethods("update");
+      updateBacklog -= period;
+      count++;
+      if (period != updatePeriod) {
+        // updateRate() was called from inside an "update" method
+        return;
+      }
+    }
+    updateFraction = (float) updateBacklog / period;
+  }
+
+
 //  /** Not official API, not guaranteed to work in the future. */
 //  public boolean canDraw() {
 //    return g != null && (looping || redraw);
@@ -2623,19 +2781,81 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Start timing each frame, split into beginDraw(), library "pre"
+   * methods, fixed-rate "update" methods, draw(), event handling, library
+   * "draw" methods, endDraw(), library "post" methods, rendering by the
+   * surface and idle time.
+   * The most recent frames are kept for reading or saving, along with
+   * the median and 99th percentile times of every frame since starting.
+   * See PFrameProfiler for details. If frames are already being profiled,
+   * this returns the profiler that's already running.
+   */
+  public PFrameProfiler profileFrames() {
+    return profileFrames(PFrameProfiler.DEFAULT_CAPACITY);
+  }
+
+
+  /**
+   * @param capacity how many of the most recent frames to keep
+   */
+  synchronized public PFrameProfiler profileFrames(int capacity) {
+    PFrameProfiler profiler = frameProfiler;
+    if (profiler == null || profiler.capacity() != capacity) {
+      profiler = new PFrameProfiler(this, capacity);
+      frameProfiler = profiler;
+    }
+    return profiler;
+  }
+
+
+  /**
+   * Stop profiling frames. The profiler that was running keeps the frames
+   * it has recorded, so they can still be saved.
+   */
+  public void noProfileFrames() {
+    frameProfiler = null;
+  }
+
+
+  /** The profiler started by profileFrames(), or null if it's not on. */
+  public PFrameProfiler frameProfiler() {
+    return frameProfiler;
+  }
+
+
   //////////////////////////////////////////////////////////////
 
 
-  BlockingQueue<Event> eventQueue = new LinkedBlockingQueue<>();
+  PEventQueue eventQueue = new PEventQueue(PEventQueue.DEFAULT_CAPACITY);
   private final Object eventQueueDequeueLock = new Object[0];
 
+  /** Set by coalesceMouseEvents() */
+  volatile boolean coalesceMouseEvents;
+
 
   /**
    * Add an event to the internal event queue, or process it immediately if
    * the sketch is not currently looping.
    */
   public void postEvent(processing.event.Event pe) {
-    eventQueue.add(pe);
+    eventQueue.offer(pe);
+
+    if (!looping) {
+      dequeueEvents();
+    }
+  }
+
+
+  /**
+   * Same as postEvent(new MouseEvent(...)), but lets the queue reuse an
+   * event object when recycleEvents() is on. Used by the surfaces.
+   */
+  public void postMouseEvent(Object nativeObject, long millis,
+                             int action, int modifiers,
+                             int x, int y, int button, int count) {
+    eventQueue.offerMouse(nativeObject, millis, action, modifiers,
+                          x, y, button, count);
 
     if (!looping) {
       dequeueEvents();
@@ -2643,10 +2863,51 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Same as postEvent(new KeyEvent(...)), but lets the queue reuse an
+   * event object when recycleEvents() is on. Used by the surfaces.
+   */
+  public void postKeyEvent(Object nativeObject, long millis,
+                           int action, int modifiers,
+                           char key, int keyCode, boolean isAutoRepeat) {
+    eventQueue.offerKey(nativeObject, millis, action, modifiers,
+                        key, keyCode, isAutoRepeat);
+
+    if (!looping) {
+      dequeueEvents();
+    }
+  }
+
+
+  /**
+   * Reuse MouseEvent and KeyEvent objects instead of creating new ones for
+   * every event, so that high-rate input (1 kHz tablets, touch tables)
+   * doesn't create garbage. An event object is only reused after it has
+   * been handled, and then only after a thousand or so more events, so
+   * this is safe unless the sketch (or a library) holds on to events to
+   * use later, say for replaying a gesture. Off by default.
+   */
+  public void recycleEvents(boolean recycle) {
+    eventQueue.recycle(recycle);
+  }
+
+
+  /**
+   * When several MOVE events (or DRAG events, with the same button and
+   * modifiers) are waiting to be handled at the end of a frame, only pass
+   * along the last of them. mouseX and mouseY end up in the same place,
+   * but mouseMoved() and mouseDragged() are called once per frame instead
+   * of for every intermediate position. Off by default.
+   */
+  public void coalesceMouseEvents(boolean coalesce) {
+    coalesceMouseEvents = coalesce;
+  }
+
+
   protected void dequeueEvents() {
     synchronized (eventQueueDequeueLock) {
-      while (!eventQueue.isEmpty()) {
-        Event e = eventQueue.remove();
+      Event e;
+      while ((e = eventQueue.next(coalesceMouseEvents)) != null) {
         switch (e.getFlavor()) {
         case Event.MOUSE:
           handleMouseEvent((MouseEvent) e);
@@ -2746,7 +3007,7 @@ public class PApplet implements PConstants {
       break;
     }
 
-    handleMethods("mouseEvent", new Object[] { event });
+    handleMethods("mouseEvent", event);
 
     switch (action) {
     case MouseEvent.PRESS:
@@ -3018,7 +3279,7 @@ public class PApplet implements PConstants {
     }
     */
 
-    handleMethods("keyEvent", new Object[] { event });
+    handleMethods("keyEvent", event);
 
     // if someone else wants to intercept the key, they should
     // set key to zero (or something besides the ESC).
@@ -3418,6 +3679,55 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Set how the animation thread waits between frames, for instance
+   * frameScheduler(PFrameScheduler.deadline()) for more even frame times,
+   * or PFrameScheduler.unthrottled() to draw frames as fast as possible.
+   * The scheduler also keeps statistics on frame timing. Only used by the
+   * default renderer (and others built on PSurfaceNone); OpenGL and
+   * JavaFX pace their own frames. See PFrameScheduler for details.
+   */
+  public void frameScheduler(PFrameScheduler scheduler) {
+    if (scheduler == null) {
+      throw new IllegalArgumentException("frameScheduler() cannot be null");
+    }
+    frameScheduler = scheduler;
+  }
+
+
+  /** The scheduler pacing the animation thread, with its statistics. */
+  public PFrameScheduler frameScheduler() {
+    return frameScheduler;
+  }
+
+
+  /**
+   * Run the methods registered with registerMethod("update", obj) at a
+   * fixed rate, separate from how often draw() runs. Before each draw(),
+   * they are called once for every period that has passed since the last
+   * frame, which may be none at all when drawing faster than the update
+   * rate. Motion and physics stepped this way run the same whatever the
+   * frame rate, and draw() can use updateFraction to interpolate between
+   * the last two states. The object passed to registerMethod() needs a
+   * public update() method taking no arguments; a sketch can register
+   * itself the same way. Use 0 to stop the updates.
+   *
+   * @param updatesPerSecond number of update steps per second
+   * @see PApplet#registerMethod(String, Object)
+   * @see PApplet#updateFraction
+   */
+  public void updateRate(float updatesPerSecond) {
+    if (updatesPerSecond < 0) {
+      throw new IllegalArgumentException("updateRate() cannot be negative");
+    }
+    updatePeriod = (updatesPerSecond == 0) ?
+      0 : Math.max(1, (long) (1000000000.0 / updatesPerSecond));
+    updateBacklog = 0;
+    updateLastNanos = 0;
+    updateFraction = 0;
+  }
+
+
   //////////////////////////////////////////////////////////////
 
 
@@ -3837,6 +4147,9 @@ public class PApplet implements PConstants {
       handleMethods("dispose");
     }
 
+    // cancel any files still waiting to be loaded
+    loader.dispose();
+
     if (platform == MACOSX) {
       try {
         final String td = "processing.core.ThinkDifferent";
@@ -5289,6 +5602,13 @@ public class PApplet implements PConstants {
    *
    * ( end auto-generated )
    *
+   * <h3>Advanced</h3>
+   * The noise tables belong to the sketch, and noiseSeed() rebuilds them,
+   * so noise() is best called from the animation thread. To fill a large
+   * array with noise values, the array version of noise() spreads the
+   * work across cores. For simplex noise in up to four dimensions, with
+   * its own seed and safe to use from any thread, see PNoise.
+   *
    * @webref math:random
    * @param x x-coordinate in noise space
    * @param y y-coordinate in noise space
@@ -5296,22 +5616,11 @@ public class PApplet implements PConstants {
    * @see PApplet#noiseSeed(long)
    * @see PApplet#noiseDetail(int, float)
    * @see PApplet#random(float,float)
+   * @see PNoise
    */
   public float noise(float x, float y, float z) {
     if (perlin == null) {
-      if (perlinRandom == null) {
-        perlinRandom = new Random();
-      }
-      perlin = new float[PERLIN_SIZE + 1];
-      for (int i = 0; i < PERLIN_SIZE + 1; i++) {
-        perlin[i] = perlinRandom.nextFloat(); //(float)Math.random();
-      }
-      // [toxi 031112]
-      // noise broke due to recent change of cos table in PGraphics
-      // this will take care of it
-      perlin_cosTable = PGraphics.cosLUT;
-      perlin_TWOPI = perlin_PI = PGraphics.SINCOS_LENGTH;
-      perlin_PI >>= 1;
+      noiseInit();
     }
 
     if (x<0) x=-x;
@@ -5363,6 +5672,58 @@ public class PApplet implements PConstants {
     return r;
   }
 
+  private void noiseInit() {
+    if (perlinRandom == null) {
+      perlinRandom = new Random();
+    }
+    float[] table = new float[PERLIN_SIZE + 1];
+    for (int i = 0; i < PERLIN_SIZE + 1; i++) {
+      table[i] = perlinRandom.nextFloat(); //(float)Math.random();
+    }
+    // [toxi 031112]
+    // noise broke due to recent change of cos table in PGraphics
+    // this will take care of it
+    perlin_cosTable = PGraphics.cosLUT;
+    perlin_TWOPI = perlin_PI = PGraphics.SINCOS_LENGTH;
+    perlin_PI >>= 1;
+    perlin = table;
+  }
+
+
+  /**
+   * Fill out[i] with noise(xs[i], ys[i]) for each entry of out. The
+   * results are the same as calling noise() one at a time, but large
+   * arrays are split across the available cores.
+   */
+  public void noise(float[] xs, float[] ys, float[] out) {
+    noise(xs, ys, null, out);
+  }
+
+
+  /**
+   * Fill out[i] with noise(xs[i], ys[i], zs[i]).
+   */
+  public void noise(final float[] xs, final float[] ys, final float[] zs,
+                    final float[] out) {
+    final int count = out.length;
+    if (xs.length < count || ys.length < count ||
+        (zs != null && zs.length < count)) {
+      throw new IllegalArgumentException("Expected " + count +
+                                         " coordinates for each axis");
+    }
+    if (perlin == null) {
+      noiseInit();
+    }
+    // only reads the noise tables, so the threads can share them
+    PImageFilter.run(count, PNoise.cost(count, perlin_octaves),
+                     (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        out[i] = noise(xs[i], ys[i], (zs == null) ? 0 : zs[i]);
+      }
+    });
+  }
+
+
   // [toxi 031112]
   // now adjusts to the size of the cosLUT used via
   // the new variables, defined above
@@ -5502,6 +5863,22 @@ public class PApplet implements PConstants {
 //  }
 
   /**
+   * The second parameter can also be a comma-separated list of options,
+   * like loadTable(), to read only part of an image, or a smaller version
+   * of it, without decoding all of it at full size first:
+   * <ul>
+   * <li>"region=x y w h" reads only that part of the image.
+   * <li>"size=w h" scales the image (or the region) to that size, with 0
+   * for either one to keep the proportions.
+   * <li>a word without an equals sign is the extension, as above.
+   * </ul>
+   * For instance, loadImage("scan.jpg", "size=800 0") makes an 800 pixel
+   * wide version of a large scan. The image is subsampled while it's
+   * decoded (by ImageIO for JPEG, PNG and GIF, and by Processing itself for
+   * TIFF and TARGA) and then resized to the exact size, so the memory and
+   * time used depend mostly on the size that's asked for, not the size of
+   * the file. Images loaded with options aren't kept by loaderCache().
+   *
    * @param extension type of image to load, for example "png", "gif", "jpg"
    */
   public PImage loadImage(String filename, String extension) { //, Object params) {
@@ -5509,26 +5886,75 @@ public class PApplet implements PConstants {
     // awaitAsyncSaveCompletion() has to run on the main thread, because P2D
     // and P3D call GL functions. If this runs on background, requestImage()
     // already called awaitAsyncSaveCompletion() on the main thread.
-    if (g != null && !Thread.currentThread().getName().startsWith(REQUEST_IMAGE_THREAD_PREFIX)) {
+    if (g != null && !Thread.currentThread().getName().startsWith(AsyncLoader.THREAD_PREFIX)) {
       g.awaitAsyncSaveCompletion(filename);
     }
 
-    if (extension == null) {
-      String lower = filename.toLowerCase();
-      int dot = filename.lastIndexOf('.');
-      if (dot == -1) {
-        extension = "unknown";  // no extension found
+    // options like "size=" or "region=" in place of the extension
+    if (extension != null && extension.indexOf('=') != -1) {
+      return decodeImage(filename, new ImageOptions(extension));
+    }
 
-      } else {
-        extension = lower.substring(dot + 1);
+    // with loaderCache() turned on, images from local files are decoded once
+    File file = loader.cacheEnabled() ? localImageFile(filename) : null;
+    long modified = 0;
+    if (file != null) {
+      modified = file.lastModified();
+      PImage cached = loader.getCached(file, modified);
+      if (cached != null) {
+        cached.parent = this;
+        return cached;
+      }
+    }
 
-        // check for, and strip any parameters on the url, i.e.
-        // filename.jpg?blah=blah&something=that
-        int question = extension.indexOf('?');
-        if (question != -1) {
-          extension = extension.substring(0, question);
-        }
+    PImage image = decodeImage(filename, extension);
+    if (file != null && image != null && image.width > 0) {
+      loader.putCached(file, modified, image);
+    }
+    return image;
+  }
+
+
+  /**
+   * The file that an image will be read from, if it's a local file
+   * (and not from a URL or inside a jar), otherwise null.
+   */
+  private File localImageFile(String filename) {
+    try {
+      File file = new File(dataPath(filename));
+      if (!file.exists()) {
+        file = sketchFile(filename);
       }
+      return file.isFile() ? file : null;
+
+    } catch (SecurityException se) {
+      return null;
+    }
+  }
+
+
+  /** The lowercase extension of an image file or URL, or "unknown". */
+  static private String imageExtension(String filename) {
+    String lower = filename.toLowerCase();
+    int dot = filename.lastIndexOf('.');
+    if (dot == -1) {
+      return "unknown";  // no extension found
+    }
+    String extension = lower.substring(dot + 1);
+
+    // check for, and strip any parameters on the url, i.e.
+    // filename.jpg?blah=blah&something=that
+    int question = extension.indexOf('?');
+    if (question != -1) {
+      extension = extension.substring(0, question);
+    }
+    return extension;
+  }
+
+
+  private PImage decodeImage(String filename, String extension) {
+    if (extension == null) {
+      extension = imageExtension(filename);
     }
 
     // just in case. them users will try anything!
@@ -5548,12 +5974,13 @@ public class PApplet implements PConstants {
     }
 
     if (extension.equals("tif") || extension.equals("tiff")) {
-      byte[] bytes = loadBytes(filename);
-      PImage image =  (bytes == null) ? null : PImage.loadTIFF(bytes);
-//      if (params != null) {
-//        image.setParams(g, params);
-//      }
-      return image;
+      try (PImageTIFF tiff = openTIFF(filename)) {
+        return (tiff == null) ? null : tiff.read(0);
+
+      } catch (IOException e) {
+        System.err.println("Could not read " + filename + ": " + e.getMessage());
+        return null;
+      }
     }
 
     // For jpeg, gif, and png, load them using createImage(),
@@ -5637,9 +6064,195 @@ public class PApplet implements PConstants {
   }
 
 
-  static private final String REQUEST_IMAGE_THREAD_PREFIX = "requestImage";
-  // fixed-size thread pool used by requestImage()
-  ExecutorService requestImagePool;
+  /**
+   * The options from loadImage(filename, options): which part of the image
+   * to read, and the size to scale it to.
+   */
+  static private class ImageOptions {
+    String extension;
+    int x, y, w = -1, h = -1;  // the region, or -1 for the whole image
+    boolean sized;
+    int sizeW, sizeH;  // 0 to keep the proportions
+    int step = 1;  // read every step-th pixel
+    int outW, outH;  // size of the subsampled image
+
+    ImageOptions(String options) {
+      for (String option : trim(split(options, ','))) {
+        if (option.length() == 0) continue;
+
+        if (option.startsWith("region=")) {
+          int[] v = parseInt(splitTokens(option.substring(7)), -1);
+          if (v.length != 4 || min(v) < 0) {
+            throw new IllegalArgumentException("Use region=x y width height");
+          }
+          x = v[0];
+          y = v[1];
+          w = v[2];
+          h = v[3];
+        } else if (option.startsWith("size=")) {
+          int[] v = parseInt(splitTokens(option.substring(5)), -1);
+          if (v.length != 2 || min(v) < 0 || max(v) == 0) {
+            throw new IllegalArgumentException("Use size=width height");
+          }
+          sized = true;
+          sizeW = v[0];
+          sizeH = v[1];
+        } else if (option.indexOf('=') == -1) {
+          extension = option.toLowerCase();
+        } else {
+          throw new IllegalArgumentException(option + " is not an option for loadImage()");
+        }
+      }
+    }
+
+    /**
+     * Clip the region to an image of this size, and pick the subsampling
+     * step: the largest whole number that still leaves at least the size
+     * asked for, so that resize() only has the rest to do. Returns false
+     * if the region is outside the image.
+     */
+    boolean fit(int imageWidth, int imageHeight) {
+      if (w == -1) {
+        w = imageWidth;
+        h = imageHeight;
+      }
+      w = Math.min(x + w, imageWidth) - x;
+      h = Math.min(y + h, imageHeight) - y;
+      if (w <= 0 || h <= 0) {
+        return false;
+      }
+      if (sized) {
+        if (sizeW == 0) sizeW = Math.max(1, Math.round(w * (float) sizeH / h));
+        if (sizeH == 0) sizeH = Math.max(1, Math.round(h * (float) sizeW / w));
+        step = Math.max(1, Math.min(w / sizeW, h / sizeH));
+      }
+      outW = (w + step - 1) / step;
+      outH = (h + step - 1) / step;
+      return true;
+    }
+
+    PImage finish(PImage image) {
+      if (sized && (image.pixelWidth != sizeW || image.pixelHeight != sizeH)) {
+        image.resize(sizeW, sizeH);
+      }
+      return image;
+    }
+  }
+
+
+  private PImage decodeImage(String filename, ImageOptions options) {
+    String extension = options.extension;
+    if (extension == null) {
+      extension = imageExtension(filename);
+    }
+    try {
+      PImage image;
+      if (extension.equals("tga")) {
+        InputStream is = createInput(filename);
+        if (is == null) {
+          System.err.println("The image " + filename + " could not be found.");
+          return null;
+        }
+        try {
+          PImageTGA tga = new PImageTGA(is);
+          if (tga.format == 0) {
+            System.err.println("Unknown .tga file format for " + filename);
+            return null;
+          }
+          if (!options.fit(tga.width, tga.height)) {
+            System.err.println("The region is outside of " + filename);
+            return null;
+          }
+          image = createImage(options.outW, options.outH, tga.format);
+          tga.read(image, options.x, options.y, options.step);
+        } finally {
+          is.close();
+        }
+
+      } else if (extension.equals("tif") || extension.equals("tiff")) {
+        try (PImageTIFF tiff = openTIFF(filename)) {
+          if (tiff == null) return null;
+
+          PImageTIFF.Page page = tiff.page(0);
+          if (!options.fit(page.width, page.height)) {
+            System.err.println("The region is outside of " + filename);
+            return null;
+          }
+          image = createImage(options.outW, options.outH, page.format);
+          page.read(image, options.x, options.y, options.step);
+        }
+
+      } else {
+        image = loadImageIO(filename, options);
+        if (image == null) return null;
+      }
+      return options.finish(image);
+
+    } catch (IOException e) {
+      System.err.println("Could not read " + filename + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+
+  /**
+   * Read part of an image, or a subsampled version of it, with ImageIO's
+   * ImageReadParam.
+   */
+  private PImage loadImageIO(String filename, ImageOptions options) throws IOException {
+    File file = localImageFile(filename);
+    InputStream stream = null;
+    ImageInputStream iis;
+    if (file != null) {
+      iis = ImageIO.createImageInputStream(file);
+    } else {
+      stream = createInput(filename);
+      if (stream == null) {
+        System.err.println("The image " + filename + " could not be found.");
+        return null;
+      }
+      // skip the temporary file that ImageIO would otherwise make
+      iis = new MemoryCacheImageInputStream(stream);
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) {
+        System.err.println("Could not find a method to load " + filename);
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(iis, true, true);
+        if (!options.fit(reader.getWidth(0), reader.getHeight(0))) {
+          System.err.println("The region is outside of " + filename);
+          return null;
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(options.x, options.y,
+                                            options.w, options.h));
+        param.setSourceSubsampling(options.step, options.step, 0, 0);
+        BufferedImage bi = reader.read(0, param);
+
+        PImage outgoing = createImage(bi.getWidth(), bi.getHeight(), RGB);
+        bi.getRGB(0, 0, outgoing.width, outgoing.height,
+                  outgoing.pixels, 0, outgoing.width);
+        outgoing.checkAlpha();
+        return outgoing;
+
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      iis.close();
+      if (stream != null) {
+        stream.close();
+      }
+    }
+  }
+
+
+  // threads and image cache shared by requestImage() and loadXxxxAsync()
+  AsyncLoader loader = new AsyncLoader();
 
 
   public PImage requestImage(String filename) {
@@ -5670,25 +6283,8 @@ public class PApplet implements PConstants {
    * @see PApplet#loadImage(String, String)
    */
   public PImage requestImage(String filename, String extension) {
-    // Make sure saving to this file completes before trying to load it
-    // Has to be called on main thread, because P2D and P3D need GL functions
-    if (g != null) {
-      g.awaitAsyncSaveCompletion(filename);
-    }
     PImage vessel = createImage(0, 0, ARGB);
-
-    // if the image loading thread pool hasn't been created, create it
-    if (requestImagePool == null) {
-      ThreadFactory factory = new ThreadFactory() {
-        public Thread newThread(Runnable r) {
-          return new Thread(r, REQUEST_IMAGE_THREAD_PREFIX);
-        }
-      };
-      requestImagePool = Executors.newFixedThreadPool(4, factory);
-    }
-    requestImagePool.execute(() -> {
-      PImage actual = loadImage(filename, extension);
-
+    loadImageAsync(filename, extension, 0, actual -> {
       // An error message should have already printed
       if (actual == null) {
         vessel.width = -1;
@@ -5709,6 +6305,64 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Load an image on a background thread, and call <b>callback</b> with
+   * it once it's ready (or with null if it couldn't be loaded). Unlike
+   * requestImage(), this returns a Future that can be used to wait for the
+   * image, or to cancel() the load if it's no longer needed.
+   * <p/>
+   * The callback runs on the loader thread, not the animation thread, so
+   * it shouldn't draw anything. It's not called if the load was cancelled.
+   *
+   * @param callback called with the image, or null (the callback may be null)
+   * @see PApplet#loaderThreads(int)
+   * @see PApplet#loaderCache(long)
+   */
+  public Future<PImage> loadImageAsync(String filename,
+                                       Consumer<PImage> callback) {
+    return loadImageAsync(filename, null, 0, callback);
+  }
+
+
+  /**
+   * @param extension type of image to load, for example "png", "gif", "jpg"
+   * @param priority images with higher priority are loaded first
+   */
+  public Future<PImage> loadImageAsync(String filename, String extension,
+                                       int priority, Consumer<PImage> callback) {
+    // Make sure saving to this file completes before trying to load it
+    // Has to be called on main thread, because P2D and P3D need GL functions
+    if (g != null) {
+      g.awaitAsyncSaveCompletion(filename);
+    }
+    return loader.submit(() -> loadImage(filename, extension),
+                         priority, callback);
+  }
+
+
+  /**
+   * Set how many files can be loaded at once by requestImage() and the
+   * loadXxxxAsync() methods. The default is 4.
+   */
+  public void loaderThreads(int count) {
+    loader.setThreads(count);
+  }
+
+
+  /**
+   * Keep up to <b>maxBytes</b> of decoded images in memory, so that
+   * loading the same file again (with loadImage(), requestImage(), or
+   * loadImageAsync()) doesn't have to decode it again. Each image takes
+   * 4 bytes per pixel. Only images from local files are kept, and a file
+   * is read again if it has been modified. When the cache is full, the
+   * images used least recently are dropped. Use 0 (the default) to turn
+   * the cache off.
+   */
+  public void loaderCache(long maxBytes) {
+    loader.setCacheLimit(maxBytes);
+  }
+
+
   /**
    * Use Java 1.4 ImageIO methods to load an image.
    */
@@ -5748,11 +6402,12 @@ public class PApplet implements PConstants {
 
 
   /**
-   * Targa image loader for RLE-compressed TGA files.
+   * Targa image loader for uncompressed and RLE-compressed TGA files.
    * <p>
    * Rewritten for 0115 to read/write RLE-encoded targa images.
    * For 0125, non-RLE encoded images are now supported, along with
    * images whose y-order is reversed (which is standard for TGA files).
+   * The decoding itself is now done by PImageTGA, a row at a time.
    * <p>
    * A version of this function is in MovieMaker.java. Any fixes here
    * should be applied over in MovieMaker as well.
@@ -5765,190 +6420,154 @@ public class PApplet implements PConstants {
     InputStream is = createInput(filename);
     if (is == null) return null;
 
-    byte[] header = new byte[18];
-    int offset = 0;
-    do {
-      int count = is.read(header, offset, header.length - offset);
-      if (count == -1) return null;
-      offset += count;
-    } while (offset < 18);
+    try {
+      PImageTGA tga = new PImageTGA(is);
+      if (tga.format == 0) {
+        System.err.println("Unknown .tga file format for " + filename);
+        return null;
+      }
+      PImage outgoing = createImage(tga.width, tga.height, tga.format);
+      tga.read(outgoing, 0, 0);
+      return outgoing;
 
-    /*
-      header[2] image type code
-      2  (0x02) - Uncompressed, RGB images.
-      3  (0x03) - Uncompressed, black and white images.
-      10 (0x0A) - Run-length encoded RGB images.
-      11 (0x0B) - Compressed, black and white images. (grayscale?)
+    } finally {
+      is.close();
+    }
+  }
 
-      header[16] is the bit depth (8, 24, 32)
 
-      header[17] image descriptor (packed bits)
-      0x20 is 32 = origin upper-left
-      0x28 is 32 + 8 = origin upper-left + 32 bits
+  /**
+   * Open a TIFF file to read its images. Local files are read in place,
+   * a piece at a time; anything else (a URL, or a file inside a jar) is
+   * loaded into memory first. Returns null if the file isn't found.
+   */
+  private PImageTIFF openTIFF(String filename) throws IOException {
+    File file = localImageFile(filename);
+    if (file != null) {
+      return new PImageTIFF(PImageSource.open(file));
+    }
+    byte[] bytes = loadBytes(filename);
+    return (bytes == null) ? null : new PImageTIFF(PImageSource.wrap(bytes));
+  }
 
-        7  6  5  4  3  2  1  0
-      128 64 32 16  8  4  2  1
-    */
 
-    int format = 0;
+  /**
+   * Load all the images from a multi-page TIFF file, for instance a stack
+   * of scans or the frames written by saveImages(). Other kinds of image
+   * files return an array with just one image. Returns null if the file
+   * can't be loaded.
+   *
+   * @param filename name of the file to load
+   * @see PApplet#saveImages(String, PImage[])
+   */
+  public PImage[] loadImages(String filename) {
+    String extension = imageExtension(filename);
+    if (!extension.equals("tif") && !extension.equals("tiff")) {
+      PImage image = loadImage(filename);
+      return (image == null) ? null : new PImage[] { image };
+    }
+    try (PImageTIFF tiff = openTIFF(filename)) {
+      if (tiff == null) return null;
+
+      PImage[] images = new PImage[tiff.count()];
+      for (int i = 0; i < images.length; i++) {
+        images[i] = tiff.read(i);
+        images[i].parent = this;
+      }
+      return images;
+
+    } catch (IOException e) {
+      System.err.println("Could not read " + filename + ": " + e.getMessage());
+      return null;
+    }
+  }
+
 
-    if (((header[2] == 3) || (header[2] == 11)) &&  // B&W, plus RLE or not
-        (header[16] == 8) &&  // 8 bits
-        ((header[17] == 0x8) || (header[17] == 0x28))) {  // origin, 32 bit
-      format = ALPHA;
+  /**
+   * Save several images, one after another, to a single TIFF file.
+   *
+   * @param filename name of the file to write to, ending in .tif or .tiff
+   * @param images the images to save
+   * @see PApplet#loadImages(String)
+   */
+  public boolean saveImages(String filename, PImage[] images) {
+    return saveImages(filename, images, null);
+  }
 
-    } else if (((header[2] == 2) || (header[2] == 10)) &&  // RGB, RLE or not
-               (header[16] == 24) &&  // 24 bits
-               ((header[17] == 0x20) || (header[17] == 0))) {  // origin
-      format = RGB;
 
-    } else if (((header[2] == 2) || (header[2] == 10)) &&
-               (header[16] == 32) &&
-               ((header[17] == 0x8) || (header[17] == 0x28))) {  // origin, 32
-      format = ARGB;
+  /**
+   * @param options compression, for instance "compression=lzw"; see
+   *   PImage.save(filename, options)
+   */
+  public boolean saveImages(String filename, PImage[] images, String options) {
+    String extension = imageExtension(filename);
+    if (!extension.equals("tif") && !extension.equals("tiff")) {
+      throw new IllegalArgumentException("saveImages() can only write .tif files");
+    }
+    int compression = PImageTIFF.compressionOption(options);
+    for (PImage image : images) {
+      image.loadPixels();
     }
+    try (OutputStream output = createOutput(filename)) {
+      if (output == null) return false;
+      PImageTIFF.write(images, output, compression);
+      return true;
 
-    if (format == 0) {
-      System.err.println("Unknown .tga file format for " + filename);
-                         //" (" + header[2] + " " +
-                         //(header[16] & 0xff) + " " +
-                         //hex(header[17], 2) + ")");
-      return null;
+    } catch (IOException e) {
+      printStackTrace(e);
+      return false;
     }
+  }
 
-    int w = ((header[13] & 0xff) << 8) + (header[12] & 0xff);
-    int h = ((header[15] & 0xff) << 8) + (header[14] & 0xff);
-    PImage outgoing = createImage(w, h, format);
-
-    // where "reversed" means upper-left corner (normal for most of
-    // the modernized world, but "reversed" for the tga spec)
-    //boolean reversed = (header[17] & 0x20) != 0;
-    // https://github.com/processing/processing/issues/1682
-    boolean reversed = (header[17] & 0x20) == 0;
-
-    if ((header[2] == 2) || (header[2] == 3)) {  // not RLE encoded
-      if (reversed) {
-        int index = (h-1) * w;
-        switch (format) {
-        case ALPHA:
-          for (int y = h-1; y >= 0; y--) {
-            for (int x = 0; x < w; x++) {
-              outgoing.pixels[index + x] = is.read();
-            }
-            index -= w;
-          }
-          break;
-        case RGB:
-          for (int y = h-1; y >= 0; y--) {
-            for (int x = 0; x < w; x++) {
-              outgoing.pixels[index + x] =
-                is.read() | (is.read() << 8) | (is.read() << 16) |
-                0xff000000;
-            }
-            index -= w;
-          }
-          break;
-        case ARGB:
-          for (int y = h-1; y >= 0; y--) {
-            for (int x = 0; x < w; x++) {
-              outgoing.pixels[index + x] =
-                is.read() | (is.read() << 8) | (is.read() << 16) |
-                (is.read() << 24);
-            }
-            index -= w;
-          }
-        }
-      } else {  // not reversed
-        int count = w * h;
-        switch (format) {
-        case ALPHA:
-          for (int i = 0; i < count; i++) {
-            outgoing.pixels[i] = is.read();
-          }
-          break;
-        case RGB:
-          for (int i = 0; i < count; i++) {
-            outgoing.pixels[i] =
-              is.read() | (is.read() << 8) | (is.read() << 16) |
-              0xff000000;
-          }
-          break;
-        case ARGB:
-          for (int i = 0; i < count; i++) {
-            outgoing.pixels[i] =
-              is.read() | (is.read() << 8) | (is.read() << 16) |
-              (is.read() << 24);
-          }
-          break;
-        }
-      }
 
-    } else {  // header[2] is 10 or 11
-      int index = 0;
-      int[] px = outgoing.pixels;
-
-      while (index < px.length) {
-        int num = is.read();
-        boolean isRLE = (num & 0x80) != 0;
-        if (isRLE) {
-          num -= 127;  // (num & 0x7F) + 1
-          int pixel = 0;
-          switch (format) {
-          case ALPHA:
-            pixel = is.read();
-            break;
-          case RGB:
-            pixel = 0xFF000000 |
-              is.read() | (is.read() << 8) | (is.read() << 16);
-            //(is.read() << 16) | (is.read() << 8) | is.read();
-            break;
-          case ARGB:
-            pixel = is.read() |
-              (is.read() << 8) | (is.read() << 16) | (is.read() << 24);
-            break;
-          }
-          for (int i = 0; i < num; i++) {
-            px[index++] = pixel;
-            if (index == px.length) break;
-          }
-        } else {  // write up to 127 bytes as uncompressed
-          num += 1;
-          switch (format) {
-          case ALPHA:
-            for (int i = 0; i < num; i++) {
-              px[index++] = is.read();
-            }
-            break;
-          case RGB:
-            for (int i = 0; i < num; i++) {
-              px[index++] = 0xFF000000 |
-                is.read() | (is.read() << 8) | (is.read() << 16);
-              //(is.read() << 16) | (is.read() << 8) | is.read();
-            }
-            break;
-          case ARGB:
-            for (int i = 0; i < num; i++) {
-              px[index++] = is.read() | //(is.read() << 24) |
-                (is.read() << 8) | (is.read() << 16) | (is.read() << 24);
-              //(is.read() << 16) | (is.read() << 8) | is.read();
-            }
-            break;
+  /**
+   * Read part of a TARGA or TIFF image into an image that already exists,
+   * without decoding the rest. The size of target sets the size of the
+   * region, and (x, y) is its upper-left corner in the file. For TIFF
+   * files, only the strips or tiles covering the region are read, so this
+   * works with files too large to load all at once; for TARGA files, the
+   * rest of the file is read past but not kept. The target should have the
+   * same format as the file (RGB for grayscale TIFF files).
+   *
+   * @param filename name of the file to read from
+   * @param target the image that will hold the region
+   * @param x left edge of the region in the file
+   * @param y top edge of the region in the file
+   * @return false if the file couldn't be read
+   */
+  public boolean loadImageRegion(String filename, PImage target, int x, int y) {
+    String extension = imageExtension(filename);
+    try {
+      if (extension.equals("tga")) {
+        InputStream is = createInput(filename);
+        if (is == null) return false;
+        try {
+          PImageTGA tga = new PImageTGA(is);
+          if (tga.format == 0) {
+            System.err.println("Unknown .tga file format for " + filename);
+            return false;
           }
+          tga.read(target, x, y);
+        } finally {
+          is.close();
         }
-      }
 
-      if (!reversed) {
-        int[] temp = new int[w];
-        for (int y = 0; y < h/2; y++) {
-          int z = (h-1) - y;
-          System.arraycopy(px, y*w, temp, 0, w);
-          System.arraycopy(px, z*w, px, y*w, w);
-          System.arraycopy(temp, 0, px, z*w, w);
+      } else if (extension.equals("tif") || extension.equals("tiff")) {
+        try (PImageTIFF tiff = openTIFF(filename)) {
+          if (tiff == null) return false;
+          tiff.page(0).read(target, x, y);
         }
+
+      } else {
+        System.err.println("loadImageRegion() can only read .tga and .tif files");
+        return false;
       }
+      return true;
+
+    } catch (IOException e) {
+      System.err.println("Could not read " + filename + ": " + e.getMessage());
+      return false;
     }
-    is.close();
-    return outgoing;
   }
 
 
@@ -6237,6 +6856,19 @@ public class PApplet implements PConstants {
    * dictionary file can only be tab separated values (.tsv) and its extension
    * will be ignored. This option was added in Processing 2.0.2.
    *
+   * The "fast" option uses a tokenizer that reads the file through a char
+   * buffer, parsing int, long, float, and double columns directly without
+   * creating a String for each entry. It's most useful together with a
+   * dictionary, so that the column types are known before parsing.
+   *
+   * The "parallel" option also uses that tokenizer, but splits the file into
+   * chunks that are parsed on several threads. Files in the sketch or data
+   * folder are memory-mapped instead of being read into memory first.
+   *
+   * The "offheap" option keeps the columns outside the Java heap once the
+   * table has been loaded, for tables too large to fit in memory. With a
+   * binary (.bin) file, values are read directly from the mapped file.
+   *
    * @param options may contain "header", "tsv", "csv", or "bin" separated by commas
    */
   public Table loadTable(String filename, String options) {
@@ -6244,13 +6876,35 @@ public class PApplet implements PConstants {
       String optionStr = Table.extensionOptions(true, filename, options);
       String[] optionList = trim(split(optionStr, ','));
 
+      // "parallel", "bin", and "offheap" can memory-map the file if it's
+      // available locally
+      File file = null;
+      for (String opt : optionList) {
+        if (opt.equals("parallel") || opt.equals("bin") ||
+            opt.equals("offheap")) {
+          file = new File(dataPath(filename));
+          if (!file.exists()) {
+            file = sketchFile(filename);
+          }
+          if (!file.isFile()) {
+            file = null;
+          }
+        }
+      }
+
       Table dictionary = null;
       for (String opt : optionList) {
         if (opt.startsWith("dictionary=")) {
           dictionary = loadTable(opt.substring(opt.indexOf('=') + 1), "tsv");
+          if (file != null) {
+            return dictionary.typedParse(file, optionStr);
+          }
           return dictionary.typedParse(createInput(filename), optionStr);
         }
       }
+      if (file != null) {
+        return new Table(file, optionStr);
+      }
       InputStream input = createInput(filename);
       if (input == null) {
         System.err.println(filename + " does not exist or could not be read");
@@ -6265,6 +6919,18 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Load a table on a background thread, and call <b>callback</b> with it
+   * once it's ready. See loadImageAsync() for details.
+   *
+   * @nowebref
+   */
+  public Future<Table> loadTableAsync(String filename, String options,
+                                      Consumer<Table> callback) {
+    return loader.submit(() -> loadTable(filename, options), 0, callback);
+  }
+
+
   /**
    * @webref output:files
    * @param table the Table object to save to a file
@@ -10473,6 +11139,71 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * @nowebref
+   * Like color(gray), but for a whole array of values at once, which is
+   * much faster than calling color() for each pixel.
+   */
+  public void colors(float[] gray, int[] out) {
+    g.colors(gray, out);
+  }
+
+
+  public void colors(float[] gray, float[] alpha, int[] out) {
+    g.colors(gray, alpha, out);
+  }
+
+
+  public void colors(float[] v1, float[] v2, float[] v3, int[] out) {
+    g.colors(v1, v2, v3, out);
+  }
+
+
+  public void colors(float[] v1, float[] v2, float[] v3, float[] alpha,
+                     int[] out) {
+    g.colors(v1, v2, v3, alpha, out);
+  }
+
+
+  /**
+   * @nowebref
+   * Like alpha(rgb), but for a whole array of colors at once.
+   */
+  public void alpha(int[] rgb, float[] out) {
+    g.alpha(rgb, out);
+  }
+
+
+  public void red(int[] rgb, float[] out) {
+    g.red(rgb, out);
+  }
+
+
+  public void green(int[] rgb, float[] out) {
+    g.green(rgb, out);
+  }
+
+
+  public void blue(int[] rgb, float[] out) {
+    g.blue(rgb, out);
+  }
+
+
+  public void hue(int[] rgb, float[] out) {
+    g.hue(rgb, out);
+  }
+
+
+  public void saturation(int[] rgb, float[] out) {
+    g.saturation(rgb, out);
+  }
+
+
+  public void brightness(int[] rgb, float[] out) {
+    g.brightness(rgb, out);
+  }
+
+
   /**
    * ( begin auto-generated from lerpColor.xml )
    *
@@ -10501,6 +11232,28 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * @nowebref
+   * Like lerpColor(c1, c2, amt), but for whole arrays of colors at once.
+   */
+  public void lerpColors(int[] c1, int[] c2, float amt, int[] out) {
+    if (g != null) {
+      g.lerpColors(c1, c2, amt, out);
+    } else {
+      PColorMath.lerp(c1, c2, amt, out, RGB);
+    }
+  }
+
+
+  public void lerpColors(int c1, int c2, float[] amt, int[] out) {
+    if (g != null) {
+      g.lerpColors(c1, c2, amt, out);
+    } else {
+      PColorMath.lerp(c1, c2, amt, out, RGB);
+    }
+  }
+
+
   static public int blendColor(int c1, int c2, int mode) {
     return PImage.blendColor(c1, c2, mode);
   }
@@ -11672,6 +12425,18 @@ public class PApplet implements PConstants {
   }
 
 
+  /**
+   * Load a shape on a background thread, and call <b>callback</b> with it
+   * once it's ready. See loadImageAsync() for details.
+   *
+   * @nowebref
+   */
+  public Future<PShape> loadShapeAsync(String filename,
+                                       Consumer<PShape> callback) {
+    return loader.submit(() -> loadShape(filename), 0, callback);
+  }
+
+
   /**
    * @webref shape
    * @see PShape
@@ -0,0 +1,403 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.awt.Color;
+
+
+/**
+ * Array-at-a-time versions of color(), red() and friends, and lerpColor(),
+ * used by the bulk methods in PGraphics. Each one gives exactly the same
+ * result as calling the single color version once per element, but the
+ * color mode is looked at once per array instead of once per color, the
+ * inner loops are written so that they don't branch on the data where
+ * that can be avoided, and the channel loops are split into passes that
+ * the JIT can vectorize. Large arrays are split across cores.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PColorMath implements PConstants {
+
+  /**
+   * The channel loops split their work into chunks this long, first
+   * pulling out the 0..255 values and then scaling them in a second pass
+   * while they're still in the cache. Each pass is simple enough (and
+   * reads and writes the same index) for the JIT to vectorize, which it
+   * won't do for the two steps combined.
+   */
+  static final int CHUNK = 4096;
+
+
+  static void check(int count, float[]... inputs) {
+    for (float[] input : inputs) {
+      if (input != null && input.length < count) {
+        throw new IllegalArgumentException("Expected " + count +
+                                           " values, but only " +
+                                           input.length + " were passed");
+      }
+    }
+  }
+
+
+  static void check(int count, int[]... inputs) {
+    for (int[] input : inputs) {
+      if (input.length < count) {
+        throw new IllegalArgumentException("Expected " + count +
+                                           " colors, but only " +
+                                           input.length + " were passed");
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Same as colorCalc(gray, alpha) for each entry, alpha may be null. */
+  static void gray(final float[] gray, final float[] alpha, final int[] out,
+                   final float maxX, final float maxA) {
+    final int count = out.length;
+    check(count, gray, alpha);
+    // the alpha used when none is passed, worked out the way colorCalc does
+    final int opaque = ((int) (255 * scale(maxA, maxA))) << 24;
+
+    PImageFilter.run(count, count, (start, stop) -> {
+      if (alpha == null) {
+        for (int i = start; i < stop; i++) {
+          int c = (int) (255 * scale(gray[i], maxX));
+          out[i] = opaque | (c << 16) | (c << 8) | c;
+        }
+      } else {
+        for (int i = start; i < stop; i++) {
+          int c = (int) (255 * scale(gray[i], maxX));
+          int a = (int) (255 * scale(alpha[i], maxA));
+          out[i] = (a << 24) | (c << 16) | (c << 8) | c;
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Same as colorCalc(x, y, z, a) for each entry, in either RGB or HSB
+   * mode. The alpha may be null.
+   */
+  static void color(final float[] x, final float[] y, final float[] z,
+                    final float[] alpha, final int[] out, final int mode,
+                    final float maxX, final float maxY, final float maxZ,
+                    final float maxA) {
+    final int count = out.length;
+    check(count, x, y, z, alpha);
+    final int opaque = ((int) (255 * scale(maxA, maxA))) << 24;
+
+    PImageFilter.run(count, count, (start, stop) -> {
+      if (mode == HSB) {
+        float[] scratch = new float[4];
+        for (int i = start; i < stop; i++) {
+          int a = (alpha == null) ?
+            opaque : (int) (255 * scale(alpha[i], maxA)) << 24;
+          out[i] = a | hsb(scale(x[i], maxX),
+                           scale(y[i], maxY),
+                           scale(z[i], maxZ), scratch);
+        }
+      } else if (alpha == null) {
+        for (int i = start; i < stop; i++) {
+          int r = (int) (255 * scale(x[i], maxX));
+          int g = (int) (255 * scale(y[i], maxY));
+          int b = (int) (255 * scale(z[i], maxZ));
+          out[i] = opaque | (r << 16) | (g << 8) | b;
+        }
+      } else {
+        for (int i = start; i < stop; i++) {
+          int r = (int) (255 * scale(x[i], maxX));
+          int g = (int) (255 * scale(y[i], maxY));
+          int b = (int) (255 * scale(z[i], maxZ));
+          int a = (int) (255 * scale(alpha[i], maxA));
+          out[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Clamp to 0..max and divide by max, the way colorCalc() does it.
+   * (Math.min() and Math.max() give the same answer, but are several
+   * times slower for floats when they're not vectorized.)
+   */
+  static private float scale(float value, float max) {
+    if (value > max) value = max;
+    if (value < 0) value = 0;
+    return value / max;
+  }
+
+
+  /**
+   * The HSB to RGB conversion from colorCalc(), for h, s and v already
+   * scaled to 0..1, using scratch space for 4 floats. Returns the RGB part
+   * of the color with no alpha.
+   */
+  static int hsb(float h, float s, float v, float[] scratch) {
+    if (s == 0) {
+      int gray = (int)(255*v);
+      return (gray << 16) | (gray << 8) | gray;
+    }
+    float which = (h - (int)h) * 6.0f;
+    int sector = (int)which;
+    float f = which - sector;
+    scratch[0] = v;
+    scratch[1] = v * (1.0f - s * f);  // q
+    scratch[2] = v * (1.0f - s);  // p
+    scratch[3] = v * (1.0f - (s * (1.0f - f)));  // t
+
+    // Rather than the switch in colorCalc(), look up which of the values
+    // go to red, green and blue. Hues are often all over the place from
+    // one pixel to the next, and a lookup doesn't mispredict.
+    int order = HSB_ORDER[sector];
+    return (((int)(255*scratch[order >> 4])) << 16) |
+      (((int)(255*scratch[(order >> 2) & 3])) << 8) |
+      ((int)(255*scratch[order & 3]));
+  }
+
+
+  /**
+   * For each sector of the hue, the index of the value used for red in
+   * bits 4-5, green in bits 2-3 and blue in bits 0-1, with v, q, p and t
+   * being indices 0 to 3. A hue just under 1 can round up to sector 6,
+   * which is red again, same as sector 0.
+   */
+  static final int[] HSB_ORDER = {
+    (0 << 4) | (3 << 2) | 2,  // v t p
+    (1 << 4) | (0 << 2) | 2,  // q v p
+    (2 << 4) | (0 << 2) | 3,  // p v t
+    (2 << 4) | (1 << 2) | 0,  // p q v
+    (3 << 4) | (2 << 2) | 0,  // t p v
+    (0 << 4) | (2 << 2) | 1,  // v p q
+    (0 << 4) | (3 << 2) | 2   // v t p
+  };
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Same as red(), green(), blue() or alpha() for each entry. The shift
+   * picks the channel, which is scaled to 0..max unless it's already in
+   * the range the color mode wants (the colorModeDefault case).
+   */
+  static void channel(final int[] rgb, final float[] out, final int shift,
+                      final float max, final boolean unscaled) {
+    final int count = out.length;
+    check(count, rgb);
+
+    PImageFilter.run(count, count, (start, stop) -> {
+      for (int from = start; from < stop; from += CHUNK) {
+        int to = Math.min(from + CHUNK, stop);
+        for (int i = from; i < to; i++) {
+          out[i] = (rgb[i] >> shift) & 0xff;
+        }
+        if (!unscaled) {
+          scaleFrom255(out, from, to, max);
+        }
+      }
+    });
+  }
+
+
+  /**
+   * Same as hue(), saturation() or brightness() for each entry, with
+   * which being the index into the values from Color.RGBtoHSB().
+   */
+  static void hsbChannel(final int[] rgb, final float[] out,
+                         final int which, final float max) {
+    final int count = out.length;
+    check(count, rgb);
+
+    PImageFilter.run(count, count, (start, stop) -> {
+      for (int from = start; from < stop; from += CHUNK) {
+        int to = Math.min(from + CHUNK, stop);
+        if (which == 0) {
+          for (int i = from; i < to; i++) {
+            out[i] = hue(rgb[i]) * max;
+          }
+        } else if (which == 1) {
+          for (int i = from; i < to; i++) {
+            out[i] = saturation(rgb[i]) * max;
+          }
+        } else {
+          for (int i = from; i < to; i++) {
+            int c = rgb[i];
+            out[i] = Math.max(Math.max((c >> 16) & 0xff, (c >> 8) & 0xff),
+                              c & 0xff);
+          }
+          scaleFrom255(out, from, to, max);
+        }
+      }
+    });
+  }
+
+
+  static private void scaleFrom255(float[] values, int from, int to,
+                                   float max) {
+    for (int i = from; i < to; i++) {
+      values[i] = (values[i] / 255.0f) * max;
+    }
+  }
+
+
+  /** The hue from Color.RGBtoHSB(), without the array. */
+  static private float hue(int rgb) {
+    int r = (rgb >> 16) & 0xff;
+    int g = (rgb >> 8) & 0xff;
+    int b = rgb & 0xff;
+    int cmax = Math.max(Math.max(r, g), b);
+    int cmin = Math.min(Math.min(r, g), b);
+
+    if (cmax == cmin) return 0;  // saturation == 0
+    float range = cmax - cmin;
+    float redc = (cmax - r) / range;
+    float greenc = (cmax - g) / range;
+    float bluec = (cmax - b) / range;
+    float hue;
+    if (r == cmax) {
+      hue = bluec - greenc;
+    } else if (g == cmax) {
+      hue = 2.0f + redc - bluec;
+    } else {
+      hue = 4.0f + greenc - redc;
+    }
+    hue = hue / 6.0f;
+    if (hue < 0) hue = hue + 1.0f;
+    return hue;
+  }
+
+
+  /** The saturation from Color.RGBtoHSB(), without the array. */
+  static private float saturation(int rgb) {
+    int r = (rgb >> 16) & 0xff;
+    int g = (rgb >> 8) & 0xff;
+    int b = rgb & 0xff;
+    int cmax = Math.max(Math.max(r, g), b);
+    int cmin = Math.min(Math.min(r, g), b);
+
+    if (cmax == 0) return 0;
+    return ((float) (cmax - cmin)) / ((float) cmax);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Same as lerpColor(c1[i], c2[i], amt, mode) for each entry. */
+  static void lerp(final int[] c1, final int[] c2, float amt,
+                   final int[] out, final int mode) {
+    final int count = out.length;
+    check(count, c1, c2);
+    if (amt < 0) amt = 0;
+    if (amt > 1) amt = 1;
+    final float t = amt;
+
+    PImageFilter.run(count, count, (start, stop) -> {
+      if (mode == RGB) {
+        for (int i = start; i < stop; i++) {
+          out[i] = lerpRGB(c1[i], c2[i], t);
+        }
+      } else if (mode == HSB) {
+        float[] hsb1 = new float[3];
+        float[] hsb2 = new float[3];
+        for (int i = start; i < stop; i++) {
+          int from = c1[i];
+          int to = c2[i];
+          Color.RGBtoHSB((from >> 16) & 0xff, (from >> 8) & 0xff, from & 0xff,
+                         hsb1);
+          Color.RGBtoHSB((to >> 16) & 0xff, (to >> 8) & 0xff, to & 0xff, hsb2);
+          out[i] = lerpHSB(from, to, t, hsb1, hsb2);
+        }
+      } else {
+        for (int i = start; i < stop; i++) {
+          out[i] = 0;
+        }
+      }
+    });
+  }
+
+
+  /** Same as lerpColor(c1, c2, amt[i], mode) for each entry. */
+  static void lerp(final int c1, final int c2, final float[] amt,
+                   final int[] out, final int mode) {
+    final int count = out.length;
+    check(count, amt);
+    // the end points are the same for every entry, so convert them once
+    final float[] hsb1 = Color.RGBtoHSB((c1 >> 16) & 0xff, (c1 >> 8) & 0xff,
+                                        c1 & 0xff, null);
+    final float[] hsb2 = Color.RGBtoHSB((c2 >> 16) & 0xff, (c2 >> 8) & 0xff,
+                                        c2 & 0xff, null);
+
+    PImageFilter.run(count, count, (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        float t = amt[i];
+        if (t < 0) t = 0;
+        if (t > 1) t = 1;
+        if (mode == RGB) {
+          out[i] = lerpRGB(c1, c2, t);
+        } else if (mode == HSB) {
+          out[i] = lerpHSB(c1, c2, t, hsb1, hsb2);
+        } else {
+          out[i] = 0;
+        }
+      }
+    });
+  }
+
+
+  static private int lerpRGB(int c1, int c2, float amt) {
+    float a1 = (c1 >>> 24);
+    float r1 = (c1 >> 16) & 0xff;
+    float g1 = (c1 >> 8) & 0xff;
+    float b1 = c1 & 0xff;
+    float a2 = (c2 >>> 24);
+    float r2 = (c2 >> 16) & 0xff;
+    float g2 = (c2 >> 8) & 0xff;
+    float b2 = c2 & 0xff;
+
+    return ((Math.round(a1 + (a2-a1)*amt) << 24) |
+            (Math.round(r1 + (r2-r1)*amt) << 16) |
+            (Math.round(g1 + (g2-g1)*amt) << 8) |
+            (Math.round(b1 + (b2-b1)*amt)));
+  }
+
+
+  /** The HSB values for c1 and c2 are passed in already converted. */
+  static private int lerpHSB(int c1, int c2, float amt,
+                             float[] hsb1, float[] hsb2) {
+    float a1 = (c1 >>> 24);
+    float a2 = (c2 >>> 24);
+    int alfa = Math.round(a1 + (a2-a1)*amt) << 24;
+
+    float ho = hsb1[0] + (hsb2[0] - hsb1[0]) * amt;
+    float so = hsb1[1] + (hsb2[1] - hsb1[1]) * amt;
+    float bo = hsb1[2] + (hsb2[2] - hsb1[2]) * amt;
+
+    return alfa | (Color.HSBtoRGB(ho, so, bo) & 0xFFFFFF);
+  }
+}
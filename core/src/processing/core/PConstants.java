@@ -251,6 +251,12 @@ public interface PConstants {
   static final int DILATE    = 18;
 
 
+  // resize() filters (along with BOX)
+
+  static final int BILINEAR  = 19;
+  static final int LANCZOS   = 20;
+
+
   // blend mode keyword definitions
   // @see processing.core.PImage#blendColor(int,int,int)
 
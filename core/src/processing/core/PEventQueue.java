@@ -0,0 +1,308 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import processing.event.Event;
+import processing.event.KeyEvent;
+import processing.event.MouseEvent;
+
+
+/**
+ * Queue of input events between the thread(s) posting them (the EDT, or
+ * NEWT's or JavaFX's event thread) and the one handling them, usually the
+ * animation thread. Events go into a fixed ring of slots, so posting an
+ * event doesn't allocate or take a lock. Each slot has a sequence number
+ * that says whether it's free or holds an event, which lets more than one
+ * thread post safely (libraries sometimes post from their own threads),
+ * though in practice there's a single producer.
+ * <p/>
+ * If the ring fills up, because draw() is stuck for a second or two
+ * while a tablet sends events at 1 kHz, events go to an overflow list
+ * instead, and keep going there until it's been emptied, so nothing is
+ * dropped or handled out of order.
+ * <p/>
+ * With recycle(true), each slot also keeps a MouseEvent and a KeyEvent
+ * that are filled in by offerMouse() and offerKey(), rather than creating
+ * new ones. A slot is only reused after the event in it has been handled,
+ * but a sketch that keeps a reference to an event will see it change once
+ * the ring comes back around to that slot.
+ * <p/>
+ * Only one thread may take events at a time, which PApplet ensures by
+ * holding a lock while calling next().
+ */
+class PEventQueue {
+  static final int DEFAULT_CAPACITY = 1024;
+
+  final int mask;
+  final Event[] events;
+  /**
+   * For the slot at position p (mod capacity), p means the slot is free
+   * for the producer at p, and p + 1 means the event at p is ready.
+   */
+  final AtomicLongArray sequence;
+  /** Next position to post to */
+  final AtomicLong tail = new AtomicLong();
+
+  /** Used when the ring is full */
+  final ConcurrentLinkedQueue<Event> overflow = new ConcurrentLinkedQueue<>();
+
+  volatile PooledMouseEvent[] mousePool;
+  volatile PooledKeyEvent[] keyPool;
+
+  // only touched by the thread taking events
+  long head;
+  /** Position of the event last returned by next(), or -1 */
+  long taken = -1;
+
+
+  PEventQueue(int capacity) {
+    if (capacity < 2 || (capacity & (capacity - 1)) != 0) {
+      throw new IllegalArgumentException("capacity must be a power of 2");
+    }
+    mask = capacity - 1;
+    events = new Event[capacity];
+    sequence = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequence.set(i, i);
+    }
+  }
+
+
+  /** Start or stop reusing the event objects in each slot. */
+  void recycle(boolean recycle) {
+    if (recycle) {
+      if (mousePool == null) {
+        int capacity = mask + 1;
+        PooledMouseEvent[] mice = new PooledMouseEvent[capacity];
+        PooledKeyEvent[] keys = new PooledKeyEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+          mice[i] = new PooledMouseEvent();
+          keys[i] = new PooledKeyEvent();
+        }
+        keyPool = keys;
+        mousePool = mice;
+      }
+    } else {
+      mousePool = null;
+      keyPool = null;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+  // Posting, from any thread
+
+
+  void offer(Event event) {
+    if (overflow.isEmpty()) {
+      long pos = claim();
+      if (pos != -1) {
+        publish(pos, event);
+        return;
+      }
+    }
+    overflow.add(event);
+  }
+
+
+  void offerMouse(Object nativeObject, long millis, int action, int modifiers,
+                  int x, int y, int button, int count) {
+    PooledMouseEvent[] pool = mousePool;
+    if (pool != null && overflow.isEmpty()) {
+      long pos = claim();
+      if (pos != -1) {
+        PooledMouseEvent event = pool[(int) pos & mask];
+        event.set(nativeObject, millis, action, modifiers,
+                  x, y, button, count);
+        publish(pos, event);
+        return;
+      }
+    }
+    offer(new MouseEvent(nativeObject, millis, action, modifiers,
+                         x, y, button, count));
+  }
+
+
+  void offerKey(Object nativeObject, long millis, int action, int modifiers,
+                char key, int keyCode, boolean isAutoRepeat) {
+    PooledKeyEvent[] pool = keyPool;
+    if (pool != null && overflow.isEmpty()) {
+      long pos = claim();
+      if (pos != -1) {
+        PooledKeyEvent event = pool[(int) pos & mask];
+        event.set(nativeObject, millis, action, modifiers,
+                  key, keyCode, isAutoRepeat);
+        publish(pos, event);
+        return;
+      }
+    }
+    offer(new KeyEvent(nativeObject, millis, action, modifiers,
+                       key, keyCode, isAutoRepeat));
+  }
+
+
+  /** Reserve the next slot, or return -1 if the ring is full. */
+  private long claim() {
+    while (true) {
+      long pos = tail.get();
+      long seq = sequence.get((int) pos & mask);
+      if (seq == pos) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          return pos;
+        }
+      } else if (seq < pos) {
+        // still holds the event from the previous time around
+        return -1;
+      }
+      // otherwise another thread posted to it first, try the next one
+    }
+  }
+
+
+  private void publish(long pos, Event event) {
+    int index = (int) pos & mask;
+    events[index] = event;
+    // release store, so the event is visible before the slot is ready
+    sequence.lazySet(index, pos + 1);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+  // Taking, one thread at a time
+
+
+  /**
+   * The next event, or null if there are none. The slot holding the
+   * previous event is freed on each call, so an event can be handled
+   * before its slot (and its pooled object) is reused. With coalesce set,
+   * a run of MOVE or DRAG events with the same button and modifiers is
+   * reduced to the last of them.
+   */
+  Event next(boolean coalesce) {
+    release();
+    Event event = take();
+    if (coalesce && event != null && isMotion(event)) {
+      Event after;
+      while ((after = peek()) != null && sameMotion(event, after)) {
+        release();
+        event = take();
+      }
+    }
+    return event;
+  }
+
+
+  private Event take() {
+    long pos = head;
+    int index = (int) pos & mask;
+    if (sequence.get(index) == pos + 1) {
+      head = pos + 1;
+      taken = pos;
+      return events[index];
+    }
+    return overflow.poll();
+  }
+
+
+  private Event peek() {
+    long pos = head;
+    int index = (int) pos & mask;
+    if (sequence.get(index) == pos + 1) {
+      return events[index];
+    }
+    return overflow.peek();
+  }
+
+
+  private void release() {
+    if (taken != -1) {
+      int index = (int) taken & mask;
+      events[index] = null;  // don't hang on to the native event
+      sequence.lazySet(index, taken + mask + 1);
+      taken = -1;
+    }
+  }
+
+
+  static private boolean isMotion(Event event) {
+    if (event.getFlavor() == Event.MOUSE) {
+      int action = event.getAction();
+      return action == MouseEvent.MOVE || action == MouseEvent.DRAG;
+    }
+    return false;
+  }
+
+
+  static private boolean sameMotion(Event event, Event after) {
+    return isMotion(after) &&
+      after.getAction() == event.getAction() &&
+      after.getModifiers() == event.getModifiers() &&
+      ((MouseEvent) after).getButton() == ((MouseEvent) event).getButton();
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  static class PooledMouseEvent extends MouseEvent {
+    PooledMouseEvent() {
+      super(null, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    void set(Object nativeObject, long millis, int action, int modifiers,
+             int x, int y, int button, int count) {
+      this.nativeObject = nativeObject;
+      this.millis = millis;
+      this.action = action;
+      this.modifiers = modifiers;
+      this.x = x;
+      this.y = y;
+      this.button = button;
+      this.count = count;
+    }
+  }
+
+
+  static class PooledKeyEvent extends KeyEvent {
+    PooledKeyEvent() {
+      super(null, 0, 0, 0, (char) 0, 0, false);
+    }
+
+    void set(Object nativeObject, long millis, int action, int modifiers,
+             char key, int keyCode, boolean isAutoRepeat) {
+      this.nativeObject = nativeObject;
+      this.millis = millis;
+      this.action = action;
+      this.modifiers = modifiers;
+      this.key = key;
+      this.keyCode = keyCode;
+      this.isAutoRepeat = isAutoRepeat;
+    }
+  }
+}
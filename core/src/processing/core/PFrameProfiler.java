@@ -0,0 +1,401 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Records how long each part of every frame takes, started with
+ * PApplet.profileFrames(). The time from the start of one frame to the
+ * start of the next is split into phases: beginDraw(), the "pre" methods
+ * registered by libraries, the "update" methods (see
+ * PApplet.updateRate), draw(), handling queued events, the "draw"
+ * methods, endDraw(), the "post" methods, the surface putting the frame on screen, and the idle time
+ * (sleeping until the next frame, or waiting on vsync) that's left.
+ * <p/>
+ * The most recent frames are kept in a ring buffer, which can be read or
+ * saved to a CSV file from any thread without stopping the sketch, and
+ * every frame since the last reset() is counted in a histogram for each
+ * phase, for the percentile() numbers. Listeners hear about each frame as
+ * soon as the next one starts, on the animation thread.
+ * <p/>
+ * When profiling is off, handleDraw() does no more than check that the
+ * profiler is null.
+ */
+public class PFrameProfiler {
+  static public final int BEGIN_DRAW = 0;
+  static public final int PRE = 1;
+  static public final int UPDATE = 2;
+  static public final int DRAW = 3;
+  static public final int EVENTS = 4;
+  static public final int DRAW_METHODS = 5;
+  static public final int END_DRAW = 6;
+  static public final int POST = 7;
+  static public final int RENDER = 8;
+  static public final int IDLE = 9;
+  static public final int PHASES = 10;
+
+  /** The whole frame, for percentile() */
+  static public final int TOTAL = PHASES;
+
+  static final String[] NAMES = {
+    "beginDraw", "pre", "update", "draw", "events", "drawMethods",
+    "endDraw", "post", "render", "idle", "total"
+  };
+
+  static public final int DEFAULT_CAPACITY = 1024;
+
+  /** Each frame in the ring is its number, start time, then the phases */
+  static public final int FIELDS = 2 + PHASES;
+
+
+  /**
+   * Told about each frame on the animation thread. The nanos array holds
+   * the time spent in each phase, and is reused for the next frame, so
+   * copy it if it's needed afterwards.
+   */
+  public interface Listener {
+    void frameProfiled(long frame, long[] nanos);
+  }
+
+
+  final PApplet parent;
+  final int capacity;
+  /** One more than capacity, for the frame that's being written */
+  final int slots;
+  /**
+   * The most recent frames. An atomic array, so that a reader copying a
+   * frame that's being overwritten is sure to see the new count when it
+   * checks 'written' afterwards.
+   */
+  final AtomicLongArray ring;
+
+  /** Number of frames written to the ring, published after each frame */
+  volatile long written;
+
+  /** Counts for each phase (and the total) in log-spaced buckets */
+  final long[][] histogram = new long[PHASES + 1][BUCKETS];
+
+  final CopyOnWriteArrayList<Listener> listeners =
+    new CopyOnWriteArrayList<>();
+
+  // state of the frame in progress, only touched by the animation thread
+  final long[] nanos = new long[PHASES];
+  boolean open;
+  boolean rendered;
+  long frame;
+  long start;
+  long last;
+
+
+  public PFrameProfiler(PApplet parent, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    this.parent = parent;
+    this.capacity = capacity;
+    slots = capacity + 1;
+    ring = new AtomicLongArray(slots * FIELDS);
+  }
+
+
+  public int capacity() {
+    return capacity;
+  }
+
+
+  /** How many frames have been recorded since the profiler was started. */
+  public long frames() {
+    return written;
+  }
+
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+  // Called from handleDraw() and the surfaces, on the animation thread
+
+
+  /** Finish the previous frame (if any) and start timing a new one. */
+  void beginFrame(long frameCount) {
+    long now = System.nanoTime();
+    if (open) {
+      nanos[IDLE] += now - last;
+      publish();
+    }
+    for (int i = 0; i < PHASES; i++) {
+      nanos[i] = 0;
+    }
+    open = true;
+    rendered = false;
+    frame = frameCount;
+    start = now;
+    last = now;
+  }
+
+
+  /** Add the time since the last mark to a phase of the current frame. */
+  void mark(int phase) {
+    if (open) {
+      long now = System.nanoTime();
+      nanos[phase] += now - last;
+      last = now;
+    }
+  }
+
+
+  /**
+   * Called by the surface once it has put a frame on screen. Surfaces call
+   * this after every pass through their loop, even the ones where there
+   * was nothing to draw, so only the first call after a frame counts.
+   * Public so that surfaces outside processing.core can use it.
+   */
+  public void frameRendered() {
+    if (open && !rendered) {
+      mark(RENDER);
+      rendered = true;
+    }
+  }
+
+
+  private void publish() {
+    long index = written;
+    int offset = (int) (index % slots) * FIELDS;
+    ring.lazySet(offset, frame);
+    ring.lazySet(offset + 1, start);
+    long total = 0;
+    for (int i = 0; i < PHASES; i++) {
+      long n = nanos[i];
+      ring.lazySet(offset + 2 + i, n);
+      histogram[i][bucket(n)]++;
+      total += n;
+    }
+    histogram[TOTAL][bucket(total)]++;
+    // volatile write, so anyone who sees the new count sees the frame
+    written = index + 1;
+
+    for (Listener listener : listeners) {
+      listener.frameProfiled(frame, nanos);
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Copy the most recent frames out of the ring buffer, oldest first.
+   * Each frame is FIELDS longs: the frame number, its start time (from
+   * System.nanoTime) and the nanoseconds spent in each phase. Safe to call
+   * from any thread; frames that were overwritten while being copied are
+   * left out. Returns the number of frames copied.
+   */
+  public int copy(long[] out) {
+    int most = Math.min(capacity, out.length / FIELDS);
+    long end = written;
+    long begin = Math.max(0, end - most);
+    for (long index = begin; index < end; index++) {
+      int offset = (int) (index % slots) * FIELDS;
+      int target = (int) (index - begin) * FIELDS;
+      for (int i = 0; i < FIELDS; i++) {
+        out[target + i] = ring.get(offset + i);
+      }
+    }
+    // The animation thread may have lapped us while copying. Frame number
+    // 'written' is the one it could be in the middle of writing now, and
+    // it shares a slot with frame (written - slots).
+    long oldest = Math.max(begin, written + 1 - slots);
+    if (oldest > begin) {
+      int skip = (int) Math.min(oldest - begin, end - begin);
+      System.arraycopy(out, skip * FIELDS, out, 0,
+                       (int) (end - begin - skip) * FIELDS);
+      begin += skip;
+    }
+    return (int) (end - begin);
+  }
+
+
+  /**
+   * The time spent in one phase (or TOTAL) for the most recent frames,
+   * in nanoseconds, oldest first.
+   */
+  public long[] times(int phase) {
+    long[] frames = new long[capacity * FIELDS];
+    int count = copy(frames);
+    long[] outgoing = new long[count];
+    for (int i = 0; i < count; i++) {
+      outgoing[i] = (phase == TOTAL) ?
+        total(frames, i) : frames[i*FIELDS + 2 + phase];
+    }
+    return outgoing;
+  }
+
+
+  static private long total(long[] frames, int index) {
+    long sum = 0;
+    for (int i = 0; i < PHASES; i++) {
+      sum += frames[index*FIELDS + 2 + i];
+    }
+    return sum;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Buckets are exact below 16 ns, and above that there are 16 per power
+   * of two, so a percentile is within about 6% of the real value.
+   */
+  static final int SUB_BUCKETS = 16;
+  static final int BUCKETS = 60 * SUB_BUCKETS;
+
+
+  static int bucket(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) Math.max(0, nanos);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);  // at least 4
+    int sub = (int) (nanos >> (exponent - 4)) & (SUB_BUCKETS - 1);
+    return (exponent - 3) * SUB_BUCKETS + sub;
+  }
+
+
+  /** The smallest value that goes into a bucket. */
+  static long bucketStart(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + 3;
+    long sub = bucket % SUB_BUCKETS;
+    return (SUB_BUCKETS + sub) << (exponent - 4);
+  }
+
+
+  /**
+   * The time in nanoseconds that the given fraction (0.5 for the median,
+   * 0.99 for the 99th percentile) of frames took less than, for one phase
+   * or TOTAL, over all frames since the profiler was started or reset().
+   * Returns 0 if no frames have been recorded.
+   */
+  public long percentile(int phase, float fraction) {
+    long[] counts = histogram[phase];
+    long sum = 0;
+    for (long count : counts) {
+      sum += count;
+    }
+    if (sum == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(PApplet.constrain(fraction, 0, 1) * sum);
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += counts[bucket];
+      if (seen >= Math.max(1, rank)) {
+        // middle of the bucket
+        return (bucketStart(bucket) + bucketStart(bucket + 1)) / 2;
+      }
+    }
+    return bucketStart(BUCKETS - 1);
+  }
+
+
+  /**
+   * Clear the histograms. Should be called from the animation thread
+   * (from draw() for instance), otherwise a frame or two may be counted
+   * while it's being cleared.
+   */
+  public void reset() {
+    for (long[] counts : histogram) {
+      Arrays.fill(counts, 0);
+    }
+  }
+
+
+  /** The median and 99th percentile of each phase, in milliseconds. */
+  public String summary() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-12s %9s %9s%n", "phase", "p50 ms", "p99 ms"));
+    for (int phase = 0; phase <= TOTAL; phase++) {
+      sb.append(String.format("%-12s %9.3f %9.3f%n", NAMES[phase],
+                              percentile(phase, 0.5f) / 1e6,
+                              percentile(phase, 0.99f) / 1e6));
+    }
+    return sb.toString();
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Save the frames in the ring buffer as a CSV file, with one line per
+   * frame and the times in nanoseconds. The filename is relative to the
+   * sketch folder, same as saveStrings().
+   */
+  public void save(String filename) {
+    File file = (parent != null) ?
+      parent.saveFile(filename) : new File(filename);
+    PrintWriter writer = PApplet.createWriter(file);
+    write(writer);
+    writer.flush();
+    writer.close();
+  }
+
+
+  public void write(PrintWriter writer) {
+    long[] frames = new long[capacity * FIELDS];
+    int count = copy(frames);
+    writer.print("frame,start");
+    for (String name : NAMES) {
+      writer.print(',');
+      writer.print(name);
+    }
+    writer.println();
+    for (int i = 0; i < count; i++) {
+      writer.print(frames[i*FIELDS]);
+      writer.print(',');
+      writer.print(frames[i*FIELDS + 1]);
+      for (int phase = 0; phase < PHASES; phase++) {
+        writer.print(',');
+        writer.print(frames[i*FIELDS + 2 + phase]);
+      }
+      writer.print(',');
+      writer.println(total(frames, i));
+    }
+  }
+}
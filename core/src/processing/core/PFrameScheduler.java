@@ -0,0 +1,361 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Decides when the animation thread starts the next frame, set with
+ * PApplet.frameScheduler(). There are three of them:
+ * <ul>
+ * <li>sleep(), the default, sleeps for whatever is left of the frame and
+ * makes up for oversleeping on the next one. This is how sketches have
+ * always been paced.
+ * <li>deadline() keeps a fixed grid of frame start times, parks the thread
+ * until just before the next one, and spins for the rest, so frames start
+ * within a few microseconds of when they should. Costs a little more CPU.
+ * <li>unthrottled() doesn't wait at all, and ignores frameRate(). Useful
+ * for benchmarks.
+ * </ul>
+ * All of them keep statistics on the time between the start of one frame
+ * and the next, see stats().
+ * <p/>
+ * Schedulers are only used by surfaces that run the standard rendering
+ * loop from PSurfaceNone, which are the default renderer and the ones for
+ * PDF and friends. OpenGL and JavaFX pace frames on their own.
+ * To fix the rate of the simulation rather than the rate of drawing, and
+ * so have it run the same regardless of renderer, see PApplet.updateRate().
+ * <p/>
+ * Subclasses implement waitForNextFrame(). A scheduler belongs to a
+ * single sketch, and is only used from its animation thread, so the
+ * statistics should be read from draw() or a method registered with it.
+ */
+public abstract class PFrameScheduler {
+  // everything below is only touched by the animation thread
+  long lastStart;
+  long frames;
+  long intervals;
+  double intervalSum;
+  double intervalSquares;
+  long shortest = Long.MAX_VALUE;
+  long longest;
+  long target;
+  double deviationSum;
+  long deviationMax;
+  long missed;
+
+
+  /** Sleep for the rest of the frame, the same as sketches always have. */
+  static public PFrameScheduler sleep() {
+    return new Sleep();
+  }
+
+
+  /** Park, then spin, until the deadline for each frame. */
+  static public PFrameScheduler deadline() {
+    return new Deadline(PApplet.platform == PConstants.WINDOWS ?
+                        Deadline.WINDOWS_SPIN : Deadline.SPIN);
+  }
+
+
+  /**
+   * @param spinNanos how long before each deadline to stop parking the
+   * thread and start spinning. Larger is more precise but uses more CPU.
+   */
+  static public PFrameScheduler deadline(long spinNanos) {
+    if (spinNanos < 0) {
+      throw new IllegalArgumentException("spinNanos cannot be negative");
+    }
+    return new Deadline(spinNanos);
+  }
+
+
+  /** Start the next frame straight away. */
+  static public PFrameScheduler unthrottled() {
+    return new Unthrottled();
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+  // Called by the animation thread
+
+
+  /**
+   * Called before the first frame, and again if the sketch was paused or
+   * the scheduler replaced, so it doesn't try to catch up on lost time.
+   */
+  protected void start(long now) { }
+
+
+  /**
+   * Wait until it's time to start the next frame. Called on the animation
+   * thread after each frame has been drawn. If the thread is interrupted,
+   * this should return early (with the interrupt flag cleared), the same
+   * as an interrupted sleep always has.
+   *
+   * @param period nanoseconds per frame at the current frameRate()
+   */
+  abstract protected void waitForNextFrame(long period);
+
+
+  /** False if the scheduler ignores frameRate(), so there's no target. */
+  protected boolean paced() {
+    return true;
+  }
+
+
+  void restart(long now) {
+    lastStart = 0;
+    start(now);
+  }
+
+
+  /** Count the start of a frame in the statistics. */
+  void frameStarted(long now, long period) {
+    frames++;
+    if (lastStart != 0) {
+      long interval = now - lastStart;
+      intervals++;
+      intervalSum += interval;
+      intervalSquares += (double) interval * interval;
+      if (interval < shortest) shortest = interval;
+      if (interval > longest) longest = interval;
+      if (paced()) {
+        long deviation = Math.abs(interval - period);
+        deviationSum += deviation;
+        if (deviation > deviationMax) deviationMax = deviation;
+        if (interval > period + period / 2) missed++;
+      }
+    }
+    target = paced() ? period : 0;
+    lastStart = now;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Frames started since the scheduler was set, or since resetStats(). */
+  public long frames() {
+    return frames;
+  }
+
+
+  /** Average nanoseconds from the start of one frame to the next. */
+  public double meanInterval() {
+    return (intervals == 0) ? 0 : intervalSum / intervals;
+  }
+
+
+  /** Standard deviation of the frame intervals, in nanoseconds. */
+  public double jitter() {
+    if (intervals < 2) {
+      return 0;
+    }
+    double mean = intervalSum / intervals;
+    double variance = intervalSquares / intervals - mean * mean;
+    return Math.sqrt(Math.max(0, variance));
+  }
+
+
+  public long shortestInterval() {
+    return (intervals == 0) ? 0 : shortest;
+  }
+
+
+  public long longestInterval() {
+    return longest;
+  }
+
+
+  /**
+   * Average distance in nanoseconds between each frame interval and the
+   * one frameRate() asked for. Always 0 for unthrottled().
+   */
+  public double meanDeviation() {
+    return (intervals == 0) ? 0 : deviationSum / intervals;
+  }
+
+
+  public long maxDeviation() {
+    return deviationMax;
+  }
+
+
+  /**
+   * Frames that started more than half a period late, usually because the
+   * previous one took too long to draw.
+   */
+  public long missedFrames() {
+    return missed;
+  }
+
+
+  /**
+   * Clear the statistics. Call from the animation thread, from draw() for
+   * instance.
+   */
+  public void resetStats() {
+    frames = 0;
+    intervals = 0;
+    intervalSum = 0;
+    intervalSquares = 0;
+    shortest = Long.MAX_VALUE;
+    longest = 0;
+    deviationSum = 0;
+    deviationMax = 0;
+    missed = 0;
+  }
+
+
+  /** The statistics as a line of text, with times in milliseconds. */
+  public String stats() {
+    return String.format("%s: %d frames, interval %.3f ms " +
+                         "(target %.3f, min %.3f, max %.3f), " +
+                         "jitter %.3f ms, deviation %.3f ms " +
+                         "(max %.3f), %d missed",
+                         getClass().getSimpleName().toLowerCase(), frames,
+                         meanInterval() / 1e6, target / 1e6,
+                         shortestInterval() / 1e6, longest / 1e6,
+                         jitter() / 1e6, meanDeviation() / 1e6,
+                         deviationMax / 1e6, missed);
+  }
+
+
+  @Override
+  public String toString() {
+    return stats();
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  static class Sleep extends PFrameScheduler {
+    // Number of frames with a delay of 0 ms before the
+    // animation thread yields to other running threads.
+    static final int NO_DELAYS_PER_YIELD = 15;
+
+    long beforeTime;
+    long overSleepTime;
+    int noDelays;
+
+    @Override
+    protected void start(long now) {
+      beforeTime = now;
+      overSleepTime = 0L;
+      noDelays = 0;
+    }
+
+    @Override
+    protected void waitForNextFrame(long period) {
+      long afterTime = System.nanoTime();
+      long timeDiff = afterTime - beforeTime;
+      long sleepTime = (period - timeDiff) - overSleepTime;
+
+      if (sleepTime > 0) {  // some time left in this cycle
+        try {
+          Thread.sleep(sleepTime / 1000000L, (int) (sleepTime % 1000000L));
+          noDelays = 0;  // Got some sleep, not delaying anymore
+        } catch (InterruptedException ex) { }
+
+        overSleepTime = (System.nanoTime() - afterTime) - sleepTime;
+
+      } else {    // sleepTime <= 0; the frame took longer than the period
+        overSleepTime = 0L;
+        noDelays++;
+
+        if (noDelays > NO_DELAYS_PER_YIELD) {
+          Thread.yield();   // give another thread a chance to run
+          noDelays = 0;
+        }
+      }
+
+      beforeTime = System.nanoTime();
+    }
+  }
+
+
+  static class Deadline extends PFrameScheduler {
+    /**
+     * Parking usually wakes up 50-100 us late on Linux and macOS, but
+     * Windows timers only tick every millisecond (at best).
+     */
+    static final long SPIN = 250000L;
+    static final long WINDOWS_SPIN = 1500000L;
+
+    final long spin;
+    long deadline;
+
+    Deadline(long spin) {
+      this.spin = spin;
+    }
+
+    @Override
+    protected void start(long now) {
+      deadline = now;
+    }
+
+    @Override
+    protected void waitForNextFrame(long period) {
+      deadline += period;
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        // A frame took too long. If it's less than a whole period behind,
+        // start the next one now and keep to the grid, so a single slow
+        // frame doesn't shift every frame after it. Otherwise give up on
+        // the time that's been lost rather than rushing to catch up.
+        if (-remaining > period) {
+          deadline = System.nanoTime();
+        }
+        return;
+      }
+      while (remaining > spin) {
+        LockSupport.parkNanos(remaining - spin);
+        if (Thread.interrupted()) {
+          return;
+        }
+        remaining = deadline - System.nanoTime();
+      }
+      while (deadline - System.nanoTime() > 0) {
+        // spin
+      }
+    }
+  }
+
+
+  static class Unthrottled extends PFrameScheduler {
+    @Override
+    protected void waitForNextFrame(long period) {
+      // Clear any interrupt, same as the other schedulers.
+      Thread.interrupted();
+    }
+
+    @Override
+    protected boolean paced() {
+      return false;
+    }
+  }
+}
@@ -33,16 +33,19 @@ import java.awt.Font;
 import java.awt.Image;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.WeakHashMap;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -7875,6 +7878,48 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * @nowebref
+   * Like color(gray), but for a whole array of values at once, which is
+   * much faster than calling color() for each pixel. The colors are
+   * written to out, and each input array needs at least out.length values.
+   */
+  public void colors(float[] gray, int[] out) {  // ignore
+    colors(gray, null, out);
+  }
+
+
+  /**
+   * @nowebref
+   * Like color(gray, alpha), for whole arrays of values at once.
+   */
+  public void colors(float[] gray, float[] alpha, int[] out) {  // ignore
+    PColorMath.gray(gray, alpha, out, colorModeX, colorModeA);
+  }
+
+
+  /**
+   * @nowebref
+   * Like color(v1, v2, v3), for whole arrays of values at once. The values
+   * are RGB or HSB depending on the current colorMode(), so in HSB mode
+   * this is a bulk conversion from HSB to RGB.
+   */
+  public void colors(float[] v1, float[] v2, float[] v3, int[] out) {  // ignore
+    colors(v1, v2, v3, null, out);
+  }
+
+
+  /**
+   * @nowebref
+   * Like color(v1, v2, v3, alpha), for whole arrays of values at once.
+   */
+  public void colors(float[] v1, float[] v2, float[] v3, float[] alpha,  // ignore
+                     int[] out) {
+    PColorMath.color(v1, v2, v3, alpha, out, colorMode,
+                     colorModeX, colorModeY, colorModeZ, colorModeA);
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -8083,6 +8128,70 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * @nowebref
+   * Like alpha(rgb), but for a whole array of colors at once. The values
+   * are written to out, and rgb needs at least out.length colors.
+   */
+  public void alpha(int[] rgb, float[] out) {  // ignore
+    PColorMath.channel(rgb, out, 24, colorModeA, colorModeA == 255);
+  }
+
+
+  /**
+   * @nowebref
+   * Like red(rgb), for a whole array of colors at once.
+   */
+  public void red(int[] rgb, float[] out) {  // ignore
+    PColorMath.channel(rgb, out, 16, colorModeX, colorModeDefault);
+  }
+
+
+  /**
+   * @nowebref
+   * Like green(rgb), for a whole array of colors at once.
+   */
+  public void green(int[] rgb, float[] out) {  // ignore
+    PColorMath.channel(rgb, out, 8, colorModeY, colorModeDefault);
+  }
+
+
+  /**
+   * @nowebref
+   * Like blue(rgb), for a whole array of colors at once.
+   */
+  public void blue(int[] rgb, float[] out) {  // ignore
+    PColorMath.channel(rgb, out, 0, colorModeZ, colorModeDefault);
+  }
+
+
+  /**
+   * @nowebref
+   * Like hue(rgb), for a whole array of colors at once.
+   */
+  public void hue(int[] rgb, float[] out) {  // ignore
+    PColorMath.hsbChannel(rgb, out, 0, colorModeX);
+  }
+
+
+  /**
+   * @nowebref
+   * Like saturation(rgb), for a whole array of colors at once.
+   */
+  public void saturation(int[] rgb, float[] out) {  // ignore
+    PColorMath.hsbChannel(rgb, out, 1, colorModeY);
+  }
+
+
+  /**
+   * @nowebref
+   * Like brightness(rgb), for a whole array of colors at once.
+   */
+  public void brightness(int[] rgb, float[] out) {  // ignore
+    PColorMath.hsbChannel(rgb, out, 2, colorModeZ);
+  }
+
+
 
   //////////////////////////////////////////////////////////////
 
@@ -8191,6 +8300,28 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  /**
+   * @nowebref
+   * Like lerpColor(c1, c2, amt), but for whole arrays of colors at once.
+   * The colors are written to out, and c1 and c2 need at least out.length
+   * colors.
+   */
+  public void lerpColors(int[] c1, int[] c2, float amt, int[] out) {  // ignore
+    PColorMath.lerp(c1, c2, amt, out, colorMode);
+  }
+
+
+  /**
+   * @nowebref
+   * Fills out with the colors between c1 and c2 at each of the amounts,
+   * the same as calling lerpColor(c1, c2, amt[i]) for each one. Handy for
+   * gradients and color lookup tables.
+   */
+  public void lerpColors(int c1, int c2, float[] amt, int[] out) {  // ignore
+    PColorMath.lerp(c1, c2, amt, out, colorMode);
+  }
+
+
   //////////////////////////////////////////////////////////////
 
   // BEGINRAW/ENDRAW
@@ -8435,21 +8566,173 @@ public class PGraphics extends PImage implements PConstants {
   }
 
 
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Block the animation thread until memory is free for the frame. */
+  static public final int SAVE_BLOCK = 0;
+  /** Skip frames that don't fit in memory, save() returns false. */
+  static public final int SAVE_DROP = 1;
+  /** Write frames that don't fit in memory to a temporary file. */
+  static public final int SAVE_SPILL = 2;
+
+
+  /**
+   * Writes an image to a file, used by save() and saveFrame() in place of
+   * the default for a particular extension. See asyncSaveEncoder().
+   */
+  public interface SaveEncoder {
+    public void encode(PImage image, OutputStream output) throws IOException;
+  }
+
+  /** Pixels only, 4 bytes each in B, G, R, A order (ffmpeg's "bgra") */
+  static public final SaveEncoder ENCODE_RAW = PImageSave::raw;
+  /** TARGA without RLE compression */
+  static public final SaveEncoder ENCODE_TGA =
+    (image, output) -> PImageTGA.write(image, output, false);
+  /** PNG with the lightest compression and a simple filter, for speed */
+  static public final SaveEncoder ENCODE_PNG_FAST = pngEncoder("level=1,filter=up");
+
+
+  /**
+   * A PNG encoder with the options used by PImage.save(filename, options),
+   * for instance pngEncoder("level=3,filter=paeth").
+   */
+  static public SaveEncoder pngEncoder(String options) {
+    final PImagePNG png = PImagePNG.fromOptions(options);
+    return png::write;
+  }
+
+
+  /**
+   * Timing for frames saved in the background, in nanoseconds. Use
+   * asyncSaveStats() to get a copy of the current numbers.
+   */
+  static public class SaveStats {
+    /** frames written, dropped, and written to disk to be saved later */
+    public int saved, dropped, spilled;
+    /** total time the sketch waited for memory or for a previous save */
+    public long stallNanos;
+    /** time from save() until the most recent frame was written */
+    public long lastLatencyNanos;
+    /** how long the most recent frame waited in line, and took to encode */
+    public long lastQueueNanos, lastEncodeNanos;
+    /** the longest and the total time from save() until written */
+    public long maxLatencyNanos, totalLatencyNanos;
+    /** memory used for frames waiting to be saved, and the limit */
+    public long bytesUsed, bytesBudget;
+
+    SaveStats copy() {
+      SaveStats outgoing = new SaveStats();
+      outgoing.saved = saved;
+      outgoing.dropped = dropped;
+      outgoing.spilled = spilled;
+      outgoing.stallNanos = stallNanos;
+      outgoing.lastLatencyNanos = lastLatencyNanos;
+      outgoing.lastQueueNanos = lastQueueNanos;
+      outgoing.lastEncodeNanos = lastEncodeNanos;
+      outgoing.maxLatencyNanos = maxLatencyNanos;
+      outgoing.totalLatencyNanos = totalLatencyNanos;
+      outgoing.bytesUsed = bytesUsed;
+      outgoing.bytesBudget = bytesBudget;
+      return outgoing;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("saved %d, dropped %d, spilled %d, " +
+                           "latency avg %.1f max %.1f ms, stalled %.1f ms",
+                           saved, dropped, spilled,
+                           saved == 0 ? 0 : totalLatencyNanos / 1e6 / saved,
+                           maxLatencyNanos / 1e6, stallNanos / 1e6);
+    }
+  }
+
+
+  /**
+   * Set how much memory can be used for frames waiting to be saved by
+   * save() and saveFrame(). The default is 1/8 of the maximum heap size.
+   * At least one frame is always allowed.
+   */
+  public void asyncSaveBudget(long bytes) {
+    AsyncImageSaver.budget = Math.max(0, bytes);
+  }
+
+
+  /**
+   * What to do when a frame is saved but the memory budget is used up:
+   * SAVE_BLOCK (the default) waits for an earlier frame to finish,
+   * SAVE_DROP skips the frame, and SAVE_SPILL writes the pixels to a
+   * temporary file right away, to be saved once the others have finished.
+   */
+  public void asyncSavePolicy(int policy) {
+    if (policy != SAVE_BLOCK && policy != SAVE_DROP && policy != SAVE_SPILL) {
+      throw new IllegalArgumentException("Use SAVE_BLOCK, SAVE_DROP, or SAVE_SPILL");
+    }
+    AsyncImageSaver.policy = policy;
+  }
+
+
+  /**
+   * Use a different encoder for files with this extension, for instance
+   * asyncSaveEncoder("tga", ENCODE_TGA) to skip the RLE compression, or
+   * asyncSaveEncoder("raw", ENCODE_RAW) to write frames for a video encoder.
+   * Only applies to frames saved in the background. Pass null to go back
+   * to the default for that extension.
+   */
+  public void asyncSaveEncoder(String extension, SaveEncoder encoder) {
+    extension = extension.toLowerCase();
+    if (encoder == null) {
+      AsyncImageSaver.encoders.remove(extension);
+    } else {
+      AsyncImageSaver.encoders.put(extension, encoder);
+    }
+  }
+
+
+  /** Get the timing for frames saved in the background so far. */
+  public SaveStats asyncSaveStats() {
+    AsyncImageSaver saver = asyncImageSaver;
+    if (saver == null) {
+      SaveStats stats = new SaveStats();
+      stats.bytesBudget = AsyncImageSaver.budget;
+      return stats;
+    }
+    return saver.getStats();
+  }
+
+
   protected static AsyncImageSaver asyncImageSaver;
 
   protected static class AsyncImageSaver {
 
+    /** Number of threads used for saving */
     static final int TARGET_COUNT =
         Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
-    BlockingQueue<PImage> targetPool = new ArrayBlockingQueue<>(TARGET_COUNT);
+    static volatile long budget = Runtime.getRuntime().maxMemory() / 8;
+    static volatile int policy = SAVE_BLOCK;
+    static final Map<String, SaveEncoder> encoders = new ConcurrentHashMap<>();
+
+    BlockingQueue<PImage> targetPool = new LinkedBlockingQueue<>();
     ExecutorService saveExecutor = Executors.newFixedThreadPool(TARGET_COUNT);
 
     int targetsCreated = 0;
+    // memory held by all the targets, and the size of the last one asked for
+    long targetBytes;
+    long requestedBytes;
+
+    // Frames that didn't fit are copied into spillTarget, written to disk,
+    // and read back into drainTarget (one at a time) to be saved.
+    PImage spillTarget;
+    PImage drainTarget;
+    ExecutorService spillExecutor;
 
     Map<File, Future<?>> runningTasks = new HashMap<>();
     final Object runningTasksLock = new Object();
 
+    final SaveStats stats = new SaveStats();
+
 
     static final int TIME_AVG_FACTOR = 32;
 
@@ -8463,55 +8746,98 @@ public class PGraphics extends PImage implements PConstants {
 
     public void dispose() { // ignore
       saveExecutor.shutdown();
+      if (spillExecutor != null) {
+        spillExecutor.shutdown();
+      }
       try {
         saveExecutor.awaitTermination(5000, TimeUnit.SECONDS);
+        if (spillExecutor != null) {
+          spillExecutor.awaitTermination(5000, TimeUnit.SECONDS);
+        }
       } catch (InterruptedException e) { }
     }
 
 
     public boolean hasAvailableTarget() { // ignore
-      return targetsCreated < TARGET_COUNT || targetPool.isEmpty();
+      return policy != SAVE_BLOCK || !targetPool.isEmpty() ||
+        targetBytes == 0 || targetBytes + requestedBytes <= budget;
     }
 
 
     /**
      * After taking a target, you must call saveTargetAsync() or
-     * returnUnusedTarget(), otherwise one thread won't be able to run
+     * returnUnusedTarget(), otherwise one thread won't be able to run.
+     * Returns null if the frame should be skipped (with SAVE_DROP).
      */
     public PImage getAvailableTarget(int requestedWidth, int requestedHeight, // ignore
                                      int format) {
+      long bytes = 4L * requestedWidth * requestedHeight;
+      requestedBytes = bytes;
+      long startTime = System.nanoTime();
       try {
-        PImage target;
-        if (targetsCreated < TARGET_COUNT && targetPool.isEmpty()) {
-          target = new PImage(requestedWidth, requestedHeight);
-          targetsCreated++;
-        } else {
-          target = targetPool.take();
-          if (target.pixelWidth != requestedWidth ||
-              target.pixelHeight != requestedHeight) {
-            // TODO: this kills performance when saving different sizes
+        PImage target = targetPool.poll();
+        while (true) {
+          if (target != null) {
+            if (target.pixelWidth == requestedWidth &&
+                target.pixelHeight == requestedHeight) {
+              break;
+            }
+            // wrong size, let it go to make room for a new one
+            targetBytes -= 4L * target.pixels.length;
+            targetsCreated--;
+            target = targetPool.poll();
+
+          } else if (targetBytes == 0 || targetBytes + bytes <= budget) {
             target = new PImage(requestedWidth, requestedHeight);
+            targetBytes += bytes;
+            targetsCreated++;
+            break;
+
+          } else if (policy == SAVE_DROP) {
+            addDropped();
+            return null;
+
+          } else if (policy == SAVE_SPILL) {
+            if (spillTarget == null ||
+                spillTarget.pixelWidth != requestedWidth ||
+                spillTarget.pixelHeight != requestedHeight) {
+              spillTarget = new PImage(requestedWidth, requestedHeight);
+            }
+            target = spillTarget;
+            break;
+
+          } else {
+            target = targetPool.take();
           }
         }
         target.format = format;
         return target;
+
       } catch (InterruptedException e) {
         return null;
+
+      } finally {
+        addStall(System.nanoTime() - startTime);
       }
     }
 
 
     public void returnUnusedTarget(PImage target) { // ignore
-      targetPool.offer(target);
+      if (target != spillTarget) {
+        targetPool.offer(target);
+      }
     }
 
 
     public void saveTargetAsync(final PGraphics renderer, final PImage target, // ignore
                                 final File file) {
       target.parent = renderer.parent;
+      long startTime = System.nanoTime();
 
       // if running every frame, smooth the framerate
-      if (target.parent.frameCount - 1 == lastFrameCount && TARGET_COUNT > 1) {
+      // (only when blocking, since otherwise frames are never held up)
+      if (target.parent.frameCount - 1 == lastFrameCount && TARGET_COUNT > 1 &&
+          policy == SAVE_BLOCK) {
 
         // count with one less thread to reduce jitter
         // 2 cores - 1 save thread - no wait
@@ -8529,6 +8855,12 @@ public class PGraphics extends PImage implements PConstants {
       lastTime = System.nanoTime();
 
       awaitAsyncSaveCompletion(file);
+      addStall(System.nanoTime() - startTime);
+
+      if (target == spillTarget) {
+        spillAsync(renderer, target, file, startTime);
+        return;
+      }
 
       // Explicit lock, because submitting a task and putting it into map
       // has to be atomic (and happen before task tries to remove itself)
@@ -8536,10 +8868,10 @@ public class PGraphics extends PImage implements PConstants {
         try {
           Future<?> task = saveExecutor.submit(() -> {
             try {
-              long startTime = System.nanoTime();
+              long encodeStart = System.nanoTime();
               renderer.processImageBeforeAsyncSave(target);
-              target.save(file.getAbsolutePath());
-              long saveNanos = System.nanoTime() - startTime;
+              encode(target, file);
+              long saveNanos = System.nanoTime() - encodeStart;
               synchronized (AsyncImageSaver.this) {
                 if (avgNanos == 0) {
                   avgNanos = saveNanos;
@@ -8550,6 +8882,9 @@ public class PGraphics extends PImage implements PConstants {
                   avgNanos = saveNanos;
                 }
               }
+              addSaved(startTime, encodeStart);
+            } catch (IOException e) {
+              e.printStackTrace();
             } finally {
               targetPool.offer(target);
               synchronized (runningTasksLock) {
@@ -8560,11 +8895,135 @@ public class PGraphics extends PImage implements PConstants {
           runningTasks.put(file, task);
         } catch (RejectedExecutionException e) {
           // the executor service was probably shut down, no more saving for us
+          addDropped();
+        }
+      }
+    }
+
+
+    /**
+     * Write the pixels to a temporary file (which is much faster than
+     * encoding them), and save them from there on the spill thread.
+     */
+    protected void spillAsync(final PGraphics renderer, final PImage target,
+                              final File file, final long startTime) {
+      final int width = target.pixelWidth;
+      final int height = target.pixelHeight;
+      final int format = target.format;
+      final PApplet parent = target.parent;
+      final File raw;
+      long spillStart = System.nanoTime();
+      try {
+        raw = PImageSave.spill(target);
+      } catch (IOException e) {
+        // out of disk space, most likely
+        e.printStackTrace();
+        addDropped();
+        return;
+      } finally {
+        addStall(System.nanoTime() - spillStart);
+      }
+      if (spillExecutor == null) {
+        spillExecutor = Executors.newSingleThreadExecutor();
+      }
+
+      synchronized (runningTasksLock) {
+        try {
+          Future<?> task = spillExecutor.submit(() -> {
+            try {
+              long encodeStart = System.nanoTime();
+              if (drainTarget == null ||
+                  drainTarget.pixelWidth != width ||
+                  drainTarget.pixelHeight != height) {
+                drainTarget = new PImage(width, height);
+              }
+              PImageSave.unspill(raw, drainTarget);
+              drainTarget.format = format;
+              drainTarget.parent = parent;
+              renderer.processImageBeforeAsyncSave(drainTarget);
+              encode(drainTarget, file);
+              addSaved(startTime, encodeStart);
+            } catch (IOException e) {
+              e.printStackTrace();
+            } finally {
+              raw.delete();
+              synchronized (runningTasksLock) {
+                runningTasks.remove(file);
+              }
+            }
+          });
+          runningTasks.put(file, task);
+          synchronized (stats) {
+            stats.spilled++;
+          }
+        } catch (RejectedExecutionException e) {
+          raw.delete();
+          addDropped();
         }
       }
     }
 
 
+    protected void addDropped() {
+      synchronized (stats) {
+        stats.dropped++;
+      }
+    }
+
+
+    /** Save with the encoder set for this extension, or the usual way. */
+    protected void encode(PImage image, File file) throws IOException {
+      String name = file.getName();
+      String extension = name.substring(name.lastIndexOf('.') + 1);
+      SaveEncoder encoder = encoders.get(extension.toLowerCase());
+      if (encoder == null) {
+        image.save(file.getAbsolutePath());
+
+      } else {
+        OutputStream output = PApplet.createOutput(file);
+        if (output == null) {
+          throw new IOException("Could not write to " + file);
+        }
+        try {
+          encoder.encode(image, output);
+        } finally {
+          output.close();
+        }
+      }
+    }
+
+
+    protected void addStall(long nanos) {
+      synchronized (stats) {
+        stats.stallNanos += nanos;
+      }
+    }
+
+
+    protected void addSaved(long startTime, long encodeStart) {
+      long now = System.nanoTime();
+      synchronized (stats) {
+        stats.saved++;
+        stats.lastQueueNanos = encodeStart - startTime;
+        stats.lastEncodeNanos = now - encodeStart;
+        stats.lastLatencyNanos = now - startTime;
+        stats.totalLatencyNanos += stats.lastLatencyNanos;
+        stats.maxLatencyNanos =
+          Math.max(stats.maxLatencyNanos, stats.lastLatencyNanos);
+      }
+    }
+
+
+    protected SaveStats getStats() {
+      synchronized (stats) {
+        SaveStats outgoing = stats.copy();
+        outgoing.bytesUsed = targetBytes;
+        outgoing.bytesBudget = budget;
+        return outgoing;
+      }
+    }
+
+
     public void awaitAsyncSaveCompletion(final File file) { // ignore
       Future<?> taskWithSameFilename;
       synchronized (runningTasksLock) {
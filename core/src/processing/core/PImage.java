@@ -142,15 +142,17 @@ public class PImage implements PConstants, Cloneable {
   /** Loaded pixels flag */
   public boolean loaded = false;
 
-  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+  /**
+   * When true, getNative() returns a BufferedImage that uses the pixels[]
+   * array directly instead of a copy. See setNativeShared().
+   */
+  protected boolean nativeShared;
 
+  /** BufferedImage that shares pixels[], reused while it's still valid */
+  protected BufferedImage nativeImage;
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
-  // private fields
-  private int fracU, ifU, fracV, ifV, u1, u2, v1, v2, sX, sY, iw, iw1, ih1;
-  private int ul, ll, ur, lr, cUL, cLL, cUR, cLR;
-  private int srcXOffset, srcYOffset;
-  private int r, g, b, a;
-  private int[] srcBuffer;
 
   // fixed point precision is limited to 15 bits!!
   static final int PRECISIONB = 15;
@@ -159,12 +161,6 @@ public class PImage implements PConstants, Cloneable {
   static final int PREC_ALPHA_SHIFT = 24-PRECISIONB;
   static final int PREC_RED_SHIFT = 16-PRECISIONB;
 
-  // internal kernel stuff for the gaussian blur filter
-  private int blurRadius;
-  private int blurKernelSize;
-  private int[] blurKernel;
-  private int[][] blurMult;
-
   // colour component bitmasks (moved from PConstants in 2.0b7)
   public static final int ALPHA_MASK = 0xff000000;
   public static final int RED_MASK   = 0x00ff0000;
@@ -312,20 +308,20 @@ public class PImage implements PConstants, Cloneable {
         } else {
           opaque();
         }
-      } else {
-        DataBuffer db = bi.getRaster().getDataBuffer();
-        if (db instanceof DataBufferInt) {
-          pixels = ((DataBufferInt) db).getData();
-          if (type == BufferedImage.TYPE_INT_ARGB) {
-            format = ARGB;
-          } else if (type == BufferedImage.TYPE_INT_RGB) {
-            opaque();
-          }
+      } else if ((type == BufferedImage.TYPE_INT_ARGB ||
+                  type == BufferedImage.TYPE_INT_RGB) && isPlainRaster(bi)) {
+        // use the image data directly, no copy needed
+        pixels = ((DataBufferInt) bi.getRaster().getDataBuffer()).getData();
+        if (type == BufferedImage.TYPE_INT_ARGB) {
+          format = ARGB;
+        } else {
+          opaque();
         }
+        nativeImage = bi;
       }
     }
-    // Implements fall-through if not DataBufferInt above, or not a
-    // known type, or not DataBufferInt for the data itself.
+    // Implements fall-through if not a known type above, or if the data
+    // isn't a plain int[] (e.g. a sub-image) that can be used directly.
     if (pixels == null) {  // go the old school Java 1.0 route
       width = img.getWidth(null);
       height = img.getHeight(null);
@@ -342,6 +338,24 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * True if the image's data is a single int[] with one element per pixel,
+   * in rows of exactly the image's width (i.e. not a sub-image).
+   */
+  static private boolean isPlainRaster(BufferedImage bi) {
+    WritableRaster raster = bi.getRaster();
+    DataBuffer db = raster.getDataBuffer();
+    SampleModel sm = raster.getSampleModel();
+    return db instanceof DataBufferInt &&
+      db.getNumBanks() == 1 && db.getOffset() == 0 &&
+      raster.getParent() == null &&
+      raster.getSampleModelTranslateX() == 0 &&
+      raster.getSampleModelTranslateY() == 0 &&
+      sm instanceof SinglePixelPackedSampleModel &&
+      ((SinglePixelPackedSampleModel) sm).getScanlineStride() == bi.getWidth();
+  }
+
+
   /**
    * Use the getNative() method instead, which allows library interfaces to be
    * written in a cross-platform fashion for desktop, Android, and others.
@@ -357,6 +371,9 @@ public class PImage implements PConstants, Cloneable {
    */
   public Object getNative() {  // ignore
     loadPixels();
+    if (nativeShared) {
+      return wrapPixels(format != RGB);
+    }
     int type = (format == RGB) ?
       BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
     BufferedImage image = new BufferedImage(pixelWidth, pixelHeight, type);
@@ -366,6 +383,53 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
+  /**
+   * Have getNative() return a BufferedImage that uses the pixels[] array
+   * itself, rather than a copy, so that passing this image to Java2D or
+   * ImageIO doesn't copy every pixel. Drawing into that BufferedImage
+   * changes pixels[], and changes to pixels[] show up in the BufferedImage.
+   * If pixels[] is replaced or the image is resized, a new BufferedImage
+   * is returned the next time. (For RGB images, Java2D leaves the high byte
+   * of the pixels it draws set to 0, so use filter(OPAQUE) afterwards if
+   * that matters.)
+   * <p/>
+   * Images created from a TYPE_INT_RGB or TYPE_INT_ARGB BufferedImage
+   * already share its data, and getNative() returns that same image when
+   * this is set.
+   *
+   * @nowebref
+   */
+  public void setNativeShared(boolean shared) {
+    nativeShared = shared;
+  }
+
+
+  /**
+   * A BufferedImage that uses pixels[] as its data. No pixels are copied.
+   * With alpha false, the high byte of each pixel is ignored.
+   */
+  protected BufferedImage wrapPixels(boolean alpha) {
+    BufferedImage image = nativeImage;
+    if (image == null ||
+        image.getColorModel().hasAlpha() != alpha ||
+        image.getWidth() != pixelWidth || image.getHeight() != pixelHeight ||
+        ((DataBufferInt) image.getRaster().getDataBuffer()).getData() != pixels) {
+      DirectColorModel cm = alpha ?
+        new DirectColorModel(32, RED_MASK, GREEN_MASK, BLUE_MASK, ALPHA_MASK) :
+        new DirectColorModel(24, RED_MASK, GREEN_MASK, BLUE_MASK);
+      // the constructor marks the buffer as untrackable, so that Java2D
+      // won't cache a copy that goes stale when pixels[] changes
+      DataBufferInt db = new DataBufferInt(pixels, pixelWidth * pixelHeight);
+      WritableRaster raster =
+        Raster.createPackedRaster(db, pixelWidth, pixelHeight, pixelWidth,
+                                  cm.getMasks(), null);
+      image = new BufferedImage(cm, raster, false, null);
+      nativeImage = image;
+    }
+    return image;
+  }
+
+
   //////////////////////////////////////////////////////////////
 
   // MARKING IMAGE AS MODIFIED / FOR USE w/ GET/SET
@@ -547,7 +611,21 @@ public class PImage implements PConstants, Cloneable {
    * @see PImage#get(int, int, int, int)
    */
   public void resize(int w, int h) {  // ignore
-    if (w <= 0 && h <= 0) {
+    resize(w, h, BILINEAR);
+  }
+
+
+  /**
+   * Resize the image using a particular filter. BOX averages the pixels
+   * that are covered by each new pixel (fast, and fine for shrinking by
+   * whole numbers), BILINEAR is smoother (the default), and LANCZOS is
+   * the sharpest, but takes the longest and can add a faint ringing along
+   * hard edges.
+   *
+   * @param filter BOX, BILINEAR, or LANCZOS
+   */
+  public void resize(int w, int h, int filter) {  // ignore
+    if (w < 0 || h < 0 || (w == 0 && h == 0)) {
       throw new IllegalArgumentException("width or height must be > 0 for resize");
     }
 
@@ -558,16 +636,21 @@ public class PImage implements PConstants, Cloneable {
       float diff = (float) w / (float) width;
       h = (int) (height * diff);
     }
+    // A very wide or tall image scaled down proportionally can round to
+    // nothing on the other side, keep at least one pixel.
+    w = Math.max(1, w);
+    h = Math.max(1, h);
 
-    BufferedImage img =
-      shrinkImage((BufferedImage) getNative(), w*pixelDensity, h*pixelDensity);
-
-    PImage temp = new PImage(img);
-    this.pixelWidth = temp.width;
-    this.pixelHeight = temp.height;
+    loadPixels();
+    int newWidth = w*pixelDensity;
+    int newHeight = h*pixelDensity;
+    int[] newPixels = new int[newWidth * newHeight];
+    PImageResize.resize(pixels, pixelWidth, pixelHeight,
+                        newPixels, newWidth, newHeight, format, filter);
 
-    // Get the resized pixel array
-    this.pixels = temp.pixels;
+    this.pixelWidth = newWidth;
+    this.pixelHeight = newHeight;
+    this.pixels = newPixels;
 
     this.width = pixelWidth / pixelDensity;
     this.height = pixelHeight / pixelDensity;
@@ -577,77 +660,43 @@ public class PImage implements PConstants, Cloneable {
   }
 
 
-  // Adapted from getFasterScaledInstance() method from page 111 of
-  // "Filthy Rich Clients" by Chet Haase and Romain Guy
-  // Additional modifications and simplifications have been added,
-  // plus a fix to deal with an infinite loop if images are expanded.
-  // http://code.google.com/p/processing/issues/detail?id=1463
-  static private BufferedImage shrinkImage(BufferedImage img,
-                                           int targetWidth, int targetHeight) {
-    int type = (img.getTransparency() == Transparency.OPAQUE) ?
-      BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
-    BufferedImage outgoing = img;
-    BufferedImage scratchImage = null;
-    Graphics2D g2 = null;
-    int prevW = outgoing.getWidth();
-    int prevH = outgoing.getHeight();
-    boolean isTranslucent = img.getTransparency() != Transparency.OPAQUE;
-
-    // Use multi-step technique: start with original size, then scale down in
-    // multiple passes with drawImage() until the target size is reached
-    int w = img.getWidth();
-    int h = img.getHeight();
-
-    do {
-      if (w > targetWidth) {
-        w /= 2;
-        // if this is the last step, do the exact size
-        if (w < targetWidth) {
-          w = targetWidth;
-        }
-      } else if (targetWidth >= w) {
-        w = targetWidth;
-      }
-      if (h > targetHeight) {
-        h /= 2;
-        if (h < targetHeight) {
-          h = targetHeight;
-        }
-      } else if (targetHeight >= h) {
-        h = targetHeight;
-      }
-      if (scratchImage == null || isTranslucent) {
-        // Use a single scratch buffer for all iterations and then copy
-        // to the final, correctly-sized image before returning
-        scratchImage = new BufferedImage(w, h, type);
-        g2 = scratchImage.createGraphics();
-      }
-      g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-      g2.drawImage(outgoing, 0, 0, w, h, 0, 0, prevW, prevH, null);
-      prevW = w;
-      prevH = h;
-      outgoing = scratchImage;
-    } while (w != targetWidth || h != targetHeight);
-
-    if (g2 != null) {
-      g2.dispose();
-    }
+  /**
+   * Resize this image into another one, at the size of the other image,
+   * leaving this image unchanged. The pixels[] array of the target is
+   * reused when it's already the right length, so this can be called over
+   * and over (to make thumbnails of a series of images, for instance)
+   * without allocating a new array each time. The target takes on the
+   * format of this image.
+   */
+  public void resizeInto(PImage target) {  // ignore
+    resizeInto(target, BILINEAR);
+  }
+
 
-    // If we used a scratch buffer that is larger than our target size,
-    // create an image of the right size and copy the results into it
-    if (targetWidth != outgoing.getWidth() ||
-        targetHeight != outgoing.getHeight()) {
-      scratchImage = new BufferedImage(targetWidth, targetHeight, type);
-      g2 = scratchImage.createGraphics();
-      g2.drawImage(outgoing, 0, 0, null);
-      g2.dispose();
-      outgoing = scratchImage;
+  /**
+   * @param filter BOX, BILINEAR, or LANCZOS
+   */
+  public void resizeInto(PImage target, int filter) {  // ignore
+    if (target == this) {
+      throw new IllegalArgumentException("Use resize() to resize an image in place");
+    }
+    if (target.pixelWidth < 1 || target.pixelHeight < 1) {
+      throw new IllegalArgumentException("width and height must be > 0 for resizeInto");
+    }
+    loadPixels();
+    int length = target.pixelWidth * target.pixelHeight;
+    if (target.pixels == null || target.pixels.length != length) {
+      target.pixels = new int[length];
     }
-    return outgoing;
+    PImageResize.resize(pixels, pixelWidth, pixelHeight,
+                        target.pixels, target.pixelWidth, target.pixelHeight,
+                        format, filter);
+    target.format = format;
+    target.updatePixels();
   }
 
 
+
   //////////////////////////////////////////////////////////////
 
   // MARKING IMAGE AS LOADED / FOR USE IN RENDERERS
@@ -1013,35 +1062,17 @@ public class PImage implements PConstants, Cloneable {
         break;
 
       case GRAY:
+        // Converts RGB image data into grayscale using weighted RGB
+        // components, and keeps alpha channel intact. [toxi 040115]
+        // For an alpha image, converts it to an opaque grayscale.
+        PImageFilter.gray(pixels, format == ALPHA);
         if (format == ALPHA) {
-          // for an alpha image, convert it to an opaque grayscale
-          for (int i = 0; i < pixels.length; i++) {
-            int col = 255 - pixels[i];
-            pixels[i] = 0xff000000 | (col << 16) | (col << 8) | col;
-          }
           format = RGB;
-
-        } else {
-          // Converts RGB image data into grayscale using
-          // weighted RGB components, and keeps alpha channel intact.
-          // [toxi 040115]
-          for (int i = 0; i < pixels.length; i++) {
-            int col = pixels[i];
-            // luminance = 0.3*red + 0.59*green + 0.11*blue
-            // 0.30 * 256 =  77
-            // 0.59 * 256 = 151
-            // 0.11 * 256 =  28
-            int lum = (77*(col>>16&0xff) + 151*(col>>8&0xff) + 28*(col&0xff))>>8;
-            pixels[i] = (col & ALPHA_MASK) | lum<<16 | lum<<8 | lum;
-          }
         }
         break;
 
       case INVERT:
-        for (int i = 0; i < pixels.length; i++) {
-          //pixels[i] = 0xff000000 |
-          pixels[i] ^= 0xffffff;
-        }
+        PImageFilter.invert(pixels);
         break;
 
       case POSTERIZE:
@@ -1049,9 +1080,7 @@ public class PImage implements PConstants, Cloneable {
         "instead of filter(POSTERIZE)");
 
       case OPAQUE:
-        for (int i = 0; i < pixels.length; i++) {
-          pixels[i] |= 0xff000000;
-        }
+        PImageFilter.opaque(pixels);
         format = RGB;
         break;
 
@@ -1156,30 +1185,11 @@ public class PImage implements PConstants, Cloneable {
           throw new RuntimeException("Levels must be between 2 and 255 for " +
                                      "filter(POSTERIZE, levels)");
         }
-        int levels1 = levels - 1;
-        for (int i = 0; i < pixels.length; i++) {
-          int rlevel = (pixels[i] >> 16) & 0xff;
-          int glevel = (pixels[i] >> 8) & 0xff;
-          int blevel = pixels[i] & 0xff;
-          rlevel = (((rlevel * levels) >> 8) * 255) / levels1;
-          glevel = (((glevel * levels) >> 8) * 255) / levels1;
-          blevel = (((blevel * levels) >> 8) * 255) / levels1;
-          pixels[i] = ((0xff000000 & pixels[i]) |
-                       (rlevel << 16) |
-                       (glevel << 8) |
-                       blevel);
-        }
+        PImageFilter.posterize(pixels, levels);
         break;
 
       case THRESHOLD:  // greater than or equal to the threshold
-        int thresh = (int) (param * 255);
-        for (int i = 0; i < pixels.length; i++) {
-          int max = Math.max((pixels[i] & RED_MASK) >> 16,
-                             Math.max((pixels[i] & GREEN_MASK) >> 8,
-                                      (pixels[i] & BLUE_MASK)));
-          pixels[i] = (pixels[i] & ALPHA_MASK) |
-            ((max < thresh) ? 0x000000 : 0xffffff);
-        }
+        PImageFilter.threshold(pixels, (int) (param * 255));
         break;
 
         // [toxi20050728] added new filters
@@ -1196,9 +1206,7 @@ public class PImage implements PConstants, Cloneable {
 
   /** Set the high bits of all pixels to opaque. */
   protected void opaque() {
-    for (int i = 0; i < pixels.length; i++) {
-      pixels[i] = 0xFF000000 | pixels[i];
-    }
+    PImageFilter.opaque(pixels);
   }
 
 
@@ -1208,271 +1216,27 @@ public class PImage implements PConstants, Cloneable {
    * bigger speed gains for larger radii (~30%)
    * added support for various image types (ALPHA, RGB, ARGB)
    * [toxi 050728]
+   * <P>
+   * Kernels are now built once for each radius and shared by all images,
+   * so this only needs to be called to build one ahead of time.
    */
   protected void buildBlurKernel(float r) {
-    int radius = (int) (r * 3.5f);
-    radius = (radius < 1) ? 1 : ((radius < 248) ? radius : 248);
-    if (blurRadius != radius) {
-      blurRadius = radius;
-      blurKernelSize = 1 + blurRadius<<1;
-      blurKernel = new int[blurKernelSize];
-      blurMult = new int[blurKernelSize][256];
-
-      int bk,bki;
-      int[] bm,bmi;
-
-      for (int i = 1, radiusi = radius - 1; i < radius; i++) {
-        blurKernel[radius+i] = blurKernel[radiusi] = bki = radiusi * radiusi;
-        bm=blurMult[radius+i];
-        bmi=blurMult[radiusi--];
-        for (int j = 0; j < 256; j++)
-          bm[j] = bmi[j] = bki*j;
-      }
-      bk = blurKernel[radius] = radius * radius;
-      bm = blurMult[radius];
-      for (int j = 0; j < 256; j++)
-        bm[j] = bk*j;
-    }
+    PImageFilter.kernel(r);
   }
 
 
   protected void blurAlpha(float r) {
-    int sum, cb;
-    int read, ri, ym, ymi, bk0;
-    int[] b2 = new int[pixels.length];
-    int yi = 0;
-
-    buildBlurKernel(r);
-
-    for (int y = 0; y < pixelHeight; y++) {
-      for (int x = 0; x < pixelWidth; x++) {
-        //cb = cg = cr = sum = 0;
-        cb = sum = 0;
-        read = x - blurRadius;
-        if (read<0) {
-          bk0=-read;
-          read=0;
-        } else {
-          if (read >= pixelWidth)
-            break;
-          bk0=0;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= pixelWidth)
-            break;
-          int c = pixels[read + yi];
-          int[] bm = blurMult[i];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
-        }
-        ri = yi + x;
-        b2[ri] = cb / sum;
-      }
-      yi += pixelWidth;
-    }
-
-    yi = 0;
-    ym = -blurRadius;
-    ymi = ym * pixelWidth;
-
-    for (int y = 0; y < pixelHeight; y++) {
-      for (int x = 0; x < pixelWidth; x++) {
-        cb = sum = 0;
-        if (ym < 0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= pixelHeight)
-            break;
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= pixelHeight)
-            break;
-          int[] bm = blurMult[i];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += pixelWidth;
-        }
-        pixels[x+yi] = (cb/sum);
-      }
-      yi += pixelWidth;
-      ymi += pixelWidth;
-      ym++;
-    }
+    PImageFilter.blur(pixels, pixelWidth, pixelHeight, ALPHA, r);
   }
 
 
   protected void blurRGB(float r) {
-    int sum, cr, cg, cb; //, k;
-    int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
-    int[] r2 = new int[pixels.length];
-    int[] g2 = new int[pixels.length];
-    int[] b2 = new int[pixels.length];
-    int yi = 0;
-
-    buildBlurKernel(r);
-
-    for (int y = 0; y < pixelHeight; y++) {
-      for (int x = 0; x < pixelWidth; x++) {
-        cb = cg = cr = sum = 0;
-        read = x - blurRadius;
-        if (read < 0) {
-          bk0 = -read;
-          read = 0;
-        } else {
-          if (read >= pixelWidth) {
-            break;
-          }
-          bk0 = 0;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= pixelWidth) {
-            break;
-          }
-          int c = pixels[read + yi];
-          int[] bm = blurMult[i];
-          cr += bm[(c & RED_MASK) >> 16];
-          cg += bm[(c & GREEN_MASK) >> 8];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
-        }
-        ri = yi + x;
-        r2[ri] = cr / sum;
-        g2[ri] = cg / sum;
-        b2[ri] = cb / sum;
-      }
-      yi += pixelWidth;
-    }
-
-    yi = 0;
-    ym = -blurRadius;
-    ymi = ym * pixelWidth;
-
-    for (int y = 0; y < pixelHeight; y++) {
-      for (int x = 0; x < pixelWidth; x++) {
-        cb = cg = cr = sum = 0;
-        if (ym < 0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= pixelHeight) {
-            break;
-          }
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= pixelHeight) {
-            break;
-          }
-          int[] bm = blurMult[i];
-          cr += bm[r2[read]];
-          cg += bm[g2[read]];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += pixelWidth;
-        }
-        pixels[x+yi] = 0xff000000 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
-      }
-      yi += pixelWidth;
-      ymi += pixelWidth;
-      ym++;
-    }
+    PImageFilter.blur(pixels, pixelWidth, pixelHeight, RGB, r);
   }
 
 
   protected void blurARGB(float r) {
-    int sum, cr, cg, cb, ca;
-    int /*pixel,*/ read, ri, /*roff,*/ ym, ymi, /*riw,*/ bk0;
-    int wh = pixels.length;
-    int[] r2 = new int[wh];
-    int[] g2 = new int[wh];
-    int[] b2 = new int[wh];
-    int[] a2 = new int[wh];
-    int yi = 0;
-
-    buildBlurKernel(r);
-
-    for (int y = 0; y < pixelHeight; y++) {
-      for (int x = 0; x < pixelWidth; x++) {
-        cb = cg = cr = ca = sum = 0;
-        read = x - blurRadius;
-        if (read < 0) {
-          bk0 = -read;
-          read = 0;
-        } else {
-          if (read >= pixelWidth) {
-            break;
-          }
-          bk0=0;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (read >= pixelWidth) {
-            break;
-          }
-          int c = pixels[read + yi];
-          int[] bm=blurMult[i];
-          ca += bm[(c & ALPHA_MASK) >>> 24];
-          cr += bm[(c & RED_MASK) >> 16];
-          cg += bm[(c & GREEN_MASK) >> 8];
-          cb += bm[c & BLUE_MASK];
-          sum += blurKernel[i];
-          read++;
-        }
-        ri = yi + x;
-        a2[ri] = ca / sum;
-        r2[ri] = cr / sum;
-        g2[ri] = cg / sum;
-        b2[ri] = cb / sum;
-      }
-      yi += pixelWidth;
-    }
-
-    yi = 0;
-    ym = -blurRadius;
-    ymi = ym * pixelWidth;
-
-    for (int y = 0; y < pixelHeight; y++) {
-      for (int x = 0; x < pixelWidth; x++) {
-        cb = cg = cr = ca = sum = 0;
-        if (ym < 0) {
-          bk0 = ri = -ym;
-          read = x;
-        } else {
-          if (ym >= pixelHeight) {
-            break;
-          }
-          bk0 = 0;
-          ri = ym;
-          read = x + ymi;
-        }
-        for (int i = bk0; i < blurKernelSize; i++) {
-          if (ri >= pixelHeight) {
-            break;
-          }
-          int[] bm=blurMult[i];
-          ca += bm[a2[read]];
-          cr += bm[r2[read]];
-          cg += bm[g2[read]];
-          cb += bm[b2[read]];
-          sum += blurKernel[i];
-          ri++;
-          read += pixelWidth;
-        }
-        pixels[x+yi] = (ca/sum)<<24 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
-      }
-      yi += pixelWidth;
-      ymi += pixelWidth;
-      ym++;
-    }
+    PImageFilter.blur(pixels, pixelWidth, pixelHeight, ARGB, r);
   }
 
 
@@ -1481,140 +1245,14 @@ public class PImage implements PConstants, Cloneable {
    * as decision factor. [toxi 050728]
    */
   protected void dilate() {  // formerly dilate(false)
-    int index = 0;
-    int maxIndex = pixels.length;
-    int[] outgoing = new int[maxIndex];
-
     // erosion (grow light areas)
-    while (index < maxIndex) {
-      int curRowIndex = index;
-      int maxRowIndex = index + pixelWidth;
-      while (index < maxRowIndex) {
-        int orig = pixels[index];
-        int result = orig;
-        int idxLeft = index - 1;
-        int idxRight = index + 1;
-        int idxUp = index - pixelWidth;
-        int idxDown = index + pixelWidth;
-        if (idxLeft < curRowIndex) {
-          idxLeft = index;
-        }
-        if (idxRight >= maxRowIndex) {
-          idxRight = index;
-        }
-        if (idxUp < 0) {
-          idxUp = index;
-        }
-        if (idxDown >= maxIndex) {
-          idxDown = index;
-        }
-
-        int colUp = pixels[idxUp];
-        int colLeft = pixels[idxLeft];
-        int colDown = pixels[idxDown];
-        int colRight = pixels[idxRight];
-
-        // compute luminance
-        int currLum =
-          77*(orig>>16&0xff) + 151*(orig>>8&0xff) + 28*(orig&0xff);
-        int lumLeft =
-          77*(colLeft>>16&0xff) + 151*(colLeft>>8&0xff) + 28*(colLeft&0xff);
-        int lumRight =
-          77*(colRight>>16&0xff) + 151*(colRight>>8&0xff) + 28*(colRight&0xff);
-        int lumUp =
-          77*(colUp>>16&0xff) + 151*(colUp>>8&0xff) + 28*(colUp&0xff);
-        int lumDown =
-          77*(colDown>>16&0xff) + 151*(colDown>>8&0xff) + 28*(colDown&0xff);
-
-        if (lumLeft > currLum) {
-          result = colLeft;
-          currLum = lumLeft;
-        }
-        if (lumRight > currLum) {
-          result = colRight;
-          currLum = lumRight;
-        }
-        if (lumUp > currLum) {
-          result = colUp;
-          currLum = lumUp;
-        }
-        if (lumDown > currLum) {
-          result = colDown;
-          currLum = lumDown;
-        }
-        outgoing[index++] = result;
-      }
-    }
-    System.arraycopy(outgoing, 0, pixels, 0, maxIndex);
+    PImageFilter.dilate(pixels, pixelWidth, pixelHeight, false);
   }
 
 
   protected void erode() {  // formerly dilate(true)
-    int index = 0;
-    int maxIndex = pixels.length;
-    int[] outgoing = new int[maxIndex];
-
     // dilate (grow dark areas)
-    while (index < maxIndex) {
-      int curRowIndex = index;
-      int maxRowIndex = index + pixelWidth;
-      while (index < maxRowIndex) {
-        int orig = pixels[index];
-        int result = orig;
-        int idxLeft = index - 1;
-        int idxRight = index + 1;
-        int idxUp = index - pixelWidth;
-        int idxDown = index + pixelWidth;
-        if (idxLeft < curRowIndex) {
-          idxLeft = index;
-        }
-        if (idxRight >= maxRowIndex) {
-          idxRight = index;
-        }
-        if (idxUp < 0) {
-          idxUp = index;
-        }
-        if (idxDown >= maxIndex) {
-          idxDown = index;
-        }
-
-        int colUp = pixels[idxUp];
-        int colLeft = pixels[idxLeft];
-        int colDown = pixels[idxDown];
-        int colRight = pixels[idxRight];
-
-        // compute luminance
-        int currLum =
-          77*(orig>>16&0xff) + 151*(orig>>8&0xff) + 28*(orig&0xff);
-        int lumLeft =
-          77*(colLeft>>16&0xff) + 151*(colLeft>>8&0xff) + 28*(colLeft&0xff);
-        int lumRight =
-          77*(colRight>>16&0xff) + 151*(colRight>>8&0xff) + 28*(colRight&0xff);
-        int lumUp =
-          77*(colUp>>16&0xff) + 151*(colUp>>8&0xff) + 28*(colUp&0xff);
-        int lumDown =
-          77*(colDown>>16&0xff) + 151*(colDown>>8&0xff) + 28*(colDown&0xff);
-
-        if (lumLeft < currLum) {
-          result = colLeft;
-          currLum = lumLeft;
-        }
-        if (lumRight < currLum) {
-          result = colRight;
-          currLum = lumRight;
-        }
-        if (lumUp < currLum) {
-          result = colUp;
-          currLum = lumUp;
-        }
-        if (lumDown < currLum) {
-          result = colDown;
-          currLum = lumDown;
-        }
-        outgoing[index++] = result;
-      }
-    }
-    System.arraycopy(outgoing, 0, pixels, 0, maxIndex);
+    PImageFilter.dilate(pixels, pixelWidth, pixelHeight, true);
   }
 
 
@@ -1932,532 +1570,9 @@ public class PImage implements PConstants, Cloneable {
                            int[] destPixels, int screenW, int screenH,
                            int destX1, int destY1, int destX2, int destY2,
                            int mode) {
-    if (srcX1 < 0) srcX1 = 0;
-    if (srcY1 < 0) srcY1 = 0;
-    if (srcX2 > img.pixelWidth) srcX2 = img.pixelWidth;
-    if (srcY2 > img.pixelHeight) srcY2 = img.pixelHeight;
-
-    int srcW = srcX2 - srcX1;
-    int srcH = srcY2 - srcY1;
-    int destW = destX2 - destX1;
-    int destH = destY2 - destY1;
-
-    boolean smooth = true;  // may as well go with the smoothing these days
-
-    if (!smooth) {
-      srcW++; srcH++;
-    }
-
-    if (destW <= 0 || destH <= 0 ||
-        srcW <= 0 || srcH <= 0 ||
-        destX1 >= screenW || destY1 >= screenH ||
-        srcX1 >= img.pixelWidth || srcY1 >= img.pixelHeight) {
-      return;
-    }
-
-    int dx = (int) (srcW / (float) destW * PRECISIONF);
-    int dy = (int) (srcH / (float) destH * PRECISIONF);
-
-    srcXOffset = destX1 < 0 ? -destX1 * dx : srcX1 * PRECISIONF;
-    srcYOffset = destY1 < 0 ? -destY1 * dy : srcY1 * PRECISIONF;
-
-    if (destX1 < 0) {
-      destW += destX1;
-      destX1 = 0;
-    }
-    if (destY1 < 0) {
-      destH += destY1;
-      destY1 = 0;
-    }
-
-    destW = min(destW, screenW - destX1);
-    destH = min(destH, screenH - destY1);
-
-    int destOffset = destY1 * screenW + destX1;
-    srcBuffer = img.pixels;
-
-    if (smooth) {
-      // use bilinear filtering
-      iw = img.pixelWidth;
-      iw1 = img.pixelWidth - 1;
-      ih1 = img.pixelHeight - 1;
-
-      switch (mode) {
-
-      case BLEND:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            // davbol  - renamed old blend_multiply to blend_blend
-            destPixels[destOffset + x] =
-              blend_blend(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case ADD:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_add_pin(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SUBTRACT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_sub_pin(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case LIGHTEST:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_lightest(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DARKEST:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_darkest(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case REPLACE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] = filter_bilinear();
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DIFFERENCE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_difference(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case EXCLUSION:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_exclusion(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case MULTIPLY:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_multiply(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SCREEN:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_screen(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case OVERLAY:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_overlay(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case HARD_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_hard_light(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SOFT_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_soft_light(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      // davbol - proposed 2007-01-09
-      case DODGE:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_dodge(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case BURN:
-        for (int y = 0; y < destH; y++) {
-          filter_new_scanline();
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_burn(destPixels[destOffset + x], filter_bilinear());
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      }
-
-    } else {
-      // nearest neighbour scaling (++fast!)
-      switch (mode) {
-
-      case BLEND:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            // davbol - renamed old blend_multiply to blend_blend
-            destPixels[destOffset + x] =
-              blend_blend(destPixels[destOffset + x],
-                          srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case ADD:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_add_pin(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SUBTRACT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_sub_pin(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case LIGHTEST:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_lightest(destPixels[destOffset + x],
-                             srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DARKEST:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_darkest(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case REPLACE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] = srcBuffer[sY + (sX >> PRECISIONB)];
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case DIFFERENCE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_difference(destPixels[destOffset + x],
-                               srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case EXCLUSION:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_exclusion(destPixels[destOffset + x],
-                              srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case MULTIPLY:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_multiply(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SCREEN:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_screen(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case OVERLAY:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_overlay(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case HARD_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_hard_light(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case SOFT_LIGHT:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_soft_light(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      // davbol - proposed 2007-01-09
-      case DODGE:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_dodge(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      case BURN:
-        for (int y = 0; y < destH; y++) {
-          sX = srcXOffset;
-          sY = (srcYOffset >> PRECISIONB) * img.pixelWidth;
-          for (int x = 0; x < destW; x++) {
-            destPixels[destOffset + x] =
-              blend_burn(destPixels[destOffset + x],
-                            srcBuffer[sY + (sX >> PRECISIONB)]);
-            sX += dx;
-          }
-          destOffset += screenW;
-          srcYOffset += dy;
-        }
-        break;
-
-      }
-    }
-  }
-
-
-  private void filter_new_scanline() {
-    sX = srcXOffset;
-    fracV = srcYOffset & PREC_MAXVAL;
-    ifV = PREC_MAXVAL - fracV + 1;
-    v1 = (srcYOffset >> PRECISIONB) * iw;
-    v2 = min((srcYOffset >> PRECISIONB) + 1, ih1) * iw;
-  }
-
-
-  private int filter_bilinear() {
-    fracU = sX & PREC_MAXVAL;
-    ifU = PREC_MAXVAL - fracU + 1;
-    ul = (ifU * ifV) >> PRECISIONB;
-    ll = ifU - ul;
-    ur = ifV - ul;
-    lr = PREC_MAXVAL + 1 - ul - ll - ur;
-    u1 = (sX >> PRECISIONB);
-    u2 = min(u1 + 1, iw1);
-
-    // get color values of the 4 neighbouring texels
-    cUL = srcBuffer[v1 + u1];
-    cUR = srcBuffer[v1 + u2];
-    cLL = srcBuffer[v2 + u1];
-    cLR = srcBuffer[v2 + u2];
-
-    r = ((ul*((cUL&RED_MASK)>>16) + ll*((cLL&RED_MASK)>>16) +
-          ur*((cUR&RED_MASK)>>16) + lr*((cLR&RED_MASK)>>16))
-         << PREC_RED_SHIFT) & RED_MASK;
-
-    g = ((ul*(cUL&GREEN_MASK) + ll*(cLL&GREEN_MASK) +
-          ur*(cUR&GREEN_MASK) + lr*(cLR&GREEN_MASK))
-         >>> PRECISIONB) & GREEN_MASK;
-
-    b = (ul*(cUL&BLUE_MASK) + ll*(cLL&BLUE_MASK) +
-         ur*(cUR&BLUE_MASK) + lr*(cLR&BLUE_MASK))
-           >>> PRECISIONB;
-
-    a = ((ul*((cUL&ALPHA_MASK)>>>24) + ll*((cLL&ALPHA_MASK)>>>24) +
-          ur*((cUR&ALPHA_MASK)>>>24) + lr*((cLR&ALPHA_MASK)>>>24))
-         << PREC_ALPHA_SHIFT) & ALPHA_MASK;
-
-    return a | r | g | b;
+    PImageBlend.blit(img, srcX1, srcY1, srcX2, srcY2,
+                     destPixels, screenW, screenH,
+                     destX1, destY1, destX2, destY2, mode);
   }
 
 
@@ -2575,7 +1690,7 @@ int testFunction(int dst, int src) {
    * Blend
    * O = S
    */
-  private static int blend_blend(int dst, int src) {
+  static int blend_blend(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2591,7 +1706,7 @@ int testFunction(int dst, int src) {
    * Add
    * O = MIN(D + S, 1)
    */
-  private static int blend_add_pin(int dst, int src) {
+  static int blend_add_pin(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2610,7 +1725,7 @@ int testFunction(int dst, int src) {
    * Subtract
    * O = MAX(0, D - S)
    */
-  private static int blend_sub_pin(int dst, int src) {
+  static int blend_sub_pin(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2629,7 +1744,7 @@ int testFunction(int dst, int src) {
    * Lightest
    * O = MAX(D, S)
    */
-  private static int blend_lightest(int dst, int src) {
+  static int blend_lightest(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2649,7 +1764,7 @@ int testFunction(int dst, int src) {
    * Darkest
    * O = MIN(D, S)
    */
-  private static int blend_darkest(int dst, int src) {
+  static int blend_darkest(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2669,7 +1784,7 @@ int testFunction(int dst, int src) {
    * Difference
    * O = ABS(D - S)
    */
-  private static int blend_difference(int dst, int src) {
+  static int blend_difference(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2694,7 +1809,7 @@ int testFunction(int dst, int src) {
    * O = (1 - S)D + S(1 - D)
    * O = D + S - 2DS
    */
-  private static int blend_exclusion(int dst, int src) {
+  static int blend_exclusion(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2725,7 +1840,7 @@ int testFunction(int dst, int src) {
    * Multiply
    * O = DS
    */
-  private static int blend_multiply(int dst, int src) {
+  static int blend_multiply(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2755,7 +1870,7 @@ int testFunction(int dst, int src) {
    * O = 1 - (1 - D)(1 - S)
    * O = D + S - DS
    */
-  private static int blend_screen(int dst, int src) {
+  static int blend_screen(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2787,7 +1902,7 @@ int testFunction(int dst, int src) {
    * O = 2 * MULTIPLY(D, S) = 2DS                   for D < 0.5
    * O = 2 * SCREEN(D, S) - 1 = 2(S + D - DS) - 1   otherwise
    */
-  private static int blend_overlay(int dst, int src) {
+  static int blend_overlay(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2824,7 +1939,7 @@ int testFunction(int dst, int src) {
    * O = 2 * MULTIPLY(D, S) = 2DS                   for S < 0.5
    * O = 2 * SCREEN(D, S) - 1 = 2(S + D - DS) - 1   otherwise
    */
-  private static int blend_hard_light(int dst, int src) {
+  static int blend_hard_light(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2860,7 +1975,7 @@ int testFunction(int dst, int src) {
    * O = (1 - D) * DS + D * (1 - (1 - D)(1 - S))
    * O = 2DS + DD - 2DDS
    */
-  private static int blend_soft_light(int dst, int src) {
+  static int blend_soft_light(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2895,7 +2010,7 @@ int testFunction(int dst, int src) {
    * Dodge
    * O = D / (1 - S)
    */
-  private static int blend_dodge(int dst, int src) {
+  static int blend_dodge(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2921,7 +2036,7 @@ int testFunction(int dst, int src) {
    * Burn
    * O = 1 - (1 - A) / B
    */
-  private static int blend_burn(int dst, int src) {
+  static int blend_burn(int dst, int src) {
     int a = src >>> 24;
 
     int s_a = a + (a >= 0x7F ? 1 : 0);
@@ -2948,98 +2063,36 @@ int testFunction(int dst, int src) {
   // FILE I/O
 
 
-  static byte[] TIFF_HEADER = {
-    77, 77, 0, 42, 0, 0, 0, 8, 0, 9, 0, -2, 0, 4, 0, 0, 0, 1, 0, 0,
-    0, 0, 1, 0, 0, 3, 0, 0, 0, 1, 0, 0, 0, 0, 1, 1, 0, 3, 0, 0, 0, 1,
-    0, 0, 0, 0, 1, 2, 0, 3, 0, 0, 0, 3, 0, 0, 0, 122, 1, 6, 0, 3, 0,
-    0, 0, 1, 0, 2, 0, 0, 1, 17, 0, 4, 0, 0, 0, 1, 0, 0, 3, 0, 1, 21,
-    0, 3, 0, 0, 0, 1, 0, 3, 0, 0, 1, 22, 0, 3, 0, 0, 0, 1, 0, 0, 0, 0,
-    1, 23, 0, 4, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 8, 0, 8, 0, 8
-  };
-
-
-  static final String TIFF_ERROR =
-    "Error: Processing can only read its own TIFF files.";
-
+  /**
+   * Decode the first image of a TIFF file that's already in memory.
+   * PApplet.loadImage() reads from the file instead, decoding only the
+   * strips or tiles that it needs.
+   */
   static protected PImage loadTIFF(byte[] tiff) {
-    if ((tiff[42] != tiff[102]) ||  // width/height in both places
-        (tiff[43] != tiff[103])) {
-      System.err.println(TIFF_ERROR);
-      return null;
-    }
+    try {
+      return new PImageTIFF(PImageSource.wrap(tiff)).read(0);
 
-    int width =
-      ((tiff[30] & 0xff) << 8) | (tiff[31] & 0xff);
-    int height =
-      ((tiff[42] & 0xff) << 8) | (tiff[43] & 0xff);
-
-    int count =
-      ((tiff[114] & 0xff) << 24) |
-      ((tiff[115] & 0xff) << 16) |
-      ((tiff[116] & 0xff) << 8) |
-      (tiff[117] & 0xff);
-    if (count != width * height * 3) {
-      System.err.println(TIFF_ERROR + " (" + width + ", " + height +")");
+    } catch (IOException e) {
+      System.err.println("Could not read TIFF image: " + e.getMessage());
       return null;
     }
+  }
 
-    // check the rest of the header
-    for (int i = 0; i < TIFF_HEADER.length; i++) {
-      if ((i == 30) || (i == 31) || (i == 42) || (i == 43) ||
-          (i == 102) || (i == 103) ||
-          (i == 114) || (i == 115) || (i == 116) || (i == 117)) continue;
-
-      if (tiff[i] != TIFF_HEADER[i]) {
-        System.err.println(TIFF_ERROR + " (" + i + ")");
-        return null;
-      }
-    }
 
-    PImage outgoing = new PImage(width, height, RGB);
-    int index = 768;
-    count /= 3;
-    for (int i = 0; i < count; i++) {
-      outgoing.pixels[i] =
-        0xFF000000 |
-        (tiff[index++] & 0xff) << 16 |
-        (tiff[index++] & 0xff) << 8 |
-        (tiff[index++] & 0xff);
-    }
-    return outgoing;
+  protected boolean saveTIFF(OutputStream output) {
+    return saveTIFF(output, null);
   }
 
 
-  protected boolean saveTIFF(OutputStream output) {
-    // shutting off the warning, people can figure this out themselves
-    /*
-    if (format != RGB) {
-      System.err.println("Warning: only RGB information is saved with " +
-                         ".tif files. Use .tga or .png for ARGB images and others.");
-    }
-    */
+  /**
+   * Write a baseline TIFF image, see save(filename, options). Unlike the
+   * TIFF files from earlier releases, ARGB images keep their alpha channel
+   * and ALPHA images are written as 8-bit grayscale.
+   */
+  protected boolean saveTIFF(OutputStream output, String options) {
     try {
-      byte[] tiff = new byte[768];
-      System.arraycopy(TIFF_HEADER, 0, tiff, 0, TIFF_HEADER.length);
-
-      tiff[30] = (byte) ((pixelWidth >> 8) & 0xff);
-      tiff[31] = (byte) ((pixelWidth) & 0xff);
-      tiff[42] = tiff[102] = (byte) ((pixelHeight >> 8) & 0xff);
-      tiff[43] = tiff[103] = (byte) ((pixelHeight) & 0xff);
-
-      int count = pixelWidth*pixelHeight*3;
-      tiff[114] = (byte) ((count >> 24) & 0xff);
-      tiff[115] = (byte) ((count >> 16) & 0xff);
-      tiff[116] = (byte) ((count >> 8) & 0xff);
-      tiff[117] = (byte) ((count) & 0xff);
-
-      // spew the header to the disk
-      output.write(tiff);
-
-      for (int i = 0; i < pixels.length; i++) {
-        output.write((pixels[i] >> 16) & 0xff);
-        output.write((pixels[i] >> 8) & 0xff);
-        output.write(pixels[i] & 0xff);
-      }
+      PImageTIFF.write(new PImage[] { this }, output,
+                       PImageTIFF.compressionOption(options));
       output.flush();
       return true;
 
@@ -3063,144 +2116,45 @@ int testFunction(int dst, int src) {
    * <LI><TT>RGB</TT> &rarr; 24 bits
    * <LI><TT>ARGB</TT> &rarr; 32 bits
    * </UL>
-   * All versions are RLE compressed.
+   * All versions are RLE compressed, and written by PImageTGA.
    * </p>
    * Contributed by toxi 8-10 May 2005, based on this RLE
    * <A HREF="http://www.wotsit.org/download.asp?f=tga">specification</A>
    */
   protected boolean saveTGA(OutputStream output) {
-    byte[] header = new byte[18];
-
-     if (format == ALPHA) {  // save ALPHA images as 8bit grayscale
-       header[2] = 0x0B;
-       header[16] = 0x08;
-       header[17] = 0x28;
-
-     } else if (format == RGB) {
-       header[2] = 0x0A;
-       header[16] = 24;
-       header[17] = 0x20;
-
-     } else if (format == ARGB) {
-       header[2] = 0x0A;
-       header[16] = 32;
-       header[17] = 0x28;
-
-     } else {
-       throw new RuntimeException("Image format not recognized inside save()");
-     }
-     // set image dimensions lo-hi byte order
-     header[12] = (byte) (pixelWidth & 0xff);
-     header[13] = (byte) (pixelWidth >> 8);
-     header[14] = (byte) (pixelHeight & 0xff);
-     header[15] = (byte) (pixelHeight >> 8);
-
-     try {
-       output.write(header);
-
-       int maxLen = pixelHeight * pixelWidth;
-       int index = 0;
-       int col; //, prevCol;
-       int[] currChunk = new int[128];
-
-       // 8bit image exporter is in separate loop
-       // to avoid excessive conditionals...
-       if (format == ALPHA) {
-         while (index < maxLen) {
-           boolean isRLE = false;
-           int rle = 1;
-           currChunk[0] = col = pixels[index] & 0xff;
-           while (index + rle < maxLen) {
-             if (col != (pixels[index + rle]&0xff) || rle == 128) {
-               isRLE = (rle > 1);
-               break;
-             }
-             rle++;
-           }
-           if (isRLE) {
-             output.write(0x80 | (rle - 1));
-             output.write(col);
-
-           } else {
-             rle = 1;
-             while (index + rle < maxLen) {
-               int cscan = pixels[index + rle] & 0xff;
-               if ((col != cscan && rle < 128) || rle < 3) {
-                 currChunk[rle] = col = cscan;
-               } else {
-                 if (col == cscan) rle -= 2;
-                 break;
-               }
-               rle++;
-             }
-             output.write(rle - 1);
-             for (int i = 0; i < rle; i++) output.write(currChunk[i]);
-           }
-           index += rle;
-         }
-       } else {  // export 24/32 bit TARGA
-         while (index < maxLen) {
-           boolean isRLE = false;
-           currChunk[0] = col = pixels[index];
-           int rle = 1;
-           // try to find repeating bytes (min. len = 2 pixels)
-           // maximum chunk size is 128 pixels
-           while (index + rle < maxLen) {
-             if (col != pixels[index + rle] || rle == 128) {
-               isRLE = (rle > 1); // set flag for RLE chunk
-               break;
-             }
-             rle++;
-           }
-           if (isRLE) {
-             output.write(128 | (rle - 1));
-             output.write(col & 0xff);
-             output.write(col >> 8 & 0xff);
-             output.write(col >> 16 & 0xff);
-             if (format == ARGB) output.write(col >>> 24 & 0xff);
-
-           } else {  // not RLE
-             rle = 1;
-             while (index + rle < maxLen) {
-               if ((col != pixels[index + rle] && rle < 128) || rle < 3) {
-                 currChunk[rle] = col = pixels[index + rle];
-               } else {
-                 // check if the exit condition was the start of
-                 // a repeating colour
-                 if (col == pixels[index + rle]) rle -= 2;
-                 break;
-               }
-               rle++;
-             }
-             // write uncompressed chunk
-             output.write(rle - 1);
-             if (format == ARGB) {
-               for (int i = 0; i < rle; i++) {
-                 col = currChunk[i];
-                 output.write(col & 0xff);
-                 output.write(col >> 8 & 0xff);
-                 output.write(col >> 16 & 0xff);
-                 output.write(col >>> 24 & 0xff);
-               }
-             } else {
-               for (int i = 0; i < rle; i++) {
-                 col = currChunk[i];
-                 output.write(col & 0xff);
-                 output.write(col >> 8 & 0xff);
-                 output.write(col >> 16 & 0xff);
-               }
-             }
-           }
-           index += rle;
-         }
-       }
-       output.flush();
-       return true;
-
-     } catch (IOException e) {
-       e.printStackTrace();
-       return false;
-     }
+    return saveTGA(output, null);
+  }
+
+
+  /**
+   * Write a TARGA image, RLE compressed unless the options include
+   * "compression=none", see save(filename, options).
+   */
+  protected boolean saveTGA(OutputStream output, String options) {
+    try {
+      PImageTGA.write(this, output, PImageTGA.compressOption(options));
+      output.flush();
+      return true;
+
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+
+  /**
+   * Write a PNG image directly from pixels[], see save(filename, options).
+   */
+  protected boolean savePNG(OutputStream output, String options) {
+    try {
+      PImagePNG.fromOptions(options).write(this, output);
+      return true;
+
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
+    }
   }
 
 
@@ -3212,8 +2166,7 @@ int testFunction(int dst, int src) {
    */
   protected boolean saveImageIO(String path) throws IOException {
     try {
-      int outputFormat = (format == ARGB) ?
-        BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+      boolean alpha = (format == ARGB);
 
       String extension =
         path.substring(path.lastIndexOf('.') + 1).toLowerCase();
@@ -3222,11 +2175,11 @@ int testFunction(int dst, int src) {
       // BMP just doesn't write, and JPEG writes it as a CMYK image.
       // http://code.google.com/p/processing/issues/detail?id=415
       if (extension.equals("bmp") || extension.equals("jpg") || extension.equals("jpeg")) {
-        outputFormat = BufferedImage.TYPE_INT_RGB;
+        alpha = false;
       }
 
-      BufferedImage bimage = new BufferedImage(pixelWidth, pixelHeight, outputFormat);
-      bimage.setRGB(0, 0, pixelWidth, pixelHeight, pixels, 0, pixelWidth);
+      // Write straight from pixels[], without copying into a new image
+      BufferedImage bimage = wrapPixels(alpha);
 
       File file = new File(path);
 
@@ -3362,6 +2315,10 @@ int testFunction(int dst, int src) {
    * extension, or don't include an extension. When no extension is used,
    * the extension .tif will be added to the file name.
    * <p>
+   * PNG, TIFF and TARGA files are written by Processing itself (rather
+   * than ImageIO), compressing several parts of the image at once on
+   * multiple cores. Use save(filename, options) to change the compression.
+   * <p>
    * The ImageIO API claims to support wbmp files, however they probably
    * require a black and white image. Basic testing produced a zero-length
    * file with no error.
@@ -3372,6 +2329,26 @@ int testFunction(int dst, int src) {
    * @param filename a sequence of letters and numbers
    */
   public boolean save(String filename) {  // ignore
+    return save(filename, null);
+  }
+
+
+  /**
+   * Save with options for the file format. For PNG files, "level=N" sets
+   * the compression level, from 0 (none, fastest) to 9 (smallest), with
+   * 6 as the default. "filter=" can be none, sub, up, average, paeth, or
+   * adaptive (the default), the last of which picks the best filter for
+   * each row. For example, save("frame.png", "level=1,filter=up") is
+   * several times faster than the defaults, for a somewhat larger file.
+   * <p>
+   * For TIFF files, "compression=" can be none (the default), lzw,
+   * packbits, or deflate. For TARGA files, it can be rle (the default)
+   * or none. Options are ignored for other formats.
+   *
+   * @nowebref
+   * @param options comma-separated list of options
+   */
+  public boolean save(String filename, String options) {  // ignore
     boolean success = false;
 
     if (parent != null) {
@@ -3397,6 +2374,28 @@ int testFunction(int dst, int src) {
     try {
       OutputStream os = null;
 
+      String lower = filename.toLowerCase();
+      if (lower.endsWith(".png") || lower.endsWith(".tga") ||
+          lower.endsWith(".tif") || lower.endsWith(".tiff")) {
+        // written here rather than by ImageIO, which may also know tiff
+        os = new BufferedOutputStream(new FileOutputStream(filename), 32768);
+        try {
+          if (lower.endsWith(".png")) {
+            success = savePNG(os, options);
+          } else if (lower.endsWith(".tga")) {
+            success = saveTGA(os, options);
+          } else {
+            success = saveTIFF(os, options);
+          }
+        } finally {
+          os.close();
+        }
+        if (!success) {
+          System.err.println("Error while saving image.");
+        }
+        return success;
+      }
+
       if (saveImageFormats == null) {
         saveImageFormats = javax.imageio.ImageIO.getWriterFormatNames();
       }
@@ -3412,20 +2411,10 @@ int testFunction(int dst, int src) {
         }
       }
 
-      if (filename.toLowerCase().endsWith(".tga")) {
-        os = new BufferedOutputStream(new FileOutputStream(filename), 32768);
-        success = saveTGA(os); //, pixels, width, height, format);
-
-      } else {
-        if (!filename.toLowerCase().endsWith(".tif") &&
-            !filename.toLowerCase().endsWith(".tiff")) {
-          // if no .tif extension, add it..
-          filename += ".tif";
-        }
-        os = new BufferedOutputStream(new FileOutputStream(filename), 32768);
-        success = saveTIFF(os); //, pixels, width, height);
-      }
-      os.flush();
+      // if no .tif extension, add it..
+      filename += ".tif";
+      os = new BufferedOutputStream(new FileOutputStream(filename), 32768);
+      success = saveTIFF(os, options);
       os.close();
 
     } catch (IOException e) {
@@ -0,0 +1,326 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import static processing.core.PImage.ALPHA_MASK;
+import static processing.core.PImage.RED_MASK;
+import static processing.core.PImage.GREEN_MASK;
+import static processing.core.PImage.BLUE_MASK;
+import static processing.core.PImage.PRECISIONB;
+import static processing.core.PImage.PREC_MAXVAL;
+import static processing.core.PImage.PREC_ALPHA_SHIFT;
+import static processing.core.PImage.PREC_RED_SHIFT;
+
+
+/**
+ * The blitter behind PImage.blend() and PImage.copy(). Each row of the
+ * destination is handled in two steps: the source is resampled into a row
+ * buffer, then that row is blended into the destination with a loop for
+ * the particular mode. When the source and destination are the same size,
+ * the source pixels are used directly, and REPLACE is an array copy.
+ * Large regions are split into bands of rows (see PImageFilter.run),
+ * except when an image is blended onto itself.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PImageBlend implements PConstants {
+
+
+  /**
+   * Internal blitter/resizer/copier from toxi.
+   * Uses bilinear filtering if smooth() has been enabled
+   * 'mode' determines the blending mode used in the process.
+   */
+  static void blit(PImage img,
+                   int srcX1, int srcY1, int srcX2, int srcY2,
+                   final int[] destPixels, final int screenW, int screenH,
+                   int destX1, int destY1, int destX2, int destY2,
+                   final int mode) {
+    if (srcX1 < 0) srcX1 = 0;
+    if (srcY1 < 0) srcY1 = 0;
+    if (srcX2 > img.pixelWidth) srcX2 = img.pixelWidth;
+    if (srcY2 > img.pixelHeight) srcY2 = img.pixelHeight;
+
+    int srcW = srcX2 - srcX1;
+    int srcH = srcY2 - srcY1;
+    int destW = destX2 - destX1;
+    int destH = destY2 - destY1;
+
+    final boolean smooth = true;  // may as well go with the smoothing these days
+
+    if (!smooth) {
+      srcW++; srcH++;
+    }
+
+    if (destW <= 0 || destH <= 0 ||
+        srcW <= 0 || srcH <= 0 ||
+        destX1 >= screenW || destY1 >= screenH ||
+        srcX1 >= img.pixelWidth || srcY1 >= img.pixelHeight) {
+      return;
+    }
+
+    final int dx = (int) (srcW / (float) destW * PImage.PRECISIONF);
+    final int dy = (int) (srcH / (float) destH * PImage.PRECISIONF);
+
+    final int srcXOffset = destX1 < 0 ? -destX1 * dx : srcX1 * PImage.PRECISIONF;
+    final int srcYOffset = destY1 < 0 ? -destY1 * dy : srcY1 * PImage.PRECISIONF;
+
+    if (destX1 < 0) {
+      destW += destX1;
+      destX1 = 0;
+    }
+    if (destY1 < 0) {
+      destH += destY1;
+      destY1 = 0;
+    }
+
+    final int width = Math.min(destW, screenW - destX1);
+    final int height = Math.min(destH, screenH - destY1);
+    if (width <= 0 || height <= 0) {
+      return;  // clipped away entirely
+    }
+
+    final int destOffset = destY1 * screenW + destX1;
+    final int[] src = img.pixels;
+    final int iw = img.pixelWidth;
+    final int ih = img.pixelHeight;
+
+    // At 1:1 every sample lands exactly on a source pixel, and bilinear
+    // filtering gives back that pixel unchanged, so skip the sampling.
+    final boolean exact =
+      (dx == PImage.PRECISIONF && dy == PImage.PRECISIONF);
+
+    // An image blended onto itself can read pixels that were already
+    // written earlier in the same pass (blend() only makes a copy when the
+    // regions intersect, and when the destination is clipped at the top or
+    // left, the offset into the source ignores srcX1/srcY1). To give the
+    // same results as always, that's done one pixel at a time, in order.
+    final boolean inPlace = (src == destPixels);
+
+    PImageFilter.Band band = (start, stop) -> {
+      int[] row = exact ? null : new int[inPlace ? 1 : width];
+      for (int y = start; y < stop; y++) {
+        int sy = srcYOffset + y * dy;
+        int offset = destOffset + y * screenW;
+        if (inPlace) {
+          for (int x = 0; x < width; x++) {
+            int sx = srcXOffset + x * dx;
+            if (exact) {
+              int index = (sy >> PRECISIONB) * iw + (sx >> PRECISIONB);
+              blendRow(mode, src, index, destPixels, offset + x, 1);
+            } else {
+              sample(smooth, src, iw, ih, sx, sy, dx, row, 1);
+              blendRow(mode, row, 0, destPixels, offset + x, 1);
+            }
+          }
+        } else if (exact) {
+          int index = (sy >> PRECISIONB) * iw + (srcXOffset >> PRECISIONB);
+          blendRow(mode, src, index, destPixels, offset, width);
+        } else {
+          sample(smooth, src, iw, ih, srcXOffset, sy, dx, row, width);
+          blendRow(mode, row, 0, destPixels, offset, width);
+        }
+      }
+    };
+    if (inPlace) {
+      band.run(0, height);
+    } else {
+      PImageFilter.run(height, width * height, band);
+    }
+  }
+
+
+  static private void sample(boolean smooth, int[] src, int iw, int ih,
+                             int sX, int sY, int dx, int[] outgoing, int count) {
+    if (smooth) {
+      bilinear(src, iw, ih, sX, sY, dx, outgoing, count);
+    } else {
+      nearest(src, iw, sX, sY, dx, outgoing, count);
+    }
+  }
+
+
+  /**
+   * Fill 'outgoing' with a row of samples, starting at (sX, sY) in the
+   * source and stepping by dx. Coordinates are fixed point.
+   */
+  static private void bilinear(int[] src, int iw, int ih, int sX, int sY,
+                               int dx, int[] outgoing, int count) {
+    int iw1 = iw - 1;
+    int ih1 = ih - 1;
+
+    int fracV = sY & PREC_MAXVAL;
+    int ifV = PREC_MAXVAL - fracV + 1;
+    int v1 = (sY >> PRECISIONB) * iw;
+    int v2 = Math.min((sY >> PRECISIONB) + 1, ih1) * iw;
+
+    for (int x = 0; x < count; x++) {
+      int fracU = sX & PREC_MAXVAL;
+      int ifU = PREC_MAXVAL - fracU + 1;
+      int ul = (ifU * ifV) >> PRECISIONB;
+      int ll = ifU - ul;
+      int ur = ifV - ul;
+      int lr = PREC_MAXVAL + 1 - ul - ll - ur;
+      int u1 = (sX >> PRECISIONB);
+      int u2 = Math.min(u1 + 1, iw1);
+
+      // get color values of the 4 neighbouring texels
+      int cUL = src[v1 + u1];
+      int cUR = src[v1 + u2];
+      int cLL = src[v2 + u1];
+      int cLR = src[v2 + u2];
+
+      int r = ((ul*((cUL&RED_MASK)>>16) + ll*((cLL&RED_MASK)>>16) +
+                ur*((cUR&RED_MASK)>>16) + lr*((cLR&RED_MASK)>>16))
+               << PREC_RED_SHIFT) & RED_MASK;
+
+      int g = ((ul*(cUL&GREEN_MASK) + ll*(cLL&GREEN_MASK) +
+                ur*(cUR&GREEN_MASK) + lr*(cLR&GREEN_MASK))
+               >>> PRECISIONB) & GREEN_MASK;
+
+      int b = (ul*(cUL&BLUE_MASK) + ll*(cLL&BLUE_MASK) +
+               ur*(cUR&BLUE_MASK) + lr*(cLR&BLUE_MASK))
+                 >>> PRECISIONB;
+
+      int a = ((ul*((cUL&ALPHA_MASK)>>>24) + ll*((cLL&ALPHA_MASK)>>>24) +
+                ur*((cUR&ALPHA_MASK)>>>24) + lr*((cLR&ALPHA_MASK)>>>24))
+               << PREC_ALPHA_SHIFT) & ALPHA_MASK;
+
+      outgoing[x] = a | r | g | b;
+      sX += dx;
+    }
+  }
+
+
+  /** Nearest neighbour scaling (++fast!) */
+  static private void nearest(int[] src, int iw, int sX, int sY,
+                              int dx, int[] outgoing, int count) {
+    int index = (sY >> PRECISIONB) * iw;
+    for (int x = 0; x < count; x++) {
+      outgoing[x] = src[index + (sX >> PRECISIONB)];
+      sX += dx;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Blend 'count' source pixels into the destination. The switch happens
+   * once per row, and each mode gets its own loop so that the blend
+   * function is inlined.
+   */
+  static void blendRow(int mode, int[] s, int si, int[] d, int di, int count) {
+    int stop = di + count;
+    switch (mode) {
+    case REPLACE:
+      System.arraycopy(s, si, d, di, count);
+      break;
+
+    case BLEND:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_blend(d[di], s[si]);
+      }
+      break;
+
+    case ADD:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_add_pin(d[di], s[si]);
+      }
+      break;
+
+    case SUBTRACT:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_sub_pin(d[di], s[si]);
+      }
+      break;
+
+    case LIGHTEST:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_lightest(d[di], s[si]);
+      }
+      break;
+
+    case DARKEST:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_darkest(d[di], s[si]);
+      }
+      break;
+
+    case DIFFERENCE:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_difference(d[di], s[si]);
+      }
+      break;
+
+    case EXCLUSION:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_exclusion(d[di], s[si]);
+      }
+      break;
+
+    case MULTIPLY:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_multiply(d[di], s[si]);
+      }
+      break;
+
+    case SCREEN:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_screen(d[di], s[si]);
+      }
+      break;
+
+    case OVERLAY:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_overlay(d[di], s[si]);
+      }
+      break;
+
+    case HARD_LIGHT:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_hard_light(d[di], s[si]);
+      }
+      break;
+
+    case SOFT_LIGHT:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_soft_light(d[di], s[si]);
+      }
+      break;
+
+    case DODGE:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_dodge(d[di], s[si]);
+      }
+      break;
+
+    case BURN:
+      for (; di < stop; di++, si++) {
+        d[di] = PImage.blend_burn(d[di], s[si]);
+      }
+      break;
+    }
+  }
+}
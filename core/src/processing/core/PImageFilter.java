@@ -0,0 +1,478 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * The pixel kernels behind PImage.filter(). Large images are split into
+ * bands of rows that run on the common ForkJoinPool. The results are
+ * identical to the original single-threaded versions of these filters
+ * (the same integer math, just done in a different order), so an image
+ * filtered on one core matches the same image filtered on eight.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PImageFilter {
+  /** Images with fewer pixels than this are filtered on a single thread */
+  static final int PARALLEL_THRESHOLD = 1 << 16;
+
+  /** Largest blur radius (in pixels) that will be used */
+  static final int MAX_RADIUS = 248;
+
+  /** Blur kernels, built the first time each radius is used */
+  static private final Kernel[] kernels = new Kernel[MAX_RADIUS + 1];
+
+  /** Scratch buffers left over from earlier filters, can be reclaimed by GC */
+  static private final List<SoftReference<Object>> scratch = new ArrayList<>();
+  static private final int SCRATCH_COUNT = 4;
+
+
+  /** Work on a range of rows (or pixels), from start up to (not including) stop */
+  interface Band {
+    void run(int start, int stop);
+  }
+
+
+  /**
+   * Weights for a separable gaussian blur of a particular radius. These are
+   * shared between threads and images, and never modified once built.
+   */
+  static class Kernel {
+    final int radius;
+    final int size;
+    final int[] weights;
+    /** sums[i] is the sum of weights[0] through weights[i-1] */
+    final int[] sums;
+
+    Kernel(int radius) {
+      this.radius = radius;
+      size = 1 + radius<<1;
+      weights = new int[size];
+      for (int i = 1, radiusi = radius - 1; i < radius; i++) {
+        weights[radius+i] = weights[radiusi] = radiusi * radiusi;
+        radiusi--;
+      }
+      weights[radius] = radius * radius;
+      sums = new int[size + 1];
+      for (int i = 0; i < size; i++) {
+        sums[i+1] = sums[i] + weights[i];
+      }
+    }
+  }
+
+
+  /** Get the blur kernel for the filter(BLUR, r) parameter. */
+  static Kernel kernel(float r) {
+    int radius = (int) (r * 3.5f);
+    radius = (radius < 1) ? 1 : ((radius < MAX_RADIUS) ? radius : MAX_RADIUS);
+    synchronized (kernels) {
+      Kernel k = kernels[radius];
+      if (k == null) {
+        k = new Kernel(radius);
+        kernels[radius] = k;
+      }
+      return k;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  static int[] borrow(int length) {
+    int[] array = (int[]) reuse(int[].class, length);
+    return (array != null) ? array : new int[length];
+  }
+
+
+  static float[] borrowFloats(int length) {
+    float[] array = (float[]) reuse(float[].class, length);
+    return (array != null) ? array : new float[length];
+  }
+
+
+  static private Object reuse(Class<?> type, int length) {
+    synchronized (scratch) {
+      for (int i = scratch.size() - 1; i >= 0; --i) {
+        Object array = scratch.get(i).get();
+        if (array == null) {
+          scratch.remove(i);
+        } else if (array.getClass() == type &&
+                   Array.getLength(array) >= length) {
+          scratch.remove(i);
+          return array;
+        }
+      }
+    }
+    return null;
+  }
+
+
+  /** Hand back an int[] or float[] from borrow() for reuse */
+  static void release(Object array) {
+    synchronized (scratch) {
+      if (scratch.size() == SCRATCH_COUNT) {
+        scratch.remove(0);  // oldest
+      }
+      scratch.add(new SoftReference<>(array));
+    }
+  }
+
+
+  /**
+   * Run a band over [0, count), split up into several pieces if the job
+   * is large enough (pixelCount, or the equivalent amount of work) and
+   * there's more than one core to use. Used for images, and also by color
+   * math and bulk noise().
+   */
+  static void run(int count, int pixelCount, final Band band) {
+    int parallelism = ForkJoinPool.getCommonPoolParallelism();
+    if (parallelism < 2 || pixelCount < PARALLEL_THRESHOLD || count < 2) {
+      band.run(0, count);
+      return;
+    }
+    // a few bands per core so that an uneven split doesn't leave cores idle
+    int pieces = Math.min(count, parallelism * 4);
+    List<Callable<Void>> tasks = new ArrayList<>(pieces);
+    for (int i = 0; i < pieces; i++) {
+      final int start = (int) ((long) count * i / pieces);
+      final int stop = (int) ((long) count * (i+1) / pieces);
+      tasks.add(() -> {
+        band.run(start, stop);
+        return null;
+      });
+    }
+    try {
+      for (Future<Void> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while waiting for parallel work", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  static void gray(final int[] pixels, boolean alpha) {
+    if (alpha) {
+      // for an alpha image, convert it to an opaque grayscale
+      run(pixels.length, pixels.length, (start, stop) -> {
+        for (int i = start; i < stop; i++) {
+          int col = 255 - pixels[i];
+          pixels[i] = 0xff000000 | (col << 16) | (col << 8) | col;
+        }
+      });
+    } else {
+      // luminance = 0.3*red + 0.59*green + 0.11*blue
+      run(pixels.length, pixels.length, (start, stop) -> {
+        for (int i = start; i < stop; i++) {
+          int col = pixels[i];
+          int lum = (77*(col>>16&0xff) + 151*(col>>8&0xff) + 28*(col&0xff))>>8;
+          pixels[i] = (col & 0xff000000) | lum<<16 | lum<<8 | lum;
+        }
+      });
+    }
+  }
+
+
+  static void invert(final int[] pixels) {
+    run(pixels.length, pixels.length, (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        pixels[i] ^= 0xffffff;
+      }
+    });
+  }
+
+
+  static void opaque(final int[] pixels) {
+    run(pixels.length, pixels.length, (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        pixels[i] |= 0xff000000;
+      }
+    });
+  }
+
+
+  static void posterize(final int[] pixels, final int levels) {
+    // only 256 possible inputs for each channel, so make a table
+    final int[] table = new int[256];
+    int levels1 = levels - 1;
+    for (int i = 0; i < 256; i++) {
+      table[i] = (((i * levels) >> 8) * 255) / levels1;
+    }
+    run(pixels.length, pixels.length, (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        int c = pixels[i];
+        pixels[i] = (c & 0xff000000) |
+          (table[(c >> 16) & 0xff] << 16) |
+          (table[(c >> 8) & 0xff] << 8) |
+          table[c & 0xff];
+      }
+    });
+  }
+
+
+  static void threshold(final int[] pixels, final int thresh) {
+    run(pixels.length, pixels.length, (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        int c = pixels[i];
+        int max = Math.max((c >> 16) & 0xff, Math.max((c >> 8) & 0xff, c & 0xff));
+        pixels[i] = (c & 0xff000000) | ((max < thresh) ? 0x000000 : 0xffffff);
+      }
+    });
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Gaussian blur in two passes, first across each row into a scratch
+   * buffer, then down each column back into pixels[]. The intermediate
+   * values for each channel are 0..255, so they're packed four to an int
+   * in the same layout as a pixel, rather than using an array per channel.
+   * The second pass walks a row at a time (adding each source row into
+   * a set of accumulators) instead of walking down the columns.
+   *
+   * @param format ALPHA, RGB, or ARGB
+   */
+  static void blur(final int[] pixels, final int w, final int h,
+                   final int format, float r) {
+    final Kernel k = kernel(r);
+    final int[] temp = borrow(w * h);
+    try {
+      run(h, w * h, (start, stop) -> blurRows(pixels, temp, w, k, format, start, stop));
+      run(h, w * h, (start, stop) -> blurColumns(temp, pixels, w, h, k, format, start, stop));
+    } finally {
+      release(temp);
+    }
+  }
+
+
+  static private void blurRows(int[] src, int[] dst, int w, Kernel k,
+                               int format, int start, int stop) {
+    int[] weights = k.weights;
+    int[] sums = k.sums;
+    int radius = k.radius;
+
+    for (int y = start; y < stop; y++) {
+      int yi = y * w;
+      for (int x = 0; x < w; x++) {
+        int read = x - radius;
+        int bk0 = 0;
+        if (read < 0) {
+          bk0 = -read;
+          read = 0;
+        }
+        int bk1 = Math.min(k.size, bk0 + w - read);
+        int sum = sums[bk1] - sums[bk0];
+        read += yi;
+
+        if (format == PConstants.ALPHA) {
+          int cb = 0;
+          for (int i = bk0; i < bk1; i++) {
+            cb += weights[i] * (src[read++] & 0xff);
+          }
+          dst[yi + x] = cb / sum;
+
+        } else if (format == PConstants.ARGB) {
+          int ca = 0, cr = 0, cg = 0, cb = 0;
+          for (int i = bk0; i < bk1; i++) {
+            int c = src[read++];
+            int wt = weights[i];
+            ca += wt * (c >>> 24);
+            cr += wt * ((c >> 16) & 0xff);
+            cg += wt * ((c >> 8) & 0xff);
+            cb += wt * (c & 0xff);
+          }
+          dst[yi + x] = (ca/sum)<<24 | (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
+
+        } else {
+          int cr = 0, cg = 0, cb = 0;
+          for (int i = bk0; i < bk1; i++) {
+            int c = src[read++];
+            int wt = weights[i];
+            cr += wt * ((c >> 16) & 0xff);
+            cg += wt * ((c >> 8) & 0xff);
+            cb += wt * (c & 0xff);
+          }
+          dst[yi + x] = (cr/sum)<<16 | (cg/sum)<<8 | (cb/sum);
+        }
+      }
+    }
+  }
+
+
+  static private void blurColumns(int[] src, int[] dst, int w, int h, Kernel k,
+                                  int format, int start, int stop) {
+    int[] weights = k.weights;
+    int[] sums = k.sums;
+    boolean argb = (format == PConstants.ARGB);
+    int[] ca = argb ? new int[w] : null;
+    int[] cr = new int[w];
+    int[] cg = new int[w];
+    int[] cb = new int[w];
+
+    for (int y = start; y < stop; y++) {
+      // The original version counted rows from -ym rather than zero when
+      // the kernel hangs off the top, which cuts it short on images that
+      // are shorter than the kernel. That's kept here so results match.
+      int ym = y - k.radius;
+      int bk0, ri, row;
+      if (ym < 0) {
+        bk0 = ri = -ym;
+        row = 0;
+      } else {
+        bk0 = 0;
+        ri = row = ym;
+      }
+      // (and with no rows left, sum is zero and this throws like it used to)
+      int bk1 = Math.max(bk0, Math.min(k.size, bk0 + h - ri));
+      int sum = sums[bk1] - sums[bk0];
+
+      int yi = y * w;
+      if (format == PConstants.ALPHA) {
+        Arrays.fill(cb, 0);
+        for (int i = bk0; i < bk1; i++, row++) {
+          int wt = weights[i];
+          int read = row * w;
+          for (int x = 0; x < w; x++) {
+            cb[x] += wt * src[read + x];
+          }
+        }
+        for (int x = 0; x < w; x++) {
+          dst[yi + x] = cb[x] / sum;
+        }
+
+      } else {
+        if (argb) Arrays.fill(ca, 0);
+        Arrays.fill(cr, 0);
+        Arrays.fill(cg, 0);
+        Arrays.fill(cb, 0);
+        for (int i = bk0; i < bk1; i++, row++) {
+          int wt = weights[i];
+          int read = row * w;
+          if (argb) {
+            for (int x = 0; x < w; x++) {
+              ca[x] += wt * (src[read + x] >>> 24);
+            }
+          }
+          for (int x = 0; x < w; x++) {
+            int c = src[read + x];
+            cr[x] += wt * ((c >> 16) & 0xff);
+            cg[x] += wt * ((c >> 8) & 0xff);
+            cb[x] += wt * (c & 0xff);
+          }
+        }
+        if (argb) {
+          for (int x = 0; x < w; x++) {
+            dst[yi + x] = (ca[x]/sum)<<24 | (cr[x]/sum)<<16 | (cg[x]/sum)<<8 | (cb[x]/sum);
+          }
+        } else {
+          for (int x = 0; x < w; x++) {
+            dst[yi + x] = 0xff000000 | (cr[x]/sum)<<16 | (cg[x]/sum)<<8 | (cb[x]/sum);
+          }
+        }
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Replace each pixel with the brightest (dilate) or darkest (erode) of
+   * itself and its four neighbors, using luminance to decide.
+   */
+  static void dilate(final int[] pixels, final int w, final int h,
+                     boolean erode) {
+    // erode is the same as dilate with the luminance flipped around
+    final int sign = erode ? -1 : 1;
+    final int[] lum = borrow(w * h);
+    final int[] outgoing = borrow(w * h);
+    try {
+      // luminance for each pixel, rather than five times over
+      run(h, w * h, (start, stop) -> {
+        for (int i = start * w; i < stop * w; i++) {
+          int c = pixels[i];
+          lum[i] = sign * (77*(c>>16&0xff) + 151*(c>>8&0xff) + 28*(c&0xff));
+        }
+      });
+      run(h, w * h, (start, stop) -> {
+        for (int y = start; y < stop; y++) {
+          int rowStart = y * w;
+          int rowStop = rowStart + w;
+          for (int index = rowStart; index < rowStop; index++) {
+            int idxLeft = (index == rowStart) ? index : index - 1;
+            int idxRight = (index + 1 == rowStop) ? index : index + 1;
+            int idxUp = (y == 0) ? index : index - w;
+            int idxDown = (y == h - 1) ? index : index + w;
+
+            // same order as before, so that ties go the same way
+            int result = index;
+            int currLum = lum[index];
+            if (lum[idxLeft] > currLum) {
+              result = idxLeft;
+              currLum = lum[idxLeft];
+            }
+            if (lum[idxRight] > currLum) {
+              result = idxRight;
+              currLum = lum[idxRight];
+            }
+            if (lum[idxUp] > currLum) {
+              result = idxUp;
+              currLum = lum[idxUp];
+            }
+            if (lum[idxDown] > currLum) {
+              result = idxDown;
+            }
+            outgoing[index] = pixels[result];
+          }
+        }
+      });
+      System.arraycopy(outgoing, 0, pixels, 0, w * h);
+    } finally {
+      release(lum);
+      release(outgoing);
+    }
+  }
+}
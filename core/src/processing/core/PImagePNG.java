@@ -0,0 +1,440 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Writes PNG files directly from pixels[], without going through a
+ * BufferedImage and ImageIO. The image is split into chunks of rows that
+ * are filtered and compressed on separate threads, then written one after
+ * another as a single deflate stream (the same trick used by pigz). Each
+ * chunk is primed with the 32K of data before it, so the compression is
+ * nearly as good as compressing everything at once.
+ * <p/>
+ * ALPHA images are written as 8-bit grayscale, RGB as 24-bit color, and
+ * ARGB as 32-bit color with alpha.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PImagePNG implements PConstants {
+  // filter types, as numbered in the PNG specification
+  static final int NONE = 0;
+  static final int SUB = 1;
+  static final int UP = 2;
+  static final int AVERAGE = 3;
+  static final int PAETH = 4;
+  /** Try each filter on each row, and keep the one that looks smallest */
+  static final int ADAPTIVE = 5;
+
+  static final String[] FILTER_NAMES = {
+    "none", "sub", "up", "average", "paeth", "adaptive"
+  };
+
+  static final int DEFAULT_LEVEL = 6;
+  static final int DEFAULT_FILTER = ADAPTIVE;
+
+  /** Approximate amount of (filtered) data for each chunk */
+  static final int CHUNK_BYTES = 1 << 18;
+  /** Size of the deflate window, the most that a chunk can refer back to */
+  static final int WINDOW = 1 << 15;
+
+  static final byte[] SIGNATURE = {
+    (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+  };
+
+  final int level;
+  final int filter;
+
+
+  PImagePNG(int level, int filter) {
+    if (level < 0 || level > 9) {
+      throw new IllegalArgumentException("PNG compression level must be between 0 and 9");
+    }
+    if (filter < NONE || filter > ADAPTIVE) {
+      throw new IllegalArgumentException("Unknown PNG filter " + filter);
+    }
+    this.level = level;
+    this.filter = filter;
+  }
+
+
+  /**
+   * Settings from a list of options like "level=1,filter=up". The filter
+   * can be none, sub, up, average, paeth, or adaptive (the default).
+   */
+  static PImagePNG fromOptions(String options) {
+    int level = DEFAULT_LEVEL;
+    int filter = DEFAULT_FILTER;
+    if (options != null) {
+      for (String option : PApplet.trim(PApplet.split(options, ','))) {
+        if (option.length() == 0) continue;
+
+        if (option.startsWith("level=")) {
+          level = PApplet.parseInt(option.substring(6), -1);
+        } else if (option.startsWith("filter=")) {
+          String name = option.substring(7).toLowerCase();
+          filter = Arrays.asList(FILTER_NAMES).indexOf(name);
+          if (filter == -1) {
+            throw new IllegalArgumentException("Unknown PNG filter " + name);
+          }
+        } else {
+          throw new IllegalArgumentException(option + " is not a PNG option");
+        }
+      }
+    }
+    return new PImagePNG(level, filter);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  void write(PImage image, OutputStream output) throws IOException {
+    final int[] pixels = image.pixels;
+    final int width = image.pixelWidth;
+    final int height = image.pixelHeight;
+    final int format = image.format;
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Cannot save an empty image");
+    }
+
+    final int bpp = (format == ALPHA) ? 1 : ((format == ARGB) ? 4 : 3);
+    final int stride = width * bpp + 1;  // the filter type, then the row
+    final int rowsPerChunk = Math.max(1, CHUNK_BYTES / stride);
+    final int chunkCount = (height + rowsPerChunk - 1) / rowsPerChunk;
+
+    output.write(SIGNATURE);
+
+    byte[] header = new byte[13];
+    putInt(header, 0, width);
+    putInt(header, 4, height);
+    header[8] = 8;  // bit depth
+    header[9] = (byte) ((format == ALPHA) ? 0 : ((format == ARGB) ? 6 : 2));
+    // compression, filter method, and interlace are all 0
+    writeChunk(output, "IHDR", header, header.length);
+
+    // Compress a group of chunks at a time, a few for each core, so that
+    // not all of the compressed data has to be held in memory at once.
+    int group = Math.max(1, ForkJoinPool.getCommonPoolParallelism() * 4);
+    final byte[][] compressed = new byte[group][];
+    final int[] compressedLength = new int[group];
+    final long[] adler = new long[group];
+    final int[] dataLength = new int[group];
+    long checksum = 1;
+
+    for (int first = 0; first < chunkCount; first += group) {
+      final int base = first;
+      int count = Math.min(group, chunkCount - first);
+      PImageFilter.run(count, count * rowsPerChunk * width, (start, stop) -> {
+        for (int i = start; i < stop; i++) {
+          int chunk = base + i;
+          int y0 = chunk * rowsPerChunk;
+          int y1 = Math.min(height, y0 + rowsPerChunk);
+          Compressed c = compress(pixels, width, height, bpp, stride,
+                                  y0, y1, chunk == chunkCount - 1);
+          compressed[i] = c.data;
+          compressedLength[i] = c.length;
+          adler[i] = c.adler;
+          dataLength[i] = c.dataLength;
+        }
+      });
+
+      for (int i = 0; i < count; i++) {
+        checksum = combineAdler(checksum, adler[i], dataLength[i]);
+        byte[] data = compressed[i];
+        int length = compressedLength[i];
+        if (base + i == 0) {
+          // zlib header in front of the first chunk
+          byte[] withHeader = new byte[length + 2];
+          withHeader[0] = 0x78;
+          withHeader[1] = zlibFlags(level);
+          System.arraycopy(data, 0, withHeader, 2, length);
+          data = withHeader;
+          length += 2;
+        }
+        if (base + i == chunkCount - 1) {
+          // and the checksum of the uncompressed data after the last
+          if (data.length < length + 4) {
+            data = Arrays.copyOf(data, length + 4);
+          }
+          putInt(data, length, (int) checksum);
+          length += 4;
+        }
+        writeChunk(output, "IDAT", data, length);
+        compressed[i] = null;
+      }
+    }
+
+    writeChunk(output, "IEND", new byte[0], 0);
+    output.flush();
+  }
+
+
+  static class Compressed {
+    byte[] data;
+    int length;
+    long adler;
+    int dataLength;
+  }
+
+
+  /**
+   * Filter and compress the rows from y0 to y1. Unless this is the first
+   * chunk, the rows just above are filtered as well (but not written), to
+   * use as the preset dictionary.
+   */
+  Compressed compress(int[] pixels, int width, int height, int bpp, int stride,
+                      int y0, int y1, boolean last) {
+    int dictRows = (y0 == 0) ? 0 : Math.min(y0, (WINDOW + stride - 1) / stride);
+    int top = y0 - dictRows;
+    byte[] filtered = new byte[(y1 - top) * stride];
+
+    byte[] prev = new byte[width * bpp];
+    byte[] curr = new byte[width * bpp];
+    byte[][] scratch = (filter == ADAPTIVE) ? new byte[5][width * bpp] : null;
+    if (top > 0) {
+      unpack(pixels, (top - 1) * width, width, bpp, prev);
+    }
+    for (int y = top; y < y1; y++) {
+      unpack(pixels, y * width, width, bpp, curr);
+      filterRow(curr, prev, bpp, filtered, (y - top) * stride, scratch);
+      byte[] temp = prev;
+      prev = curr;
+      curr = temp;
+    }
+
+    int offset = dictRows * stride;
+    int length = filtered.length - offset;
+
+    Compressed outgoing = new Compressed();
+    Adler32 adler = new Adler32();
+    adler.update(filtered, offset, length);
+    outgoing.adler = adler.getValue();
+    outgoing.dataLength = length;
+
+    Deflater deflater = new Deflater(level, true);
+    try {
+      if (dictRows != 0 && level != 0) {
+        int dictLength = Math.min(WINDOW, offset);
+        deflater.setDictionary(filtered, offset - dictLength, dictLength);
+      }
+      deflater.setInput(filtered, offset, length);
+      if (last) {
+        deflater.finish();
+      }
+      byte[] out = new byte[Math.max(1024, length / 2)];
+      int count = 0;
+      while (true) {
+        if (count == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        int n = last ?
+          deflater.deflate(out, count, out.length - count) :
+          deflater.deflate(out, count, out.length - count, Deflater.SYNC_FLUSH);
+        count += n;
+        // done once everything is out, which is when the buffer isn't full
+        if (last ? deflater.finished() : (count < out.length && deflater.needsInput())) {
+          break;
+        }
+      }
+      outgoing.data = out;
+      outgoing.length = count;
+    } finally {
+      deflater.end();
+    }
+    return outgoing;
+  }
+
+
+  /** One row of pixels as bytes, in the order used by PNG */
+  static private void unpack(int[] pixels, int index, int width, int bpp,
+                             byte[] row) {
+    int b = 0;
+    if (bpp == 1) {
+      for (int x = 0; x < width; x++) {
+        row[b++] = (byte) pixels[index++];
+      }
+    } else if (bpp == 3) {
+      for (int x = 0; x < width; x++) {
+        int c = pixels[index++];
+        row[b++] = (byte) (c >> 16);
+        row[b++] = (byte) (c >> 8);
+        row[b++] = (byte) c;
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        int c = pixels[index++];
+        row[b++] = (byte) (c >> 16);
+        row[b++] = (byte) (c >> 8);
+        row[b++] = (byte) c;
+        row[b++] = (byte) (c >>> 24);
+      }
+    }
+  }
+
+
+  private void filterRow(byte[] curr, byte[] prev, int bpp,
+                         byte[] out, int offset, byte[][] scratch) {
+    int type = filter;
+    if (type == ADAPTIVE) {
+      // the usual heuristic: smallest sum of the (signed) filtered bytes
+      long best = Long.MAX_VALUE;
+      for (int t = NONE; t <= PAETH; t++) {
+        filterRow(t, curr, prev, bpp, scratch[t], 0);
+        long sum = 0;
+        for (byte b : scratch[t]) {
+          sum += Math.abs(b);
+        }
+        if (sum < best) {
+          best = sum;
+          type = t;
+        }
+      }
+      out[offset] = (byte) type;
+      System.arraycopy(scratch[type], 0, out, offset + 1, curr.length);
+
+    } else {
+      out[offset] = (byte) type;
+      filterRow(type, curr, prev, bpp, out, offset + 1);
+    }
+  }
+
+
+  static private void filterRow(int type, byte[] curr, byte[] prev, int bpp,
+                                byte[] out, int offset) {
+    int length = curr.length;
+    switch (type) {
+    case NONE:
+      System.arraycopy(curr, 0, out, offset, length);
+      break;
+
+    case SUB:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = curr[i];
+      }
+      for (int i = bpp; i < length; i++) {
+        out[offset + i] = (byte) (curr[i] - curr[i - bpp]);
+      }
+      break;
+
+    case UP:
+      for (int i = 0; i < length; i++) {
+        out[offset + i] = (byte) (curr[i] - prev[i]);
+      }
+      break;
+
+    case AVERAGE:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = (byte) (curr[i] - ((prev[i] & 0xff) >> 1));
+      }
+      for (int i = bpp; i < length; i++) {
+        int avg = ((curr[i - bpp] & 0xff) + (prev[i] & 0xff)) >> 1;
+        out[offset + i] = (byte) (curr[i] - avg);
+      }
+      break;
+
+    case PAETH:
+      for (int i = 0; i < bpp; i++) {
+        out[offset + i] = (byte) (curr[i] - prev[i]);
+      }
+      for (int i = bpp; i < length; i++) {
+        int a = curr[i - bpp] & 0xff;
+        int b = prev[i] & 0xff;
+        int c = prev[i - bpp] & 0xff;
+        int pa = Math.abs(b - c);
+        int pb = Math.abs(a - c);
+        int pc = Math.abs(a + b - 2*c);
+        int predictor = (pa <= pb && pa <= pc) ? a : ((pb <= pc) ? b : c);
+        out[offset + i] = (byte) (curr[i] - predictor);
+      }
+      break;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** The FLG byte of the zlib header, with the level hint and check bits */
+  static private byte zlibFlags(int level) {
+    if (level <= 1) return 0x01;
+    if (level <= 5) return 0x5E;
+    if (level == 6) return (byte) 0x9C;
+    return (byte) 0xDA;
+  }
+
+
+  /**
+   * The Adler-32 of two pieces of data one after another, given the
+   * checksum of each and the length of the second (from zlib's
+   * adler32_combine).
+   */
+  static long combineAdler(long adler1, long adler2, long length2) {
+    final long BASE = 65521;
+    long rem = length2 % BASE;
+    long sum1 = adler1 & 0xffff;
+    long sum2 = (rem * sum1) % BASE;
+    sum1 += (adler2 & 0xffff) + BASE - 1;
+    sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + BASE - rem;
+    if (sum1 >= BASE) sum1 -= BASE;
+    if (sum1 >= BASE) sum1 -= BASE;
+    if (sum2 >= (BASE << 1)) sum2 -= (BASE << 1);
+    if (sum2 >= BASE) sum2 -= BASE;
+    return sum1 | (sum2 << 16);
+  }
+
+
+  static private void putInt(byte[] b, int offset, int value) {
+    b[offset] = (byte) (value >>> 24);
+    b[offset + 1] = (byte) (value >>> 16);
+    b[offset + 2] = (byte) (value >>> 8);
+    b[offset + 3] = (byte) value;
+  }
+
+
+  static private void writeChunk(OutputStream output, String type,
+                                 byte[] data, int length) throws IOException {
+    byte[] head = new byte[8];
+    putInt(head, 0, length);
+    for (int i = 0; i < 4; i++) {
+      head[4 + i] = (byte) type.charAt(i);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(head, 4, 4);
+    crc.update(data, 0, length);
+    byte[] tail = new byte[4];
+    putInt(tail, 0, (int) crc.getValue());
+
+    output.write(head);
+    output.write(data, 0, length);
+    output.write(tail);
+  }
+}
@@ -0,0 +1,321 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Arrays;
+
+
+/**
+ * Resampling for PImage.resize(), done directly on the pixels[] arrays.
+ * The image is filtered in two passes: each row is resized horizontally
+ * into a float scratch buffer, then each column is resized vertically into
+ * the destination. When shrinking, the filter is widened by the same
+ * amount so that every source pixel contributes (no skipped pixels or
+ * aliasing), which also means that a single pass is enough at any scale.
+ * ARGB images are filtered with premultiplied alpha so that the colors of
+ * fully transparent pixels don't bleed into their neighbors.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PImageResize implements PConstants {
+
+  // Fixed point is used for the first pass, where each tap reads an int
+  // pixel. With 14 bits, a premultiplied channel (up to 255*255) times the
+  // weights (which add up to 1, plus the negative lobes for LANCZOS)
+  // still fits comfortably in an int.
+  static final int FIXED_BITS = 14;
+  static final int FIXED_ONE = 1 << FIXED_BITS;
+  static final float FIXED_SCALE = 1f / FIXED_ONE;
+
+  /** Recently used weights, since the same sizes tend to come up again */
+  static private final Weights[] recent = new Weights[8];
+  static private int recentIndex;
+
+
+  /**
+   * For each destination pixel along one axis, the range of source pixels
+   * that contribute to it and how much. Never modified once built.
+   */
+  static class Weights {
+    final int srcSize, dstSize, filter;
+    final int[] first;
+    final int[] count;
+    /** count[i] weights for pixel i start at weights[i * stride] */
+    final float[] weights;
+    /** the same weights, as fixed point with FIXED_BITS of fraction */
+    final int[] fixed;
+    final int stride;
+
+    Weights(int srcSize, int dstSize, int filter) {
+      this.srcSize = srcSize;
+      this.dstSize = dstSize;
+      this.filter = filter;
+
+      float scale = (float) srcSize / dstSize;
+      float filterScale = Math.max(scale, 1);
+      float support = support(filter) * filterScale;
+
+      stride = (int) Math.ceil(support) * 2 + 1;
+      first = new int[dstSize];
+      count = new int[dstSize];
+      weights = new float[dstSize * stride];
+
+      for (int i = 0; i < dstSize; i++) {
+        float center = (i + 0.5f) * scale;
+        int lo = Math.max(0, (int) (center - support + 0.5f));
+        int hi = Math.min(srcSize, (int) (center + support + 0.5f));
+        if (hi - lo > stride) {
+          hi = lo + stride;
+        }
+        int offset = i * stride;
+        float sum = 0;
+        for (int j = lo; j < hi; j++) {
+          float w = kernel(filter, (j - center + 0.5f) / filterScale);
+          weights[offset + j - lo] = w;
+          sum += w;
+        }
+        // trim weights that don't contribute (e.g. at exact 1:1 sizes)
+        while (hi > lo + 1 && weights[offset + hi - lo - 1] == 0) {
+          hi--;
+        }
+        int skip = 0;
+        while (skip < hi - lo - 1 && weights[offset + skip] == 0) {
+          skip++;
+        }
+        if (skip != 0) {
+          System.arraycopy(weights, offset + skip, weights, offset, hi - lo - skip);
+          lo += skip;
+        }
+        if (sum != 0) {
+          for (int j = 0; j < hi - lo; j++) {
+            weights[offset + j] /= sum;
+          }
+        }
+        first[i] = lo;
+        count[i] = hi - lo;
+      }
+
+      // Round to fixed point, then put any rounding error into the largest
+      // weight so that each set still adds up to exactly 1.
+      fixed = new int[weights.length];
+      for (int i = 0; i < dstSize; i++) {
+        int offset = i * stride;
+        int total = 0;
+        int largest = offset;
+        for (int j = offset; j < offset + count[i]; j++) {
+          fixed[j] = Math.round(weights[j] * FIXED_ONE);
+          total += fixed[j];
+          if (fixed[j] > fixed[largest]) {
+            largest = j;
+          }
+        }
+        fixed[largest] += FIXED_ONE - total;
+      }
+    }
+  }
+
+
+  static float support(int filter) {
+    switch (filter) {
+    case BOX: return 0.5f;
+    case BILINEAR: return 1;
+    case LANCZOS: return 3;
+    }
+    throw new IllegalArgumentException("Use BOX, BILINEAR, or LANCZOS with resize()");
+  }
+
+
+  static float kernel(int filter, float x) {
+    if (filter == BOX) {
+      return (x > -0.5f && x <= 0.5f) ? 1 : 0;
+    }
+    if (x < 0) x = -x;
+    if (filter == BILINEAR) {
+      return (x < 1) ? 1 - x : 0;
+    }
+    // LANCZOS, sinc(x) * sinc(x/3)
+    if (x >= 3) return 0;
+    if (x < 1e-6f) return 1;
+    double px = Math.PI * x;
+    return (float) (3 * Math.sin(px) * Math.sin(px / 3) / (px * px));
+  }
+
+
+  static Weights weights(int srcSize, int dstSize, int filter) {
+    synchronized (recent) {
+      for (Weights w : recent) {
+        if (w != null && w.srcSize == srcSize &&
+            w.dstSize == dstSize && w.filter == filter) {
+          return w;
+        }
+      }
+    }
+    Weights w = new Weights(srcSize, dstSize, filter);
+    synchronized (recent) {
+      recent[recentIndex] = w;
+      recentIndex = (recentIndex + 1) % recent.length;
+    }
+    return w;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Resize the pixels in src into dst.
+   *
+   * @param format ALPHA, RGB, or ARGB (for both src and dst)
+   * @param filter BOX, BILINEAR, or LANCZOS
+   */
+  static void resize(final int[] src, final int srcWidth, final int srcHeight,
+                     final int[] dst, final int dstWidth, final int dstHeight,
+                     int format, int filter) {
+    final Weights wx = weights(srcWidth, dstWidth, filter);
+    final Weights wy = weights(srcHeight, dstHeight, filter);
+    // one float for each channel that's in use
+    final int channels = (format == ALPHA) ? 1 : ((format == ARGB) ? 4 : 3);
+    final float[] temp = PImageFilter.borrowFloats(dstWidth * srcHeight * channels);
+
+    try {
+      PImageFilter.run(srcHeight, dstWidth * srcHeight, (start, stop) -> {
+        for (int y = start; y < stop; y++) {
+          horizontal(src, y * srcWidth, temp, y * dstWidth * channels, wx, channels);
+        }
+      });
+      PImageFilter.run(dstHeight, dstWidth * dstHeight, (start, stop) -> {
+        float[] acc = new float[dstWidth * channels];
+        for (int y = start; y < stop; y++) {
+          vertical(temp, dstWidth, acc, wy, y, channels);
+          store(acc, dst, y * dstWidth, dstWidth, channels);
+        }
+      });
+    } finally {
+      PImageFilter.release(temp);
+    }
+  }
+
+
+  static private void horizontal(int[] src, int srcOffset,
+                                 float[] outgoing, int outOffset,
+                                 Weights wx, int channels) {
+    int[] weights = wx.fixed;
+    for (int x = 0; x < wx.dstSize; x++) {
+      int read = srcOffset + wx.first[x];
+      int w = x * wx.stride;
+      int stop = w + wx.count[x];
+
+      if (channels == 1) {
+        int sum = 0;
+        for (; w < stop; w++) {
+          sum += weights[w] * (src[read++] & 0xff);
+        }
+        outgoing[outOffset++] = sum * FIXED_SCALE;
+
+      } else if (channels == 3) {
+        int r = 0, g = 0, b = 0;
+        for (; w < stop; w++) {
+          int c = src[read++];
+          int k = weights[w];
+          r += k * ((c >> 16) & 0xff);
+          g += k * ((c >> 8) & 0xff);
+          b += k * (c & 0xff);
+        }
+        outgoing[outOffset++] = r * FIXED_SCALE;
+        outgoing[outOffset++] = g * FIXED_SCALE;
+        outgoing[outOffset++] = b * FIXED_SCALE;
+
+      } else {
+        int a = 0, r = 0, g = 0, b = 0;
+        for (; w < stop; w++) {
+          int c = src[read++];
+          int k = weights[w];
+          int alpha = c >>> 24;
+          a += k * alpha;
+          r += k * (alpha * ((c >> 16) & 0xff));
+          g += k * (alpha * ((c >> 8) & 0xff));
+          b += k * (alpha * (c & 0xff));
+        }
+        outgoing[outOffset++] = a * FIXED_SCALE;
+        outgoing[outOffset++] = r * FIXED_SCALE;
+        outgoing[outOffset++] = g * FIXED_SCALE;
+        outgoing[outOffset++] = b * FIXED_SCALE;
+      }
+    }
+  }
+
+
+  /** Sum the rows of temp that contribute to row y, a whole row at a time */
+  static private void vertical(float[] temp, int width, float[] acc,
+                               Weights wy, int y, int channels) {
+    int length = width * channels;
+    Arrays.fill(acc, 0);
+    int w = y * wy.stride;
+    int stop = w + wy.count[y];
+    for (int row = wy.first[y]; w < stop; w++, row++) {
+      float k = wy.weights[w];
+      int read = row * length;
+      for (int i = 0; i < length; i++) {
+        acc[i] += k * temp[read + i];
+      }
+    }
+  }
+
+
+  static private void store(float[] acc, int[] dst, int offset,
+                            int width, int channels) {
+    int read = 0;
+    if (channels == 1) {
+      for (int x = 0; x < width; x++) {
+        dst[offset + x] = clamp(acc[read++]);
+      }
+    } else if (channels == 3) {
+      for (int x = 0; x < width; x++) {
+        dst[offset + x] = 0xff000000 |
+          clamp(acc[read]) << 16 | clamp(acc[read+1]) << 8 | clamp(acc[read+2]);
+        read += 3;
+      }
+    } else {
+      for (int x = 0; x < width; x++) {
+        float a = acc[read];
+        int alpha = clamp(a);
+        if (alpha == 0) {
+          dst[offset + x] = 0;
+        } else {
+          // undo the premultiply
+          dst[offset + x] = alpha << 24 |
+            clamp(acc[read+1] / a) << 16 |
+            clamp(acc[read+2] / a) << 8 |
+            clamp(acc[read+3] / a);
+        }
+        read += 4;
+      }
+    }
+  }
+
+
+  static private int clamp(float value) {
+    int v = (int) (value + 0.5f);
+    return (v < 0) ? 0 : ((v > 255) ? 255 : v);
+  }
+}
@@ -0,0 +1,131 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Encoders used by the async image saver in place of PImage.save(), for
+ * when frames need to be written faster than the usual formats allow
+ * (see PGraphics.asyncSaveEncoder()), and the raw files used to spill
+ * frames to disk when the saver runs out of memory.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PImageSave implements PConstants {
+
+  static final int SPILL_CHUNK = 1 << 20;
+
+
+  /**
+   * Raw pixels with no header, four bytes per pixel in B, G, R, A order
+   * (the "bgra" rawvideo format used by ffmpeg and others).
+   */
+  static void raw(PImage image, OutputStream output) throws IOException {
+    int w = image.pixelWidth;
+    byte[] row = new byte[w * 4];
+    int index = 0;
+    for (int y = 0; y < image.pixelHeight; y++) {
+      int b = 0;
+      for (int x = 0; x < w; x++) {
+        int c = image.pixels[index++];
+        row[b++] = (byte) c;
+        row[b++] = (byte) (c >> 8);
+        row[b++] = (byte) (c >> 16);
+        row[b++] = (byte) (c >>> 24);
+      }
+      output.write(row);
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Write the pixels of an image to a temporary file, as native ints. */
+  static File spill(PImage image) throws IOException {
+    // Not deleteOnExit(), the file is removed once it's been saved, and
+    // that list is never cleared, so it would grow by a file every frame.
+    File file = File.createTempFile("frame", ".spill");
+    boolean written = false;
+    try (FileChannel channel =
+         FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = chunk();
+      IntBuffer ints = buffer.asIntBuffer();
+      int count = image.pixelWidth * image.pixelHeight;
+      for (int offset = 0; offset < count; ) {
+        int length = Math.min(ints.capacity(), count - offset);
+        ints.clear();
+        ints.put(image.pixels, offset, length);
+        buffer.clear().limit(length * 4);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        offset += length;
+      }
+      written = true;
+    } finally {
+      if (!written) {
+        // don't leave a partial frame behind, say if the disk filled up
+        file.delete();
+      }
+    }
+    return file;
+  }
+
+
+  /** Read back a file written by spill() into an image of the same size. */
+  static void unspill(File file, PImage image) throws IOException {
+    try (FileChannel channel =
+         FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = chunk();
+      IntBuffer ints = buffer.asIntBuffer();
+      int count = image.pixelWidth * image.pixelHeight;
+      for (int offset = 0; offset < count; ) {
+        int length = Math.min(ints.capacity(), count - offset);
+        buffer.clear().limit(length * 4);
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer) < 0) {
+            throw new IOException("Spilled frame " + file + " is incomplete");
+          }
+        }
+        ints.clear();
+        ints.get(image.pixels, offset, length);
+        offset += length;
+      }
+    }
+  }
+
+
+  static private ByteBuffer chunk() {
+    return ByteBuffer.allocate(SPILL_CHUNK).order(ByteOrder.nativeOrder());
+  }
+}
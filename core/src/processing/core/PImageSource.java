@@ -0,0 +1,162 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Image data that can be read from any position, either a file (read
+ * through a FileChannel, so that only the parts that are needed are ever
+ * in memory) or an array of bytes. Used by the TIFF reader, where the
+ * image data may be anywhere in the file.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+abstract class PImageSource implements Closeable {
+
+  abstract long length() throws IOException;
+
+
+  /**
+   * Read up to len bytes starting at position, returns the number read,
+   * or -1 at the end of the data.
+   */
+  abstract int read(long position, byte[] b, int off, int len) throws IOException;
+
+
+  void readFully(long position, byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int count = read(position, b, off, len);
+      if (count < 0) {
+        throw new EOFException("Unexpected end of image data");
+      }
+      position += count;
+      off += count;
+      len -= count;
+    }
+  }
+
+
+  /** A stream of length bytes starting at position. */
+  InputStream stream(final long position, final long length) {
+    return new InputStream() {
+      byte[] buffer = new byte[(int) Math.min(1 << 16, Math.max(1, length))];
+      long next = position;
+      long remaining = length;
+      int index, count;
+
+      @Override
+      public int read() throws IOException {
+        if (index == count && !fill()) return -1;
+        return buffer[index++] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (index == count && !fill()) return -1;
+        int n = Math.min(len, count - index);
+        System.arraycopy(buffer, index, b, off, n);
+        index += n;
+        return n;
+      }
+
+      @Override
+      public long skip(long n) {
+        long inBuffer = Math.min(n, count - index);
+        index += inBuffer;
+        long past = Math.min(n - inBuffer, remaining);
+        next += past;
+        remaining -= past;
+        return inBuffer + past;
+      }
+
+      private boolean fill() throws IOException {
+        if (remaining <= 0) return false;
+        int n = PImageSource.this.read(next, buffer, 0,
+                                       (int) Math.min(buffer.length, remaining));
+        if (n <= 0) return false;
+        next += n;
+        remaining -= n;
+        index = 0;
+        count = n;
+        return true;
+      }
+    };
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  static PImageSource open(File file) throws IOException {
+    final FileChannel channel =
+      FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+    return new PImageSource() {
+      @Override
+      long length() throws IOException {
+        return channel.size();
+      }
+
+      @Override
+      int read(long position, byte[] b, int off, int len) throws IOException {
+        return channel.read(ByteBuffer.wrap(b, off, len), position);
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+
+  static PImageSource wrap(final byte[] data) {
+    return new PImageSource() {
+      @Override
+      long length() {
+        return data.length;
+      }
+
+      @Override
+      int read(long position, byte[] b, int off, int len) {
+        if (position >= data.length) return -1;
+        int n = (int) Math.min(len, data.length - position);
+        System.arraycopy(data, (int) position, b, off, n);
+        return n;
+      }
+
+      @Override
+      public void close() { }
+    };
+  }
+}
@@ -0,0 +1,495 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Streaming reader and writer for TARGA images. The reader decodes one
+ * row at a time straight from the stream, so any part of a file can be
+ * read into an existing image without the whole file (or the whole image)
+ * ever being in memory. Reads uncompressed and RLE images that are
+ * grayscale, color-mapped, or 16, 24 or 32 bits per pixel, with either
+ * origin. Writes the same files as PImage.saveTGA() always has.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PImageTGA implements PConstants {
+  static final int BUFFER_SIZE = 1 << 16;
+
+  private final InputStream input;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int index, count;
+
+  int width, height;
+  /** ALPHA, RGB, or ARGB, or 0 if this isn't a file we can read. */
+  int format;
+
+  private int type;
+  private int depth;  // bytes per pixel in the file
+  private boolean rle;
+  private boolean topDown;
+  private boolean alphaBit;  // 16-bit images with an attribute bit
+  private int[] palette;
+  private int paletteFirst;
+
+  // state of an RLE packet that runs past the end of a row
+  private int packetLeft;
+  private boolean packetRepeat;
+  private int packetPixel;
+  private final int[] single = new int[1];
+  private int rowsRead;
+
+
+  /** Read the header from a stream positioned at the start of a file. */
+  PImageTGA(InputStream input) throws IOException {
+    this.input = input;
+
+    byte[] header = new byte[18];
+    readFully(header, 0, 18);
+    int idLength = header[0] & 0xff;
+    int mapType = header[1] & 0xff;
+    type = header[2] & 0xff;
+    paletteFirst = u16(header, 3);
+    int mapLength = u16(header, 5);
+    int mapBits = header[7] & 0xff;
+    width = u16(header, 12);
+    height = u16(header, 14);
+    int bits = header[16] & 0xff;
+    int descriptor = header[17] & 0xff;
+
+    // where the tga spec calls the bottom-left origin normal
+    // https://github.com/processing/processing/issues/1682
+    topDown = (descriptor & 0x20) != 0;
+    rle = type >= 9;
+    depth = (bits + 7) / 8;
+    skipFully(idLength);
+
+    int kind = type & 7;
+    if (kind == 1 && mapType == 1 && bits == 8 &&
+        (mapBits == 15 || mapBits == 16 || mapBits == 24 || mapBits == 32)) {
+      int mapDepth = (mapBits + 7) / 8;
+      byte[] map = new byte[mapLength * mapDepth];
+      readFully(map, 0, map.length);
+      palette = new int[mapLength];
+      boolean mapAlpha = mapBits == 32;
+      for (int i = 0; i < mapLength; i++) {
+        palette[i] = pixel(map, i * mapDepth, mapDepth, mapAlpha);
+      }
+      format = mapAlpha ? ARGB : RGB;
+
+    } else {
+      if (mapType == 1) {  // skip a color map that isn't used
+        skipFully((long) mapLength * ((mapBits + 7) / 8));
+      }
+      if (kind == 3 && bits == 8) {
+        format = ALPHA;
+      } else if (kind == 2 && (bits == 15 || bits == 16)) {
+        alphaBit = (descriptor & 0x0f) == 1;
+        format = alphaBit ? ARGB : RGB;
+      } else if (kind == 2 && bits == 24) {
+        format = RGB;
+      } else if (kind == 2 && bits == 32) {
+        format = ARGB;
+      }
+    }
+    if (type != 1 && type != 2 && type != 3 &&
+        type != 9 && type != 10 && type != 11) {
+      format = 0;
+    }
+  }
+
+
+  /**
+   * Decode part of the image into target, whose size sets the size of the
+   * region, with its upper-left corner at (x, y) in the file. The stream
+   * can only be read once, so this can only be called once.
+   */
+  void read(PImage target, int x, int y) throws IOException {
+    read(target, x, y, 1);
+  }
+
+
+  /**
+   * Decode every step-th pixel of every step-th row, starting at (x, y),
+   * into target. The rows in between are skipped over (uncompressed) or
+   * decoded and dropped (RLE), so memory use depends only on the size of
+   * the target.
+   */
+  void read(PImage target, int x, int y, int step) throws IOException {
+    int w = target.pixelWidth;
+    int h = target.pixelHeight;
+    int right = x + (w - 1) * step;
+    int bottom = y + (h - 1) * step;
+    if (x < 0 || y < 0 || step < 1 || right >= width || bottom >= height) {
+      throw new IllegalArgumentException("The region " + x + ", " + y +
+                                         ", " + w + ", " + h +
+                                         " is outside the image");
+    }
+    if (rowsRead != 0) {
+      throw new IllegalStateException("The image has already been read");
+    }
+
+    // rows of the region in the order they're stored in the file
+    int first = topDown ? y : height - 1 - bottom;
+    int last = topDown ? bottom : height - 1 - y;
+    int rowBytes = width * depth;
+    byte[] raw = new byte[rowBytes];
+    int[] row = rle ? new int[width] : null;
+
+    if (!rle) {
+      skipFully((long) first * rowBytes);
+    } else {
+      for (int r = 0; r < first; r++) {
+        readRLE(row, raw);
+      }
+    }
+    for (int r = first; r <= last; r++) {
+      int iy = (topDown ? r : height - 1 - r) - y;
+      if (iy % step != 0) {
+        if (rle) {
+          readRLE(row, raw);
+        } else {
+          skipFully(rowBytes);
+        }
+        continue;
+      }
+      int offset = (iy / step) * w;
+      if (rle) {
+        readRLE(row, raw);
+        for (int i = 0; i < w; i++) {
+          target.pixels[offset + i] = row[x + i * step];
+        }
+      } else {
+        // only the columns that are needed get converted
+        readFully(raw, 0, rowBytes);
+        convert(raw, x * depth, depth * step, target.pixels, offset, w);
+      }
+    }
+    rowsRead = last + 1;
+    target.updatePixels();
+  }
+
+
+  /** Decode the next row of an RLE image, packets may span rows. */
+  private void readRLE(int[] row, byte[] raw) throws IOException {
+    int x = 0;
+    while (x < width) {
+      if (packetLeft == 0) {
+        int header = readByte();
+        packetLeft = (header & 0x7f) + 1;
+        packetRepeat = (header & 0x80) != 0;
+        if (packetRepeat) {
+          readFully(raw, 0, depth);
+          convert(raw, 0, depth, single, 0, 1);
+          packetPixel = single[0];
+        }
+      }
+      int n = Math.min(packetLeft, width - x);
+      if (packetRepeat) {
+        int c = packetPixel;
+        for (int i = 0; i < n; i++) {
+          row[x + i] = c;
+        }
+      } else {
+        readFully(raw, 0, n * depth);
+        convert(raw, 0, depth, row, x, n);
+      }
+      packetLeft -= n;
+      x += n;
+    }
+  }
+
+
+  /**
+   * Convert count pixels as stored in the file to Processing colors,
+   * taking one pixel every stride bytes.
+   */
+  private void convert(byte[] raw, int pos, int stride,
+                       int[] out, int offset, int count) {
+    switch (depth) {
+    case 1:
+      if (palette != null) {
+        for (int i = 0; i < count; i++, pos += stride) {
+          int entry = (raw[pos] & 0xff) - paletteFirst;
+          out[offset + i] =
+            (entry >= 0 && entry < palette.length) ? palette[entry] : 0xff000000;
+        }
+      } else {
+        for (int i = 0; i < count; i++, pos += stride) {
+          out[offset + i] = raw[pos] & 0xff;
+        }
+      }
+      break;
+    case 2:
+      for (int i = 0; i < count; i++, pos += stride) {
+        out[offset + i] = pixel(raw, pos, 2, alphaBit);
+      }
+      break;
+    case 3:
+      for (int i = 0; i < count; i++, pos += stride) {
+        out[offset + i] = 0xff000000 |
+          (raw[pos] & 0xff) | (raw[pos+1] & 0xff) << 8 | (raw[pos+2] & 0xff) << 16;
+      }
+      break;
+    case 4:
+      for (int i = 0; i < count; i++, pos += stride) {
+        out[offset + i] =
+          (raw[pos] & 0xff) | (raw[pos+1] & 0xff) << 8 |
+          (raw[pos+2] & 0xff) << 16 | (raw[pos+3] & 0xff) << 24;
+      }
+      break;
+    }
+  }
+
+
+  /** A 15/16, 24 or 32 bit pixel (or color map entry) in B, G, R, A order. */
+  static private int pixel(byte[] b, int pos, int bytes, boolean alpha) {
+    if (bytes == 2) {
+      int v = (b[pos] & 0xff) | (b[pos+1] & 0xff) << 8;
+      int r = (v >> 10) & 0x1f;
+      int g = (v >> 5) & 0x1f;
+      int bl = v & 0x1f;
+      int a = (!alpha || (v & 0x8000) != 0) ? 0xff000000 : 0;
+      return a | (r << 3 | r >> 2) << 16 | (g << 3 | g >> 2) << 8 | (bl << 3 | bl >> 2);
+    }
+    int c = (b[pos] & 0xff) | (b[pos+1] & 0xff) << 8 | (b[pos+2] & 0xff) << 16;
+    return c | ((bytes == 4 && alpha) ? (b[pos+3] & 0xff) << 24 : 0xff000000);
+  }
+
+
+  static private int u16(byte[] b, int pos) {
+    return (b[pos] & 0xff) | (b[pos+1] & 0xff) << 8;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  private int readByte() throws IOException {
+    if (index == count && !fill()) {
+      throw new EOFException("Unexpected end of TGA data");
+    }
+    return buffer[index++] & 0xff;
+  }
+
+
+  private void readFully(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (index == count && !fill()) {
+        throw new EOFException("Unexpected end of TGA data");
+      }
+      int n = Math.min(len, count - index);
+      System.arraycopy(buffer, index, b, off, n);
+      index += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+
+  private void skipFully(long n) throws IOException {
+    long buffered = Math.min(n, count - index);
+    index += buffered;
+    n -= buffered;
+    while (n > 0) {
+      // FileInputStream seeks, other streams may skip less than asked
+      long skipped = input.skip(n);
+      if (skipped <= 0) {
+        if (input.read() == -1) {
+          throw new EOFException("Unexpected end of TGA data");
+        }
+        skipped = 1;
+      }
+      n -= skipped;
+    }
+  }
+
+
+  private boolean fill() throws IOException {
+    int n = input.read(buffer, 0, buffer.length);
+    if (n <= 0) return false;
+    index = 0;
+    count = n;
+    return true;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Write an image as 8-bit grayscale (ALPHA), 24-bit (RGB) or 32-bit
+   * (ARGB) TARGA with the top-left origin, either RLE compressed (the same
+   * bytes that PImage.saveTGA() has always written) or uncompressed.
+   */
+  static void write(PImage image, OutputStream output,
+                    boolean compress) throws IOException {
+    int format = image.format;
+    byte[] header = new byte[18];
+    if (format == ALPHA) {  // save ALPHA images as 8bit grayscale
+      header[2] = (byte) (compress ? 0x0B : 0x03);
+      header[16] = 0x08;
+      header[17] = 0x28;
+    } else if (format == RGB) {
+      header[2] = (byte) (compress ? 0x0A : 0x02);
+      header[16] = 24;
+      header[17] = 0x20;
+    } else if (format == ARGB) {
+      header[2] = (byte) (compress ? 0x0A : 0x02);
+      header[16] = 32;
+      header[17] = 0x28;
+    } else {
+      throw new RuntimeException("Image format not recognized inside save()");
+    }
+    int w = image.pixelWidth;
+    int h = image.pixelHeight;
+    // set image dimensions lo-hi byte order
+    header[12] = (byte) (w & 0xff);
+    header[13] = (byte) (w >> 8);
+    header[14] = (byte) (h & 0xff);
+    header[15] = (byte) (h >> 8);
+    output.write(header);
+
+    int bytes = (format == ALPHA) ? 1 : (format == RGB) ? 3 : 4;
+    Packer out = new Packer(output, bytes);
+    int[] pixels = image.pixels;
+    if (!compress) {
+      for (int i = 0; i < w * h; i++) {
+        out.pixel(pixels[i]);
+      }
+      out.flush();
+      return;
+    }
+
+    // the RLE encoder contributed by toxi, see PImage.saveTGA()
+    int maxLen = w * h;
+    int mask = (format == ALPHA) ? 0xff : 0xffffffff;
+    int index = 0;
+    int col;
+    int[] currChunk = new int[128];
+    while (index < maxLen) {
+      boolean isRLE = false;
+      currChunk[0] = col = pixels[index] & mask;
+      int rle = 1;
+      // try to find repeating bytes (min. len = 2 pixels)
+      // maximum chunk size is 128 pixels
+      while (index + rle < maxLen) {
+        if (col != (pixels[index + rle] & mask) || rle == 128) {
+          isRLE = (rle > 1); // set flag for RLE chunk
+          break;
+        }
+        rle++;
+      }
+      if (isRLE) {
+        out.header(128 | (rle - 1));
+        out.pixel(col);
+
+      } else {  // not RLE
+        rle = 1;
+        while (index + rle < maxLen) {
+          int cscan = pixels[index + rle] & mask;
+          if ((col != cscan && rle < 128) || rle < 3) {
+            currChunk[rle] = col = cscan;
+          } else {
+            // check if the exit condition was the start of
+            // a repeating colour
+            if (col == cscan) rle -= 2;
+            break;
+          }
+          rle++;
+        }
+        // write uncompressed chunk
+        out.header(rle - 1);
+        for (int i = 0; i < rle; i++) {
+          out.pixel(currChunk[i]);
+        }
+      }
+      index += rle;
+    }
+    out.flush();
+  }
+
+
+  /** Collects packets in an array so the stream is written in blocks. */
+  static private class Packer {
+    final OutputStream output;
+    final int bytes;
+    final byte[] block = new byte[BUFFER_SIZE];
+    int length;
+
+    Packer(OutputStream output, int bytes) {
+      this.output = output;
+      this.bytes = bytes;
+    }
+
+    void header(int value) throws IOException {
+      if (length == block.length) flush();
+      block[length++] = (byte) value;
+    }
+
+    void pixel(int c) throws IOException {
+      if (length + 4 > block.length) flush();
+      block[length++] = (byte) c;
+      if (bytes > 1) {
+        block[length++] = (byte) (c >> 8);
+        block[length++] = (byte) (c >> 16);
+        if (bytes == 4) {
+          block[length++] = (byte) (c >>> 24);
+        }
+      }
+    }
+
+    void flush() throws IOException {
+      output.write(block, 0, length);
+      length = 0;
+    }
+  }
+
+
+  /** Parse "compression=rle" or "compression=none", RLE is the default. */
+  static boolean compressOption(String options) {
+    boolean compress = true;
+    if (options != null) {
+      for (String option : PApplet.trim(PApplet.split(options, ','))) {
+        if (option.length() == 0) continue;
+
+        if (option.startsWith("compression=")) {
+          String name = option.substring(12).toLowerCase();
+          if (name.equals("none")) {
+            compress = false;
+          } else if (!name.equals("rle")) {
+            throw new IllegalArgumentException("Unknown TGA compression " + name);
+          }
+        } else {
+          throw new IllegalArgumentException(option + " is not a TGA option");
+        }
+      }
+    }
+    return compress;
+  }
+}
@@ -0,0 +1,1254 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Reader and writer for baseline TIFF images, replacing the code that
+ * could only read back the uncompressed files written by Processing.
+ * <p/>
+ * The reader handles either byte order, any number of images (pages) in
+ * a file, strips or tiles, 8 or 16 bits per sample, grayscale, palette,
+ * RGB and RGBA images, and no compression, PackBits, LZW or Deflate, with
+ * or without the horizontal predictor. Only the strips or tiles that
+ * overlap the part of the image being read are decoded, one row (or one
+ * tile) at a time, so a small region can be taken from a file far larger
+ * than the heap.
+ * <p/>
+ * The writer puts each image in strips of about 64K, so pages can be
+ * compressed in parallel, and appends as many images as it's given.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PImageTIFF implements PConstants, Closeable {
+  static final int NONE = 1;
+  static final int LZW = 5;
+  static final int DEFLATE = 8;
+  static final int PACKBITS = 32773;
+  static final int DEFLATE_OLD = 32946;
+
+  static final int STRIP_BYTES = 1 << 16;
+  static final int MAX_PAGES = 1 << 16;
+  /** Largest array that can be allocated for a row or an image. */
+  static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+  static final int IMAGE_WIDTH = 256;
+  static final int IMAGE_LENGTH = 257;
+  static final int BITS_PER_SAMPLE = 258;
+  static final int COMPRESSION = 259;
+  static final int PHOTOMETRIC = 262;
+  static final int STRIP_OFFSETS = 273;
+  static final int SAMPLES_PER_PIXEL = 277;
+  static final int ROWS_PER_STRIP = 278;
+  static final int STRIP_BYTE_COUNTS = 279;
+  static final int PLANAR_CONFIGURATION = 284;
+  static final int PREDICTOR = 317;
+  static final int COLOR_MAP = 320;
+  static final int TILE_WIDTH = 322;
+  static final int TILE_LENGTH = 323;
+  static final int TILE_OFFSETS = 324;
+  static final int TILE_BYTE_COUNTS = 325;
+  static final int EXTRA_SAMPLES = 338;
+
+  private final PImageSource source;
+  private long length;
+  private boolean bigEndian;
+  private final List<Page> pages = new ArrayList<>();
+
+
+  /**
+   * One image in the file, from its IFD (image file directory).
+   */
+  class Page {
+    int width, height;
+    /** RGB or ARGB. */
+    int format;
+
+    int bits;  // 8 or 16 bits per sample
+    int samples;
+    int photometric;
+    int compression;
+    int predictor;
+    boolean alpha;
+    boolean premultiplied;
+    int[] palette;
+
+    // strips are tiles as wide as the image
+    int tileWidth, tileHeight;
+    long[] offsets;
+    long[] counts;
+
+
+    int pixelBytes() {
+      return samples * bits / 8;
+    }
+
+
+    /**
+     * How many times larger a strip or tile can be once decompressed.
+     * PackBits can't do better than 128 bytes from 2, Deflate tops out at
+     * about 1032:1, and with codes of at most 12 bits that start over
+     * every 4094 entries, LZW at about 1370:1. Anything more than that is
+     * a broken file that would have us allocate far more than it holds.
+     */
+    long expansion() {
+      switch (compression) {
+      case NONE: return 1;
+      case PACKBITS: return 64;
+      case LZW: return 1400;
+      default: return 1100;
+      }
+    }
+
+
+    /**
+     * Decode part of this image into target, whose size sets the size of
+     * the region, with its upper-left corner at (x, y) in the file.
+     */
+    void read(PImage target, int x, int y) throws IOException {
+      read(target, x, y, 1);
+    }
+
+
+    /**
+     * Decode every step-th pixel of every step-th row, starting at (x, y),
+     * into target. Strips or tiles without any of those rows or columns
+     * aren't read at all.
+     */
+    void read(PImage target, int x, int y, int step) throws IOException {
+      int w = target.pixelWidth;
+      int h = target.pixelHeight;
+      int right = x + (w - 1) * step;
+      int bottom = y + (h - 1) * step;
+      if (x < 0 || y < 0 || step < 1 || right >= width || bottom >= height) {
+        throw new IllegalArgumentException("The region " + x + ", " + y +
+                                           ", " + w + ", " + h +
+                                           " is outside the image");
+      }
+      int across = (width + tileWidth - 1) / tileWidth;
+      int rowBytes = tileWidth * pixelBytes();
+      byte[] row = new byte[rowBytes];
+
+      for (int ty = y / tileHeight; ty <= bottom / tileHeight; ty++) {
+        int top = ty * tileHeight;
+        // the first row in this tile that lands on the step, and the end
+        int first = align(Math.max(y, top), y, step) - top;
+        int last = Math.min(bottom + 1, Math.min(height, top + tileHeight)) - top;
+        if (first >= last) continue;
+
+        for (int tx = x / tileWidth; tx <= right / tileWidth; tx++) {
+          int left = tx * tileWidth;
+          int from = align(Math.max(x, left), x, step);
+          int to = Math.min(right + 1, Math.min(width, left + tileWidth));
+          if (from >= to) continue;
+          int count = (to - from + step - 1) / step;
+          int tile = ty * across + tx;
+          if (tile >= offsets.length) {
+            throw new IOException("TIFF image is missing strips or tiles");
+          }
+
+          InputStream input;
+          boolean raw = compression == NONE && predictor == 1;
+          if (raw) {
+            // uncompressed, so go straight to the first row needed
+            long skip = (long) first * rowBytes;
+            input = source.stream(offsets[tile] + skip,
+                                  Math.max(0, counts[tile] - skip));
+          } else {
+            input = decoder(source.stream(offsets[tile], counts[tile]));
+            for (int r = 0; r < first; r++) {
+              readFully(input, row, rowBytes);
+            }
+          }
+          for (int r = first; r < last; r++) {
+            if ((top + r - y) % step != 0) {
+              if (raw) {
+                input.skip(rowBytes);
+              } else {
+                readFully(input, row, rowBytes);
+              }
+              continue;
+            }
+            readFully(input, row, rowBytes);
+            if (predictor == 2) {
+              undoPredictor(row);
+            }
+            convert(row, (from - left) * pixelBytes(), step, target.pixels,
+                    ((top + r - y) / step) * w + (from - x) / step, count);
+          }
+          input.close();
+        }
+      }
+      target.updatePixels();
+    }
+
+
+    InputStream decoder(InputStream input) {
+      switch (compression) {
+      case LZW: return new LZWInputStream(input);
+      case PACKBITS: return new PackBitsInputStream(input);
+      case DEFLATE:
+      case DEFLATE_OLD: return new InflaterInputStream(input);
+      }
+      return input;
+    }
+
+
+    /** Horizontal differencing, undone on each sample from left to right. */
+    void undoPredictor(byte[] row) {
+      if (bits == 8) {
+        for (int i = samples; i < row.length; i++) {
+          row[i] += row[i - samples];
+        }
+      } else {
+        int stride = samples * 2;
+        int hi = bigEndian ? 0 : 1;
+        for (int i = stride; i < row.length; i += 2) {
+          int prev = (row[i - stride + hi] & 0xff) << 8 | (row[i - stride + 1 - hi] & 0xff);
+          int diff = (row[i + hi] & 0xff) << 8 | (row[i + 1 - hi] & 0xff);
+          int v = prev + diff;
+          row[i + hi] = (byte) (v >> 8);
+          row[i + 1 - hi] = (byte) v;
+        }
+      }
+    }
+
+
+    /**
+     * Convert count pixels, starting at byte pos of a row and taking every
+     * step-th pixel, to colors.
+     */
+    void convert(byte[] row, int pos, int step, int[] out, int offset, int count) {
+      if (bits == 8 && photometric == 2 && (samples == 3 || (alpha && samples == 4 && !premultiplied))) {
+        // the usual RGB and RGBA files
+        int stride = samples * step;
+        for (int i = 0; i < count; i++) {
+          int a = (samples == 4) ? (row[pos+3] & 0xff) << 24 : 0xff000000;
+          out[offset + i] =
+            a | (row[pos] & 0xff) << 16 | (row[pos+1] & 0xff) << 8 | (row[pos+2] & 0xff);
+          pos += stride;
+        }
+        return;
+      }
+      // for 16 bits, only the high byte of each sample is used
+      int size = bits / 8;
+      int hi = (size == 1 || bigEndian) ? 0 : 1;
+      int[] s = new int[4];
+      for (int i = 0; i < count; i++) {
+        for (int k = 0; k < samples && k < 4; k++) {
+          s[k] = row[pos + k * size + hi] & 0xff;
+        }
+        pos += samples * size * step;
+
+        int c;
+        if (photometric == 2) {
+          int a = alpha ? s[3] : 0xff;
+          if (premultiplied && a != 0xff) {
+            c = a << 24 | unpremultiply(s[0], a) << 16 |
+              unpremultiply(s[1], a) << 8 | unpremultiply(s[2], a);
+          } else {
+            c = a << 24 | s[0] << 16 | s[1] << 8 | s[2];
+          }
+        } else if (photometric == 3) {
+          c = (s[0] < palette.length) ? palette[s[0]] : 0xff000000;
+        } else {
+          int v = (photometric == 0) ? 255 - s[0] : s[0];
+          int a = alpha ? s[1] : 0xff;
+          if (premultiplied && a != 0xff) v = unpremultiply(v, a);
+          c = a << 24 | v << 16 | v << 8 | v;
+        }
+        out[offset + i] = c;
+      }
+    }
+  }
+
+
+  /** The first position at or after pos that's a whole step from start. */
+  static private int align(int pos, int start, int step) {
+    return start + (pos - start + step - 1) / step * step;
+  }
+
+
+  static private int unpremultiply(int v, int a) {
+    return (a == 0) ? 0 : Math.min(255, (v * 255 + a / 2) / a);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Read the header and the directory of every image in the file. The
+   * source is closed if that fails, otherwise by close().
+   */
+  PImageTIFF(PImageSource source) throws IOException {
+    this.source = source;
+    try {
+      readHeader();
+    } catch (IOException | RuntimeException e) {
+      source.close();
+      throw e;
+    }
+  }
+
+
+  private void readHeader() throws IOException {
+    length = source.length();
+    byte[] header = new byte[8];
+    source.readFully(0, header, 0, 8);
+    if (header[0] == 'M' && header[1] == 'M') {
+      bigEndian = true;
+    } else if (header[0] != 'I' || header[1] != 'I') {
+      throw new IOException("Not a TIFF file");
+    }
+    if (u16(header, 2) != 42) {
+      throw new IOException("Not a TIFF file, or a BigTIFF file");
+    }
+
+    Set<Long> seen = new HashSet<>();
+    long next = u32(header, 4);
+    while (next != 0 && pages.size() < MAX_PAGES) {
+      if (!seen.add(next)) break;  // broken files that loop back
+      next = readPage(next);
+    }
+    if (pages.isEmpty()) {
+      throw new IOException("No images found in TIFF file");
+    }
+  }
+
+
+  int count() {
+    return pages.size();
+  }
+
+
+  Page page(int index) {
+    return pages.get(index);
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+
+  /** Decode an entire image from the file. */
+  PImage read(int index) throws IOException {
+    Page page = pages.get(index);
+    if ((long) page.width * page.height > MAX_ARRAY) {
+      throw new IOException("TIFF image is too large to load all at once");
+    }
+    PImage image = new PImage(page.width, page.height, page.format);
+    page.read(image, 0, 0);
+    return image;
+  }
+
+
+  /** Parse an IFD and add its image, returns the offset of the next IFD. */
+  private long readPage(long offset) throws IOException {
+    byte[] b = new byte[2];
+    source.readFully(offset, b, 0, 2);
+    int entries = u16(b, 0);
+    byte[] ifd = new byte[entries * 12 + 4];
+    source.readFully(offset + 2, ifd, 0, ifd.length);
+
+    Page page = new Page();
+    long[] bitsPerSample = { 1 };
+    long[] extra = null;
+    long[] map = null;
+    long rowsPerStrip = Long.MAX_VALUE;
+    long[] stripOffsets = null, stripCounts = null;
+    long[] tileOffsets = null, tileCounts = null;
+    int planar = 1;
+    page.samples = 1;
+    page.compression = NONE;
+    page.predictor = 1;
+    page.photometric = -1;
+
+    for (int i = 0; i < entries; i++) {
+      int e = i * 12;
+      int tag = u16(ifd, e);
+      switch (tag) {
+      case IMAGE_WIDTH: page.width = (int) values(ifd, e)[0]; break;
+      case IMAGE_LENGTH: page.height = (int) values(ifd, e)[0]; break;
+      case BITS_PER_SAMPLE: bitsPerSample = values(ifd, e); break;
+      case COMPRESSION: page.compression = (int) values(ifd, e)[0]; break;
+      case PHOTOMETRIC: page.photometric = (int) values(ifd, e)[0]; break;
+      case STRIP_OFFSETS: stripOffsets = values(ifd, e); break;
+      case SAMPLES_PER_PIXEL: page.samples = (int) values(ifd, e)[0]; break;
+      case ROWS_PER_STRIP: rowsPerStrip = values(ifd, e)[0]; break;
+      case STRIP_BYTE_COUNTS: stripCounts = values(ifd, e); break;
+      case PLANAR_CONFIGURATION: planar = (int) values(ifd, e)[0]; break;
+      case PREDICTOR: page.predictor = (int) values(ifd, e)[0]; break;
+      case COLOR_MAP: map = values(ifd, e); break;
+      case TILE_WIDTH: page.tileWidth = (int) values(ifd, e)[0]; break;
+      case TILE_LENGTH: page.tileHeight = (int) values(ifd, e)[0]; break;
+      case TILE_OFFSETS: tileOffsets = values(ifd, e); break;
+      case TILE_BYTE_COUNTS: tileCounts = values(ifd, e); break;
+      case EXTRA_SAMPLES: extra = values(ifd, e); break;
+      }
+    }
+
+    if (page.samples < 1) {
+      throw new IOException("Bad number of samples in TIFF file");
+    }
+    page.bits = (int) bitsPerSample[0];
+    for (long bits : bitsPerSample) {
+      if (bits != page.bits) {
+        throw new IOException("TIFF images with mixed sample sizes are not supported");
+      }
+    }
+    if (page.bits != 8 && page.bits != 16) {
+      throw new IOException(page.bits + "-bit TIFF images are not supported");
+    }
+    if (planar != 1 && page.samples > 1) {
+      throw new IOException("Planar TIFF images are not supported");
+    }
+    if (page.photometric == -1) {
+      page.photometric = (page.samples >= 3) ? 2 : 1;
+    }
+    if (page.photometric > 3 ||
+        (page.photometric == 2 && page.samples < 3) ||
+        (page.photometric == 3 && (map == null || page.bits != 8))) {
+      throw new IOException("Unsupported TIFF color space " + page.photometric);
+    }
+    if (page.predictor != 1 && page.predictor != 2) {
+      throw new IOException("Unsupported TIFF predictor " + page.predictor);
+    }
+    int c = page.compression;
+    if (c != NONE && c != LZW && c != PACKBITS &&
+        c != DEFLATE && c != DEFLATE_OLD) {
+      throw new IOException("Unsupported TIFF compression " + c);
+    }
+
+    page.alpha = extra != null && extra[0] != 0 &&
+      page.samples > ((page.photometric == 2) ? 3 : 1);
+    page.premultiplied = page.alpha && extra[0] == 1;
+    page.format = page.alpha ? ARGB : RGB;
+
+    if (page.photometric == 3) {
+      // 16-bit R, then G, then B tables
+      int n = map.length / 3;
+      page.palette = new int[n];
+      for (int i = 0; i < n; i++) {
+        page.palette[i] = 0xff000000 |
+          (int) (map[i] >> 8) << 16 | (int) (map[n + i] >> 8) << 8 | (int) (map[2*n + i] >> 8);
+      }
+    }
+
+    if (tileOffsets != null) {
+      page.offsets = tileOffsets;
+      page.counts = tileCounts;
+    } else {
+      page.tileWidth = page.width;
+      page.tileHeight = (int) Math.min(rowsPerStrip, page.height);
+      page.offsets = stripOffsets;
+      page.counts = stripCounts;
+    }
+    if (page.width <= 0 || page.height <= 0 || page.offsets == null ||
+        page.tileWidth <= 0 || page.tileHeight <= 0) {
+      throw new IOException("Missing or bad image size in TIFF file");
+    }
+    long rowBytes = (long) page.tileWidth * page.pixelBytes();
+    if (rowBytes > MAX_ARRAY) {
+      throw new IOException("TIFF image is too wide");
+    }
+    if (page.counts == null) {  // allowed for uncompressed images
+      long size = rowBytes * page.tileHeight;
+      page.counts = new long[page.offsets.length];
+      for (int i = 0; i < page.counts.length; i++) {
+        page.counts[i] = size;
+      }
+    }
+    checkTiles(page, rowBytes, tileOffsets == null);
+    pages.add(page);
+
+    return u32(ifd, entries * 12);
+  }
+
+
+  /**
+   * Make sure there's a strip or tile for every part of the image, that
+   * each one is inside the file, and that it holds enough data for its
+   * rows, so a damaged file can't have us read past the end of the arrays
+   * or allocate huge buffers.
+   */
+  private void checkTiles(Page page, long rowBytes,
+                          boolean strips) throws IOException {
+    long across = (page.width + (long) page.tileWidth - 1) / page.tileWidth;
+    long down = (page.height + (long) page.tileHeight - 1) / page.tileHeight;
+    if (page.offsets.length < across * down) {
+      throw new IOException("TIFF image is missing strips or tiles");
+    }
+    if (page.counts.length < page.offsets.length) {
+      throw new IOException("TIFF image is missing strip or tile sizes");
+    }
+    for (int i = 0; i < across * down; i++) {
+      long offset = page.offsets[i];
+      long count = page.counts[i];
+      if (offset + count > length) {
+        throw new IOException("TIFF strip or tile runs past the end of the file");
+      }
+      long rows = page.tileHeight;
+      if (strips) {
+        rows = Math.min(rows, page.height - (long) i * page.tileHeight);
+      }
+      if (rowBytes * rows > count * page.expansion()) {
+        throw new IOException("TIFF strip or tile is too short for its size");
+      }
+    }
+  }
+
+
+  /** The values of the IFD entry at e, read from elsewhere if need be. */
+  private long[] values(byte[] ifd, int e) throws IOException {
+    int type = u16(ifd, e + 2);
+    long count = u32(ifd, e + 4);
+    int size;
+    switch (type) {
+    case 1: case 2: case 6: case 7: size = 1; break;  // BYTE, ASCII...
+    case 3: case 8: size = 2; break;  // SHORT
+    case 4: case 9: case 13: size = 4; break;  // LONG, IFD
+    default: return new long[] { 0 };  // RATIONAL and such aren't needed
+    }
+    long bytes = count * size;
+    byte[] data;
+    int pos;
+    if (bytes <= 4) {
+      data = ifd;
+      pos = e + 8;
+    } else {
+      long offset = u32(ifd, e + 8);
+      if (offset + bytes > length || bytes > MAX_ARRAY) {
+        throw new IOException("TIFF directory entry runs past the end of the file");
+      }
+      data = new byte[(int) bytes];
+      source.readFully(offset, data, 0, data.length);
+      pos = 0;
+    }
+    long[] out = new long[(int) Math.max(1, count)];
+    for (int i = 0; i < count; i++) {
+      if (size == 1) {
+        out[i] = data[pos + i] & 0xff;
+      } else if (size == 2) {
+        out[i] = u16(data, pos + i*2);
+      } else {
+        out[i] = u32(data, pos + i*4);
+      }
+    }
+    return out;
+  }
+
+
+  private int u16(byte[] b, int pos) {
+    return bigEndian ?
+      ((b[pos] & 0xff) << 8 | (b[pos+1] & 0xff)) :
+      ((b[pos] & 0xff) | (b[pos+1] & 0xff) << 8);
+  }
+
+
+  private long u32(byte[] b, int pos) {
+    return bigEndian ?
+      ((long) (b[pos] & 0xff) << 24 | (b[pos+1] & 0xff) << 16 |
+       (b[pos+2] & 0xff) << 8 | (b[pos+3] & 0xff)) :
+      ((long) (b[pos+3] & 0xff) << 24 | (b[pos+2] & 0xff) << 16 |
+       (b[pos+1] & 0xff) << 8 | (b[pos] & 0xff));
+  }
+
+
+  static private void readFully(InputStream input, byte[] b, int len) throws IOException {
+    int off = 0;
+    while (off < len) {
+      int n = input.read(b, off, len - off);
+      if (n < 0) {
+        throw new EOFException("Unexpected end of TIFF data");
+      }
+      off += n;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Decoder for TIFF's flavor of LZW: codes from 9 to 12 bits, most
+   * significant bit first, with the code size going up one code early.
+   */
+  static class LZWInputStream extends InputStream {
+    static final int CLEAR = 256;
+    static final int EOI = 257;
+
+    final InputStream input;
+    final int[] prefix = new int[4096];
+    final byte[] suffix = new byte[4096];
+    final byte[] first = new byte[4096];
+    final int[] length = new int[4096];
+
+    int next;
+    int codeSize;
+    int previous = -1;
+    boolean done;
+
+    int bitBuffer, bitCount;
+    final byte[] in = new byte[1 << 13];
+    int inIndex, inCount;
+    final byte[] string = new byte[4096];
+    int stringIndex, stringLength;
+
+
+    LZWInputStream(InputStream input) {
+      this.input = input;
+      for (int i = 0; i < 256; i++) {
+        suffix[i] = first[i] = (byte) i;
+        length[i] = 1;
+      }
+      clear();
+    }
+
+
+    private void clear() {
+      next = 258;
+      codeSize = 9;
+      previous = -1;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+      if (stringIndex == stringLength && !decode()) return -1;
+      return string[stringIndex++] & 0xff;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      int total = 0;
+      while (total < len) {
+        if (stringIndex == stringLength && !decode()) break;
+        int n = Math.min(len - total, stringLength - stringIndex);
+        System.arraycopy(string, stringIndex, b, off + total, n);
+        stringIndex += n;
+        total += n;
+      }
+      return (total == 0) ? -1 : total;
+    }
+
+
+    /** Decode the next code into string[], false at the end of the data. */
+    private boolean decode() throws IOException {
+      while (!done) {
+        int code = readCode();
+        if (code == -1 || code == EOI) {
+          done = true;
+          return false;
+        }
+        if (code == CLEAR) {
+          clear();
+          continue;
+        }
+        if (previous == -1) {
+          if (code > 255) {
+            throw new IOException("Bad LZW data in TIFF file");
+          }
+          emit(code);
+        } else if (code < next) {
+          emit(code);
+          add(previous, first[code]);
+        } else if (code == next) {
+          add(previous, first[previous]);
+          emit(code);
+        } else {
+          throw new IOException("Bad LZW data in TIFF file");
+        }
+        previous = code;
+        return true;
+      }
+      return false;
+    }
+
+
+    private void add(int prev, byte last) {
+      if (next < 4096) {
+        prefix[next] = prev;
+        suffix[next] = last;
+        first[next] = first[prev];
+        length[next] = length[prev] + 1;
+        next++;
+        if (next >= (1 << codeSize) - 1 && codeSize < 12) {
+          codeSize++;
+        }
+      }
+    }
+
+
+    private void emit(int code) {
+      int n = length[code];
+      for (int i = n - 1; i >= 0; i--) {
+        string[i] = suffix[code];
+        code = prefix[code];
+      }
+      stringIndex = 0;
+      stringLength = n;
+    }
+
+
+    private int readCode() throws IOException {
+      while (bitCount < codeSize) {
+        if (inIndex == inCount) {
+          inCount = input.read(in, 0, in.length);
+          inIndex = 0;
+          if (inCount <= 0) {
+            inCount = 0;
+            return -1;
+          }
+        }
+        bitBuffer = (bitBuffer << 8) | (in[inIndex++] & 0xff);
+        bitCount += 8;
+      }
+      bitCount -= codeSize;
+      return (bitBuffer >> bitCount) & ((1 << codeSize) - 1);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+  }
+
+
+  /** Decoder for PackBits, the Macintosh run-length encoding. */
+  static class PackBitsInputStream extends InputStream {
+    final InputStream input;
+    int literal, repeat;
+    int value;
+
+    PackBitsInputStream(InputStream input) {
+      this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+      while (literal == 0 && repeat == 0) {
+        int n = input.read();
+        if (n == -1) return -1;
+        n = (byte) n;
+        if (n >= 0) {
+          literal = n + 1;
+        } else if (n != -128) {
+          value = input.read();
+          if (value == -1) return -1;
+          repeat = 1 - n;
+        }
+      }
+      if (repeat > 0) {
+        repeat--;
+        return value;
+      }
+      literal--;
+      return input.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      int total = 0;
+      while (total < len) {
+        if (literal > 0) {
+          int n = input.read(b, off + total, Math.min(literal, len - total));
+          if (n <= 0) break;
+          literal -= n;
+          total += n;
+        } else if (repeat > 0) {
+          int n = Math.min(repeat, len - total);
+          for (int i = 0; i < n; i++) {
+            b[off + total + i] = (byte) value;
+          }
+          repeat -= n;
+          total += n;
+        } else {
+          int c = read();
+          if (c == -1) break;
+          b[off + total++] = (byte) c;
+        }
+      }
+      return (total == 0) ? -1 : total;
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Write images to a TIFF file, one after another. ALPHA images are saved
+   * as 8-bit grayscale, RGB as 24 bits, and ARGB as 32 bits with (not
+   * premultiplied) alpha. Uncompressed images are streamed straight out;
+   * compressed strips are made in parallel, a page at a time.
+   */
+  static void write(PImage[] images, OutputStream output,
+                    int compression) throws IOException {
+    if (compression != NONE && compression != LZW &&
+        compression != PACKBITS && compression != DEFLATE) {
+      throw new IllegalArgumentException("Unsupported TIFF compression " + compression);
+    }
+    Writer out = new Writer(output);
+    out.bytes(new byte[] { 'M', 'M', 0, 42 });
+    out.u32(8);
+    for (int i = 0; i < images.length; i++) {
+      writePage(images[i], out, compression, i == images.length - 1);
+    }
+    out.flush();
+  }
+
+
+  static private void writePage(PImage image, Writer out, int compression,
+                                boolean last) throws IOException {
+    final int format = image.format;
+    if (format != ALPHA && format != RGB && format != ARGB) {
+      throw new RuntimeException("Image format not recognized inside save()");
+    }
+    final int width = image.pixelWidth;
+    final int height = image.pixelHeight;
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Cannot save an empty image");
+    }
+    final int samples = (format == ALPHA) ? 1 : ((format == ARGB) ? 4 : 3);
+    final int rowBytes = width * samples;
+    final int rowsPerStrip = Math.max(1, Math.min(height, STRIP_BYTES / rowBytes));
+    final int stripCount = (height + rowsPerStrip - 1) / rowsPerStrip;
+    final boolean predictor = compression == LZW || compression == DEFLATE;
+
+    // compressed strips have to be made before their sizes can be written
+    final byte[][] strips = new byte[stripCount][];
+    long[] counts = new long[stripCount];
+    if (compression == NONE) {
+      for (int s = 0; s < stripCount; s++) {
+        counts[s] = (long) rowBytes * stripRows(s, rowsPerStrip, height);
+      }
+    } else {
+      final int method = compression;
+      final IOException[] failure = new IOException[1];
+      PImageFilter.run(stripCount, width * height, (start, stop) -> {
+        byte[] row = new byte[rowBytes];
+        for (int s = start; s < stop; s++) {
+          try {
+            strips[s] = compress(image, s * rowsPerStrip,
+                                 stripRows(s, rowsPerStrip, height),
+                                 row, method, predictor);
+          } catch (IOException e) {
+            failure[0] = e;
+          }
+        }
+      });
+      if (failure[0] != null) {
+        throw failure[0];
+      }
+      for (int s = 0; s < stripCount; s++) {
+        counts[s] = strips[s].length;
+      }
+    }
+
+    // the IFD goes in front of the image data, then any values too big
+    // to fit inside it, then the strips
+    int entries = 10 + (predictor ? 1 : 0) + (format == ARGB ? 1 : 0);
+    long ifdOffset = out.position;
+    long extraOffset = ifdOffset + 2 + entries * 12 + 4;
+    long bitsOffset = extraOffset;
+    if (samples > 2) extraOffset += samples * 2;
+    long offsetsOffset = extraOffset;
+    if (stripCount > 1) extraOffset += stripCount * 4;
+    long countsOffset = extraOffset;
+    if (stripCount > 1) extraOffset += stripCount * 4;
+
+    long[] offsets = new long[stripCount];
+    long position = extraOffset;
+    for (int s = 0; s < stripCount; s++) {
+      offsets[s] = position;
+      position += counts[s];
+    }
+    if (position > 0xffffffffL) {
+      throw new IOException("Image is too large for a TIFF file");
+    }
+    // IFDs have to start on a word boundary
+    boolean pad = (position & 1) != 0;
+    long nextOffset = last ? 0 : position + (pad ? 1 : 0);
+
+    out.u16(entries);
+    out.entry(IMAGE_WIDTH, 4, 1, width);
+    out.entry(IMAGE_LENGTH, 4, 1, height);
+    out.entry(BITS_PER_SAMPLE, 3, samples, (samples > 2) ? bitsOffset : 8);
+    out.entry(COMPRESSION, 3, 1, compression);
+    out.entry(PHOTOMETRIC, 3, 1, (format == ALPHA) ? 1 : 2);
+    out.entry(STRIP_OFFSETS, 4, stripCount, (stripCount > 1) ? offsetsOffset : offsets[0]);
+    out.entry(SAMPLES_PER_PIXEL, 3, 1, samples);
+    out.entry(ROWS_PER_STRIP, 4, 1, rowsPerStrip);
+    out.entry(STRIP_BYTE_COUNTS, 4, stripCount, (stripCount > 1) ? countsOffset : counts[0]);
+    out.entry(PLANAR_CONFIGURATION, 3, 1, 1);
+    if (predictor) {
+      out.entry(PREDICTOR, 3, 1, 2);
+    }
+    if (format == ARGB) {
+      out.entry(EXTRA_SAMPLES, 3, 1, 2);  // unassociated alpha
+    }
+    out.u32(nextOffset);
+
+    if (samples > 2) {
+      for (int i = 0; i < samples; i++) {
+        out.u16(8);
+      }
+    }
+    if (stripCount > 1) {
+      for (long offset : offsets) out.u32(offset);
+      for (long count : counts) out.u32(count);
+    }
+
+    if (compression == NONE) {
+      byte[] row = new byte[rowBytes];
+      for (int y = 0; y < height; y++) {
+        packRow(image, y, row);
+        out.bytes(row);
+      }
+    } else {
+      for (byte[] strip : strips) {
+        out.bytes(strip);
+      }
+    }
+    if (pad && !last) {
+      out.bytes(new byte[1]);
+    }
+  }
+
+
+  static private int stripRows(int strip, int rowsPerStrip, int height) {
+    return Math.min(rowsPerStrip, height - strip * rowsPerStrip);
+  }
+
+
+  /** A row of an image as gray, RGB, or RGBA bytes. */
+  static private void packRow(PImage image, int y, byte[] row) {
+    int format = image.format;
+    int index = y * image.pixelWidth;
+    int b = 0;
+    for (int x = 0; x < image.pixelWidth; x++) {
+      int c = image.pixels[index++];
+      if (format == ALPHA) {
+        row[b++] = (byte) c;
+      } else {
+        row[b++] = (byte) (c >> 16);
+        row[b++] = (byte) (c >> 8);
+        row[b++] = (byte) c;
+        if (format == ARGB) {
+          row[b++] = (byte) (c >>> 24);
+        }
+      }
+    }
+  }
+
+
+  static private byte[] compress(PImage image, int y, int rows, byte[] row,
+                                 int compression, boolean predictor) throws IOException {
+    int samples = row.length / image.pixelWidth;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows * row.length / 2 + 64);
+    OutputStream out;
+    LZWOutputStream lzw = null;
+    if (compression == LZW) {
+      out = lzw = new LZWOutputStream(bytes);
+    } else if (compression == DEFLATE) {
+      out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION), 1 << 14);
+    } else {
+      out = bytes;
+    }
+    for (int r = 0; r < rows; r++) {
+      packRow(image, y + r, row);
+      if (predictor) {
+        for (int i = row.length - 1; i >= samples; i--) {
+          row[i] -= row[i - samples];
+        }
+      }
+      if (compression == PACKBITS) {
+        packBits(row, bytes);  // each row is packed separately
+      } else {
+        out.write(row);
+      }
+    }
+    if (lzw != null) {
+      lzw.finish();
+    } else if (out instanceof DeflaterOutputStream) {
+      ((DeflaterOutputStream) out).finish();
+    }
+    return bytes.toByteArray();
+  }
+
+
+  static private void packBits(byte[] row, ByteArrayOutputStream out) {
+    int i = 0;
+    int n = row.length;
+    while (i < n) {
+      // a run of at least three of the same byte is worth repeating
+      int run = 1;
+      while (i + run < n && run < 128 && row[i + run] == row[i]) {
+        run++;
+      }
+      if (run >= 3 || (run == 2 && i + run == n)) {
+        out.write(1 - run);
+        out.write(row[i]);
+        i += run;
+      } else {
+        int start = i;
+        while (i < n && i - start < 128) {
+          if (i + 2 < n && row[i] == row[i+1] && row[i] == row[i+2]) break;
+          i++;
+        }
+        out.write(i - start - 1);
+        out.write(row, start, i - start);
+      }
+    }
+  }
+
+
+  /** Encoder for TIFF's LZW, the counterpart of LZWInputStream. */
+  static class LZWOutputStream extends OutputStream {
+    static final int CLEAR = 256;
+    static final int EOI = 257;
+    static final int HASH_SIZE = 1 << 13;
+
+    final OutputStream output;
+    // open addressing table of (prefix code << 8 | byte) -> code
+    final int[] keys = new int[HASH_SIZE];
+    final short[] codes = new short[HASH_SIZE];
+
+    int next;
+    int codeSize;
+    int current = -1;
+    int bitBuffer, bitCount;
+    final byte[] block = new byte[1 << 13];
+    int length;
+
+
+    LZWOutputStream(OutputStream output) throws IOException {
+      this.output = output;
+      reset();
+      writeCode(CLEAR);
+    }
+
+
+    private void reset() {
+      java.util.Arrays.fill(keys, -1);
+      next = 258;
+      codeSize = 9;
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      int code = current;
+      for (int i = off; i < off + len; i++) {
+        int c = b[i] & 0xff;
+        if (code == -1) {
+          code = c;
+          continue;
+        }
+        int key = code << 8 | c;
+        int slot = (key * 0x9E3779B1 >>> 19) & (HASH_SIZE - 1);
+        int found;
+        while ((found = keys[slot]) != -1 && found != key) {
+          slot = (slot + 1) & (HASH_SIZE - 1);
+        }
+        if (found == key) {
+          code = codes[slot];
+        } else {
+          writeCode(code);
+          keys[slot] = key;
+          codes[slot] = (short) next;
+          added();
+          code = c;
+        }
+      }
+      current = code;
+    }
+
+
+    /** Called after a code has been added to the table. */
+    private void added() throws IOException {
+      next++;
+      if (next == 4094) {
+        writeCode(CLEAR);
+        reset();
+      } else if (next > (1 << codeSize) - 1) {
+        codeSize++;
+      }
+    }
+
+
+    /** Write the last code and EOI, without closing the stream. */
+    void finish() throws IOException {
+      if (current != -1) {
+        writeCode(current);
+        current = -1;
+        // the decoder adds a code for this one, so keep up with it
+        next++;
+        if (next > (1 << codeSize) - 1 && codeSize < 12) {
+          codeSize++;
+        }
+      }
+      writeCode(EOI);
+      if (bitCount > 0) {
+        put(bitBuffer << (8 - bitCount));
+        bitCount = 0;
+      }
+      output.write(block, 0, length);
+      length = 0;
+    }
+
+
+    private void writeCode(int code) throws IOException {
+      bitBuffer = (bitBuffer << codeSize) | code;
+      bitCount += codeSize;
+      while (bitCount >= 8) {
+        bitCount -= 8;
+        put(bitBuffer >> bitCount);
+      }
+      bitBuffer &= (1 << bitCount) - 1;
+    }
+
+
+    private void put(int b) throws IOException {
+      if (length == block.length) {
+        output.write(block, 0, length);
+        length = 0;
+      }
+      block[length++] = (byte) b;
+    }
+  }
+
+
+  /** Big-endian output that keeps track of where it is. */
+  static private class Writer {
+    final OutputStream output;
+    final byte[] block = new byte[1 << 16];
+    int length;
+    long position;
+
+    Writer(OutputStream output) {
+      this.output = output;
+    }
+
+    void u16(int v) throws IOException {
+      bytes(new byte[] { (byte) (v >> 8), (byte) v });
+    }
+
+    void u32(long v) throws IOException {
+      bytes(new byte[] { (byte) (v >> 24), (byte) (v >> 16), (byte) (v >> 8), (byte) v });
+    }
+
+    /** An IFD entry, the value is left-justified if it fits. */
+    void entry(int tag, int type, int count, long value) throws IOException {
+      u16(tag);
+      u16(type);
+      u32(count);
+      if (type == 3 && count == 1) {
+        u16((int) value);
+        u16(0);
+      } else {
+        u32(value);
+      }
+    }
+
+    void bytes(byte[] b) throws IOException {
+      if (length + b.length > block.length) {
+        flush();
+        if (b.length > block.length) {
+          output.write(b);
+          position += b.length;
+          return;
+        }
+      }
+      System.arraycopy(b, 0, block, length, b.length);
+      length += b.length;
+      position += b.length;
+    }
+
+    void flush() throws IOException {
+      output.write(block, 0, length);
+      length = 0;
+    }
+  }
+
+
+  /** Parse "compression=none", "lzw", "packbits" or "deflate". */
+  static int compressionOption(String options) {
+    int compression = NONE;
+    if (options != null) {
+      for (String option : PApplet.trim(PApplet.split(options, ','))) {
+        if (option.length() == 0) continue;
+
+        if (option.startsWith("compression=")) {
+          String name = option.substring(12).toLowerCase();
+          if (name.equals("none")) {
+            compression = NONE;
+          } else if (name.equals("lzw")) {
+            compression = LZW;
+          } else if (name.equals("packbits")) {
+            compression = PACKBITS;
+          } else if (name.equals("deflate")) {
+            compression = DEFLATE;
+          } else {
+            throw new IllegalArgumentException("Unknown TIFF compression " + name);
+          }
+        } else {
+          throw new IllegalArgumentException(option + " is not a TIFF option");
+        }
+      }
+    }
+    return compression;
+  }
+}
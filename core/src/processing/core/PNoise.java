@@ -0,0 +1,508 @@
+/* -*- mode: java; c-basic-offset: 2; indent-tabs-mode: nil -*- */
+
+/*
+  Part of the Processing project - http://processing.org
+
+  Copyright (c) 2015 The Processing Foundation
+
+  This library is free software; you can redistribute it and/or
+  modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation, version 2.1.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General
+  Public License along with this library; if not, write to the
+  Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+  Boston, MA  02111-1307  USA
+*/
+
+package processing.core;
+
+import java.util.Random;
+
+
+/**
+ * Simplex noise in 2, 3 and 4 dimensions, based on Stefan Gustavson's
+ * "Simplex noise demystified" (2005, 2012). Unlike PApplet.noise(), each
+ * PNoise has its own seed and settings that never change after it's been
+ * created, so one can be shared by any number of threads, and it needs
+ * no sketch.
+ * <p/>
+ * noise() adds together octaves of simplex noise the same way that
+ * PApplet.noise() does with its octaves, so it has about the same range
+ * (0 to just under 1 with the default detail) and can be swapped in for
+ * it, though the values themselves are different. simplex() is a single
+ * octave, from -1 to 1.
+ * <p/>
+ * The array versions of noise() fill in many values at once, split
+ * across the available cores when there are enough of them.
+ */
+public class PNoise {
+  static final int DEFAULT_OCTAVES = 4;
+  static final float DEFAULT_FALLOFF = 0.5f;
+
+  /**
+   * Roughly how many pixels of image filtering one octave of noise is
+   * worth, for deciding when to split bulk calls across threads.
+   */
+  static final int OCTAVE_COST = 4;
+
+  // skew and unskew factors
+  static final float F2 = (float) (0.5 * (Math.sqrt(3) - 1));
+  static final float G2 = (float) ((3 - Math.sqrt(3)) / 6);
+  static final float F3 = 1f / 3;
+  static final float G3 = 1f / 6;
+  static final float F4 = (float) ((Math.sqrt(5) - 1) / 4);
+  static final float G4 = (float) ((5 - Math.sqrt(5)) / 20);
+
+  // the 12 edge midpoints of a cube, used for 2D (ignoring z) and 3D
+  static final float[] GRAD3X = { 1, -1, 1, -1, 1, -1, 1, -1, 0, 0, 0, 0 };
+  static final float[] GRAD3Y = { 1, 1, -1, -1, 0, 0, 0, 0, 1, -1, 1, -1 };
+  static final float[] GRAD3Z = { 0, 0, 0, 0, 1, 1, -1, -1, 1, 1, -1, -1 };
+
+  // the 32 edge midpoints of a tesseract, for 4D
+  static final float[] GRAD4X = new float[32];
+  static final float[] GRAD4Y = new float[32];
+  static final float[] GRAD4Z = new float[32];
+  static final float[] GRAD4W = new float[32];
+
+  static {
+    int index = 0;
+    for (int zero = 0; zero < 4; zero++) {
+      for (int signs = 0; signs < 8; signs++) {
+        float[] g = new float[4];
+        int bit = 0;
+        for (int axis = 0; axis < 4; axis++) {
+          if (axis != zero) {
+            g[axis] = ((signs >> bit++) & 1) == 0 ? 1 : -1;
+          }
+        }
+        GRAD4X[index] = g[0];
+        GRAD4Y[index] = g[1];
+        GRAD4Z[index] = g[2];
+        GRAD4W[index] = g[3];
+        index++;
+      }
+    }
+  }
+
+  final long seed;
+  final int octaves;
+  final float falloff;
+
+  /** Shuffled 0..255, twice over so lookups don't need to wrap */
+  final int[] perm = new int[512];
+
+  // The gradient for each value of perm, looked up directly by hash
+  // rather than through a second table of gradient numbers.
+  final float[] grad3x = new float[512];
+  final float[] grad3y = new float[512];
+  final float[] grad3z = new float[512];
+  final float[] grad4x = new float[512];
+  final float[] grad4y = new float[512];
+  final float[] grad4z = new float[512];
+  final float[] grad4w = new float[512];
+
+
+  /** Noise with a random seed and the default detail. */
+  public PNoise() {
+    this(new Random().nextLong());
+  }
+
+
+  /** Noise that's the same every time it's created with the same seed. */
+  public PNoise(long seed) {
+    this(seed, DEFAULT_OCTAVES, DEFAULT_FALLOFF);
+  }
+
+
+  /**
+   * @param octaves number of octaves added up by noise(), same as the lod
+   * for noiseDetail()
+   * @param falloff how much each octave is scaled relative to the one
+   * before, same as for noiseDetail()
+   */
+  public PNoise(long seed, int octaves, float falloff) {
+    if (octaves < 1) {
+      throw new IllegalArgumentException("octaves must be at least 1");
+    }
+    if (falloff <= 0) {
+      throw new IllegalArgumentException("falloff must be greater than 0");
+    }
+    this.seed = seed;
+    this.octaves = octaves;
+    this.falloff = falloff;
+
+    int[] shuffled = new int[256];
+    for (int i = 0; i < 256; i++) {
+      shuffled[i] = i;
+    }
+    Random random = new Random(seed);
+    for (int i = 255; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int temp = shuffled[i];
+      shuffled[i] = shuffled[j];
+      shuffled[j] = temp;
+    }
+    for (int i = 0; i < 512; i++) {
+      perm[i] = shuffled[i & 255];
+      int g3 = perm[i] % 12;
+      grad3x[i] = GRAD3X[g3];
+      grad3y[i] = GRAD3Y[g3];
+      grad3z[i] = GRAD3Z[g3];
+      int g4 = perm[i] & 31;
+      grad4x[i] = GRAD4X[g4];
+      grad4y[i] = GRAD4Y[g4];
+      grad4z[i] = GRAD4Z[g4];
+      grad4w[i] = GRAD4W[g4];
+    }
+  }
+
+
+  public long seed() {
+    return seed;
+  }
+
+
+  public int octaves() {
+    return octaves;
+  }
+
+
+  public float falloff() {
+    return falloff;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public float noise(float x, float y) {
+    float r = 0;
+    float ampl = 0.5f;
+    for (int i = 0; i < octaves; i++) {
+      r += ampl * (0.5f + 0.5f * simplex(x, y));
+      ampl *= falloff;
+      x *= 2;
+      y *= 2;
+    }
+    return r;
+  }
+
+
+  public float noise(float x, float y, float z) {
+    float r = 0;
+    float ampl = 0.5f;
+    for (int i = 0; i < octaves; i++) {
+      r += ampl * (0.5f + 0.5f * simplex(x, y, z));
+      ampl *= falloff;
+      x *= 2;
+      y *= 2;
+      z *= 2;
+    }
+    return r;
+  }
+
+
+  public float noise(float x, float y, float z, float w) {
+    float r = 0;
+    float ampl = 0.5f;
+    for (int i = 0; i < octaves; i++) {
+      r += ampl * (0.5f + 0.5f * simplex(x, y, z, w));
+      ampl *= falloff;
+      x *= 2;
+      y *= 2;
+      z *= 2;
+      w *= 2;
+    }
+    return r;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Fill out[i] with noise(xs[i], ys[i]) for each entry of out. The
+   * results are the same as calling noise() one at a time.
+   */
+  public void noise(final float[] xs, final float[] ys, final float[] out) {
+    final int count = out.length;
+    check(count, xs, ys);
+    PImageFilter.run(count, cost(count, octaves), (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        out[i] = noise(xs[i], ys[i]);
+      }
+    });
+  }
+
+
+  /** Fill out[i] with noise(xs[i], ys[i], zs[i]). */
+  public void noise(final float[] xs, final float[] ys, final float[] zs,
+                    final float[] out) {
+    final int count = out.length;
+    check(count, xs, ys, zs);
+    PImageFilter.run(count, cost(count, octaves), (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        out[i] = noise(xs[i], ys[i], zs[i]);
+      }
+    });
+  }
+
+
+  /** Fill out[i] with noise(xs[i], ys[i], zs[i], ws[i]). */
+  public void noise(final float[] xs, final float[] ys, final float[] zs,
+                    final float[] ws, final float[] out) {
+    final int count = out.length;
+    check(count, xs, ys, zs, ws);
+    PImageFilter.run(count, cost(count, octaves), (start, stop) -> {
+      for (int i = start; i < stop; i++) {
+        out[i] = noise(xs[i], ys[i], zs[i], ws[i]);
+      }
+    });
+  }
+
+
+  /**
+   * The work in a bulk call, in pixels for PImageFilter.run(). Done in
+   * long math, since a big enough batch with many octaves overflows an
+   * int, which would look like a small job and run on one thread.
+   */
+  static int cost(int count, int octaves) {
+    return (int) Math.min(Integer.MAX_VALUE,
+                          (long) count * octaves * OCTAVE_COST);
+  }
+
+
+  static private void check(int count, float[]... inputs) {
+    for (float[] input : inputs) {
+      if (input.length < count) {
+        throw new IllegalArgumentException("Expected " + count +
+                                           " coordinates, but only " +
+                                           input.length + " were passed");
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  static private int floor(float x) {
+    int i = (int) x;
+    return (x < i) ? i - 1 : i;
+  }
+
+
+  // The contribution of each corner falls off to zero at a fixed distance.
+  // It's clamped with a conditional rather than skipped with a branch:
+  // which corners are in range is close to random from one sample to the
+  // next, and a mispredicted branch costs more than the arithmetic.
+
+
+  /** A single octave of 2D simplex noise, from -1 to 1. */
+  public float simplex(float x, float y) {
+    // skew to find which simplex cell we're in
+    float s = (x + y) * F2;
+    int i = floor(x + s);
+    int j = floor(y + s);
+    float t = (i + j) * G2;
+    float x0 = x - (i - t);
+    float y0 = y - (j - t);
+
+    // lower or upper triangle of the cell
+    int i1 = (x0 > y0) ? 1 : 0;
+    int j1 = 1 - i1;
+
+    float x1 = x0 - i1 + G2;
+    float y1 = y0 - j1 + G2;
+    float x2 = x0 - 1 + 2 * G2;
+    float y2 = y0 - 1 + 2 * G2;
+
+    int ii = i & 255;
+    int jj = j & 255;
+    int[] perm = this.perm;
+    int h0 = ii + perm[jj];
+    int h1 = ii + i1 + perm[jj + j1];
+    int h2 = ii + 1 + perm[jj + 1];
+
+    float t0 = 0.5f - x0*x0 - y0*y0;
+    float t1 = 0.5f - x1*x1 - y1*y1;
+    float t2 = 0.5f - x2*x2 - y2*y2;
+    t0 = (t0 > 0) ? t0*t0 : 0;
+    t1 = (t1 > 0) ? t1*t1 : 0;
+    t2 = (t2 > 0) ? t2*t2 : 0;
+
+    float[] gx = grad3x;
+    float[] gy = grad3y;
+    float n =
+      t0 * t0 * (gx[h0] * x0 + gy[h0] * y0) +
+      t1 * t1 * (gx[h1] * x1 + gy[h1] * y1) +
+      t2 * t2 * (gx[h2] * x2 + gy[h2] * y2);
+    // scale to stay just inside [-1, 1]
+    return 70 * n;
+  }
+
+
+  /** A single octave of 3D simplex noise, from -1 to 1. */
+  public float simplex(float x, float y, float z) {
+    float s = (x + y + z) * F3;
+    int i = floor(x + s);
+    int j = floor(y + s);
+    int k = floor(z + s);
+    float t = (i + j + k) * G3;
+    float x0 = x - (i - t);
+    float y0 = y - (j - t);
+    float z0 = z - (k - t);
+
+    // Rank the coordinates by size to find which of the six tetrahedra
+    // we're in, and the order its corners are visited in.
+    int xy = (x0 >= y0) ? 1 : 0;
+    int xz = (x0 >= z0) ? 1 : 0;
+    int yz = (y0 >= z0) ? 1 : 0;
+    int rankx = xy + xz;
+    int ranky = 1 - xy + yz;
+    int rankz = 2 - xz - yz;
+    int i1 = rankx >> 1;
+    int j1 = ranky >> 1;
+    int k1 = rankz >> 1;
+    int i2 = (rankx + 1) >> 1;
+    int j2 = (ranky + 1) >> 1;
+    int k2 = (rankz + 1) >> 1;
+
+    float x1 = x0 - i1 + G3;
+    float y1 = y0 - j1 + G3;
+    float z1 = z0 - k1 + G3;
+    float x2 = x0 - i2 + 2 * G3;
+    float y2 = y0 - j2 + 2 * G3;
+    float z2 = z0 - k2 + 2 * G3;
+    float x3 = x0 - 1 + 3 * G3;
+    float y3 = y0 - 1 + 3 * G3;
+    float z3 = z0 - 1 + 3 * G3;
+
+    int ii = i & 255;
+    int jj = j & 255;
+    int kk = k & 255;
+    int[] perm = this.perm;
+    int h0 = ii + perm[jj + perm[kk]];
+    int h1 = ii + i1 + perm[jj + j1 + perm[kk + k1]];
+    int h2 = ii + i2 + perm[jj + j2 + perm[kk + k2]];
+    int h3 = ii + 1 + perm[jj + 1 + perm[kk + 1]];
+
+    float t0 = 0.6f - x0*x0 - y0*y0 - z0*z0;
+    float t1 = 0.6f - x1*x1 - y1*y1 - z1*z1;
+    float t2 = 0.6f - x2*x2 - y2*y2 - z2*z2;
+    float t3 = 0.6f - x3*x3 - y3*y3 - z3*z3;
+    t0 = (t0 > 0) ? t0*t0 : 0;
+    t1 = (t1 > 0) ? t1*t1 : 0;
+    t2 = (t2 > 0) ? t2*t2 : 0;
+    t3 = (t3 > 0) ? t3*t3 : 0;
+
+    float[] gx = grad3x;
+    float[] gy = grad3y;
+    float[] gz = grad3z;
+    float n =
+      t0 * t0 * (gx[h0] * x0 + gy[h0] * y0 + gz[h0] * z0) +
+      t1 * t1 * (gx[h1] * x1 + gy[h1] * y1 + gz[h1] * z1) +
+      t2 * t2 * (gx[h2] * x2 + gy[h2] * y2 + gz[h2] * z2) +
+      t3 * t3 * (gx[h3] * x3 + gy[h3] * y3 + gz[h3] * z3);
+    return 32 * n;
+  }
+
+
+  /** A single octave of 4D simplex noise, from -1 to 1. */
+  public float simplex(float x, float y, float z, float w) {
+    float s = (x + y + z + w) * F4;
+    int i = floor(x + s);
+    int j = floor(y + s);
+    int k = floor(z + s);
+    int l = floor(w + s);
+    float t = (i + j + k + l) * G4;
+    float x0 = x - (i - t);
+    float y0 = y - (j - t);
+    float z0 = z - (k - t);
+    float w0 = w - (l - t);
+
+    // Same as 3D, with 24 simplices to choose from.
+    int xy = (x0 > y0) ? 1 : 0;
+    int xz = (x0 > z0) ? 1 : 0;
+    int xw = (x0 > w0) ? 1 : 0;
+    int yz = (y0 > z0) ? 1 : 0;
+    int yw = (y0 > w0) ? 1 : 0;
+    int zw = (z0 > w0) ? 1 : 0;
+    int rankx = xy + xz + xw;
+    int ranky = 1 - xy + yz + yw;
+    int rankz = 2 - xz - yz + zw;
+    int rankw = 3 - xw - yw - zw;
+
+    // corner m of the simplex is offset along each axis whose rank is at
+    // least 4 - m
+    int i1 = (rankx + 1) >> 2;
+    int j1 = (ranky + 1) >> 2;
+    int k1 = (rankz + 1) >> 2;
+    int l1 = (rankw + 1) >> 2;
+    int i2 = rankx >> 1;
+    int j2 = ranky >> 1;
+    int k2 = rankz >> 1;
+    int l2 = rankw >> 1;
+    int i3 = (rankx + 3) >> 2;
+    int j3 = (ranky + 3) >> 2;
+    int k3 = (rankz + 3) >> 2;
+    int l3 = (rankw + 3) >> 2;
+
+    float x1 = x0 - i1 + G4;
+    float y1 = y0 - j1 + G4;
+    float z1 = z0 - k1 + G4;
+    float w1 = w0 - l1 + G4;
+    float x2 = x0 - i2 + 2 * G4;
+    float y2 = y0 - j2 + 2 * G4;
+    float z2 = z0 - k2 + 2 * G4;
+    float w2 = w0 - l2 + 2 * G4;
+    float x3 = x0 - i3 + 3 * G4;
+    float y3 = y0 - j3 + 3 * G4;
+    float z3 = z0 - k3 + 3 * G4;
+    float w3 = w0 - l3 + 3 * G4;
+    float x4 = x0 - 1 + 4 * G4;
+    float y4 = y0 - 1 + 4 * G4;
+    float z4 = z0 - 1 + 4 * G4;
+    float w4 = w0 - 1 + 4 * G4;
+
+    int ii = i & 255;
+    int jj = j & 255;
+    int kk = k & 255;
+    int ll = l & 255;
+    int[] perm = this.perm;
+    int h0 = ii + perm[jj + perm[kk + perm[ll]]];
+    int h1 = ii + i1 + perm[jj + j1 + perm[kk + k1 + perm[ll + l1]]];
+    int h2 = ii + i2 + perm[jj + j2 + perm[kk + k2 + perm[ll + l2]]];
+    int h3 = ii + i3 + perm[jj + j3 + perm[kk + k3 + perm[ll + l3]]];
+    int h4 = ii + 1 + perm[jj + 1 + perm[kk + 1 + perm[ll + 1]]];
+
+    float t0 = 0.6f - x0*x0 - y0*y0 - z0*z0 - w0*w0;
+    float t1 = 0.6f - x1*x1 - y1*y1 - z1*z1 - w1*w1;
+    float t2 = 0.6f - x2*x2 - y2*y2 - z2*z2 - w2*w2;
+    float t3 = 0.6f - x3*x3 - y3*y3 - z3*z3 - w3*w3;
+    float t4 = 0.6f - x4*x4 - y4*y4 - z4*z4 - w4*w4;
+    t0 = (t0 > 0) ? t0*t0 : 0;
+    t1 = (t1 > 0) ? t1*t1 : 0;
+    t2 = (t2 > 0) ? t2*t2 : 0;
+    t3 = (t3 > 0) ? t3*t3 : 0;
+    t4 = (t4 > 0) ? t4*t4 : 0;
+
+    float[] gx = grad4x;
+    float[] gy = grad4y;
+    float[] gz = grad4z;
+    float[] gw = grad4w;
+    float n =
+      t0 * t0 * (gx[h0] * x0 + gy[h0] * y0 + gz[h0] * z0 + gw[h0] * w0) +
+      t1 * t1 * (gx[h1] * x1 + gy[h1] * y1 + gz[h1] * z1 + gw[h1] * w1) +
+      t2 * t2 * (gx[h2] * x2 + gy[h2] * y2 + gz[h2] * z2 + gw[h2] * w2) +
+      t3 * t3 * (gx[h3] * x3 + gy[h3] * y3 + gz[h3] * z3 + gw[h3] * w3) +
+      t4 * t4 * (gx[h4] * x4 + gy[h4] * y4 + gz[h4] * z4 + gw[h4] * w4);
+    return 27 * n;
+  }
+}
@@ -263,13 +263,8 @@ public class PSurfaceNone implements PSurface {
      */
     @Override
     public void run() {  // not good to make this synchronized, locks things up
-      long beforeTime = System.nanoTime();
-      long overSleepTime = 0L;
-
-      int noDelays = 0;
-      // Number of frames with a delay of 0 ms before the
-      // animation thread yields to other running threads.
-      final int NO_DELAYS_PER_YIELD = 15;
+      PFrameScheduler scheduler = sketch.frameScheduler;
+      scheduler.restart(System.nanoTime());
 
       /*
       // If size un-initialized, might be a Canvas. Call setSize() here since
@@ -295,7 +290,16 @@ public class PSurfaceNone implements PSurface {
       sketch.start();
 
       while ((Thread.currentThread() == thread) && !sketch.finished) {
-        checkPause();
+        if (paused) {
+          checkPause();
+          scheduler.restart(System.nanoTime());
+        }
+        // pick up a scheduler set from draw() or another thread
+        if (scheduler != sketch.frameScheduler) {
+          scheduler = sketch.frameScheduler;
+          scheduler.restart(System.nanoTime());
+        }
+        scheduler.frameStarted(System.nanoTime(), frameRatePeriod);
 
         // Don't resize the renderer from the EDT (i.e. from a ComponentEvent),
         // otherwise it may attempt a resize mid-render.
@@ -312,6 +316,11 @@ public class PSurfaceNone implements PSurface {
         //System.out.println("calling draw, looping = " + sketch.looping + ", frameCount = " + sketch.frameCount);
         callDraw();
 
+        PFrameProfiler profiler = sketch.frameProfiler;
+        if (profiler != null) {
+          profiler.frameRendered();
+        }
+
 //        EventQueue.invokeLater(new Runnable() {
 //          public void run() {
 //        if (sketch.frameCount == 1) {
@@ -332,31 +341,7 @@ public class PSurfaceNone implements PSurface {
         // this is necessary since the drawing is sometimes in a
         // separate thread, meaning that the next frame will start
         // before the update/paint is completed
-
-        long afterTime = System.nanoTime();
-        long timeDiff = afterTime - beforeTime;
-        //System.out.println("time diff is " + timeDiff);
-        long sleepTime = (frameRatePeriod - timeDiff) - overSleepTime;
-
-        if (sleepTime > 0) {  // some time left in this cycle
-          try {
-            Thread.sleep(sleepTime / 1000000L, (int) (sleepTime % 1000000L));
-            noDelays = 0;  // Got some sleep, not delaying anymore
-          } catch (InterruptedException ex) { }
-
-          overSleepTime = (System.nanoTime() - afterTime) - sleepTime;
-
-        } else {    // sleepTime <= 0; the frame took longer than the period
-          overSleepTime = 0L;
-          noDelays++;
-
-          if (noDelays > NO_DELAYS_PER_YIELD) {
-            Thread.yield();   // give another thread a chance to run
-            noDelays = 0;
-          }
-        }
-
-        beforeTime = System.nanoTime();
+        scheduler.waitForNextFrame(frameRatePeriod);
       }
 
       sketch.dispose();  // call to shutdown libs?
@@ -1,7 +1,6 @@
 package processing.data;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -25,7 +24,7 @@ public class DoubleDict {
   protected double[] values;
 
   /** Internal implementation for faster lookups */
-  private HashMap<String, Integer> indices = new HashMap<>();
+  private StringIndex indices = new StringIndex();
 
 
   public DoubleDict() {
@@ -164,15 +163,12 @@ public class DoubleDict {
    */
   public void clear() {
     count = 0;
-    indices = new HashMap<>();
+    indices.clear();
   }
 
 
   private void resetIndices() {
-    indices = new HashMap<>(count);
-    for (int i = 0; i < count; i++) {
-      indices.put(keys[i], i);
-    }
+    indices.reset(keys, count);
   }
 
 
@@ -590,8 +586,7 @@ public class DoubleDict {
 
 
   public int index(String what) {
-    Integer found = indices.get(what);
-    return (found == null) ? -1 : found.intValue();
+    return indices.get(what);
   }
 
 
@@ -600,7 +595,7 @@ public class DoubleDict {
       keys = PApplet.expand(keys);
       values = PApplet.expand(values);
     }
-    indices.put(what, Integer.valueOf(count));
+    indices.put(what, count);
     keys[count] = what;
     values[count] = much;
     count++;
@@ -648,8 +643,8 @@ public class DoubleDict {
     keys[b] = tkey;
     values[b] = tvalue;
 
-//    indices.put(keys[a], Integer.valueOf(a));
-//    indices.put(keys[b], Integer.valueOf(b));
+//    indices.put(keys[a], a);
+//    indices.put(keys[b], b);
   }
 
 
@@ -794,9 +789,7 @@ public class DoubleDict {
     DoubleDict outgoing = new DoubleDict(count);
     System.arraycopy(keys, 0, outgoing.keys, 0, count);
     System.arraycopy(values, 0, outgoing.values, 0, count);
-    for (int i = 0; i < count; i++) {
-      outgoing.indices.put(keys[i], i);
-    }
+    outgoing.indices = indices.copy();
     outgoing.count = count;
     return outgoing;
   }
@@ -1,7 +1,6 @@
 package processing.data;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -24,7 +23,7 @@ public class FloatDict {
   protected float[] values;
 
   /** Internal implementation for faster lookups */
-  private HashMap<String, Integer> indices = new HashMap<>();
+  private StringIndex indices = new StringIndex();
 
 
   public FloatDict() {
@@ -149,15 +148,12 @@ public class FloatDict {
    */
   public void clear() {
     count = 0;
-    indices = new HashMap<>();
+    indices.clear();
   }
 
 
   private void resetIndices() {
-    indices = new HashMap<>(count);
-    for (int i = 0; i < count; i++) {
-      indices.put(keys[i], i);
-    }
+    indices.reset(keys, count);
   }
 
 
@@ -587,8 +583,7 @@ public class FloatDict {
 
 
   public int index(String what) {
-    Integer found = indices.get(what);
-    return (found == null) ? -1 : found.intValue();
+    return indices.get(what);
   }
 
 
@@ -597,7 +592,7 @@ public class FloatDict {
       keys = PApplet.expand(keys);
       values = PApplet.expand(values);
     }
-    indices.put(what, Integer.valueOf(count));
+    indices.put(what, count);
     keys[count] = what;
     values[count] = much;
     count++;
@@ -645,8 +640,8 @@ public class FloatDict {
     keys[b] = tkey;
     values[b] = tvalue;
 
-//    indices.put(keys[a], Integer.valueOf(a));
-//    indices.put(keys[b], Integer.valueOf(b));
+//    indices.put(keys[a], a);
+//    indices.put(keys[b], b);
   }
 
 
@@ -791,9 +786,7 @@ public class FloatDict {
     FloatDict outgoing = new FloatDict(count);
     System.arraycopy(keys, 0, outgoing.keys, 0, count);
     System.arraycopy(values, 0, outgoing.values, 0, count);
-    for (int i = 0; i < count; i++) {
-      outgoing.indices.put(keys[i], i);
-    }
+    outgoing.indices = indices.copy();
     outgoing.count = count;
     return outgoing;
   }
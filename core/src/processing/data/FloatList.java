@@ -656,7 +656,7 @@ public class FloatList implements Iterable<Float> {
    * @brief Sorts an array, lowest to highest
    */
   public void sort() {
-    Arrays.sort(data, 0, count);
+    PrimitiveSort.sort(data, count);
   }
 
 
@@ -667,45 +667,7 @@ public class FloatList implements Iterable<Float> {
    * @brief Reverse sort, orders values from highest to lowest
    */
   public void sortReverse() {
-    new Sort() {
-      @Override
-      public int size() {
-        // if empty, don't even mess with the NaN check, it'll AIOOBE
-        if (count == 0) {
-          return 0;
-        }
-        // move NaN values to the end of the list and don't sort them
-        int right = count - 1;
-        while (data[right] != data[right]) {
-          right--;
-          if (right == -1) {  // all values are NaN
-            return 0;
-          }
-        }
-        for (int i = right; i >= 0; --i) {
-          float v = data[i];
-          if (v != v) {
-            data[i] = data[right];
-            data[right] = v;
-            --right;
-          }
-        }
-        return right + 1;
-      }
-
-      @Override
-      public int compare(int a, int b) {
-        float diff = data[b] - data[a];
-        return diff == 0 ? 0 : (diff < 0 ? -1 : 1);
-      }
-
-      @Override
-      public void swap(int a, int b) {
-        float temp = data[a];
-        data[a] = data[b];
-        data[b] = temp;
-      }
-    }.run();
+    PrimitiveSort.sortReverse(data, count);
   }
 
 
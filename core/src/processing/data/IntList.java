@@ -108,8 +108,9 @@ public class IntList implements Iterable<Integer> {
     int count = stop - start;
     IntList newbie = new IntList(count);
     for (int i = 0; i < count; i++) {
-      newbie.set(i, start+i);
+      newbie.data[i] = start+i;
     }
+    newbie.count = count;
     return newbie;
   }
 
@@ -625,7 +626,7 @@ public class IntList implements Iterable<Integer> {
    * @brief Sorts the array, lowest to highest
    */
   public void sort() {
-    Arrays.sort(data, 0, count);
+    PrimitiveSort.sort(data, count);
   }
 
 
@@ -636,24 +637,7 @@ public class IntList implements Iterable<Integer> {
    * @brief Reverse sort, orders values from highest to lowest
    */
   public void sortReverse() {
-    new Sort() {
-      @Override
-      public int size() {
-        return count;
-      }
-
-      @Override
-      public int compare(int a, int b) {
-        return data[b] - data[a];
-      }
-
-      @Override
-      public void swap(int a, int b) {
-        int temp = data[a];
-        data[a] = data[b];
-        data[b] = temp;
-      }
-    }.run();
+    PrimitiveSort.sortReverse(data, count);
   }
 
 
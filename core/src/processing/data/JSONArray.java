@@ -117,7 +117,26 @@ public class JSONArray {
    * @nowebref
    */
   public JSONArray(Reader reader) {
-    this(new JSONTokener(reader));
+    this(JSONReader.compatible(reader));
+  }
+
+
+  /**
+   * Read the next array from a JSONReader.
+   *
+   * @throws RuntimeException If there is a syntax error.
+   * @nowebref
+   */
+  protected JSONArray(JSONReader reader) {
+    this();
+    if (!reader.startsWith('[')) {
+      throw new RuntimeException("A JSONArray text must start with '['");
+    }
+    reader.beginArray();
+    while (reader.hasNext()) {
+      myArrayList.add(reader.nextValue());
+    }
+    reader.endArray();
   }
 
 
@@ -203,7 +222,7 @@ public class JSONArray {
    */
   static public JSONArray parse(String source) {
     try {
-      return new JSONArray(new JSONTokener(source));
+      return new JSONArray(JSONReader.compatible(source));
     } catch (Exception e) {
       return null;
     }
@@ -112,18 +112,24 @@ import processing.core.PApplet;
  */
 public class JSONObject {
   /**
-   * The maximum number of keys in the key pool.
+   * The number of keys in the key pool is 2^keyPoolBits.
    */
-  private static final int keyPoolSize = 100;
+  private static final int keyPoolBits = 10;
 
   /**
    * Key pooling is like string interning, but without permanently tying up
    * memory. To help conserve memory, storage of duplicated key strings in
    * JSONObjects will be avoided by using a key pool to manage unique key
    * string objects. This is used by JSONObject.put(string, object).
+   * <p/>
+   * Each key has a single slot in the pool, based on its hash code, and a
+   * new key replaces whatever was in its slot, so the pool never grows and
+   * keeps the most recently used keys. No locking is needed when several
+   * threads are parsing at once: Strings are immutable, so a thread will
+   * see either a complete key or the one that was there before, and the
+   * worst case is a key that doesn't get pooled.
    */
-  private static HashMap<String, Object> keyPool =
-    new HashMap<>(keyPoolSize);
+  private static final String[] keyPool = new String[1 << keyPoolBits];
 
 
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
@@ -223,7 +229,28 @@ public class JSONObject {
    * @nowebref
    */
   public JSONObject(Reader reader) {
-    this(new JSONTokener(reader));
+    this(JSONReader.compatible(reader));
+  }
+
+
+  /**
+   * Read the next object from a JSONReader. Used when streaming, to load
+   * one record at a time from a larger file.
+   * @throws RuntimeException If there is a syntax error in the source string
+   *  or a duplicated key.
+   */
+  protected JSONObject(JSONReader reader) {
+    this();
+    if (!reader.startsWith('{')) {
+      throw new RuntimeException("A JSONObject text must begin with '{'");
+    }
+    reader.beginObject();
+    boolean pooled = reader.isPoolingKeys();
+    while (reader.hasNext()) {
+      String key = reader.nextName();
+      this.putOnce(key, reader.nextValue(), pooled);
+    }
+    reader.endObject();
   }
 
 
@@ -398,7 +425,7 @@ public class JSONObject {
    *  string or a duplicated key.
    */
   static public JSONObject parse(String source) {
-    return new JSONObject(new JSONTokener(source));
+    return new JSONObject(JSONReader.compatible(source));
   }
 
 
@@ -1317,20 +1344,18 @@ public class JSONObject {
    *  or if the key is null.
    */
   public JSONObject put(String key, Object value) {
-    String pooled;
+    return put(key, value, true);
+  }
+
+
+  private JSONObject put(String key, Object value, boolean pooled) {
     if (key == null) {
       throw new RuntimeException("Null key.");
     }
     if (value != null) {
       testValidity(value);
-      pooled = (String)keyPool.get(key);
-      if (pooled == null) {
-        if (keyPool.size() >= keyPoolSize) {
-          keyPool = new HashMap<>(keyPoolSize);
-        }
-        keyPool.put(key, key);
-      } else {
-        key = pooled;
+      if (pooled) {
+        key = pool(key);
       }
       this.map.put(key, value);
     } else {
@@ -1340,6 +1365,20 @@ public class JSONObject {
   }
 
 
+  /**
+   * Return the copy of this key that's in the key pool, or add it.
+   */
+  static String pool(String key) {
+    int slot = (key.hashCode() * 0x9E3779B9) >>> (32 - keyPoolBits);
+    String found = keyPool[slot];
+    if (key.equals(found)) {
+      return found;
+    }
+    keyPool[slot] = key;
+    return key;
+  }
+
+
   /**
    * Put a key/value pair in the JSONObject, but only if the key and the
    * value are both non-null, and only if there is not already a member
@@ -1351,11 +1390,16 @@ public class JSONObject {
    * {@link #put(String,Object)} throws.
    */
   private JSONObject putOnce(String key, Object value) {
+    return putOnce(key, value, true);
+  }
+
+
+  private JSONObject putOnce(String key, Object value, boolean pooled) {
     if (key != null && value != null) {
       if (this.opt(key) != null) {
         throw new RuntimeException("Duplicate key \"" + key + "\"");
       }
-      this.put(key, value);
+      this.put(key, value, pooled);
     }
     return this;
   }
@@ -0,0 +1,860 @@
+package processing.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import processing.core.PApplet;
+
+
+/**
+ * Reads JSON one token at a time, without building the whole tree in
+ * memory. Useful for very large files, or for newline-delimited JSON
+ * (one value per line), where each record can be handled and then
+ * discarded.
+ * <pre>
+ * JSONReader reader = new JSONReader(createReader("log.json"));
+ * while (reader.hasNext()) {
+ *   reader.beginObject();
+ *   while (reader.hasNext()) {
+ *     String name = reader.nextName();
+ *     if (name.equals("id")) {
+ *       ids.append(reader.nextInt());
+ *     } else {
+ *       reader.skipValue();
+ *     }
+ *   }
+ *   reader.endObject();
+ * }
+ * reader.close();
+ * </pre>
+ * Use peek() to find out what comes next, or nextToken() to step through
+ * every token, and getString(), getInt(), etc. to get the value of the
+ * token that was just read. nextJSONObject(), nextJSONArray(), and
+ * nextValue() read an entire value into the usual JSONObject and JSONArray
+ * classes, which is handy for one record at a time.
+ * <p/>
+ * Accepts the same relaxed syntax as the JSONObject and JSONArray
+ * constructors (which use this class): single-quoted or unquoted strings,
+ * '=' or '=&gt;' after a name, ';' between values, and an extra ',' before
+ * a closing bracket.
+ * <p/>
+ * Syntax errors from a JSONReader include the line number. The JSONObject
+ * and JSONArray constructors that read a whole Reader or String (and so
+ * parseJSONObject(), loadJSONObject(), etc.) leave it off, and throw the
+ * same exceptions and messages as they always have.
+ *
+ * @see JSONWriter
+ * @see JSONObject
+ * @see JSONArray
+ */
+public class JSONReader implements Closeable {
+  static public final int BEGIN_OBJECT = 0;
+  static public final int END_OBJECT = 1;
+  static public final int BEGIN_ARRAY = 2;
+  static public final int END_ARRAY = 3;
+  static public final int NAME = 4;
+  static public final int STRING = 5;
+  static public final int NUMBER = 6;
+  static public final int BOOLEAN = 7;
+  static public final int NULL = 8;
+  static public final int END_DOCUMENT = 9;
+
+  static final String[] tokenNames = {
+    "BEGIN_OBJECT", "END_OBJECT", "BEGIN_ARRAY", "END_ARRAY", "NAME",
+    "STRING", "NUMBER", "BOOLEAN", "NULL", "END_DOCUMENT"
+  };
+
+  // what's expected next in each enclosing object or array
+  static final int EMPTY_DOCUMENT = 0;
+  static final int NONEMPTY_DOCUMENT = 1;
+  static final int EMPTY_OBJECT = 2;
+  static final int NONEMPTY_OBJECT = 3;
+  static final int DANGLING_NAME = 4;
+  static final int EMPTY_ARRAY = 5;
+  static final int NONEMPTY_ARRAY = 6;
+
+  /** Characters that end an unquoted value, same as JSONTokener */
+  static final boolean[] unquotedStop = new boolean[128];
+  static {
+    for (int i = 0; i < ' '; i++) {
+      unquotedStop[i] = true;
+    }
+    for (char c : ",:]}/\\\"[{;=#".toCharArray()) {
+      unquotedStop[c] = true;
+    }
+  }
+
+  Reader reader;
+  char[] buffer = new char[8192];
+  int pos;
+  int limit;
+  int line = 1;
+
+  int[] stack = new int[32];
+  int depth = 1;
+
+  boolean poolKeys = true;
+
+  /**
+   * Set for the JSONObject and JSONArray constructors that read a whole
+   * document, so they throw the same errors as when they used JSONTokener:
+   * no line numbers, and a NumberFormatException for a bad unicode escape.
+   */
+  boolean compatible;
+
+  // the token found by peek(), or -1 if it hasn't been read yet
+  int peeked = -1;
+
+  // value of the last token from peek() or nextToken()
+  String text;
+  boolean bool;
+  boolean integral;
+  long integer;
+  double real;
+
+
+  public JSONReader(Reader reader) {
+    this.reader = reader;
+    stack[0] = EMPTY_DOCUMENT;
+  }
+
+
+  public JSONReader(String source) {
+    this(new StringReader(source));
+  }
+
+
+  static JSONReader compatible(Reader reader) {
+    JSONReader jr = new JSONReader(reader);
+    jr.compatible = true;
+    return jr;
+  }
+
+
+  static JSONReader compatible(String source) {
+    return compatible(new StringReader(source));
+  }
+
+
+  public void close() {
+    try {
+      reader.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  /**
+   * Whether the keys of JSONObjects created by this reader share the
+   * same String objects through the key pool used by JSONObject.put().
+   * On by default, which saves memory when many objects have the same
+   * keys. Turn it off when every object has different keys, since the
+   * pool won't help.
+   */
+  public void setPoolingKeys(boolean pool) {
+    poolKeys = pool;
+  }
+
+
+  public boolean isPoolingKeys() {
+    return poolKeys;
+  }
+
+
+  static public String tokenName(int token) {
+    return tokenNames[token];
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Type of the next token, without consuming it. */
+  public int peek() {
+    if (peeked == -1) {
+      peeked = readToken();
+    }
+    return peeked;
+  }
+
+
+  /**
+   * Consume the next token and return its type. For NAME, STRING, NUMBER,
+   * and BOOLEAN tokens, use getString(), getInt(), etc. to get the value.
+   */
+  public int nextToken() {
+    int token = peek();
+    peeked = -1;
+    return token;
+  }
+
+
+  /**
+   * True if there's another value in the current object or array, or at
+   * the top level, another value in the input.
+   */
+  public boolean hasNext() {
+    int token = peek();
+    return token != END_OBJECT && token != END_ARRAY && token != END_DOCUMENT;
+  }
+
+
+  public void beginObject() {
+    expect(BEGIN_OBJECT);
+  }
+
+
+  public void endObject() {
+    expect(END_OBJECT);
+  }
+
+
+  public void beginArray() {
+    expect(BEGIN_ARRAY);
+  }
+
+
+  public void endArray() {
+    expect(END_ARRAY);
+  }
+
+
+  public String nextName() {
+    expect(NAME);
+    return text;
+  }
+
+
+  /** Next value as a String. Numbers and booleans are converted. */
+  public String nextString() {
+    int token = nextToken();
+    if (token != STRING && token != NUMBER && token != BOOLEAN) {
+      throw unexpected(STRING, token);
+    }
+    return text;
+  }
+
+
+  public int nextInt() {
+    nextScalar(NUMBER);
+    return getInt();
+  }
+
+
+  public long nextLong() {
+    nextScalar(NUMBER);
+    return getLong();
+  }
+
+
+  public float nextFloat() {
+    nextScalar(NUMBER);
+    return getFloat();
+  }
+
+
+  public double nextDouble() {
+    nextScalar(NUMBER);
+    return getDouble();
+  }
+
+
+  public boolean nextBoolean() {
+    nextScalar(BOOLEAN);
+    return getBoolean();
+  }
+
+
+  public void nextNull() {
+    expect(NULL);
+  }
+
+
+  /** Skip the next value, including everything inside it. */
+  public void skipValue() {
+    int level = 0;
+    do {
+      switch (nextToken()) {
+      case BEGIN_OBJECT:
+      case BEGIN_ARRAY:
+        level++;
+        break;
+      case END_OBJECT:
+      case END_ARRAY:
+        level--;
+        break;
+      case END_DOCUMENT:
+        throw error("Unexpected end of input");
+      }
+    } while (level > 0);
+  }
+
+
+  /**
+   * Read the next value into the same kinds of objects as JSONObject and
+   * JSONArray use: a JSONObject, JSONArray, String, Integer, Long, Double,
+   * Boolean, or JSONObject.NULL.
+   */
+  public Object nextValue() {
+    switch (peek()) {
+    case BEGIN_OBJECT:
+      return new JSONObject(this);
+    case BEGIN_ARRAY:
+      return new JSONArray(this);
+    }
+    int token = nextToken();
+    switch (token) {
+    case STRING:
+      return text;
+    case NUMBER:
+      return getNumber();
+    case BOOLEAN:
+      return bool ? Boolean.TRUE : Boolean.FALSE;
+    case NULL:
+      return JSONObject.NULL;
+    }
+    throw unexpected(-1, token);
+  }
+
+
+  public JSONObject nextJSONObject() {
+    return new JSONObject(this);
+  }
+
+
+  public JSONArray nextJSONArray() {
+    return new JSONArray(this);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Value of the last token as a String: the name for NAME tokens,
+   * "true" or "false" for BOOLEAN, and "null" for NULL.
+   */
+  public String getString() {
+    return text;
+  }
+
+
+  public int getInt() {
+    if (integral) {
+      return (int) integer;
+    }
+    return (int) getDouble();
+  }
+
+
+  public long getLong() {
+    if (integral) {
+      return integer;
+    }
+    return (long) getDouble();
+  }
+
+
+  public float getFloat() {
+    return (float) getDouble();
+  }
+
+
+  public double getDouble() {
+    if (integral) {
+      return integer;
+    }
+    if (Double.isNaN(real)) {
+      // a String, try to convert it
+      try {
+        return Double.parseDouble(text);
+      } catch (NumberFormatException e) {
+        throw error("\"" + text + "\" is not a number");
+      }
+    }
+    return real;
+  }
+
+
+  public boolean getBoolean() {
+    return bool;
+  }
+
+
+  /** Value of the last NUMBER token as an Integer, Long, or Double. */
+  public Number getNumber() {
+    if (integral) {
+      if (integer == (int) integer) {
+        return Integer.valueOf((int) integer);
+      }
+      return Long.valueOf(integer);
+    }
+    return Double.valueOf(real);
+  }
+
+
+  /** Current line in the input, for error messages. */
+  public int getLineNumber() {
+    return line;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  protected void expect(int wanted) {
+    int token = nextToken();
+    if (token != wanted) {
+      throw unexpected(wanted, token);
+    }
+  }
+
+
+  /** Read a number or boolean token; Strings are parsed if possible. */
+  protected void nextScalar(int wanted) {
+    int token = nextToken();
+    if (token == wanted) {
+      return;
+    }
+    if (token == STRING) {
+      if (wanted == NUMBER) {
+        parseInteger(text);  // otherwise parsed by getDouble()
+        return;
+      }
+      if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false")) {
+        bool = text.equalsIgnoreCase("true");
+        return;
+      }
+    }
+    throw unexpected(wanted, token);
+  }
+
+
+  protected RuntimeException unexpected(int wanted, int token) {
+    String found = tokenName(token);
+    if (wanted == -1) {
+      return error("Expected a value but found " + found);
+    }
+    return error("Expected " + tokenName(wanted) + " but found " + found);
+  }
+
+
+  protected RuntimeException error(String message) {
+    if (compatible) {
+      return new RuntimeException(message);
+    }
+    return new RuntimeException(message + " at line " + line);
+  }
+
+
+  /**
+   * Used by the JSONObject and JSONArray constructors to check that the
+   * next value starts with '{' or '['. When reading a whole document for
+   * them, only the first character is looked at, like JSONTokener did, so
+   * anything else at the start is reported as the wrong kind of text.
+   */
+  boolean startsWith(char c) {
+    if (compatible && peeked == -1 && stack[depth-1] == EMPTY_DOCUMENT) {
+      int first = nextClean();
+      if (first != c) {
+        return false;
+      }
+      pos--;
+    }
+    return peek() == (c == '{' ? BEGIN_OBJECT : BEGIN_ARRAY);
+  }
+
+
+  protected void push(int context) {
+    if (depth == stack.length) {
+      stack = PApplet.expand(stack);
+    }
+    stack[depth++] = context;
+  }
+
+
+  protected int readToken() {
+    int context = stack[depth-1];
+    int c;
+    bool = false;
+    integral = false;
+    real = Double.NaN;
+
+    switch (context) {
+    case EMPTY_ARRAY:
+      stack[depth-1] = NONEMPTY_ARRAY;
+      c = nextClean();
+      if (c == ']') {
+        depth--;
+        return END_ARRAY;
+      }
+      if (c == ',') {
+        pos--;  // [,] has a null entry, same as JSONArray
+        return setNull();
+      }
+      return readValue(c);
+
+    case NONEMPTY_ARRAY:
+      c = nextClean();
+      if (c == ']') {
+        depth--;
+        return END_ARRAY;
+      }
+      if (c != ',' && c != ';') {
+        throw error("Expected a ',' or ']'");
+      }
+      c = nextClean();
+      if (c == ']') {  // extra comma at the end
+        depth--;
+        return END_ARRAY;
+      }
+      if (c == ',') {
+        pos--;
+        return setNull();
+      }
+      return readValue(c);
+
+    case EMPTY_OBJECT:
+    case NONEMPTY_OBJECT:
+      c = nextClean();
+      if (c == '}') {
+        depth--;
+        return END_OBJECT;
+      }
+      if (context == NONEMPTY_OBJECT) {
+        if (c != ',' && c != ';') {
+          throw error("Expected a ',' or '}'");
+        }
+        c = nextClean();
+        if (c == '}') {
+          depth--;
+          return END_OBJECT;
+        }
+      }
+      if (c == -1) {
+        throw error("A JSONObject text must end with '}'");
+      }
+      readName(c);
+      stack[depth-1] = DANGLING_NAME;
+      return NAME;
+
+    case DANGLING_NAME:
+      // the name is followed by ':', but '=' or '=>' are also allowed
+      c = nextClean();
+      if (c == '=') {
+        if (peekChar() == '>') {
+          pos++;
+        }
+      } else if (c != ':') {
+        throw error("Expected a ':' after a key");
+      }
+      stack[depth-1] = NONEMPTY_OBJECT;
+      return readValue(nextClean());
+
+    default:  // top level
+      c = nextClean();
+      if (c == -1) {
+        return END_DOCUMENT;
+      }
+      stack[depth-1] = NONEMPTY_DOCUMENT;
+      return readValue(c);
+    }
+  }
+
+
+  protected int readValue(int c) {
+    switch (c) {
+    case '{':
+      push(EMPTY_OBJECT);
+      return BEGIN_OBJECT;
+    case '[':
+      push(EMPTY_ARRAY);
+      return BEGIN_ARRAY;
+    case '"':
+    case '\'':
+      text = readString((char) c);
+      return STRING;
+    case -1:
+      throw error(compatible ? "Missing value" : "Unexpected end of input");
+    }
+    pos--;
+    return classify(readUnquoted());
+  }
+
+
+  protected void readName(int c) {
+    if (c == '"' || c == '\'') {
+      text = readString((char) c);
+    } else if (compatible && (c == '{' || c == '[')) {
+      // JSONTokener read a name the same as any other value
+      peeked = (c == '{') ? BEGIN_OBJECT : BEGIN_ARRAY;
+      push(c == '{' ? EMPTY_OBJECT : EMPTY_ARRAY);
+      Object name = (c == '{') ? new JSONObject(this) : new JSONArray(this);
+      text = name.toString();
+    } else {
+      pos--;
+      // unquoted names are converted the same way as JSONTokener did
+      text = JSONObject.stringToValue(readUnquoted()).toString();
+    }
+  }
+
+
+  protected int setNull() {
+    text = "null";
+    return NULL;
+  }
+
+
+  /** Sort out whether unquoted text is a boolean, null, number, or String. */
+  protected int classify(String s) {
+    text = s;
+    if (s.equalsIgnoreCase("true")) {
+      text = "true";
+      bool = true;
+      return BOOLEAN;
+    }
+    if (s.equalsIgnoreCase("false")) {
+      text = "false";
+      return BOOLEAN;
+    }
+    if (s.equalsIgnoreCase("null")) {
+      text = "null";
+      return NULL;
+    }
+    char b = s.charAt(0);
+    if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
+      if (parseInteger(s)) {
+        return NUMBER;
+      }
+      if (s.indexOf('.') > -1 || s.indexOf('e') > -1 || s.indexOf('E') > -1) {
+        try {
+          real = Double.parseDouble(s);
+          if (!Double.isInfinite(real) && !Double.isNaN(real)) {
+            return NUMBER;
+          }
+        } catch (NumberFormatException e) { }
+        real = Double.NaN;
+        return STRING;
+      }
+      // anything unusual goes through the same code as JSONObject
+      Object value = JSONObject.stringToValue(s);
+      if (value instanceof Double) {
+        integral = false;
+        real = (Double) value;
+        return NUMBER;
+      } else if (value instanceof Number) {
+        integral = true;
+        integer = ((Number) value).longValue();
+        return NUMBER;
+      }
+    }
+    return STRING;
+  }
+
+
+  /** Quick parse of a plain integer that fits in a long. */
+  protected boolean parseInteger(String s) {
+    int len = s.length();
+    int i = 0;
+    boolean negative = false;
+    if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+      negative = s.charAt(0) == '-';
+      i = 1;
+    }
+    // 18 digits always fits in a long, let the slow path handle the rest
+    if (i == len || len - i > 18) {
+      return false;
+    }
+    long value = 0;
+    for (; i < len; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+      value = value * 10 + (c - '0');
+    }
+    integral = true;
+    integer = negative ? -value : value;
+    return true;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  protected boolean fill() {
+    try {
+      int count = reader.read(buffer, 0, buffer.length);
+      if (count <= 0) {
+        pos = 0;
+        limit = 0;
+        return false;
+      }
+      pos = 0;
+      limit = count;
+      return true;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  protected int peekChar() {
+    if (pos == limit && !fill()) {
+      return -1;
+    }
+    return buffer[pos];
+  }
+
+
+  /** Next character that's not whitespace, or -1 at the end of input. */
+  protected int nextClean() {
+    for (;;) {
+      if (pos == limit && !fill()) {
+        return -1;
+      }
+      char c = buffer[pos++];
+      if (c > ' ') {
+        return c;
+      }
+      if (c == '\n') {
+        line++;
+      } else if (c == 0) {
+        return -1;  // same as JSONTokener
+      }
+    }
+  }
+
+
+  protected String readString(char quote) {
+    StringBuilder sb = null;
+    for (;;) {
+      int start = pos;
+      while (pos < limit) {
+        char c = buffer[pos];
+        if (c == quote) {
+          String s = new String(buffer, start, pos - start);
+          pos++;
+          if (sb == null) {
+            return s;
+          }
+          return sb.append(s).toString();
+        }
+        if (c == '\\' || c == '\n' || c == '\r' || c == 0) {
+          break;
+        }
+        pos++;
+      }
+      if (sb == null) {
+        sb = new StringBuilder();
+      }
+      sb.append(buffer, start, pos - start);
+      if (pos == limit) {
+        if (!fill()) {
+          throw error("Unterminated string");
+        }
+        continue;
+      }
+      char c = buffer[pos++];
+      if (c != '\\') {
+        throw error("Unterminated string");
+      }
+      if (pos == limit && !fill()) {
+        throw error(compatible ? "Illegal escape." : "Unterminated string");
+      }
+      c = buffer[pos++];
+      switch (c) {
+      case 'b': sb.append('\b'); break;
+      case 't': sb.append('\t'); break;
+      case 'n': sb.append('\n'); break;
+      case 'f': sb.append('\f'); break;
+      case 'r': sb.append('\r'); break;
+      case 'u':
+        if (compatible) {
+          sb.append((char) Integer.parseInt(nextHex(), 16));
+          break;
+        }
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = JSONTokener.dehexchar((char) nextChar());
+          if (digit == -1) {
+            throw error("Illegal escape.");
+          }
+          code = (code << 4) | digit;
+        }
+        sb.append((char) code);
+        break;
+      case '"':
+      case '\'':
+      case '\\':
+      case '/':
+        sb.append(c);
+        break;
+      default:
+        throw error("Illegal escape.");
+      }
+    }
+  }
+
+
+  protected int nextChar() {
+    if (pos == limit && !fill()) {
+      throw error("Unterminated string");
+    }
+    return buffer[pos++];
+  }
+
+
+  /** The four hex digits of a unicode escape, read the same as JSONTokener. */
+  protected String nextHex() {
+    char[] hex = new char[4];
+    for (int i = 0; i < 4; i++) {
+      if ((pos == limit && !fill()) || buffer[pos] == 0) {
+        throw error("Substring bounds error");
+      }
+      hex[i] = buffer[pos++];
+    }
+    return new String(hex);
+  }
+
+
+  protected String readUnquoted() {
+    StringBuilder sb = null;
+    String s;
+    for (;;) {
+      int start = pos;
+      while (pos < limit) {
+        char c = buffer[pos];
+        if (c < 128 && unquotedStop[c]) {
+          break;
+        }
+        pos++;
+      }
+      if (pos < limit) {
+        if (sb == null) {
+          s = new String(buffer, start, pos - start);
+        } else {
+          s = sb.append(buffer, start, pos - start).toString();
+        }
+        break;
+      }
+      // ran off the end of the buffer, save this part and read more
+      if (sb == null) {
+        sb = new StringBuilder();
+      }
+      sb.append(buffer, start, pos - start);
+      if (!fill()) {
+        s = sb.toString();
+        break;
+      }
+    }
+    s = s.trim();
+    if (s.length() == 0) {
+      throw error("Missing value");
+    }
+    return s;
+  }
+}
@@ -0,0 +1,301 @@
+package processing.data;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+import processing.core.PApplet;
+
+
+/**
+ * Writes JSON a piece at a time, so that large files can be written
+ * without first building a JSONObject or JSONArray for all of the data.
+ * <pre>
+ * JSONWriter writer = new JSONWriter(createWriter("points.json"), 2);
+ * writer.beginArray();
+ * for (PVector p : points) {
+ *   writer.beginObject();
+ *   writer.name("x").value(p.x);
+ *   writer.name("y").value(p.y);
+ *   writer.endObject();
+ * }
+ * writer.endArray();
+ * writer.close();
+ * </pre>
+ * Several values written at the top level are separated by newlines,
+ * which is the format used for newline-delimited JSON logs (as long as
+ * each value is written compact).
+ *
+ * @see JSONReader
+ * @see JSONObject
+ * @see JSONArray
+ */
+public class JSONWriter implements Closeable, Flushable {
+  // what's expected next in each enclosing object or array
+  static final int EMPTY_DOCUMENT = 0;
+  static final int NONEMPTY_DOCUMENT = 1;
+  static final int EMPTY_OBJECT = 2;
+  static final int NONEMPTY_OBJECT = 3;
+  static final int DANGLING_NAME = 4;
+  static final int EMPTY_ARRAY = 5;
+  static final int NONEMPTY_ARRAY = 6;
+
+  Writer writer;
+  int indentFactor;
+
+  int[] stack = new int[32];
+  int depth = 1;
+
+
+  /**
+   * Write compact JSON, with no extra whitespace.
+   */
+  public JSONWriter(Writer writer) {
+    this(writer, -1);
+  }
+
+
+  /**
+   * @param indentFactor spaces for each level of indentation, or -1 for
+   *   compact output (same as the format() method of JSONObject)
+   */
+  public JSONWriter(Writer writer, int indentFactor) {
+    this.writer = writer;
+    this.indentFactor = indentFactor;
+    stack[0] = EMPTY_DOCUMENT;
+  }
+
+
+  public void flush() {
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  /**
+   * Finish writing and close the Writer. Throws an exception if an
+   * object or array hasn't been closed.
+   */
+  public void close() {
+    if (depth > 1) {
+      throw new RuntimeException("Incomplete JSON: an object or array is still open");
+    }
+    try {
+      writer.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public JSONWriter beginObject() {
+    return open(EMPTY_OBJECT, '{');
+  }
+
+
+  public JSONWriter endObject() {
+    return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+  }
+
+
+  public JSONWriter beginArray() {
+    return open(EMPTY_ARRAY, '[');
+  }
+
+
+  public JSONWriter endArray() {
+    return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+  }
+
+
+  /** Write the name for the next value in an object. */
+  public JSONWriter name(String name) {
+    if (name == null) {
+      throw new RuntimeException("Null key.");
+    }
+    int context = stack[depth-1];
+    if (context != EMPTY_OBJECT && context != NONEMPTY_OBJECT) {
+      throw new RuntimeException("name() can only be used inside an object");
+    }
+    try {
+      if (context == NONEMPTY_OBJECT) {
+        writer.write(',');
+      }
+      newline();
+      JSONObject.quote(name, writer);
+      writer.write(':');
+      if (indentFactor > 0) {
+        writer.write(' ');
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    stack[depth-1] = DANGLING_NAME;
+    return this;
+  }
+
+
+  public JSONWriter value(String value) {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    try {
+      JSONObject.quote(value, writer);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return this;
+  }
+
+
+  public JSONWriter value(int value) {
+    return raw(String.valueOf(value));
+  }
+
+
+  public JSONWriter value(long value) {
+    return raw(String.valueOf(value));
+  }
+
+
+  /** Write a float, which must not be NaN or infinite. */
+  public JSONWriter value(float value) {
+    return raw(JSONObject.valueToString(Float.valueOf(value)));
+  }
+
+
+  /** Write a double, which must not be NaN or infinite. */
+  public JSONWriter value(double value) {
+    return raw(JSONObject.valueToString(Double.valueOf(value)));
+  }
+
+
+  public JSONWriter value(boolean value) {
+    return raw(value ? "true" : "false");
+  }
+
+
+  public JSONWriter nullValue() {
+    return raw("null");
+  }
+
+
+  /**
+   * Write any value that can be put in a JSONObject, including an entire
+   * JSONObject or JSONArray.
+   */
+  public JSONWriter value(Object value) {
+    if (value instanceof String) {
+      return value((String) value);
+    }
+    if (value instanceof Number) {
+      JSONObject.testValidity(value);
+    }
+    beforeValue();
+    try {
+      JSONObject.writeValue(writer, value, indentFactor,
+                            (indentFactor > 0 ? indentFactor : 0) * (depth - 1));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return this;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  protected JSONWriter raw(String s) {
+    beforeValue();
+    try {
+      writer.write(s);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return this;
+  }
+
+
+  protected JSONWriter open(int context, char c) {
+    beforeValue();
+    try {
+      writer.write(c);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    if (depth == stack.length) {
+      stack = PApplet.expand(stack);
+    }
+    stack[depth++] = context;
+    return this;
+  }
+
+
+  protected JSONWriter close(int empty, int nonempty, char c) {
+    int context = stack[depth-1];
+    if (context == DANGLING_NAME) {
+      throw new RuntimeException("A name was written without a value");
+    }
+    if (context != empty && context != nonempty) {
+      throw new RuntimeException("Unexpected '" + c + "', nothing to close");
+    }
+    depth--;
+    try {
+      if (context == nonempty) {
+        newline();
+      }
+      writer.write(c);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return this;
+  }
+
+
+  /** Write whatever needs to come before the next value. */
+  protected void beforeValue() {
+    int context = stack[depth-1];
+    try {
+      switch (context) {
+      case EMPTY_DOCUMENT:
+        stack[depth-1] = NONEMPTY_DOCUMENT;
+        break;
+      case NONEMPTY_DOCUMENT:
+        writer.write('\n');  // one value per line
+        break;
+      case DANGLING_NAME:
+        stack[depth-1] = NONEMPTY_OBJECT;
+        break;
+      case EMPTY_ARRAY:
+        stack[depth-1] = NONEMPTY_ARRAY;
+        newline();
+        break;
+      case NONEMPTY_ARRAY:
+        writer.write(',');
+        newline();
+        break;
+      default:
+        throw new RuntimeException("Use name() before each value in an object");
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  /** Start a new line, indented for the current level. */
+  protected void newline() throws IOException {
+    if (indentFactor != -1) {
+      writer.write('\n');
+      JSONObject.indent(writer, indentFactor * (depth - 1));
+    }
+  }
+}
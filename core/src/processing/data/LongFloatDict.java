@@ -0,0 +1,634 @@
+package processing.data;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import processing.core.PApplet;
+
+
+/**
+ * A simple class to use a long as a lookup for a float value. Works like
+ * FloatDict, but for keys that are numbers (like an ID) rather than
+ * Strings, so that counting with increment() is fast, and no objects are
+ * created for each key. Keys are kept in the order they were added.
+ *
+ * @see FloatDict
+ * @see IntIntDict
+ */
+public class LongFloatDict {
+
+  /** Number of elements in the table */
+  protected int count;
+
+  protected long[] keys;
+  protected float[] values;
+
+  /** Internal implementation for faster lookups */
+  private LongIndex indices = new LongIndex();
+
+
+  public LongFloatDict() {
+    count = 0;
+    keys = new long[10];
+    values = new float[10];
+  }
+
+
+  /**
+   * Create a new lookup with a specific size. This is more efficient than not
+   * specifying a size. Use it when you know the rough size of the thing you're creating.
+   */
+  public LongFloatDict(int length) {
+    count = 0;
+    keys = new long[length];
+    values = new float[length];
+    indices = new LongIndex(length);
+  }
+
+
+  /**
+   * Read a set of entries from a Reader that has each key/value pair on
+   * a single line, separated by a tab.
+   */
+  public LongFloatDict(BufferedReader reader) {
+    String[] lines = PApplet.loadStrings(reader);
+    keys = new long[lines.length];
+    values = new float[lines.length];
+
+    for (int i = 0; i < lines.length; i++) {
+      String[] pieces = PApplet.split(lines[i], '\t');
+      if (pieces.length == 2) {
+        set(Long.parseLong(pieces[0].trim()), PApplet.parseFloat(pieces[1]));
+      }
+    }
+  }
+
+
+  public LongFloatDict(long[] keys, float[] values) {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("key and value arrays must be the same length");
+    }
+    this.keys = keys;
+    this.values = values;
+    count = keys.length;
+    indices.reset(keys, count);
+  }
+
+
+  /**
+   * Returns the number of key/value pairs
+   */
+  public int size() {
+    return count;
+  }
+
+
+  /**
+   * Resize the internal data, this can only be used to shrink the list.
+   * Helpful for situations like sorting and then grabbing the top 50 entries.
+   */
+  public void resize(int length) {
+    if (length > count) {
+      throw new IllegalArgumentException("resize() can only be used to shrink the dictionary");
+    }
+    if (length < 1) {
+      throw new IllegalArgumentException("resize(" + length + ") is too small, use 1 or higher");
+    }
+
+    long[] newKeys = new long[length];
+    float[] newValues = new float[length];
+    PApplet.arrayCopy(keys, newKeys, length);
+    PApplet.arrayCopy(values, newValues, length);
+    keys = newKeys;
+    values = newValues;
+    count = length;
+    resetIndices();
+  }
+
+
+  /**
+   * Remove all entries.
+   */
+  public void clear() {
+    count = 0;
+    indices.clear();
+  }
+
+
+  private void resetIndices() {
+    indices.reset(keys, count);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  public long key(int index) {
+    return keys[index];
+  }
+
+
+  protected void crop() {
+    if (count != keys.length) {
+      keys = PApplet.subset(keys, 0, count);
+      values = PApplet.subset(values, 0, count);
+    }
+  }
+
+
+  public Iterable<Long> keys() {
+    return new Iterable<Long>() {
+
+      @Override
+      public Iterator<Long> iterator() {
+        return keyIterator();
+      }
+    };
+  }
+
+
+  // Use this to iterate when you want to be able to remove elements along the way
+  public Iterator<Long> keyIterator() {
+    return new Iterator<Long>() {
+      int index = -1;
+
+      public void remove() {
+        removeIndex(index);
+        index--;
+      }
+
+      public Long next() {
+        return key(++index);
+      }
+
+      public boolean hasNext() {
+        return index+1 < size();
+      }
+    };
+  }
+
+
+  /**
+   * Return a copy of the internal keys array. This array can be modified.
+   */
+  public long[] keyArray() {
+    crop();
+    return keyArray(null);
+  }
+
+
+  public long[] keyArray(long[] outgoing) {
+    if (outgoing == null || outgoing.length != count) {
+      outgoing = new long[count];
+    }
+    System.arraycopy(keys, 0, outgoing, 0, count);
+    return outgoing;
+  }
+
+
+  public float value(int index) {
+    return values[index];
+  }
+
+
+  public Iterable<Float> values() {
+    return new Iterable<Float>() {
+
+      @Override
+      public Iterator<Float> iterator() {
+        return valueIterator();
+      }
+    };
+  }
+
+
+  public Iterator<Float> valueIterator() {
+    return new Iterator<Float>() {
+      int index = -1;
+
+      public void remove() {
+        removeIndex(index);
+        index--;
+      }
+
+      public Float next() {
+        return value(++index);
+      }
+
+      public boolean hasNext() {
+        return index+1 < size();
+      }
+    };
+  }
+
+
+  /**
+   * Create a new array and copy each of the values into it.
+   */
+  public float[] valueArray() {
+    crop();
+    return valueArray(null);
+  }
+
+
+  /**
+   * Fill an already-allocated array with the values (more efficient than
+   * creating a new array each time). If 'array' is null, or not the same
+   * size as the number of values, a new array will be allocated and returned.
+   */
+  public float[] valueArray(float[] array) {
+    if (array == null || array.length != size()) {
+      array = new float[count];
+    }
+    System.arraycopy(values, 0, array, 0, count);
+    return array;
+  }
+
+
+  /**
+   * Return a value for the specified key.
+   */
+  public float get(long key) {
+    int index = index(key);
+    if (index == -1) {
+      throw new IllegalArgumentException("No key " + key);
+    }
+    return values[index];
+  }
+
+
+  public float get(long key, float alternate) {
+    int index = index(key);
+    if (index == -1) return alternate;
+    return values[index];
+  }
+
+
+  /**
+   * Create a new key/value pair or change the value of one.
+   */
+  public void set(long key, float amount) {
+    int index = index(key);
+    if (index == -1) {
+      create(key, amount);
+    } else {
+      values[index] = amount;
+    }
+  }
+
+
+  public boolean hasKey(long key) {
+    return index(key) != -1;
+  }
+
+
+  /**
+   * Increase the value associated with a specific key by 1.
+   */
+  public void increment(long key) {
+    add(key, 1);
+  }
+
+
+  /**
+   * Merge another dictionary into this one, adding its values.
+   */
+  public void increment(LongFloatDict dict) {
+    for (int i = 0; i < dict.count; i++) {
+      add(dict.key(i), dict.value(i));
+    }
+  }
+
+
+  public void add(long key, float amount) {
+    int index = index(key);
+    if (index == -1) {
+      create(key, amount);
+    } else {
+      values[index] += amount;
+    }
+  }
+
+
+  public void sub(long key, float amount) {
+    add(key, -amount);
+  }
+
+
+  public void mult(long key, float amount) {
+    int index = index(key);
+    if (index != -1) {
+      values[index] *= amount;
+    }
+  }
+
+
+  public void div(long key, float amount) {
+    int index = index(key);
+    if (index != -1) {
+      values[index] /= amount;
+    }
+  }
+
+
+  private void checkMinMax(String functionName) {
+    if (count == 0) {
+      String msg =
+        String.format("Cannot use %s() on an empty %s.",
+                      functionName, getClass().getSimpleName());
+      throw new RuntimeException(msg);
+    }
+  }
+
+
+  // return the index of the minimum value, ignoring NaN
+  public int minIndex() {
+    if (count == 0) return -1;
+
+    // Will still return -1 if there are 1 or more entries, and they're all NaN
+    float m = Float.NaN;
+    int mi = -1;
+    for (int i = 0; i < count; i++) {
+      float d = values[i];
+      if (d == d && (mi == -1 || d < m)) {
+        m = d;
+        mi = i;
+      }
+    }
+    return mi;
+  }
+
+
+  // return the key for the minimum value, or throw an error if there are no values
+  public long minKey() {
+    checkMinMax("minKey");
+    int index = minIndex();
+    if (index == -1) {
+      throw new RuntimeException("minKey() has no result when all values are NaN");
+    }
+    return keys[index];
+  }
+
+
+  // return the minimum value, or throw an error if there are no values
+  public float minValue() {
+    checkMinMax("minValue");
+    int index = minIndex();
+    if (index == -1) {
+      return Float.NaN;
+    }
+    return values[index];
+  }
+
+
+  // return the index of the max value, ignoring NaN
+  public int maxIndex() {
+    if (count == 0) return -1;
+
+    // Will still return -1 if there are 1 or more entries, and they're all NaN
+    float m = Float.NaN;
+    int mi = -1;
+    for (int i = 0; i < count; i++) {
+      float d = values[i];
+      if (d == d && (mi == -1 || d > m)) {
+        m = d;
+        mi = i;
+      }
+    }
+    return mi;
+  }
+
+
+  // return the key for the maximum value, or throw an error if there are no values
+  public long maxKey() {
+    checkMinMax("maxKey");
+    int index = maxIndex();
+    if (index == -1) {
+      throw new RuntimeException("maxKey() has no result when all values are NaN");
+    }
+    return keys[index];
+  }
+
+
+  /** The max value. (Or NaN if no entries or they're all NaN.) */
+  public float maxValue() {
+    int index = maxIndex();
+    if (index == -1) {
+      return Float.NaN;
+    }
+    return values[index];
+  }
+
+
+  public float sum() {
+    double amount = sumDouble();
+    if (amount > Float.MAX_VALUE) {
+      throw new RuntimeException("sum() exceeds " + Float.MAX_VALUE + ", use sumDouble()");
+    }
+    if (amount < -Float.MAX_VALUE) {
+      throw new RuntimeException("sum() lower than " + -Float.MAX_VALUE + ", use sumDouble()");
+    }
+    return (float) amount;
+  }
+
+
+  public double sumDouble() {
+    double sum = 0;
+    for (int i = 0; i < count; i++) {
+      sum += values[i];
+    }
+    return sum;
+  }
+
+
+  public int index(long what) {
+    return indices.get(what);
+  }
+
+
+  protected void create(long what, float much) {
+    if (count == keys.length) {
+      keys = PApplet.expand(keys);
+      values = PApplet.expand(values);
+    }
+    indices.put(what, count);
+    keys[count] = what;
+    values[count] = much;
+    count++;
+  }
+
+
+  /**
+   * Remove a key/value pair, and return its value.
+   */
+  public float remove(long key) {
+    int index = index(key);
+    if (index == -1) {
+      throw new NoSuchElementException(key + " not found");
+    }
+    float value = values[index];
+    removeIndex(index);
+    return value;
+  }
+
+
+  public float removeIndex(int index) {
+    if (index < 0 || index >= count) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    float value = values[index];
+    indices.remove(keys[index]);
+    for (int i = index; i < count-1; i++) {
+      keys[i] = keys[i+1];
+      values[i] = values[i+1];
+      indices.put(keys[i], i);
+    }
+    count--;
+    return value;
+  }
+
+
+  public void swap(int a, int b) {
+    long tkey = keys[a];
+    float tvalue = values[a];
+    keys[a] = keys[b];
+    values[a] = values[b];
+    keys[b] = tkey;
+    values[b] = tvalue;
+  }
+
+
+  /**
+   * Sort the keys in ascending order.
+   */
+  public void sortKeys() {
+    sortImpl(true, false);
+  }
+
+
+  /**
+   * Sort the keys in descending order.
+   */
+  public void sortKeysReverse() {
+    sortImpl(true, true);
+  }
+
+
+  /**
+   * Sort by values in ascending order. The smallest value will be at [0].
+   * Entries with identical values are ordered by their keys, and NaN
+   * values are moved to the end.
+   */
+  public void sortValues() {
+    sortImpl(false, false);
+  }
+
+
+  /**
+   * Sort by values in descending order. The largest value will be at [0].
+   */
+  public void sortValuesReverse() {
+    sortImpl(false, true);
+  }
+
+
+  protected void sortImpl(final boolean useKeys, final boolean reverse) {
+    Sort s = new Sort() {
+      @Override
+      public int size() {
+        if (useKeys || count == 0) {
+          return count;  // don't worry about NaN values
+        }
+        // first move NaN values to the end of the list
+        int right = count - 1;
+        for (int i = right; i >= 0; --i) {
+          if (Float.isNaN(values[i])) {
+            swap(i, right);
+            --right;
+          }
+        }
+        return right + 1;
+      }
+
+      @Override
+      public int compare(int a, int b) {
+        int diff = 0;
+        if (!useKeys) {
+          diff = Float.compare(values[a], values[b]);
+        }
+        if (diff == 0) {  // keys are unique, so this is always a tie-breaker
+          diff = Long.compare(keys[a], keys[b]);
+        }
+        return reverse ? -diff : diff;
+      }
+
+      @Override
+      public void swap(int a, int b) {
+        LongFloatDict.this.swap(a, b);
+      }
+    };
+    s.run();
+
+    // Set the indices after sort/swaps
+    resetIndices();
+  }
+
+
+  /** Returns a duplicate copy of this object. */
+  public LongFloatDict copy() {
+    LongFloatDict outgoing = new LongFloatDict(count);
+    System.arraycopy(keys, 0, outgoing.keys, 0, count);
+    System.arraycopy(values, 0, outgoing.values, 0, count);
+    outgoing.indices = indices.copy();
+    outgoing.count = count;
+    return outgoing;
+  }
+
+
+  public void print() {
+    for (int i = 0; i < size(); i++) {
+      System.out.println(keys[i] + " = " + values[i]);
+    }
+  }
+
+
+  /**
+   * Save tab-delimited entries to a file (TSV format, UTF-8 encoding)
+   */
+  public void save(File file) {
+    PrintWriter writer = PApplet.createWriter(file);
+    write(writer);
+    writer.close();
+  }
+
+
+  /**
+   * Write tab-delimited entries to a PrintWriter
+   */
+  public void write(PrintWriter writer) {
+    for (int i = 0; i < count; i++) {
+      writer.println(keys[i] + "\t" + values[i]);
+    }
+    writer.flush();
+  }
+
+
+  /**
+   * Return this dictionary as a String in JSON format. The keys are
+   * written as Strings, since JSON objects can't have numeric keys.
+   */
+  public String toJSON() {
+    StringList items = new StringList();
+    for (int i = 0; i < count; i++) {
+      items.append("\"" + keys[i] + "\": " + values[i]);
+    }
+    return "{ " + items.join(", ") + " }";
+  }
+
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + " size=" + size() + " " + toJSON();
+  }
+}
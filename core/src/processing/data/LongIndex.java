@@ -0,0 +1,189 @@
+package processing.data;
+
+import java.util.Arrays;
+
+
+/**
+ * Hash table from long keys to int values, used by IntIntDict and
+ * LongFloatDict to find the position of each key. Same layout as
+ * StringIndex (open addressing with linear probing, and no tombstones),
+ * but the key is its own hash code, so only two arrays are needed.
+ * <p/>
+ * Values must be zero or higher, since -1 marks an empty slot and is
+ * returned by get() for keys that aren't present.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class LongIndex {
+  static final int MIN_CAPACITY = 16;
+
+  long[] keys;
+  int[] values;
+  int count;
+  int mask;
+
+
+  LongIndex() {
+    allocate(MIN_CAPACITY);
+  }
+
+
+  LongIndex(int expected) {
+    allocate(StringIndex.capacity(expected));
+  }
+
+
+  protected int slot(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+
+  protected void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new int[capacity];
+    Arrays.fill(values, -1);
+    mask = capacity - 1;
+    count = 0;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  int size() {
+    return count;
+  }
+
+
+  /** Value for a key, or -1 if it's not present. */
+  int get(long key) {
+    int slot = slot(key);
+    while (values[slot] != -1) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+
+  /** Add a key, or replace its value if it's already present. */
+  void put(long key, int value) {
+    int slot = slot(key);
+    while (values[slot] != -1) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if ((count + 1) * 2 > values.length) {
+      grow();
+      put(key, value);
+      return;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    count++;
+  }
+
+
+  /** Remove a key, returning its value, or -1 if it wasn't present. */
+  int remove(long key) {
+    int slot = slot(key);
+    while (values[slot] != -1) {
+      if (keys[slot] == key) {
+        int value = values[slot];
+        removeSlot(slot);
+        return value;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+
+  /**
+   * Empty the slot, then move back any entries after it that would
+   * no longer be found because of the gap.
+   */
+  protected void removeSlot(int hole) {
+    int slot = (hole + 1) & mask;
+    while (values[slot] != -1) {
+      int home = slot(keys[slot]);
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        keys[hole] = keys[slot];
+        values[hole] = values[slot];
+        hole = slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    values[hole] = -1;
+    count--;
+  }
+
+
+  void clear() {
+    if (count != 0) {
+      Arrays.fill(values, -1);
+      count = 0;
+    }
+  }
+
+
+  /** Replace the contents with each key mapped to its position. */
+  void reset(int[] list, int length) {
+    prepare(length);
+    for (int i = 0; i < length; i++) {
+      put(list[i], i);
+    }
+  }
+
+
+  void reset(long[] list, int length) {
+    prepare(length);
+    for (int i = 0; i < length; i++) {
+      put(list[i], i);
+    }
+  }
+
+
+  protected void prepare(int length) {
+    int capacity = StringIndex.capacity(length);
+    if (capacity > values.length) {
+      allocate(capacity);
+    } else {
+      clear();
+    }
+  }
+
+
+  protected void grow() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    allocate(oldValues.length << 1);
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != -1) {
+        int slot = slot(oldKeys[i]);
+        while (values[slot] != -1) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+        count++;
+      }
+    }
+  }
+
+
+  LongIndex copy() {
+    LongIndex outgoing = new LongIndex();
+    outgoing.keys = keys.clone();
+    outgoing.values = values.clone();
+    outgoing.count = count;
+    outgoing.mask = mask;
+    return outgoing;
+  }
+}
@@ -625,7 +625,7 @@ public class LongList implements Iterable<Long> {
    * @brief Sorts the array, lowest to highest
    */
   public void sort() {
-    Arrays.sort(data, 0, count);
+    PrimitiveSort.sort(data, count);
   }
 
 
@@ -636,25 +636,7 @@ public class LongList implements Iterable<Long> {
    * @brief Reverse sort, orders values from highest to lowest
    */
   public void sortReverse() {
-    new Sort() {
-      @Override
-      public int size() {
-        return count;
-      }
-
-      @Override
-      public int compare(int a, int b) {
-        long diff = data[b] - data[a];
-        return diff == 0 ? 0 : (diff < 0 ? -1 : 1);
-      }
-
-      @Override
-      public void swap(int a, int b) {
-        long temp = data[a];
-        data[a] = data[b];
-        data[b] = temp;
-      }
-    }.run();
+    PrimitiveSort.sortReverse(data, count);
   }
 
 
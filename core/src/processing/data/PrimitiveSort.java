@@ -0,0 +1,448 @@
+package processing.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Sorting routines for arrays of primitives, used by IntList, FloatList,
+ * and friends, and to build the row order for Table.sort(). These work on
+ * the arrays directly, instead of going through the compare() and swap()
+ * methods of Sort for each step.
+ * <p/>
+ * Large int and long arrays are sorted with a radix sort, which takes a
+ * fixed number of passes over the data rather than comparing values.
+ * Float and double arrays use Arrays.sort(), which is a dual-pivot
+ * quicksort. When more than one processor is available, very large arrays
+ * are instead handed to Arrays.parallelSort(), a parallel merge sort.
+ * <p/>
+ * The order() methods don't change the data, but return the indices of
+ * the entries in sorted order. They are stable, so rows with identical
+ * values stay in their original order, and NaN values are always last.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class PrimitiveSort {
+  /** Below this size, Arrays.sort() is faster than a radix sort. */
+  static final int RADIX_THRESHOLD = 1 << 12;
+
+  /** Minimum size before the work is split across processors. */
+  static final int PARALLEL_THRESHOLD = 1 << 17;
+
+  /** Runs shorter than this are put in order with an insertion sort. */
+  static final int INSERTION_THRESHOLD = 16;
+
+
+  static boolean parallel(int count) {
+    return count >= PARALLEL_THRESHOLD &&
+      ForkJoinPool.getCommonPoolParallelism() > 1;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  static void sort(int[] data, int count) {
+    if (parallel(count)) {
+      Arrays.parallelSort(data, 0, count);
+    } else if (count >= RADIX_THRESHOLD) {
+      radix(data, null, count);
+    } else {
+      Arrays.sort(data, 0, count);
+    }
+  }
+
+
+  static void sort(long[] data, int count) {
+    if (parallel(count)) {
+      Arrays.parallelSort(data, 0, count);
+    } else if (count >= RADIX_THRESHOLD) {
+      radix(data, null, count);
+    } else {
+      Arrays.sort(data, 0, count);
+    }
+  }
+
+
+  /** Sort in ascending order, with NaN values at the end. */
+  static void sort(float[] data, int count) {
+    if (parallel(count)) {
+      Arrays.parallelSort(data, 0, count);
+    } else {
+      Arrays.sort(data, 0, count);
+    }
+  }
+
+
+  /** Sort in ascending order, with NaN values at the end. */
+  static void sort(double[] data, int count) {
+    if (parallel(count)) {
+      Arrays.parallelSort(data, 0, count);
+    } else {
+      Arrays.sort(data, 0, count);
+    }
+  }
+
+
+  static void sortReverse(int[] data, int count) {
+    sort(data, count);
+    reverse(data, 0, count);
+  }
+
+
+  static void sortReverse(long[] data, int count) {
+    sort(data, count);
+    reverse(data, 0, count);
+  }
+
+
+  /** Sort in descending order, but still with NaN values at the end. */
+  static void sortReverse(float[] data, int count) {
+    sort(data, count);
+    int stop = count;
+    while (stop > 0 && data[stop-1] != data[stop-1]) {
+      stop--;
+    }
+    reverse(data, 0, stop);
+  }
+
+
+  /** Sort in descending order, but still with NaN values at the end. */
+  static void sortReverse(double[] data, int count) {
+    sort(data, count);
+    int stop = count;
+    while (stop > 0 && data[stop-1] != data[stop-1]) {
+      stop--;
+    }
+    reverse(data, 0, stop);
+  }
+
+
+  static void reverse(int[] data, int start, int stop) {
+    for (int i = start, j = stop - 1; i < j; i++, j--) {
+      int temp = data[i];
+      data[i] = data[j];
+      data[j] = temp;
+    }
+  }
+
+
+  static void reverse(long[] data, int start, int stop) {
+    for (int i = start, j = stop - 1; i < j; i++, j--) {
+      long temp = data[i];
+      data[i] = data[j];
+      data[j] = temp;
+    }
+  }
+
+
+  static void reverse(float[] data, int start, int stop) {
+    for (int i = start, j = stop - 1; i < j; i++, j--) {
+      float temp = data[i];
+      data[i] = data[j];
+      data[j] = temp;
+    }
+  }
+
+
+  static void reverse(double[] data, int start, int stop) {
+    for (int i = start, j = stop - 1; i < j; i++, j--) {
+      double temp = data[i];
+      data[i] = data[j];
+      data[j] = temp;
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Indices of the first count entries, ordered by their values. */
+  static int[] order(int[] data, int count, boolean reverse) {
+    int[] keys = new int[count];
+    for (int i = 0; i < count; i++) {
+      // ~x flips the order without overflowing
+      keys[i] = reverse ? ~data[i] : data[i];
+    }
+    int[] index = IntList.fromRange(count).array();
+    radix(keys, index, count);
+    return index;
+  }
+
+
+  static int[] order(long[] data, int count, boolean reverse) {
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = reverse ? ~data[i] : data[i];
+    }
+    int[] index = IntList.fromRange(count).array();
+    radix(keys, index, count);
+    return index;
+  }
+
+
+  static int[] order(float[] data, int count, boolean reverse) {
+    int[] keys = new int[count];
+    for (int i = 0; i < count; i++) {
+      float f = data[i];
+      if (f != f) {
+        keys[i] = Integer.MAX_VALUE;  // NaN goes last either way
+      } else {
+        // flip the bits of negative values so the ints sort like the floats
+        int bits = Float.floatToIntBits(f);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        keys[i] = reverse ? ~bits : bits;
+      }
+    }
+    int[] index = IntList.fromRange(count).array();
+    radix(keys, index, count);
+    return index;
+  }
+
+
+  static int[] order(double[] data, int count, boolean reverse) {
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      double d = data[i];
+      if (d != d) {
+        keys[i] = Long.MAX_VALUE;
+      } else {
+        long bits = Double.doubleToLongBits(d);
+        bits ^= (bits >> 63) & 0x7fffffffffffffffL;
+        keys[i] = reverse ? ~bits : bits;
+      }
+    }
+    int[] index = IntList.fromRange(count).array();
+    radix(keys, index, count);
+    return index;
+  }
+
+
+  /**
+   * Indices of the first count entries, ordered alphabetically (ignoring
+   * case), with null treated as an empty String. Uses a merge sort, with
+   * separate sections sorted on each processor for large arrays.
+   */
+  static int[] order(String[] data, int count, boolean reverse) {
+    final StringOrder so = new StringOrder(data, count, reverse);
+    final int[] index = IntList.fromRange(count).array();
+    final int[] temp = new int[count];
+    if (!parallel(count)) {
+      so.sort(index, temp, 0, count);
+      return index;
+    }
+
+    int[] bounds = TableGroupBy.split(count, ForkJoinPool.getCommonPoolParallelism());
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int i = 0; i < bounds.length - 1; i++) {
+      final int start = bounds[i];
+      final int stop = bounds[i+1];
+      tasks.add(new Callable<Void>() {
+        public Void call() {
+          so.sort(index, temp, start, stop);
+          return null;
+        }
+      });
+    }
+    TableGroupBy.invoke(tasks);
+
+    // merge neighboring sections, halving their number each time
+    while (bounds.length > 2) {
+      int sections = bounds.length - 1;
+      int[] merged = new int[(sections + 1) / 2 + 1];
+      tasks.clear();
+      for (int i = 0; i < sections; i += 2) {
+        final int start = bounds[i];
+        final int middle = bounds[Math.min(i + 1, sections)];
+        final int stop = bounds[Math.min(i + 2, sections)];
+        merged[i / 2] = start;
+        if (middle < stop) {
+          tasks.add(new Callable<Void>() {
+            public Void call() {
+              so.merge(index, temp, start, middle, stop);
+              return null;
+            }
+          });
+        }
+      }
+      merged[merged.length - 1] = count;
+      TableGroupBy.invoke(tasks);
+      bounds = merged;
+    }
+    return index;
+  }
+
+
+  static class StringOrder {
+    String[] data;
+    int count;
+    boolean reverse;
+
+    StringOrder(String[] data, int count, boolean reverse) {
+      this.data = data;
+      this.count = count;
+      this.reverse = reverse;
+    }
+
+    int compare(int a, int b) {
+      String s1 = data[a];
+      if (s1 == null) {
+        s1 = "";  // avoid NPE when cells are left empty
+      }
+      String s2 = data[b];
+      if (s2 == null) {
+        s2 = "";
+      }
+      int diff = s1.compareToIgnoreCase(s2);
+      return reverse ? -diff : diff;
+    }
+
+    /** Stable merge sort of index[start..stop), using temp as scratch. */
+    void sort(int[] index, int[] temp, int start, int stop) {
+      if (stop - start <= INSERTION_THRESHOLD) {
+        for (int i = start + 1; i < stop; i++) {
+          int value = index[i];
+          int j = i - 1;
+          while (j >= start && compare(index[j], value) > 0) {
+            index[j+1] = index[j];
+            j--;
+          }
+          index[j+1] = value;
+        }
+      } else {
+        int middle = (start + stop) >>> 1;
+        sort(index, temp, start, middle);
+        sort(index, temp, middle, stop);
+        merge(index, temp, start, middle, stop);
+      }
+    }
+
+    /** Merge two neighboring sorted runs. */
+    void merge(int[] index, int[] temp, int start, int middle, int stop) {
+      if (compare(index[middle-1], index[middle]) <= 0) {
+        return;  // already in order
+      }
+      System.arraycopy(index, start, temp, start, stop - start);
+      int i = start;
+      int j = middle;
+      for (int k = start; k < stop; k++) {
+        if (j == stop || (i < middle && compare(temp[i], temp[j]) <= 0)) {
+          index[k] = temp[i++];
+        } else {
+          index[k] = temp[j++];
+        }
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Least significant digit radix sort, one byte at a time, treating the
+   * keys as signed. If index is not null, its entries are moved along with
+   * the keys. Passes where every key has the same byte are skipped, so
+   * small values only take one or two passes.
+   */
+  static void radix(int[] keys, int[] index, int count) {
+    int[] counts = new int[4 * 256];
+    for (int i = 0; i < count; i++) {
+      int k = keys[i] ^ Integer.MIN_VALUE;  // negative values first
+      counts[k & 0xff]++;
+      counts[256 + ((k >>> 8) & 0xff)]++;
+      counts[512 + ((k >>> 16) & 0xff)]++;
+      counts[768 + (k >>> 24)]++;
+    }
+    int[] srcKeys = keys;
+    int[] srcIndex = index;
+    int[] dstKeys = null;
+    int[] dstIndex = null;
+    for (int pass = 0; pass < 4; pass++) {
+      int shift = pass << 3;
+      int base = pass << 8;
+      if (count == 0 ||
+          counts[base + (((srcKeys[0] ^ Integer.MIN_VALUE) >>> shift) & 0xff)] == count) {
+        continue;  // all keys have the same byte here
+      }
+      if (dstKeys == null) {
+        dstKeys = new int[count];
+        dstIndex = (index == null) ? null : new int[count];
+      }
+      int sum = 0;
+      for (int b = base; b < base + 256; b++) {
+        int c = counts[b];
+        counts[b] = sum;
+        sum += c;
+      }
+      for (int i = 0; i < count; i++) {
+        int k = srcKeys[i];
+        int p = counts[base + (((k ^ Integer.MIN_VALUE) >>> shift) & 0xff)]++;
+        dstKeys[p] = k;
+        if (dstIndex != null) {
+          dstIndex[p] = srcIndex[i];
+        }
+      }
+      int[] t = srcKeys; srcKeys = dstKeys; dstKeys = t;
+      t = srcIndex; srcIndex = dstIndex; dstIndex = t;
+    }
+    if (srcKeys != keys) {
+      System.arraycopy(srcKeys, 0, keys, 0, count);
+      if (index != null) {
+        System.arraycopy(srcIndex, 0, index, 0, count);
+      }
+    }
+  }
+
+
+  static void radix(long[] keys, int[] index, int count) {
+    int[] counts = new int[8 * 256];
+    for (int i = 0; i < count; i++) {
+      long k = keys[i] ^ Long.MIN_VALUE;
+      for (int pass = 0; pass < 8; pass++) {
+        counts[(pass << 8) + (int) ((k >>> (pass << 3)) & 0xff)]++;
+      }
+    }
+    long[] srcKeys = keys;
+    int[] srcIndex = index;
+    long[] dstKeys = null;
+    int[] dstIndex = null;
+    for (int pass = 0; pass < 8; pass++) {
+      int shift = pass << 3;
+      int base = pass << 8;
+      if (count == 0 ||
+          counts[base + (int) (((srcKeys[0] ^ Long.MIN_VALUE) >>> shift) & 0xff)] == count) {
+        continue;
+      }
+      if (dstKeys == null) {
+        dstKeys = new long[count];
+        dstIndex = (index == null) ? null : new int[count];
+      }
+      int sum = 0;
+      for (int b = base; b < base + 256; b++) {
+        int c = counts[b];
+        counts[b] = sum;
+        sum += c;
+      }
+      for (int i = 0; i < count; i++) {
+        long k = srcKeys[i];
+        int p = counts[base + (int) (((k ^ Long.MIN_VALUE) >>> shift) & 0xff)]++;
+        dstKeys[p] = k;
+        if (dstIndex != null) {
+          dstIndex[p] = srcIndex[i];
+        }
+      }
+      long[] t = srcKeys; srcKeys = dstKeys; dstKeys = t;
+      int[] ti = srcIndex; srcIndex = dstIndex; dstIndex = ti;
+    }
+    if (srcKeys != keys) {
+      System.arraycopy(srcKeys, 0, keys, 0, count);
+      if (index != null) {
+        System.arraycopy(srcIndex, 0, index, 0, count);
+      }
+    }
+  }
+}
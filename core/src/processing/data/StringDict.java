@@ -1,7 +1,6 @@
 package processing.data;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -24,7 +23,7 @@ public class StringDict {
   protected String[] values;
 
   /** Internal implementation for faster lookups */
-  private HashMap<String, Integer> indices = new HashMap<>();
+  private StringIndex indices = new StringIndex();
 
 
   public StringDict() {
@@ -169,15 +168,12 @@ public class StringDict {
    */
   public void clear() {
     count = 0;
-    indices = new HashMap<>();
+    indices.clear();
   }
 
 
   private void resetIndices() {
-    indices = new HashMap<>(count);
-    for (int i = 0; i < count; i++) {
-      indices.put(keys[i], i);
-    }
+    indices.reset(keys, count);
   }
 
 
@@ -405,8 +401,7 @@ public class StringDict {
 
 
   public int index(String what) {
-    Integer found = indices.get(what);
-    return (found == null) ? -1 : found.intValue();
+    return indices.get(what);
   }
 
 
@@ -424,7 +419,7 @@ public class StringDict {
       keys = PApplet.expand(keys);
       values = PApplet.expand(values);
     }
-    indices.put(key, Integer.valueOf(count));
+    indices.put(key, count);
     keys[count] = key;
     values[count] = value;
     count++;
@@ -472,8 +467,8 @@ public class StringDict {
     keys[b] = tkey;
     values[b] = tvalue;
 
-//    indices.put(keys[a], Integer.valueOf(a));
-//    indices.put(keys[b], Integer.valueOf(b));
+//    indices.put(keys[a], a);
+//    indices.put(keys[b], b);
   }
 
 
@@ -558,9 +553,7 @@ public class StringDict {
     StringDict outgoing = new StringDict(count);
     System.arraycopy(keys, 0, outgoing.keys, 0, count);
     System.arraycopy(values, 0, outgoing.values, 0, count);
-    for (int i = 0; i < count; i++) {
-      outgoing.indices.put(keys[i], i);
-    }
+    outgoing.indices = indices.copy();
     outgoing.count = count;
     return outgoing;
   }
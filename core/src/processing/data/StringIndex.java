@@ -0,0 +1,206 @@
+package processing.data;
+
+import java.util.Arrays;
+
+
+/**
+ * Hash table from String keys to int values, used by the Dict classes to
+ * find the position of each key. Unlike a HashMap&lt;String, Integer&gt;,
+ * nothing is boxed and there are no entry objects: keys, their hash codes,
+ * and values are stored in parallel arrays using open addressing (linear
+ * probing). Removed keys are filled in by shifting later entries back, so
+ * there are no tombstones, and lookups stay fast after many removals.
+ * <p/>
+ * Values must be zero or higher, since -1 marks an empty slot and is
+ * returned by get() for keys that aren't present. A null key is allowed.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class StringIndex {
+  static final int MIN_CAPACITY = 16;
+
+  String[] keys;
+  int[] hashes;
+  int[] values;
+  int count;
+  int mask;
+
+
+  StringIndex() {
+    allocate(MIN_CAPACITY);
+  }
+
+
+  StringIndex(int expected) {
+    allocate(capacity(expected));
+  }
+
+
+  /** Smallest power of two that keeps the table at most half full. */
+  static int capacity(int expected) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < expected * 2) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+
+  static int hash(String key) {
+    if (key == null) {
+      return 0;
+    }
+    int h = key.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+
+  protected void allocate(int capacity) {
+    keys = new String[capacity];
+    hashes = new int[capacity];
+    values = new int[capacity];
+    Arrays.fill(values, -1);
+    mask = capacity - 1;
+    count = 0;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  int size() {
+    return count;
+  }
+
+
+  /** Value for a key, or -1 if it's not present. */
+  int get(String key) {
+    int h = hash(key);
+    int slot = h & mask;
+    while (values[slot] != -1) {
+      if (hashes[slot] == h &&
+          (keys[slot] == key || (key != null && key.equals(keys[slot])))) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+
+  /** Add a key, or replace its value if it's already present. */
+  void put(String key, int value) {
+    int h = hash(key);
+    int slot = h & mask;
+    while (values[slot] != -1) {
+      if (hashes[slot] == h &&
+          (keys[slot] == key || (key != null && key.equals(keys[slot])))) {
+        values[slot] = value;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if ((count + 1) * 2 > values.length) {
+      grow();
+      put(key, value);
+      return;
+    }
+    keys[slot] = key;
+    hashes[slot] = h;
+    values[slot] = value;
+    count++;
+  }
+
+
+  /** Remove a key, returning its value, or -1 if it wasn't present. */
+  int remove(String key) {
+    int h = hash(key);
+    int slot = h & mask;
+    while (values[slot] != -1) {
+      if (hashes[slot] == h &&
+          (keys[slot] == key || (key != null && key.equals(keys[slot])))) {
+        int value = values[slot];
+        removeSlot(slot);
+        return value;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+
+  /**
+   * Empty the slot, then move back any entries after it that would
+   * no longer be found because of the gap.
+   */
+  protected void removeSlot(int hole) {
+    int slot = (hole + 1) & mask;
+    while (values[slot] != -1) {
+      int home = hashes[slot] & mask;
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        keys[hole] = keys[slot];
+        hashes[hole] = hashes[slot];
+        values[hole] = values[slot];
+        hole = slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[hole] = null;
+    values[hole] = -1;
+    count--;
+  }
+
+
+  void clear() {
+    if (count != 0) {
+      Arrays.fill(keys, null);
+      Arrays.fill(values, -1);
+      count = 0;
+    }
+  }
+
+
+  /** Replace the contents with each key mapped to its position. */
+  void reset(String[] list, int length) {
+    int capacity = capacity(length);
+    if (capacity > values.length) {
+      allocate(capacity);
+    } else {
+      clear();
+    }
+    for (int i = 0; i < length; i++) {
+      put(list[i], i);
+    }
+  }
+
+
+  protected void grow() {
+    String[] oldKeys = keys;
+    int[] oldHashes = hashes;
+    int[] oldValues = values;
+    allocate(oldValues.length << 1);
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != -1) {
+        int slot = oldHashes[i] & mask;
+        while (values[slot] != -1) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        hashes[slot] = oldHashes[i];
+        values[slot] = oldValues[i];
+        count++;
+      }
+    }
+  }
+
+
+  StringIndex copy() {
+    StringIndex outgoing = new StringIndex();
+    outgoing.keys = keys.clone();
+    outgoing.hashes = hashes.clone();
+    outgoing.values = values.clone();
+    outgoing.count = count;
+    outgoing.mask = mask;
+    return outgoing;
+  }
+}
@@ -83,6 +83,13 @@ public class Table {
 
   protected Object[] columns;  // [column]
 
+  // null unless a column uses a TableStorage (or setOffHeap() was used),
+  // in which case columns[] has null for that column
+  TableStorage[] columnStorage;
+
+  // null unless createIndex() has been used
+  TableIndex[] columnIndex;
+
   // accessible for advanced users
   static public final int STRING = 0;
   static public final int INT = 1;
@@ -121,10 +128,8 @@ public class Table {
    * @nowebref
    */
   public Table(File file, String options) throws IOException {
-    // uses createInput() to handle .gz (and eventually .bz2) files
     init();
-    parse(PApplet.createInput(file),
-          extensionOptions(true, file.getName(), options));
+    parse(null, file, extensionOptions(true, file.getName(), options));
   }
 
   /**
@@ -142,6 +147,12 @@ public class Table {
    * <li>tsv - parse the table as tab-separated values
    * <li>newlines - this CSV file contains newlines inside individual cells
    * <li>header - this table has a header (title) row
+   * <li>fast - use the char buffer tokenizer, which parses numeric columns
+   * without creating an intermediate String for each entry
+   * <li>parallel - split the data into chunks that are parsed on several
+   * threads (implies fast); files are memory-mapped when possible
+   * <li>offheap - keep the columns outside the Java heap once loaded;
+   * binary (.bin) files are read directly from the memory-mapped file
    * </ul>
    *
    * @nowebref
@@ -263,6 +274,18 @@ public class Table {
   }
 
 
+  /**
+   * Same as typedParse(InputStream, String), but reading from a File,
+   * which allows the "parallel" option to memory-map the data.
+   */
+  public Table typedParse(File file, String options) throws IOException {
+    Table table = new Table();
+    table.setColumnTypes(this);
+    table.parse(null, file, extensionOptions(true, file.getName(), options));
+    return table;
+  }
+
+
   protected void init() {
     columns = new Object[0];
     columnTypes = new int[0];
@@ -325,10 +348,24 @@ public class Table {
 
 
   protected void parse(InputStream input, String options) throws IOException {
+    parse(input, null, options);
+  }
+
+
+  /**
+   * Parse from either an InputStream or a File. If the input is null, it's
+   * opened from the file (using createInput() to handle .gz files), unless
+   * the file can be memory-mapped by the "parallel" option.
+   */
+  protected void parse(InputStream input, File file,
+                       String options) throws IOException {
 //    boolean awfulCSV = false;
     boolean header = false;
     String extension = null;
     boolean binary = false;
+    boolean fast = false;
+    boolean parallel = false;
+    boolean offheap = false;
     String encoding = "UTF-8";
 
     String worksheet = null;
@@ -353,6 +390,12 @@ public class Table {
           extension = "bin";
         } else if (opt.equals("header")) {
           header = true;
+        } else if (opt.equals("fast")) {
+          fast = true;
+        } else if (opt.equals("parallel")) {
+          parallel = true;
+        } else if (opt.equals("offheap")) {
+          offheap = true;
         } else if (opt.startsWith(sheetParam)) {
           worksheet = opt.substring(sheetParam.length());
         } else if (opt.startsWith("dictionary=")) {
@@ -369,14 +412,35 @@ public class Table {
       throw new IllegalArgumentException("No extension specified for this Table");
     }
 
+    Charset charset = Charset.forName(encoding);
+    boolean tsv = "tsv".equals(extension);
+    boolean split = parallel && !binary && !extension.equals("ods") &&
+      TableParallelParser.supports(charset);
+    boolean mapped = (split || binary) && file != null &&
+      !file.getName().toLowerCase().endsWith(".gz");
+    if (input == null && !mapped) {
+      // uses createInput() to handle .gz (and eventually .bz2) files
+      input = PApplet.createInput(file);
+    }
+
     if (binary) {
-      loadBinary(input);
+      if (mapped) {
+        loadBinary(file, offheap);
+      } else {
+        loadBinary(input);
+      }
 
     } else if (extension.equals("ods")) {
       odsParse(input, worksheet, header);
 
+    } else if (mapped) {
+      TableParallelParser.parse(this, file, header, tsv, charset);
+
+    } else if (split) {
+      new TableParallelParser(this, PApplet.loadBytes(input), tsv, charset).parse(header);
+
     } else {
-      InputStreamReader isr = new InputStreamReader(input, encoding);
+      InputStreamReader isr = new InputStreamReader(input, charset);
       BufferedReader reader = new BufferedReader(isr);
 
       // strip out the Unicode BOM, if present
@@ -396,7 +460,16 @@ public class Table {
         parseBasic(reader, header, false);
       }
       */
-      parseBasic(reader, header, "tsv".equals(extension));
+      if (fast || parallel) {
+        new TableTokenizer(this, reader, tsv).parse(header);
+      } else {
+        parseBasic(reader, header, tsv);
+      }
+    }
+
+    if (offheap) {
+      // no-op for columns already mapped from a binary file
+      setOffHeap();
     }
   }
 
@@ -1608,7 +1681,17 @@ public class Table {
   }
 
 
+  /**
+   * Write the table using the column-based binary format. Files written by
+   * earlier releases (in the row-based format) can still be loaded.
+   */
   protected void saveBinary(OutputStream os) throws IOException {
+    TableColumnFormat.write(this, os);
+  }
+
+
+  /** Write the older row-based (0x9007AB1E) binary format. */
+  protected void saveBinaryRows(OutputStream os) throws IOException {
     DataOutputStream output = new DataOutputStream(new BufferedOutputStream(os));
     output.writeInt(0x9007AB1E);  // version
     output.writeInt(getRowCount());
@@ -1684,10 +1767,42 @@ public class Table {
   }
 
 
+  /**
+   * Load a binary table from a file. Files in the column-based format are
+   * memory-mapped and their columns are read with bulk copies.
+   */
+  protected void loadBinary(File file) throws IOException {
+    loadBinary(file, false);
+  }
+
+
+  /**
+   * @param offheap true to read values directly from the mapped file,
+   * rather than copying them into arrays (column-based format only)
+   */
+  protected void loadBinary(File file, boolean offheap) throws IOException {
+    DataInputStream input = new DataInputStream(new FileInputStream(file));
+    int magic = input.readInt();
+    input.close();
+    if (magic == TableColumnFormat.MAGIC) {
+      TableColumnFormat.read(this, file, offheap);
+    } else {
+      loadBinary(PApplet.createInput(file));
+    }
+  }
+
+
   protected void loadBinary(InputStream is) throws IOException {
-    DataInputStream input = new DataInputStream(new BufferedInputStream(is));
+    BufferedInputStream bis = new BufferedInputStream(is);
+    bis.mark(4);
+    DataInputStream input = new DataInputStream(bis);
 
     int magic = input.readInt();
+    if (magic == TableColumnFormat.MAGIC) {
+      bis.reset();
+      TableColumnFormat.read(this, PApplet.loadBytes(bis));
+      return;
+    }
     if (magic != 0x9007AB1E) {
       throw new IOException("Not a compatible binary table (magic was " + PApplet.hex(magic) + ")");
     }
@@ -1850,6 +1965,20 @@ public class Table {
     System.arraycopy(columns, index, temp, index+1, columns.length - index);
     columns = temp;
 
+    if (columnStorage != null) {
+      TableStorage[] storageTemp = new TableStorage[columns.length];
+      System.arraycopy(columnStorage, 0, storageTemp, 0, index);
+      System.arraycopy(columnStorage, index, storageTemp, index+1, columns.length - index - 1);
+      columnStorage = storageTemp;
+    }
+    if (columnIndex != null) {
+      TableIndex[] indexTemp = new TableIndex[columns.length];
+      System.arraycopy(columnIndex, 0, indexTemp, 0, index);
+      System.arraycopy(columnIndex, index, indexTemp, index+1, columns.length - index - 1);
+      columnIndex = indexTemp;
+      renumberIndexes();
+    }
+
     switch (type) {
       case INT: columns[index] = new int[rowCount]; break;
       case LONG: columns[index] = new long[rowCount]; break;
@@ -1891,6 +2020,20 @@ public class Table {
     columns = columnsTemp;
     columnCategories = catTemp;
 
+    if (columnStorage != null) {
+      TableStorage[] storageTemp = new TableStorage[newCount];
+      System.arraycopy(columnStorage, 0, storageTemp, 0, column);
+      System.arraycopy(columnStorage, column+1, storageTemp, column, newCount - column);
+      columnStorage = storageTemp;
+    }
+    if (columnIndex != null) {
+      TableIndex[] indexTemp = new TableIndex[newCount];
+      System.arraycopy(columnIndex, 0, indexTemp, 0, column);
+      System.arraycopy(columnIndex, column+1, indexTemp, column, newCount - column);
+      columnIndex = indexTemp;
+      renumberIndexes();
+    }
+
     if (columnTitles != null) {
       String[] titlesTemp = new String[newCount];
       for (int i = 0; i < column; i++) {
@@ -1936,6 +2079,14 @@ public class Table {
       columnTypes = PApplet.expand(columnTypes, newCount);
       columnCategories = (HashMapBlows[])
         PApplet.expand(columnCategories, newCount);
+      if (columnStorage != null) {
+        columnStorage = (TableStorage[])
+          PApplet.expand(columnStorage, newCount);
+      }
+      if (columnIndex != null) {
+        columnIndex = (TableIndex[])
+          PApplet.expand(columnIndex, newCount);
+      }
     }
   }
 
@@ -2060,7 +2211,11 @@ public class Table {
       }
     }
 //    System.out.println("new type is " + newType);
+    if (columnStorage != null && columns[column] != null) {
+      columnStorage[column] = null;  // replaced by the converted data
+    }
     columnTypes[column] = newType;
+    invalidateIndex(column);
   }
 
 
@@ -2281,11 +2436,17 @@ public class Table {
 
   public void setRowCount(int newCount) {
     if (newCount != rowCount) {
+      materializeFixed();
       if (newCount > 1000000) {
         System.out.print("Note: setting maximum row count to " + PApplet.nfc(newCount));
       }
       long t = System.currentTimeMillis();
       for (int col = 0; col < columns.length; col++) {
+        TableStorage storage = storage(col);
+        if (storage != null) {
+          storage.resize(newCount);
+          continue;
+        }
         switch (columnTypes[col]) {
           case INT: columns[col] = PApplet.expand((int[]) columns[col], newCount); break;
           case LONG: columns[col] = PApplet.expand((long[]) columns[col], newCount); break;
@@ -2307,7 +2468,38 @@ public class Table {
         System.out.println(" (resize took " + PApplet.nfc(ms) + " ms)");
       }
     }
+    int oldCount = rowCount;
+    rowCount = newCount;
+    indexRows(oldCount);
+  }
+
+
+  /**
+   * Same as setRowCount(), but without the progress notes and pauses for
+   * the GC. Used by the parsers, which grow the table as they read it.
+   */
+  void resizeRows(int newCount) {
+    if (newCount != rowCount) {
+      materializeFixed();
+      for (int col = 0; col < columns.length; col++) {
+        TableStorage storage = storage(col);
+        if (storage != null) {
+          storage.resize(newCount);
+          continue;
+        }
+        switch (columnTypes[col]) {
+          case INT: columns[col] = PApplet.expand((int[]) columns[col], newCount); break;
+          case LONG: columns[col] = PApplet.expand((long[]) columns[col], newCount); break;
+          case FLOAT: columns[col] = PApplet.expand((float[]) columns[col], newCount); break;
+          case DOUBLE: columns[col] = PApplet.expand((double[]) columns[col], newCount); break;
+          case STRING: columns[col] = PApplet.expand((String[]) columns[col], newCount); break;
+          case CATEGORY: columns[col] = PApplet.expand((int[]) columns[col], newCount); break;
+        }
+      }
+    }
+    int oldCount = rowCount;
     rowCount = newCount;
+    indexRows(oldCount);
   }
 
 
@@ -2355,10 +2547,10 @@ public class Table {
         break;
       case CATEGORY:
         int index = source.getInt(col);
-        setInt(row, col, index);
         if (!columnCategories[col].hasCategory(index)) {
           columnCategories[col].setCategory(index, source.getString(col));
         }
+        setInt(row, col, index);
         break;
 
       default:
@@ -2388,7 +2580,24 @@ public class Table {
 
 
   public void insertRow(int insert, Object[] columnData) {
+    materializeFixed();
+    invalidateIndex();
     for (int col = 0; col < columns.length; col++) {
+      TableStorage storage = storage(col);
+      if (storage != null) {
+        storage.resize(rowCount+1);
+        storage.copyRows(insert, insert+1, rowCount - insert);
+        // start the new row empty, same as the arrays below
+        switch (columnTypes[col]) {
+          case CATEGORY:
+          case INT: storage.setInt(insert, 0); break;
+          case LONG: storage.setLong(insert, 0); break;
+          case FLOAT: storage.setFloat(insert, 0); break;
+          case DOUBLE: storage.setDouble(insert, 0); break;
+          case STRING: storage.setString(insert, null); break;
+        }
+        continue;
+      }
       switch (columnTypes[col]) {
         case CATEGORY:
         case INT: {
@@ -2443,7 +2652,15 @@ public class Table {
    * @see Table#clearRows()
    */
   public void removeRow(int row) {
+    materializeFixed();
+    invalidateIndex();
     for (int col = 0; col < columns.length; col++) {
+      TableStorage storage = storage(col);
+      if (storage != null) {
+        storage.copyRows(row+1, row, (rowCount - row) - 1);
+        storage.resize(rowCount-1);
+        continue;
+      }
       switch (columnTypes[col]) {
         case CATEGORY:
         case INT: {
@@ -2559,83 +2776,121 @@ public class Table {
 
 
   protected void setRowCol(int row, int col, Object piece) {
+    TableStorage storage = storage(col);
     switch (columnTypes[col]) {
       case STRING:
-        String[] stringData = (String[]) columns[col];
+        String stringValue;
         if (piece == null) {
-          stringData[row] = null;
+          stringValue = null;
 //        } else if (piece instanceof String) {
-//          stringData[row] = (String) piece;
+//          stringValue = (String) piece;
         } else {
           // Calls toString() on the object, which is 'return this' for String
-          stringData[row] = String.valueOf(piece);
+          stringValue = String.valueOf(piece);
+        }
+        if (storage != null) {
+          storage.setString(row, stringValue);
+        } else {
+          String[] stringData = (String[]) columns[col];
+          stringData[row] = stringValue;
         }
         break;
       case INT:
-        int[] intData = (int[]) columns[col];
-        //intData[row] = PApplet.parseInt(piece, missingInt);
+        int intValue;
+        //intValue = PApplet.parseInt(piece, missingInt);
         if (piece == null) {
-          intData[row] = missingInt;
+          intValue = missingInt;
         } else if (piece instanceof Integer) {
-          intData[row] = (Integer) piece;
+          intValue = (Integer) piece;
+        } else {
+          intValue = PApplet.parseInt(String.valueOf(piece), missingInt);
+        }
+        if (storage != null) {
+          storage.setInt(row, intValue);
         } else {
-          intData[row] = PApplet.parseInt(String.valueOf(piece), missingInt);
+          int[] intData = (int[]) columns[col];
+          intData[row] = intValue;
         }
         break;
       case LONG:
-        long[] longData = (long[]) columns[col];
+        long longValue;
         if (piece == null) {
-          longData[row] = missingLong;
+          longValue = missingLong;
         } else if (piece instanceof Long) {
-          longData[row] = (Long) piece;
+          longValue = (Long) piece;
         } else {
           try {
-            longData[row] = Long.parseLong(String.valueOf(piece));
+            longValue = Long.parseLong(String.valueOf(piece));
           } catch (NumberFormatException nfe) {
-            longData[row] = missingLong;
+            longValue = missingLong;
           }
         }
+        if (storage != null) {
+          storage.setLong(row, longValue);
+        } else {
+          long[] longData = (long[]) columns[col];
+          longData[row] = longValue;
+        }
         break;
       case FLOAT:
-        float[] floatData = (float[]) columns[col];
+        float floatValue;
         if (piece == null) {
-          floatData[row] = missingFloat;
+          floatValue = missingFloat;
         } else if (piece instanceof Float) {
-          floatData[row] = (Float) piece;
+          floatValue = (Float) piece;
         } else {
-          floatData[row] = PApplet.parseFloat(String.valueOf(piece), missingFloat);
+          floatValue = PApplet.parseFloat(String.valueOf(piece), missingFloat);
+        }
+        if (storage != null) {
+          storage.setFloat(row, floatValue);
+        } else {
+          float[] floatData = (float[]) columns[col];
+          floatData[row] = floatValue;
         }
         break;
       case DOUBLE:
-        double[] doubleData = (double[]) columns[col];
+        double doubleValue;
         if (piece == null) {
-          doubleData[row] = missingDouble;
+          doubleValue = missingDouble;
         } else if (piece instanceof Double) {
-          doubleData[row] = (Double) piece;
+          doubleValue = (Double) piece;
         } else {
           try {
-            doubleData[row] = Double.parseDouble(String.valueOf(piece));
+            doubleValue = Double.parseDouble(String.valueOf(piece));
           } catch (NumberFormatException nfe) {
-            doubleData[row] = missingDouble;
+            doubleValue = missingDouble;
           }
         }
+        if (storage != null) {
+          storage.setDouble(row, doubleValue);
+        } else {
+          double[] doubleData = (double[]) columns[col];
+          doubleData[row] = doubleValue;
+        }
         break;
       case CATEGORY:
-        int[] indexData = (int[]) columns[col];
+        int indexValue;
         if (piece == null) {
-          indexData[row] = missingCategory;
+          indexValue = missingCategory;
         } else {
           String peace = String.valueOf(piece);
           if (peace.equals(missingString)) {  // missingString might be null
-            indexData[row] = missingCategory;
+            indexValue = missingCategory;
           } else {
-            indexData[row] = columnCategories[col].index(peace);
+            indexValue = columnCategories[col].index(peace);
           }
         }
+        if (storage != null) {
+          storage.setInt(row, indexValue);
+        } else {
+          int[] indexData = (int[]) columns[col];
+          indexData[row] = indexValue;
+        }
         break;
       default:
         throw new IllegalArgumentException("That's not a valid column type.");
     }
+    indexRow(row, col);
   }
 
 
@@ -3064,6 +3319,10 @@ public class Table {
     checkBounds(row, column);
     if (columnTypes[column] == INT ||
         columnTypes[column] == CATEGORY) {
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        return storage.getInt(row);
+      }
       int[] intData = (int[]) columns[column];
       return intData[row];
     }
@@ -3108,8 +3367,14 @@ public class Table {
           columnTypes[column] != CATEGORY) {
         throw new IllegalArgumentException("Column " + column + " is not an int column.");
       }
-      int[] intData = (int[]) columns[column];
-      intData[row] = value;
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        storage.setInt(row, value);
+      } else {
+        int[] intData = (int[]) columns[column];
+        intData[row] = value;
+      }
+      indexRow(row, column);
     }
   }
 
@@ -3152,6 +3417,10 @@ public class Table {
   public long getLong(int row, int column) {
     checkBounds(row, column);
     if (columnTypes[column] == LONG) {
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        return storage.getLong(row);
+      }
       long[] longData = (long[]) columns[column];
       return longData[row];
     }
@@ -3186,8 +3455,14 @@ public class Table {
       if (columnTypes[column] != LONG) {
         throw new IllegalArgumentException("Column " + column + " is not a 'long' column.");
       }
-      long[] longData = (long[]) columns[column];
-      longData[row] = value;
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        storage.setLong(row, value);
+      } else {
+        long[] longData = (long[]) columns[column];
+        longData[row] = value;
+      }
+      indexRow(row, column);
     }
   }
 
@@ -3243,6 +3518,10 @@ public class Table {
   public float getFloat(int row, int column) {
     checkBounds(row, column);
     if (columnTypes[column] == FLOAT) {
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        return storage.getFloat(row);
+      }
       float[] floatData = (float[]) columns[column];
       return floatData[row];
     }
@@ -3288,8 +3567,14 @@ public class Table {
       if (columnTypes[column] != FLOAT) {
         throw new IllegalArgumentException("Column " + column + " is not a float column.");
       }
-      float[] longData = (float[]) columns[column];
-      longData[row] = value;
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        storage.setFloat(row, value);
+      } else {
+        float[] longData = (float[]) columns[column];
+        longData[row] = value;
+      }
+      indexRow(row, column);
     }
   }
 
@@ -3331,6 +3616,10 @@ public class Table {
   public double getDouble(int row, int column) {
     checkBounds(row, column);
     if (columnTypes[column] == DOUBLE) {
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        return storage.getDouble(row);
+      }
       double[] doubleData = (double[]) columns[column];
       return doubleData[row];
     }
@@ -3365,8 +3654,14 @@ public class Table {
       if (columnTypes[column] != DOUBLE) {
         throw new IllegalArgumentException("Column " + column + " is not a 'double' column.");
       }
-      double[] doubleData = (double[]) columns[column];
-      doubleData[row] = value;
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        storage.setDouble(row, value);
+      } else {
+        double[] doubleData = (double[]) columns[column];
+        doubleData[row] = value;
+      }
+      indexRow(row, column);
     }
   }
 
@@ -3475,7 +3770,11 @@ public class Table {
    */
   public String getString(int row, int column) {
     checkBounds(row, column);
+    TableStorage storage = storage(column);
     if (columnTypes[column] == STRING) {
+      if (storage != null) {
+        return storage.getString(row);
+      }
       String[] stringData = (String[]) columns[column];
       return stringData[row];
     } else if (columnTypes[column] == CATEGORY) {
@@ -3489,10 +3788,18 @@ public class Table {
         return null;
       }
     } else if (columnTypes[column] == DOUBLE) {
-      if (Double.isNaN(getFloat(row, column))) {
+      if (Double.isNaN(getDouble(row, column))) {
         return null;
       }
     }
+    if (storage != null) {
+      switch (columnTypes[column]) {
+        case INT: return String.valueOf(storage.getInt(row));
+        case LONG: return String.valueOf(storage.getLong(row));
+        case FLOAT: return String.valueOf(storage.getFloat(row));
+        case DOUBLE: return String.valueOf(storage.getDouble(row));
+      }
+    }
     return String.valueOf(Array.get(columns[column], row));
   }
 
@@ -3531,8 +3838,14 @@ public class Table {
     if (columnTypes[column] != STRING) {
       throw new IllegalArgumentException("Column " + column + " is not a String column.");
     }
-    String[] stringData = (String[]) columns[column];
-    stringData[row] = value;
+    TableStorage storage = storage(column);
+    if (storage != null) {
+      storage.setString(row, value);
+    } else {
+      String[] stringData = (String[]) columns[column];
+      stringData[row] = value;
+    }
+    indexRow(row, column);
   }
 
   /**
@@ -3591,7 +3904,11 @@ public class Table {
    */
   public int findRowIndex(String value, int column) {
     checkColumn(column);
-    if (columnTypes[column] == STRING) {
+    TableIndex index = index(column);
+    if (index != null) {
+      return index.first(value);
+    }
+    if (columnTypes[column] == STRING && storage(column) == null) {
       String[] stringData = (String[]) columns[column];
       if (value == null) {
         for (int row = 0; row < rowCount; row++) {
@@ -3637,11 +3954,15 @@ public class Table {
    * @param column ID number of the column to search
    */
   public int[] findRowIndices(String value, int column) {
+    checkColumn(column);
+    TableIndex index = index(column);
+    if (index != null) {
+      return index.all(value);
+    }
+
     int[] outgoing = new int[rowCount];
     int count = 0;
-
-    checkColumn(column);
-    if (columnTypes[column] == STRING) {
+    if (columnTypes[column] == STRING && storage(column) == null) {
       String[] stringData = (String[]) columns[column];
       if (value == null) {
         for (int row = 0; row < rowCount; row++) {
@@ -3766,7 +4087,7 @@ public class Table {
    */
   public int matchRowIndex(String regexp, int column) {
     checkColumn(column);
-    if (columnTypes[column] == STRING) {
+    if (columnTypes[column] == STRING && storage(column) == null) {
       String[] stringData = (String[]) columns[column];
       for (int row = 0; row < rowCount; row++) {
         if (stringData[row] != null &&
@@ -3808,7 +4129,7 @@ public class Table {
     int count = 0;
 
     checkColumn(column);
-    if (columnTypes[column] == STRING) {
+    if (columnTypes[column] == STRING && storage(column) == null) {
       String[] stringData = (String[]) columns[column];
       for (int row = 0; row < rowCount; row++) {
         if (stringData[row] != null &&
@@ -3933,6 +4254,17 @@ public class Table {
 
   public void replace(String orig, String replacement, int col) {
     if (columnTypes[col] == STRING) {
+      invalidateIndex(col);
+      TableStorage storage = storage(col);
+      if (storage != null) {
+        for (int row = 0; row < rowCount; row++) {
+          String s = storage.getString(row);
+          if (orig == null ? s == null : orig.equals(s)) {
+            storage.setString(row, replacement);
+          }
+        }
+        return;
+      }
       String[] stringData = (String[]) columns[col];
 
       if (orig != null) {
@@ -3970,6 +4302,20 @@ public class Table {
   public void replaceAll(String regex, String replacement, int column) {
     checkColumn(column);
     if (columnTypes[column] == STRING) {
+      invalidateIndex(column);
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        for (int row = 0; row < rowCount; row++) {
+          String s = storage.getString(row);
+          if (s != null) {
+            String t = s.replaceAll(regex, replacement);
+            if (!t.equals(s)) {
+              storage.setString(row, t);
+            }
+          }
+        }
+        return;
+      }
       String[] stringData = (String[]) columns[column];
       for (int row = 0; row < rowCount; row++) {
         if (stringData[row] != null) {
@@ -4128,6 +4474,20 @@ public class Table {
    */
   public void trim(int column) {
     if (columnTypes[column] == STRING) {
+      invalidateIndex(column);
+      TableStorage storage = storage(column);
+      if (storage != null) {
+        for (int row = 0; row < rowCount; row++) {
+          String s = storage.getString(row);
+          if (s != null) {
+            String t = PApplet.trim(s);
+            if (!t.equals(s)) {
+              storage.setString(row, t);
+            }
+          }
+        }
+        return;
+      }
       String[] stringData = (String[]) columns[column];
       for (int row = 0; row < rowCount; row++) {
         if (stringData[row] != null) {
@@ -4197,6 +4557,198 @@ public class Table {
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
+  /**
+   * Use a TableStorage to hold the values for a column, instead of an
+   * array on the Java heap. The storage must have one entry for each row,
+   * of the same type as the column. Use null to move the data back into
+   * an array. Advanced users only, not official API.
+   */
+  public void setColumnStorage(int column, TableStorage storage) {
+    checkColumn(column);
+    if (storage == null) {
+      materialize(column);
+
+    } else {
+      if (storage.size() != rowCount) {
+        throw new IllegalArgumentException("Storage has " + storage.size() +
+                                           " rows, but the table has " +
+                                           rowCount);
+      }
+      if (columnStorage == null) {
+        columnStorage = new TableStorage[columns.length];
+      }
+      columnStorage[column] = storage;
+      columns[column] = null;
+    }
+  }
+
+
+  /**
+   * Move all columns outside the Java heap, so that very large tables
+   * can be used without a large -Xmx setting. Values are read and written
+   * in place, including Strings, and rows can be added, inserted, removed,
+   * or sorted without moving the columns back onto the heap. A few things
+   * still copy a column into an array on the heap: sort() makes a
+   * temporary copy of the column being sorted (the others are rearranged
+   * in place), methods that return a whole column like getIntColumn()
+   * return a copy, saving in the binary format copies one column at a
+   * time, and setColumnType() moves the column back for good.
+   */
+  public void setOffHeap() {
+    for (int col = 0; col < columns.length; col++) {
+      setOffHeap(col);
+    }
+  }
+
+
+  public void setOffHeap(int column) {
+    checkColumn(column);
+    if (storage(column) == null) {
+      setColumnStorage(column,
+                       TableBufferStorage.copyOf(columnTypes[column],
+                                                 columns[column], rowCount));
+    }
+  }
+
+
+  /** The storage used for a column, or null if it's a regular array. */
+  TableStorage storage(int column) {
+    return (columnStorage == null) ? null : columnStorage[column];
+  }
+
+
+  /** Copy a column from its storage back to an array. */
+  void materialize(int column) {
+    TableStorage storage = storage(column);
+    if (storage != null) {
+      columns[column] = storage.toArray();
+      columnStorage[column] = null;
+    }
+  }
+
+
+  /**
+   * Copy columns back to arrays if their storage can't be resized, before
+   * rows are added, removed, or rearranged.
+   */
+  void materializeFixed() {
+    if (columnStorage != null) {
+      for (int col = 0; col < columns.length; col++) {
+        TableStorage storage = columnStorage[col];
+        if (storage != null && !storage.isResizable()) {
+          materialize(col);
+        }
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Create a hash index for a column, so that findRow(), findRows(), and
+   * the other find methods look up matching rows directly, rather than
+   * checking every row. Useful when finding many values in a large table,
+   * for instance when joining two tables. The index is kept up to date as
+   * entries are changed and rows are added; removing or sorting rows means
+   * that it will be rebuilt the next time it's used.
+   *
+   * @param column ID number of the column to index
+   */
+  public void createIndex(int column) {
+    checkColumn(column);
+    if (columnIndex == null) {
+      columnIndex = new TableIndex[columns.length];
+    }
+    if (columnIndex[column] == null) {
+      columnIndex[column] = new TableIndex(this, column);
+    }
+  }
+
+
+  /**
+   * @param columnName title of the column to index
+   */
+  public void createIndex(String columnName) {
+    createIndex(getColumnIndex(columnName));
+  }
+
+
+  public void removeIndex(int column) {
+    checkColumn(column);
+    if (columnIndex != null) {
+      columnIndex[column] = null;
+    }
+  }
+
+
+  public void removeIndex(String columnName) {
+    removeIndex(getColumnIndex(columnName));
+  }
+
+
+  /** The index for a column, or null if it doesn't have one. */
+  TableIndex index(int column) {
+    return (columnIndex == null) ? null : columnIndex[column];
+  }
+
+
+  /** Update the index (if any) after an entry has been changed. */
+  void indexRow(int row, int column) {
+    if (columnIndex != null && columnIndex[column] != null) {
+      columnIndex[column].update(row);
+    }
+  }
+
+
+  /** Add new rows to the indexes, or rebuild them if rows were removed. */
+  void indexRows(int oldCount) {
+    if (columnIndex != null) {
+      for (TableIndex index : columnIndex) {
+        if (index != null) {
+          if (rowCount < oldCount) {
+            index.stale = true;
+          } else if (rowCount > oldCount) {
+            index.update(rowCount - 1);
+          }
+        }
+      }
+    }
+  }
+
+
+  void invalidateIndex(int column) {
+    if (columnIndex != null && columnIndex[column] != null) {
+      columnIndex[column].stale = true;
+    }
+  }
+
+
+  void invalidateIndex() {
+    if (columnIndex != null) {
+      for (TableIndex index : columnIndex) {
+        if (index != null) {
+          index.stale = true;
+        }
+      }
+    }
+  }
+
+
+  /** Columns have been inserted or removed, so update the numbering. */
+  void renumberIndexes() {
+    for (int col = 0; col < columnIndex.length; col++) {
+      if (columnIndex[col] != null) {
+        columnIndex[col].column = col;
+      }
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
   static class HashMapBlows {
     HashMap<String,Integer> dataToIndex = new HashMap<>();
     ArrayList<String> indexToData = new ArrayList<>();
@@ -4294,7 +4846,9 @@ public class Table {
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
   /**
-   * Sorts (orders) a table based on the values in a column.
+   * Sorts (orders) a table based on the values in a column. Rows with the
+   * same value keep their original order. Strings are sorted ignoring
+   * case, and NaN values are placed at the end.
    *
    * @webref table:method
    * @brief Orders a table based on the values in a column
@@ -4324,60 +4878,43 @@ public class Table {
 
 
   protected void sort(final int column, final boolean reverse) {
-    final int[] order = IntList.fromRange(getRowCount()).array();
-    Sort s = new Sort() {
-
-      @Override
-      public int size() {
-        return getRowCount();
-      }
-
-      @Override
-      public int compare(int index1, int index2) {
-        int a = reverse ? order[index2] : order[index1];
-        int b = reverse ? order[index1] : order[index2];
-
-        switch (getColumnType(column)) {
-        case INT:
-          return getInt(a, column) - getInt(b, column);
-        case LONG:
-          long diffl = getLong(a, column) - getLong(b, column);
-          return diffl == 0 ? 0 : (diffl < 0 ? -1 : 1);
-        case FLOAT:
-          float difff = getFloat(a, column) - getFloat(b, column);
-          return difff == 0 ? 0 : (difff < 0 ? -1 : 1);
-        case DOUBLE:
-          double diffd = getDouble(a, column) - getDouble(b, column);
-          return diffd == 0 ? 0 : (diffd < 0 ? -1 : 1);
-        case STRING:
-          String string1 = getString(a, column);
-          if (string1 == null) {
-            string1 = "";  // avoid NPE when cells are left empty
-          }
-          String string2 = getString(b, column);
-          if (string2 == null) {
-            string2 = "";
-          }
-          return string1.compareToIgnoreCase(string2);
-        case CATEGORY:
-          return getInt(a, column) - getInt(b, column);
-        default:
-          throw new IllegalArgumentException("Invalid column type: " + getColumnType(column));
-        }
-      }
-
-      @Override
-      public void swap(int a, int b) {
-        int temp = order[a];
-        order[a] = order[b];
-        order[b] = temp;
-      }
-
-    };
-    s.run();
+    materializeFixed();
+    invalidateIndex();
+
+    // sort the row numbers by the values in the column, then move all the
+    // columns into that order (if the column is in a TableStorage, its
+    // values are copied to a temporary array to be sorted)
+    TableStorage sortStorage = storage(column);
+    Object values = (sortStorage != null) ? sortStorage.toArray() : columns[column];
+    final int[] order;
+    switch (getColumnType(column)) {
+    case INT:
+    case CATEGORY:
+      order = PrimitiveSort.order((int[]) values, rowCount, reverse);
+      break;
+    case LONG:
+      order = PrimitiveSort.order((long[]) values, rowCount, reverse);
+      break;
+    case FLOAT:
+      order = PrimitiveSort.order((float[]) values, rowCount, reverse);
+      break;
+    case DOUBLE:
+      order = PrimitiveSort.order((double[]) values, rowCount, reverse);
+      break;
+    case STRING:
+      order = PrimitiveSort.order((String[]) values, rowCount, reverse);
+      break;
+    default:
+      throw new IllegalArgumentException("Invalid column type: " + getColumnType(column));
+    }
 
     //Object[] newColumns = new Object[getColumnCount()];
     for (int col = 0; col < getColumnCount(); col++) {
+      TableStorage storage = storage(col);
+      if (storage != null) {
+        storage.reorder(order);
+        continue;
+      }
       switch (getColumnType(col)) {
       case INT:
       case CATEGORY:
@@ -4461,6 +4998,34 @@ public class Table {
   }
 
 
+  /**
+   * Group the rows by the values in one or more columns, to calculate
+   * totals or other results for each group. For instance, to get the total
+   * of the "amount" column for each region:
+   * <pre>
+   * Table totals = table.groupBy("region").sum("amount");
+   * </pre>
+   *
+   * @param columnNames titles of the columns used to group the rows
+   * @see TableGroupBy
+   */
+  public TableGroupBy groupBy(String... columnNames) {
+    int[] columns = new int[columnNames.length];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = getColumnIndex(columnNames[i]);
+    }
+    return groupBy(columns);
+  }
+
+
+  /**
+   * @param columns ID numbers of the columns used to group the rows
+   */
+  public TableGroupBy groupBy(int... columns) {
+    return new TableGroupBy(this, columns.clone());
+  }
+
+
   // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
 
 
@@ -0,0 +1,629 @@
+package processing.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+/**
+ * Column storage backed by ByteBuffers, either allocated outside the Java
+ * heap with allocateDirect(), or mapped from a file written in the binary
+ * Table format. Values are split across several buffers so that columns
+ * with more than 2 GB of data can be used.
+ * <p/>
+ * Mapped buffers are read-only, and only the pages that are used are read
+ * from the disk. The first time a value is changed, the buffer holding it
+ * is copied to a direct buffer, so the file itself is never modified.
+ * <p/>
+ * When rows are added, the last buffer is replaced with a larger one
+ * (growing by half each time, like an ArrayList), and once it's full,
+ * more buffers are added after it. Removing, inserting, or sorting rows
+ * moves the values inside the buffers.
+ * <p/>
+ * STRING columns are stored as UTF-8 in a separate heap, with the offset
+ * and length of each entry, and are decoded each time they're read.
+ * New values are added to the end of the heap, and the space used by the
+ * old ones is only reclaimed when the heap needs to grow and more than
+ * half of it is unused, at which point the live entries are copied to a
+ * new heap.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class TableBufferStorage extends TableStorage {
+  // rows per buffer; 2^27 eight-byte values is 1 GB
+  static final int SHIFT = 27;
+  static final int MASK = (1 << SHIFT) - 1;
+
+  // bytes per buffer for the String heap
+  static final int HEAP_SHIFT = 30;
+  static final int HEAP_MASK = (1 << HEAP_SHIFT) - 1;
+
+  static Charset utf8 = Charset.forName("UTF-8");
+
+  // rows moved at a time by copyRows()
+  static final int CHUNK = 8192;
+
+  int type;
+  int count;
+  ByteBuffer[] buffers;
+
+  // for STRING columns, the location of each entry (or -1 for null)
+  TableBufferStorage offsets;
+  TableBufferStorage lengths;
+  ByteBuffer[] heap;
+  // bytes at the start of the heap that are in use (or were, before
+  // their entry was replaced), new Strings are added after this point
+  long heapUsed;
+
+
+  TableBufferStorage(int type, int count, ByteBuffer[] buffers) {
+    this.type = type;
+    this.count = count;
+    this.buffers = buffers;
+  }
+
+
+  TableBufferStorage(int count, TableBufferStorage offsets,
+                     TableBufferStorage lengths, ByteBuffer[] heap) {
+    this.type = Table.STRING;
+    this.count = count;
+    this.offsets = offsets;
+    this.lengths = lengths;
+    this.heap = heap;
+    heapUsed = capacity(heap);
+  }
+
+
+  static int width(int type) {
+    switch (type) {
+    case Table.INT:
+    case Table.CATEGORY:
+    case Table.FLOAT:
+      return 4;
+    case Table.LONG:
+    case Table.DOUBLE:
+      return 8;
+    default:
+      throw new IllegalArgumentException("Column type " + type + " is not stored in buffers");
+    }
+  }
+
+
+  static int bufferCount(int count) {
+    return (count + MASK) >>> SHIFT;
+  }
+
+
+  static int rowsInBuffer(int count, int index) {
+    return Math.min(count - (index << SHIFT), 1 << SHIFT);
+  }
+
+
+  static long capacity(ByteBuffer[] heap) {
+    long total = 0;
+    for (ByteBuffer bb : heap) {
+      total += bb.capacity();
+    }
+    return total;
+  }
+
+
+  /** Direct buffers for a String heap of the specified number of bytes. */
+  static ByteBuffer[] allocateHeap(long size) {
+    ByteBuffer[] heap = new ByteBuffer[(int) ((size + HEAP_MASK) >>> HEAP_SHIFT)];
+    for (int i = 0; i < heap.length; i++) {
+      long start = (long) i << HEAP_SHIFT;
+      heap[i] = ByteBuffer.allocateDirect((int) Math.min(size - start, 1 << HEAP_SHIFT));
+    }
+    return heap;
+  }
+
+
+  /** Create storage outside the Java heap for a numeric column. */
+  static TableBufferStorage allocate(int type, int count) {
+    int width = width(type);
+    ByteBuffer[] buffers = new ByteBuffer[bufferCount(count)];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = ByteBuffer.allocateDirect(rowsInBuffer(count, i) * width);
+      buffers[i].order(ByteOrder.nativeOrder());
+    }
+    return new TableBufferStorage(type, count, buffers);
+  }
+
+
+  /** Copy a column (one of the arrays used by Table) outside the heap. */
+  static TableBufferStorage copyOf(int type, Object data, int count) {
+    if (type == Table.STRING) {
+      return copyOf((String[]) data, count);
+    }
+    TableBufferStorage storage = allocate(type, count);
+    for (int i = 0; i < storage.buffers.length; i++) {
+      int start = i << SHIFT;
+      int rows = rowsInBuffer(count, i);
+      ByteBuffer bb = storage.view(i);
+      switch (type) {
+      case Table.INT:
+      case Table.CATEGORY: bb.asIntBuffer().put((int[]) data, start, rows); break;
+      case Table.LONG: bb.asLongBuffer().put((long[]) data, start, rows); break;
+      case Table.FLOAT: bb.asFloatBuffer().put((float[]) data, start, rows); break;
+      case Table.DOUBLE: bb.asDoubleBuffer().put((double[]) data, start, rows); break;
+      }
+    }
+    return storage;
+  }
+
+
+  static TableBufferStorage copyOf(String[] data, int count) {
+    TableBufferStorage offsets = allocate(Table.LONG, count);
+    TableBufferStorage lengths = allocate(Table.INT, count);
+    long total = 0;
+    for (int row = 0; row < count; row++) {
+      offsets.setLong(row, total);
+      if (data[row] == null) {
+        lengths.setInt(row, -1);
+      } else {
+        int len = TableColumnFormat.utf8Length(data[row]);
+        lengths.setInt(row, len);
+        total += len;
+      }
+    }
+    TableBufferStorage storage =
+      new TableBufferStorage(count, offsets, lengths, allocateHeap(total));
+    for (int row = 0; row < count; row++) {
+      if (data[row] != null) {
+        storage.copyHeap(offsets.getLong(row), data[row].getBytes(utf8), true);
+      }
+    }
+    return storage;
+  }
+
+
+  /**
+   * Map a numeric column from a file, starting at the specified offset.
+   * Values are big-endian, as written by TableColumnFormat.
+   */
+  static TableBufferStorage map(FileChannel channel, long offset,
+                                int type, int count) throws IOException {
+    int width = width(type);
+    ByteBuffer[] buffers = new ByteBuffer[bufferCount(count)];
+    for (int i = 0; i < buffers.length; i++) {
+      long start = offset + ((long) i << SHIFT) * width;
+      buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                               (long) rowsInBuffer(count, i) * width);
+    }
+    return new TableBufferStorage(type, count, buffers);
+  }
+
+
+  /** Map a STRING column, given the offset of each part of its block. */
+  static TableBufferStorage mapStrings(FileChannel channel, int count,
+                                       long offsetsStart, long lengthsStart,
+                                       long heapStart, long heapLength) throws IOException {
+    TableBufferStorage offsets = map(channel, offsetsStart, Table.LONG, count);
+    TableBufferStorage lengths = map(channel, lengthsStart, Table.INT, count);
+    ByteBuffer[] heap = new ByteBuffer[(int) ((heapLength + HEAP_MASK) >>> HEAP_SHIFT)];
+    for (int i = 0; i < heap.length; i++) {
+      long start = (long) i << HEAP_SHIFT;
+      heap[i] = channel.map(FileChannel.MapMode.READ_ONLY, heapStart + start,
+                            Math.min(heapLength - start, 1 << HEAP_SHIFT));
+    }
+    return new TableBufferStorage(count, offsets, lengths, heap);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** A duplicate of one buffer, with the same byte order, for bulk copies. */
+  protected ByteBuffer view(int index) {
+    ByteBuffer bb = buffers[index].duplicate();
+    bb.order(buffers[index].order());
+    bb.clear();
+    return bb;
+  }
+
+
+  /** Get a buffer that can be written, copying it if it's been mapped. */
+  protected ByteBuffer writable(int index) {
+    ByteBuffer bb = buffers[index];
+    if (bb.isReadOnly()) {
+      ByteBuffer copy = ByteBuffer.allocateDirect(bb.capacity());
+      copy.put(view(index));
+      copy.order(bb.order());
+      buffers[index] = copy;
+      return copy;
+    }
+    return bb;
+  }
+
+
+  /** Copy values to or from an int[] or long[], within a single buffer. */
+  protected void copyValues(int row, Object array, int length, boolean write) {
+    int index = row >>> SHIFT;
+    ByteBuffer bb = write ? writable(index).duplicate() : view(index);
+    bb.order(buffers[index].order());
+    bb.clear();
+    if (array instanceof int[]) {
+      bb.position((row & MASK) << 2);
+      if (write) {
+        bb.asIntBuffer().put((int[]) array, 0, length);
+      } else {
+        bb.asIntBuffer().get((int[]) array, 0, length);
+      }
+    } else {
+      bb.position((row & MASK) << 3);
+      if (write) {
+        bb.asLongBuffer().put((long[]) array, 0, length);
+      } else {
+        bb.asLongBuffer().get((long[]) array, 0, length);
+      }
+    }
+  }
+
+
+  /** Copy bytes to or from the String heap, which may span buffers. */
+  protected void copyHeap(long position, byte[] data, boolean write) {
+    copyHeap(heap, position, data, write);
+  }
+
+
+  static protected void copyHeap(ByteBuffer[] heap, long position,
+                                 byte[] data, boolean write) {
+    int offset = 0;
+    while (offset < data.length) {
+      ByteBuffer bb = heap[(int) (position >>> HEAP_SHIFT)].duplicate();
+      bb.position((int) (position & HEAP_MASK));
+      int len = Math.min(data.length - offset, bb.remaining());
+      if (write) {
+        bb.put(data, offset, len);
+      } else {
+        bb.get(data, offset, len);
+      }
+      offset += len;
+      position += len;
+    }
+  }
+
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+
+  /** Number of rows that fit in the buffers without adding more. */
+  protected long capacity() {
+    if (buffers.length == 0) {
+      return 0;
+    }
+    int last = buffers.length - 1;
+    return ((long) last << SHIFT) + buffers[last].capacity() / width(type);
+  }
+
+
+  @Override
+  public boolean isResizable() {
+    return true;
+  }
+
+
+  @Override
+  public void resize(int newCount) {
+    if (newCount < 0) {
+      throw new IllegalArgumentException("Row count cannot be negative");
+    }
+    if (type == Table.STRING) {
+      offsets.resize(newCount);
+      lengths.resize(newCount);
+      for (int row = count; row < newCount; row++) {
+        lengths.setInt(row, -1);
+      }
+      if (newCount == 0) {
+        heap = new ByteBuffer[0];
+        heapUsed = 0;
+      }
+      count = newCount;
+      return;
+    }
+    if (newCount > capacity()) {
+      long larger = capacity() + capacity() / 2;
+      grow((int) Math.min(Integer.MAX_VALUE, Math.max(newCount, larger)));
+    } else if (bufferCount(newCount) < buffers.length) {
+      // let go of buffers that are no longer needed
+      buffers = Arrays.copyOf(buffers, bufferCount(newCount));
+    }
+    // rows past the old count may have values from before it was reduced
+    int width = width(type);
+    for (int row = count; row < newCount; row++) {
+      ByteBuffer bb = writable(row >>> SHIFT);
+      if (width == 4) {
+        bb.putInt((row & MASK) << 2, 0);
+      } else {
+        bb.putLong((row & MASK) << 3, 0);
+      }
+    }
+    count = newCount;
+  }
+
+
+  /**
+   * Make room for the specified number of rows. Buffers that are already
+   * full are kept as they are, and the last one is copied to a larger one.
+   */
+  protected void grow(int capacity) {
+    int width = width(type);
+    ByteBuffer[] grown = Arrays.copyOf(buffers, bufferCount(capacity));
+    for (int i = 0; i < grown.length; i++) {
+      int size = rowsInBuffer(capacity, i) * width;
+      if (i < buffers.length && buffers[i].capacity() == size) {
+        continue;
+      }
+      ByteBuffer bb = ByteBuffer.allocateDirect(size);
+      if (i < buffers.length) {
+        bb.put(view(i));
+        bb.order(buffers[i].order());  // mapped buffers are big-endian
+      } else {
+        bb.order(ByteOrder.nativeOrder());
+      }
+      grown[i] = bb;
+    }
+    buffers = grown;
+  }
+
+
+  @Override
+  public void copyRows(int from, int to, int length) {
+    if (from < 0 || to < 0 || length < 0 ||
+        from + length > count || to + length > count) {
+      throw new IndexOutOfBoundsException("Cannot copy " + length + " rows from " +
+                                          from + " to " + to);
+    }
+    if (type == Table.STRING) {
+      offsets.copyRows(from, to, length);
+      lengths.copyRows(from, to, length);
+      return;
+    }
+    // Go through an array a chunk at a time, working from the end when
+    // moving rows down, so that overlapping rows are read before they're
+    // replaced. Each chunk stays inside one buffer on either side.
+    Object chunk = (width(type) == 4) ? new int[CHUNK] : new long[CHUNK];
+    if (from > to) {
+      int done = 0;
+      while (done < length) {
+        int src = from + done;
+        int dst = to + done;
+        int n = Math.min(Math.min(CHUNK, length - done),
+                         Math.min((1 << SHIFT) - (src & MASK),
+                                  (1 << SHIFT) - (dst & MASK)));
+        copyValues(src, chunk, n, false);
+        copyValues(dst, chunk, n, true);
+        done += n;
+      }
+    } else if (from < to) {
+      int left = length;
+      while (left > 0) {
+        int src = from + left;  // rows before these are copied
+        int dst = to + left;
+        int n = Math.min(Math.min(CHUNK, left),
+                         Math.min(((src - 1) & MASK) + 1,
+                                  ((dst - 1) & MASK) + 1));
+        copyValues(src - n, chunk, n, false);
+        copyValues(dst - n, chunk, n, true);
+        left -= n;
+      }
+    }
+  }
+
+
+  @Override
+  public void reorder(int[] order) {
+    if (type == Table.STRING) {
+      offsets.reorder(order);
+      lengths.reorder(order);
+      return;
+    }
+    // sort into new buffers, outside the heap like the originals
+    TableBufferStorage sorted = allocate(type, count);
+    if (width(type) == 4) {
+      for (int row = 0; row < count; row++) {
+        sorted.setInt(row, getInt(order[row]));  // also works for floats
+      }
+    } else {
+      for (int row = 0; row < count; row++) {
+        sorted.setLong(row, getLong(order[row]));
+      }
+    }
+    buffers = sorted.buffers;
+  }
+
+
+  @Override
+  public Object toArray() {
+    switch (type) {
+    case Table.INT:
+    case Table.CATEGORY: {
+      int[] outgoing = new int[count];
+      for (int i = 0; i < bufferCount(count); i++) {
+        view(i).asIntBuffer().get(outgoing, i << SHIFT, rowsInBuffer(count, i));
+      }
+      return outgoing;
+    }
+    case Table.LONG: {
+      long[] outgoing = new long[count];
+      for (int i = 0; i < bufferCount(count); i++) {
+        view(i).asLongBuffer().get(outgoing, i << SHIFT, rowsInBuffer(count, i));
+      }
+      return outgoing;
+    }
+    case Table.FLOAT: {
+      float[] outgoing = new float[count];
+      for (int i = 0; i < bufferCount(count); i++) {
+        view(i).asFloatBuffer().get(outgoing, i << SHIFT, rowsInBuffer(count, i));
+      }
+      return outgoing;
+    }
+    case Table.DOUBLE: {
+      double[] outgoing = new double[count];
+      for (int i = 0; i < bufferCount(count); i++) {
+        view(i).asDoubleBuffer().get(outgoing, i << SHIFT, rowsInBuffer(count, i));
+      }
+      return outgoing;
+    }
+    case Table.STRING: {
+      String[] outgoing = new String[count];
+      for (int row = 0; row < count; row++) {
+        outgoing[row] = getString(row);
+      }
+      return outgoing;
+    }
+    }
+    throw new IllegalArgumentException("Column type " + type + " is not stored in buffers");
+  }
+
+
+  @Override
+  public int getInt(int row) {
+    return buffers[row >>> SHIFT].getInt((row & MASK) << 2);
+  }
+
+
+  @Override
+  public void setInt(int row, int value) {
+    writable(row >>> SHIFT).putInt((row & MASK) << 2, value);
+  }
+
+
+  @Override
+  public long getLong(int row) {
+    return buffers[row >>> SHIFT].getLong((row & MASK) << 3);
+  }
+
+
+  @Override
+  public void setLong(int row, long value) {
+    writable(row >>> SHIFT).putLong((row & MASK) << 3, value);
+  }
+
+
+  @Override
+  public float getFloat(int row) {
+    return buffers[row >>> SHIFT].getFloat((row & MASK) << 2);
+  }
+
+
+  @Override
+  public void setFloat(int row, float value) {
+    writable(row >>> SHIFT).putFloat((row & MASK) << 2, value);
+  }
+
+
+  @Override
+  public double getDouble(int row) {
+    return buffers[row >>> SHIFT].getDouble((row & MASK) << 3);
+  }
+
+
+  @Override
+  public void setDouble(int row, double value) {
+    writable(row >>> SHIFT).putDouble((row & MASK) << 3, value);
+  }
+
+
+  @Override
+  public String getString(int row) {
+    int len = lengths.getInt(row);
+    if (len < 0) {
+      return null;
+    }
+    byte[] data = new byte[len];
+    copyHeap(offsets.getLong(row), data, false);
+    return new String(data, utf8);
+  }
+
+
+  /**
+   * Add the new value to the end of the heap. The space used by the old
+   * value is left behind, and reclaimed by compactHeap().
+   */
+  @Override
+  public void setString(int row, String value) {
+    if (row < 0 || row >= count) {
+      throw new IndexOutOfBoundsException("Row " + row + " does not exist");
+    }
+    if (value == null) {
+      lengths.setInt(row, -1);
+      return;
+    }
+    byte[] data = value.getBytes(utf8);
+    reserveHeap(data.length);
+    offsets.setLong(row, heapUsed);
+    lengths.setInt(row, data.length);
+    copyHeap(heapUsed, data, true);
+    heapUsed += data.length;
+  }
+
+
+  /** Make sure there's room for this many more bytes at the end of the heap. */
+  protected void reserveHeap(int length) {
+    long capacity = capacity(heap);
+    if (heapUsed + length <= capacity) {
+      return;
+    }
+    long live = 0;
+    for (int row = 0; row < count; row++) {
+      live += Math.max(0, lengths.getInt(row));
+    }
+    if (live + length <= heapUsed / 2) {
+      compactHeap(live + length);
+    } else {
+      growHeap(Math.max(heapUsed + length, capacity + capacity / 2));
+    }
+  }
+
+
+  /**
+   * Make the heap larger. As with the buffers for numeric values, full
+   * buffers are kept, and the last one is copied to a larger one.
+   */
+  protected void growHeap(long size) {
+    ByteBuffer[] grown = Arrays.copyOf(heap, (int) ((size + HEAP_MASK) >>> HEAP_SHIFT));
+    for (int i = 0; i < grown.length; i++) {
+      int length = (int) Math.min(size - ((long) i << HEAP_SHIFT), 1 << HEAP_SHIFT);
+      if (i < heap.length && heap[i].capacity() == length) {
+        continue;
+      }
+      ByteBuffer bb = ByteBuffer.allocateDirect(length);
+      if (i < heap.length) {
+        ByteBuffer old = heap[i].duplicate();
+        old.clear();
+        bb.put(old);
+      }
+      grown[i] = bb;
+    }
+    heap = grown;
+  }
+
+
+  /**
+   * Copy the entries that are still used to a new heap, leaving out the
+   * values that have been replaced by setString().
+   */
+  protected void compactHeap(long needed) {
+    ByteBuffer[] old = heap;
+    heap = allocateHeap(needed + needed / 2);
+    heapUsed = 0;
+    for (int row = 0; row < count; row++) {
+      int len = lengths.getInt(row);
+      if (len > 0) {
+        byte[] data = new byte[len];
+        copyHeap(old, offsets.getLong(row), data, false);
+        copyHeap(heapUsed, data, true);
+        offsets.setLong(row, heapUsed);
+        heapUsed += len;
+      }
+    }
+  }
+}
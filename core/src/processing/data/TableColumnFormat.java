@@ -0,0 +1,555 @@
+package processing.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+
+/**
+ * Column-based binary format for Table, the successor to the row-based
+ * 0x9007AB1E format. Each column is stored as a single block, aligned to
+ * 8 bytes, so it can be read from a memory-mapped file with bulk copies
+ * rather than being deserialized one entry at a time.
+ * <pre>
+ * header      int magic (0x9007AB1F), int version, int rowCount,
+ *             int columnCount, titles, column types, missing values
+ * columns     one block per column, each aligned to 8 bytes:
+ *             INT, FLOAT       rowCount 4-byte values
+ *             LONG, DOUBLE     rowCount 8-byte values
+ *             CATEGORY         rowCount int indices, then (aligned) the
+ *                              category names, as written by HashMapBlows
+ *             STRING           rowCount long offsets into the string heap,
+ *                              rowCount int byte lengths (-1 for null),
+ *                              then (aligned) the UTF-8 string heap
+ * directory   long offset, long length for each column block
+ * footer      long offset of the directory
+ * </pre>
+ * Values are big-endian, the same as DataOutputStream. Strings are stored
+ * as standard UTF-8, so unpaired surrogate chars are written as '?'.
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class TableColumnFormat {
+  static final int MAGIC = 0x9007AB1F;
+  static final int VERSION = 1;
+
+  // mapped data is read in pieces of this size (a multiple of 8)
+  static final int WINDOW = 1 << 30;
+
+  static Charset utf8 = Charset.forName("UTF-8");
+
+  // writing
+  OutputStream output;
+  ByteBuffer buffer;
+  long position;
+
+  // reading, either from a mapped file or an array already in memory
+  FileChannel channel;
+  byte[] bytes;
+  long length;
+  boolean offheap;
+
+
+  TableColumnFormat(OutputStream output) {
+    this.output = output;
+    buffer = ByteBuffer.allocate(1 << 16);
+  }
+
+
+  TableColumnFormat(FileChannel channel) throws IOException {
+    this.channel = channel;
+    length = channel.size();
+  }
+
+
+  TableColumnFormat(byte[] bytes) {
+    this.bytes = bytes;
+    length = bytes.length;
+  }
+
+
+  static void write(Table table, OutputStream output) throws IOException {
+    new TableColumnFormat(output).writeTable(table);
+  }
+
+
+  static void read(Table table, File file) throws IOException {
+    read(table, file, false);
+  }
+
+
+  /**
+   * Read a table from a file. With offheap set, the columns use storage
+   * that reads directly from the mapped file instead of being copied into
+   * arrays. The mappings stay valid after the file has been closed.
+   */
+  static void read(Table table, File file, boolean offheap) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      TableColumnFormat format = new TableColumnFormat(raf.getChannel());
+      format.offheap = offheap;
+      format.readTable(table);
+    } finally {
+      raf.close();
+    }
+  }
+
+
+  static void read(Table table, byte[] bytes) throws IOException {
+    new TableColumnFormat(bytes).readTable(table);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  protected void writeTable(Table table) throws IOException {
+    int rowCount = table.getRowCount();
+    int columnCount = table.getColumnCount();
+
+    ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(headerBytes);
+    header.writeInt(MAGIC);
+    header.writeInt(VERSION);
+    header.writeInt(rowCount);
+    header.writeInt(columnCount);
+    if (table.columnTitles != null) {
+      header.writeBoolean(true);
+      for (String title : table.columnTitles) {
+        // individual titles may be null, unlike the older format
+        header.writeBoolean(title != null);
+        if (title != null) {
+          header.writeUTF(title);
+        }
+      }
+    } else {
+      header.writeBoolean(false);
+    }
+    for (int col = 0; col < columnCount; col++) {
+      header.writeInt(table.columnTypes[col]);
+    }
+    if (table.missingString == null) {
+      header.writeBoolean(false);
+    } else {
+      header.writeBoolean(true);
+      header.writeUTF(table.missingString);
+    }
+    header.writeInt(table.missingInt);
+    header.writeLong(table.missingLong);
+    header.writeFloat(table.missingFloat);
+    header.writeDouble(table.missingDouble);
+    header.writeInt(table.missingCategory);
+    header.flush();
+    putBytes(headerBytes.toByteArray());
+    align();
+
+    long[] offsets = new long[columnCount];
+    long[] lengths = new long[columnCount];
+    for (int col = 0; col < columnCount; col++) {
+      offsets[col] = position;
+      TableStorage storage = table.storage(col);
+      Object data = (storage != null) ? storage.toArray() : table.columns[col];
+      switch (table.columnTypes[col]) {
+      case Table.INT: putInts((int[]) data, rowCount); break;
+      case Table.LONG: putLongs((long[]) data, rowCount); break;
+      case Table.FLOAT: putFloats((float[]) data, rowCount); break;
+      case Table.DOUBLE: putDoubles((double[]) data, rowCount); break;
+      case Table.STRING: putStrings((String[]) data, rowCount); break;
+      case Table.CATEGORY:
+        putInts((int[]) data, rowCount);
+        align();
+        ByteArrayOutputStream categories = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(categories);
+        table.columnCategories[col].write(dos);
+        dos.flush();
+        putBytes(categories.toByteArray());
+        break;
+      }
+      lengths[col] = position - offsets[col];
+      align();
+    }
+
+    long directory = position;
+    for (int col = 0; col < columnCount; col++) {
+      putLong(offsets[col]);
+      putLong(lengths[col]);
+    }
+    putLong(directory);
+    flushBuffer();
+    output.flush();
+    output.close();
+  }
+
+
+  protected void flushBuffer() throws IOException {
+    output.write(buffer.array(), 0, buffer.position());
+    buffer.clear();
+  }
+
+
+  protected void ensure(int count) throws IOException {
+    if (buffer.remaining() < count) {
+      flushBuffer();
+    }
+  }
+
+
+  protected void align() throws IOException {
+    while ((position & 7) != 0) {
+      ensure(1);
+      buffer.put((byte) 0);
+      position++;
+    }
+  }
+
+
+  protected void putLong(long value) throws IOException {
+    ensure(8);
+    buffer.putLong(value);
+    position += 8;
+  }
+
+
+  protected void putBytes(byte[] data) throws IOException {
+    int offset = 0;
+    while (offset < data.length) {
+      ensure(1);
+      int count = Math.min(data.length - offset, buffer.remaining());
+      buffer.put(data, offset, count);
+      offset += count;
+    }
+    position += data.length;
+  }
+
+
+  protected void putInts(int[] data, int count) throws IOException {
+    int offset = 0;
+    while (offset < count) {
+      ensure(4);
+      int n = Math.min(count - offset, buffer.remaining() / 4);
+      buffer.asIntBuffer().put(data, offset, n);
+      buffer.position(buffer.position() + n*4);
+      offset += n;
+    }
+    position += 4L * count;
+  }
+
+
+  protected void putLongs(long[] data, int count) throws IOException {
+    int offset = 0;
+    while (offset < count) {
+      ensure(8);
+      int n = Math.min(count - offset, buffer.remaining() / 8);
+      buffer.asLongBuffer().put(data, offset, n);
+      buffer.position(buffer.position() + n*8);
+      offset += n;
+    }
+    position += 8L * count;
+  }
+
+
+  protected void putFloats(float[] data, int count) throws IOException {
+    int offset = 0;
+    while (offset < count) {
+      ensure(4);
+      int n = Math.min(count - offset, buffer.remaining() / 4);
+      buffer.asFloatBuffer().put(data, offset, n);
+      buffer.position(buffer.position() + n*4);
+      offset += n;
+    }
+    position += 4L * count;
+  }
+
+
+  protected void putDoubles(double[] data, int count) throws IOException {
+    int offset = 0;
+    while (offset < count) {
+      ensure(8);
+      int n = Math.min(count - offset, buffer.remaining() / 8);
+      buffer.asDoubleBuffer().put(data, offset, n);
+      buffer.position(buffer.position() + n*8);
+      offset += n;
+    }
+    position += 8L * count;
+  }
+
+
+  protected void putStrings(String[] data, int count) throws IOException {
+    long start = 0;
+    for (int row = 0; row < count; row++) {
+      putLong(start);
+      if (data[row] != null) {
+        start += utf8Length(data[row]);
+      }
+    }
+    for (int row = 0; row < count; row++) {
+      ensure(4);
+      buffer.putInt(data[row] == null ? -1 : utf8Length(data[row]));
+      position += 4;
+    }
+    align();
+    for (int row = 0; row < count; row++) {
+      if (data[row] != null) {
+        putBytes(data[row].getBytes(utf8));
+      }
+    }
+  }
+
+
+  /**
+   * Number of bytes used by String.getBytes() for UTF-8, without encoding.
+   * Unpaired surrogates are replaced with a single '?' by the encoder.
+   */
+  static int utf8Length(String str) {
+    int count = 0;
+    int len = str.length();
+    for (int i = 0; i < len; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80) {
+        count++;
+      } else if (c < 0x800) {
+        count += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < len &&
+                 Character.isLowSurrogate(str.charAt(i + 1))) {
+        count += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        count++;
+      } else {
+        count += 3;
+      }
+    }
+    return count;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Map (or wrap) a region of the data, up to WINDOW bytes long. */
+  protected ByteBuffer map(long offset, long count) throws IOException {
+    int len = (int) Math.min(count, WINDOW);
+    if (channel != null) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, offset, len);
+    }
+    return ByteBuffer.wrap(bytes, (int) offset, len).slice();
+  }
+
+
+  protected byte[] getBytes(long offset, int count) throws IOException {
+    byte[] outgoing = new byte[count];
+    map(offset, count).get(outgoing);
+    return outgoing;
+  }
+
+
+  static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+
+
+  protected void readTable(Table table) throws IOException {
+    if (length < 16) {
+      throw new IOException("Binary table file is too short");
+    }
+    long directory = map(length - 8, 8).getLong(0);
+    int columnCount = (int) ((length - 8 - directory) / 16);
+    long[] offsets = new long[columnCount];
+    long[] lengths = new long[columnCount];
+    ByteBuffer dir = map(directory, 16L * columnCount);
+    for (int col = 0; col < columnCount; col++) {
+      offsets[col] = dir.getLong(col * 16);
+      lengths[col] = dir.getLong(col * 16 + 8);
+    }
+
+    long headerLength = (columnCount == 0) ? directory : offsets[0];
+    DataInputStream header =
+      new DataInputStream(new ByteArrayInputStream(getBytes(0, (int) headerLength)));
+    int magic = header.readInt();
+    if (magic != MAGIC) {
+      throw new IOException("Not a compatible binary table (magic was " + Integer.toHexString(magic) + ")");
+    }
+    int version = header.readInt();
+    if (version > VERSION) {
+      throw new IOException("This binary table uses a newer version (" + version + ") of the format");
+    }
+    int rowCount = header.readInt();
+    if (header.readInt() != columnCount) {
+      throw new IOException("Binary table column directory is damaged");
+    }
+    table.setColumnCount(columnCount);
+    if (header.readBoolean()) {
+      for (int col = 0; col < columnCount; col++) {
+        table.setColumnTitle(col, header.readBoolean() ? header.readUTF() : null);
+      }
+    }
+    int[] types = new int[columnCount];
+    for (int col = 0; col < columnCount; col++) {
+      types[col] = header.readInt();
+    }
+    table.missingString = header.readBoolean() ? header.readUTF() : null;
+    table.missingInt = header.readInt();
+    table.missingLong = header.readLong();
+    table.missingFloat = header.readFloat();
+    table.missingDouble = header.readDouble();
+    table.missingCategory = header.readInt();
+
+    for (int col = 0; col < columnCount; col++) {
+      table.columnTypes[col] = types[col];
+      if (offheap && channel != null) {
+        TableStorage storage = mapColumn(table, col, types[col], rowCount,
+                                         offsets[col], lengths[col]);
+        if (table.columnStorage == null) {
+          table.columnStorage = new TableStorage[columnCount];
+        }
+        table.columnStorage[col] = storage;
+        table.columns[col] = null;
+      } else {
+        table.columns[col] = readColumn(table, col, types[col], rowCount,
+                                        offsets[col], lengths[col]);
+      }
+    }
+    table.rowCount = rowCount;
+  }
+
+
+  protected Object readColumn(Table table, int col, int type, int rowCount,
+                              long offset, long count) throws IOException {
+    switch (type) {
+    case Table.INT:
+      return getInts(offset, rowCount);
+    case Table.LONG:
+      return getLongs(offset, rowCount);
+    case Table.FLOAT:
+      return getFloats(offset, rowCount);
+    case Table.DOUBLE:
+      return getDoubles(offset, rowCount);
+    case Table.CATEGORY:
+      long names = align(offset + 4L * rowCount);
+      byte[] categories = getBytes(names, (int) (offset + count - names));
+      table.columnCategories[col] =
+        new Table.HashMapBlows(new DataInputStream(new ByteArrayInputStream(categories)));
+      return getInts(offset, rowCount);
+    case Table.STRING:
+      return getStrings(offset, rowCount);
+    default:
+      throw new IOException(type + " is not a valid column type.");
+    }
+  }
+
+
+  /** Same as readColumn(), but without copying the data out of the file. */
+  protected TableStorage mapColumn(Table table, int col, int type, int rowCount,
+                                   long offset, long count) throws IOException {
+    switch (type) {
+    case Table.INT:
+    case Table.LONG:
+    case Table.FLOAT:
+    case Table.DOUBLE:
+      return TableBufferStorage.map(channel, offset, type, rowCount);
+    case Table.CATEGORY:
+      long names = align(offset + 4L * rowCount);
+      byte[] categories = getBytes(names, (int) (offset + count - names));
+      table.columnCategories[col] =
+        new Table.HashMapBlows(new DataInputStream(new ByteArrayInputStream(categories)));
+      return TableBufferStorage.map(channel, offset, type, rowCount);
+    case Table.STRING:
+      long heap = align(offset + 12L * rowCount);
+      return TableBufferStorage.mapStrings(channel, rowCount, offset,
+                                           offset + 8L * rowCount,
+                                           heap, offset + count - heap);
+    default:
+      throw new IOException(type + " is not a valid column type.");
+    }
+  }
+
+
+  protected int[] getInts(long offset, int count) throws IOException {
+    int[] outgoing = new int[count];
+    int index = 0;
+    while (index < count) {
+      ByteBuffer bb = map(offset + 4L * index, 4L * (count - index));
+      int n = bb.limit() / 4;
+      bb.asIntBuffer().get(outgoing, index, n);
+      index += n;
+    }
+    return outgoing;
+  }
+
+
+  protected long[] getLongs(long offset, int count) throws IOException {
+    long[] outgoing = new long[count];
+    int index = 0;
+    while (index < count) {
+      ByteBuffer bb = map(offset + 8L * index, 8L * (count - index));
+      int n = bb.limit() / 8;
+      bb.asLongBuffer().get(outgoing, index, n);
+      index += n;
+    }
+    return outgoing;
+  }
+
+
+  protected float[] getFloats(long offset, int count) throws IOException {
+    float[] outgoing = new float[count];
+    int index = 0;
+    while (index < count) {
+      ByteBuffer bb = map(offset + 4L * index, 4L * (count - index));
+      int n = bb.limit() / 4;
+      bb.asFloatBuffer().get(outgoing, index, n);
+      index += n;
+    }
+    return outgoing;
+  }
+
+
+  protected double[] getDoubles(long offset, int count) throws IOException {
+    double[] outgoing = new double[count];
+    int index = 0;
+    while (index < count) {
+      ByteBuffer bb = map(offset + 8L * index, 8L * (count - index));
+      int n = bb.limit() / 8;
+      bb.asDoubleBuffer().get(outgoing, index, n);
+      index += n;
+    }
+    return outgoing;
+  }
+
+
+  protected String[] getStrings(long offset, int count) throws IOException {
+    long[] starts = getLongs(offset, count);
+    int[] lengths = getInts(offset + 8L * count, count);
+    long heap = align(offset + 12L * count);
+
+    String[] outgoing = new String[count];
+    ByteBuffer window = null;
+    long windowStart = 0;
+    byte[] temp = new byte[256];
+    for (int row = 0; row < count; row++) {
+      int len = lengths[row];
+      if (len >= 0) {
+        long start = heap + starts[row];
+        if (window == null || start < windowStart ||
+            start + len > windowStart + window.limit()) {
+          windowStart = start;
+          window = map(start, Math.max(len, length - start));
+        }
+        if (temp.length < len) {
+          temp = new byte[Math.max(len, temp.length << 1)];
+        }
+        window.position((int) (start - windowStart));
+        window.get(temp, 0, len);
+        outgoing[row] = new String(temp, 0, len, utf8);
+      }
+    }
+    return outgoing;
+  }
+}
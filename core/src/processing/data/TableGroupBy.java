@@ -0,0 +1,722 @@
+package processing.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import processing.core.PApplet;
+
+
+/**
+ * Groups the rows of a Table by the values in one or more columns, and
+ * calculates the count, sum, mean, minimum, or maximum for each group.
+ * Created by Table.groupBy(). Each method returns a new Table, with one
+ * row for each group (in the order the groups first appear), the key
+ * columns, and a column for each result:
+ * <pre>
+ * Table sales = loadTable("sales.csv", "header");
+ * Table totals = sales.groupBy("region", "product").sum("amount");
+ * Table summary = sales.groupBy("region").agg("count", "mean(amount)", "max(amount)");
+ * </pre>
+ * The work is done directly on the column data (category columns use
+ * their indices), without creating Strings or TableRow objects, and large
+ * tables are split into ranges of rows that are handled on several threads.
+ * <p/>
+ * Sums of INT and LONG columns are LONG, sums of FLOAT and DOUBLE columns
+ * (and all means) are DOUBLE, and min and max keep the type of the column.
+ * NaN entries are skipped. If a group has no other entries, its sum is
+ * zero, and its mean, min, and max are NaN.
+ * <p/>
+ * The groups are found the first time a result is requested, so call
+ * groupBy() again after the table has been changed.
+ *
+ * @see Table#groupBy(String...)
+ */
+public class TableGroupBy {
+  static final int COUNT = 0;
+  static final int SUM = 1;
+  static final int MEAN = 2;
+  static final int MIN = 3;
+  static final int MAX = 4;
+  static final String[] OPERATIONS = { "count", "sum", "mean", "min", "max" };
+
+  // rows handled by each task; fixed (rather than based on the number of
+  // threads) so that floating point sums are the same on every machine
+  static final int RANGE = 1 << 16;
+
+  Table table;
+  int[] keyColumns;
+
+  // calculated on first use
+  int[] groups;  // group for each row
+  int groupCount;
+  int[] firstRows;
+  int[] counts;
+
+  // number of ids assigned by the last call to dense()
+  int lastCount;
+
+
+  TableGroupBy(Table table, int[] keyColumns) {
+    for (int col : keyColumns) {
+      table.checkColumn(col);
+    }
+    this.table = table;
+    this.keyColumns = keyColumns;
+  }
+
+
+  /** Number of distinct groups. */
+  public int getGroupCount() {
+    group();
+    return groupCount;
+  }
+
+
+  /**
+   * Number of rows in each group. The result column is named "count".
+   */
+  public Table count() {
+    return aggregate(new int[] { COUNT }, new int[] { -1 });
+  }
+
+
+  /**
+   * Total of a numeric column for each group. The result column is named
+   * "sum(title)", using the title of the column.
+   */
+  public Table sum(int column) {
+    return aggregate(new int[] { SUM }, new int[] { column });
+  }
+
+
+  public Table sum(String columnName) {
+    return sum(table.getColumnIndex(columnName));
+  }
+
+
+  public Table mean(int column) {
+    return aggregate(new int[] { MEAN }, new int[] { column });
+  }
+
+
+  public Table mean(String columnName) {
+    return mean(table.getColumnIndex(columnName));
+  }
+
+
+  public Table min(int column) {
+    return aggregate(new int[] { MIN }, new int[] { column });
+  }
+
+
+  public Table min(String columnName) {
+    return min(table.getColumnIndex(columnName));
+  }
+
+
+  public Table max(int column) {
+    return aggregate(new int[] { MAX }, new int[] { column });
+  }
+
+
+  public Table max(String columnName) {
+    return max(table.getColumnIndex(columnName));
+  }
+
+
+  /**
+   * Calculate several results at once. Each is either "count", or one of
+   * "sum", "mean", "min", or "max" followed by a column title in
+   * parentheses, for instance "mean(price)".
+   */
+  public Table agg(String... aggregates) {
+    int[] operations = new int[aggregates.length];
+    int[] columns = new int[aggregates.length];
+    for (int i = 0; i < aggregates.length; i++) {
+      String spec = aggregates[i].trim();
+      int paren = spec.indexOf('(');
+      String name = (paren == -1) ? spec : spec.substring(0, paren).trim();
+      operations[i] = -1;
+      for (int op = 0; op < OPERATIONS.length; op++) {
+        if (OPERATIONS[op].equalsIgnoreCase(name)) {
+          operations[i] = op;
+        }
+      }
+      if (operations[i] == COUNT && paren == -1) {
+        columns[i] = -1;
+      } else if (operations[i] != -1 && operations[i] != COUNT &&
+                 paren != -1 && spec.endsWith(")")) {
+        String title = spec.substring(paren + 1, spec.length() - 1).trim();
+        columns[i] = table.getColumnIndex(title);
+      } else {
+        throw new IllegalArgumentException("'" + aggregates[i] + "' is not a valid aggregate, " +
+                                           "use count, or sum(), mean(), min(), or max() with a column title");
+      }
+    }
+    return aggregate(operations, columns);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  protected Table aggregate(int[] operations, int[] columns) {
+    for (int i = 0; i < operations.length; i++) {
+      if (operations[i] != COUNT) {
+        int type = table.getColumnType(columns[i]);
+        if (type != Table.INT && type != Table.LONG &&
+            type != Table.FLOAT && type != Table.DOUBLE) {
+          throw new IllegalArgumentException(OPERATIONS[operations[i]] +
+                                             "() can only be used with int, long, float, or double columns");
+        }
+      }
+    }
+    group();
+
+    Table outgoing = new Table();
+    outgoing.missingString = table.missingString;
+    outgoing.missingInt = table.missingInt;
+    outgoing.missingLong = table.missingLong;
+    outgoing.missingFloat = table.missingFloat;
+    outgoing.missingDouble = table.missingDouble;
+    outgoing.missingCategory = table.missingCategory;
+
+    for (int col : keyColumns) {
+      int type = table.getColumnType(col);
+      outgoing.addColumn(table.getColumnTitle(col), type);
+      int index = outgoing.getColumnCount() - 1;
+      if (type == Table.CATEGORY) {
+        Table.HashMapBlows categories = new Table.HashMapBlows();
+        categories.dataToIndex.putAll(table.columnCategories[col].dataToIndex);
+        categories.indexToData.addAll(table.columnCategories[col].indexToData);
+        outgoing.columnCategories[index] = categories;
+      }
+    }
+    for (int i = 0; i < operations.length; i++) {
+      int op = operations[i];
+      if (op == COUNT) {
+        outgoing.addColumn("count", Table.INT);
+      } else {
+        String title = table.getColumnTitle(columns[i]);
+        if (title == null) {
+          title = String.valueOf(columns[i]);
+        }
+        outgoing.addColumn(OPERATIONS[op] + "(" + title + ")",
+                           resultType(op, table.getColumnType(columns[i])));
+      }
+    }
+    outgoing.setRowCount(groupCount);
+
+    // the key values come from the first row of each group
+    for (int k = 0; k < keyColumns.length; k++) {
+      int col = keyColumns[k];
+      for (int group = 0; group < groupCount; group++) {
+        int row = firstRows[group];
+        switch (table.getColumnType(col)) {
+        case Table.INT:
+        case Table.CATEGORY:
+          outgoing.setInt(group, k, table.getInt(row, col));
+          break;
+        case Table.LONG:
+          outgoing.setLong(group, k, table.getLong(row, col));
+          break;
+        case Table.FLOAT:
+          outgoing.setFloat(group, k, table.getFloat(row, col));
+          break;
+        case Table.DOUBLE:
+          outgoing.setDouble(group, k, table.getDouble(row, col));
+          break;
+        case Table.STRING:
+          outgoing.setString(group, k, table.getString(row, col));
+          break;
+        }
+      }
+    }
+
+    for (int i = 0; i < operations.length; i++) {
+      int index = keyColumns.length + i;
+      if (operations[i] == COUNT) {
+        outgoing.columns[index] = counts.clone();
+      } else {
+        outgoing.columns[index] = calculate(operations[i], columns[i]);
+      }
+    }
+    return outgoing;
+  }
+
+
+  static int resultType(int op, int type) {
+    boolean integral = (type == Table.INT || type == Table.LONG);
+    switch (op) {
+    case SUM: return integral ? Table.LONG : Table.DOUBLE;
+    case MEAN: return Table.DOUBLE;
+    default: return type;  // MIN, MAX
+    }
+  }
+
+
+  /** Calculate one result, returning the array for the result column. */
+  protected Object calculate(final int op, int column) {
+    final Values values = new Values(table, column);
+    final boolean integral = values.integral();
+
+    // Split into ranges, but with fewer of them when there are many groups,
+    // so that the partial results don't use more memory than the table.
+    final int rowCount = table.getRowCount();
+    int count = Math.max(1, rowCount / RANGE);
+    count = Math.max(1, Math.min(count, rowCount / Math.max(1, groupCount)));
+    final int[] bounds = split(rowCount, count);
+
+    List<Callable<Partial>> tasks = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final int start = bounds[i];
+      final int stop = bounds[i + 1];
+      tasks.add(new Callable<Partial>() {
+        public Partial call() {
+          Partial partial = new Partial(op, integral, groupCount);
+          partial.add(values, groups, start, stop);
+          return partial;
+        }
+      });
+    }
+    List<Partial> partials = invoke(tasks);
+    Partial result = partials.get(0);
+    for (int i = 1; i < partials.size(); i++) {
+      result.merge(partials.get(i));
+    }
+    return result.finish(resultType(op, values.type), counts);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Assign a group to each row, if not done already. */
+  protected void group() {
+    if (groups != null) {
+      return;
+    }
+    int rowCount = table.getRowCount();
+    int[] ids = null;
+    int idCount = 1;
+    for (int col : keyColumns) {
+      Values values = new Values(table, col);
+      int[] codes = dense(values, null, null, rowCount);
+      if (ids == null) {
+        ids = codes;
+      } else {
+        // combine with the previous columns, and renumber
+        ids = dense(null, ids, codes, rowCount);
+      }
+      idCount = lastCount;
+    }
+    if (ids == null) {  // no key columns, everything is one group
+      ids = new int[rowCount];
+      idCount = (rowCount == 0) ? 0 : 1;
+    }
+
+    groups = ids;
+    groupCount = idCount;
+    firstRows = new int[groupCount];
+    counts = new int[groupCount];
+    int found = 0;
+    for (int row = 0; row < rowCount; row++) {
+      int group = ids[row];
+      // groups are numbered in the order they first appear
+      if (group == found) {
+        firstRows[found++] = row;
+      }
+      counts[group]++;
+    }
+  }
+
+
+  /**
+   * Assign a number to each distinct key, in the order they first appear.
+   * The keys are either the values in a column, or the pairs of numbers
+   * from two earlier calls. Ranges of rows are numbered separately on
+   * several threads, then the results are merged in order.
+   */
+  protected int[] dense(final Values values, final int[] a, final int[] b,
+                        int rowCount) {
+    final boolean strings = (values != null && values.type == Table.STRING);
+    final int[] outgoing = new int[rowCount];
+    int count = Math.max(1, rowCount / RANGE);
+    final int[] bounds = split(rowCount, count);
+
+    List<Callable<KeyIds>> tasks = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final int start = bounds[i];
+      final int stop = bounds[i + 1];
+      tasks.add(new Callable<KeyIds>() {
+        public KeyIds call() {
+          KeyIds ids = new KeyIds(strings);
+          for (int row = start; row < stop; row++) {
+            if (values == null) {
+              outgoing[row] = ids.id(((long) a[row] << 32) | b[row], null);
+            } else if (strings) {
+              outgoing[row] = ids.id(0, values.getString(row));
+            } else {
+              outgoing[row] = ids.id(values.getKey(row), null);
+            }
+          }
+          return ids;
+        }
+      });
+    }
+    List<KeyIds> locals = invoke(tasks);
+
+    if (locals.size() == 1) {
+      lastCount = locals.get(0).count;
+      return outgoing;
+    }
+    KeyIds global = new KeyIds(strings);
+    final int[][] remaps = new int[locals.size()][];
+    for (int i = 0; i < locals.size(); i++) {
+      KeyIds local = locals.get(i);
+      remaps[i] = new int[local.count];
+      for (int id = 0; id < local.count; id++) {
+        remaps[i][id] = strings ?
+          global.id(0, local.orderNames[id]) : global.id(local.orderKeys[id], null);
+      }
+    }
+    List<Callable<Object>> renumber = new ArrayList<>();
+    for (int i = 0; i < locals.size(); i++) {
+      final int start = bounds[i];
+      final int stop = bounds[i + 1];
+      final int[] remap = remaps[i];
+      renumber.add(new Callable<Object>() {
+        public Object call() {
+          for (int row = start; row < stop; row++) {
+            outgoing[row] = remap[outgoing[row]];
+          }
+          return null;
+        }
+      });
+    }
+    invoke(renumber);
+    lastCount = global.count;
+    return outgoing;
+  }
+
+
+  static int[] split(int rowCount, int count) {
+    int[] bounds = new int[count + 1];
+    for (int i = 0; i <= count; i++) {
+      bounds[i] = (int) ((long) rowCount * i / count);
+    }
+    return bounds;
+  }
+
+
+  static <T> List<T> invoke(List<Callable<T>> tasks) {
+    List<T> outgoing = new ArrayList<>(tasks.size());
+    try {
+      if (tasks.size() == 1) {
+        outgoing.add(tasks.get(0).call());
+      } else {
+        for (Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+          outgoing.add(future.get());
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while processing table rows", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    return outgoing;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /**
+   * Reads a column directly from its array, or from its storage if it's
+   * been moved off the heap.
+   */
+  static class Values {
+    int type;
+    int[] ints;
+    long[] longs;
+    float[] floats;
+    double[] doubles;
+    String[] strings;
+    TableStorage storage;
+
+    Values(Table table, int column) {
+      type = table.getColumnType(column);
+      storage = table.storage(column);
+      if (storage == null) {
+        Object data = table.columns[column];
+        switch (type) {
+        case Table.INT:
+        case Table.CATEGORY: ints = (int[]) data; break;
+        case Table.LONG: longs = (long[]) data; break;
+        case Table.FLOAT: floats = (float[]) data; break;
+        case Table.DOUBLE: doubles = (double[]) data; break;
+        case Table.STRING: strings = (String[]) data; break;
+        }
+      }
+    }
+
+    boolean integral() {
+      return type == Table.INT || type == Table.LONG || type == Table.CATEGORY;
+    }
+
+    /** The value as a long, or the bits of a float or double. */
+    long getKey(int row) {
+      switch (type) {
+      case Table.FLOAT: return Float.floatToIntBits(getFloat(row));
+      case Table.DOUBLE: return Double.doubleToLongBits(getDouble(row));
+      default: return getLong(row);
+      }
+    }
+
+    long getLong(int row) {
+      if (ints != null) return ints[row];
+      if (longs != null) return longs[row];
+      return (type == Table.LONG) ? storage.getLong(row) : storage.getInt(row);
+    }
+
+    float getFloat(int row) {
+      return (floats != null) ? floats[row] : storage.getFloat(row);
+    }
+
+    double getDouble(int row) {
+      if (doubles != null) return doubles[row];
+      if (floats != null) return floats[row];
+      return (type == Table.DOUBLE) ? storage.getDouble(row) : storage.getFloat(row);
+    }
+
+    String getString(int row) {
+      return (strings != null) ? strings[row] : storage.getString(row);
+    }
+  }
+
+
+  /** Result for one range of rows, for each group. */
+  static class Partial {
+    int op;
+    // int and long columns are added up as longs, float and double as doubles
+    long[] longs;
+    double[] doubles;
+    int[] counts;  // entries that aren't NaN, for float and double columns
+
+    Partial(int op, boolean integral, int groupCount) {
+      this.op = op;
+      if (integral) {
+        longs = new long[groupCount];
+        if (op == MIN) {
+          Arrays.fill(longs, Long.MAX_VALUE);
+        } else if (op == MAX) {
+          Arrays.fill(longs, Long.MIN_VALUE);
+        }
+      } else {
+        doubles = new double[groupCount];
+        counts = new int[groupCount];
+        if (op == MIN) {
+          Arrays.fill(doubles, Double.POSITIVE_INFINITY);
+        } else if (op == MAX) {
+          Arrays.fill(doubles, Double.NEGATIVE_INFINITY);
+        }
+      }
+    }
+
+    void add(Values values, int[] groups, int start, int stop) {
+      if (longs != null) {
+        for (int row = start; row < stop; row++) {
+          int group = groups[row];
+          long value = values.getLong(row);
+          switch (op) {
+          case SUM:
+          case MEAN: longs[group] += value; break;
+          case MIN: if (value < longs[group]) longs[group] = value; break;
+          case MAX: if (value > longs[group]) longs[group] = value; break;
+          }
+        }
+      } else {
+        for (int row = start; row < stop; row++) {
+          double value = values.getDouble(row);
+          if (value == value) {  // skip NaN
+            int group = groups[row];
+            counts[group]++;
+            switch (op) {
+            case SUM:
+            case MEAN: doubles[group] += value; break;
+            case MIN: if (value < doubles[group]) doubles[group] = value; break;
+            case MAX: if (value > doubles[group]) doubles[group] = value; break;
+            }
+          }
+        }
+      }
+    }
+
+    void merge(Partial other) {
+      if (longs != null) {
+        for (int group = 0; group < longs.length; group++) {
+          switch (op) {
+          case SUM:
+          case MEAN: longs[group] += other.longs[group]; break;
+          case MIN: longs[group] = Math.min(longs[group], other.longs[group]); break;
+          case MAX: longs[group] = Math.max(longs[group], other.longs[group]); break;
+          }
+        }
+      } else {
+        for (int group = 0; group < doubles.length; group++) {
+          counts[group] += other.counts[group];
+          switch (op) {
+          case SUM:
+          case MEAN: doubles[group] += other.doubles[group]; break;
+          case MIN: doubles[group] = Math.min(doubles[group], other.doubles[group]); break;
+          case MAX: doubles[group] = Math.max(doubles[group], other.doubles[group]); break;
+          }
+        }
+      }
+    }
+
+    /** Convert to the array for the result column. */
+    Object finish(int type, int[] groupCounts) {
+      int groupCount = groupCounts.length;
+      switch (type) {
+      case Table.INT: {  // min or max
+        int[] outgoing = new int[groupCount];
+        for (int group = 0; group < groupCount; group++) {
+          outgoing[group] = (int) longs[group];
+        }
+        return outgoing;
+      }
+      case Table.LONG:
+        return longs;
+      case Table.FLOAT: {
+        float[] outgoing = new float[groupCount];
+        for (int group = 0; group < groupCount; group++) {
+          outgoing[group] = (counts[group] == 0) ? Float.NaN : (float) doubles[group];
+        }
+        return outgoing;
+      }
+      default: {  // DOUBLE
+        double[] outgoing = new double[groupCount];
+        for (int group = 0; group < groupCount; group++) {
+          if (longs != null) {  // mean of an int or long column
+            outgoing[group] = (double) longs[group] / groupCounts[group];
+          } else if (counts[group] == 0) {
+            outgoing[group] = (op == SUM) ? 0 : Double.NaN;
+          } else if (op == MEAN) {
+            outgoing[group] = doubles[group] / counts[group];
+          } else {
+            outgoing[group] = doubles[group];
+          }
+        }
+        return outgoing;
+      }
+      }
+    }
+  }
+
+
+  /**
+   * Numbers each distinct key in the order it's first seen, using open
+   * addressing on either long keys or Strings (which may be null).
+   */
+  static class KeyIds {
+    boolean strings;
+    long[] keys;
+    String[] names;
+    int[] ids;
+    boolean[] used;
+    int mask;
+    int count;
+
+    // keys in the order they were numbered
+    long[] orderKeys;
+    String[] orderNames;
+
+    KeyIds(boolean strings) {
+      this.strings = strings;
+      allocate(64);
+      if (strings) {
+        orderNames = new String[16];
+      } else {
+        orderKeys = new long[16];
+      }
+    }
+
+    void allocate(int capacity) {
+      if (strings) {
+        names = new String[capacity];
+      } else {
+        keys = new long[capacity];
+      }
+      ids = new int[capacity];
+      used = new boolean[capacity];
+      mask = capacity - 1;
+    }
+
+    int slot(long key, String name) {
+      long h = strings ? (name == null ? 0 : name.hashCode()) : key;
+      h *= 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    int id(long key, String name) {
+      int slot = slot(key, name);
+      while (used[slot]) {
+        if (strings ? TableIndex.equals(names[slot], name) : keys[slot] == key) {
+          return ids[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      if ((count + 1) * 2 > used.length) {
+        grow();
+        return id(key, name);
+      }
+      used[slot] = true;
+      if (strings) {
+        names[slot] = name;
+        if (count == orderNames.length) {
+          orderNames = PApplet.expand(orderNames, count << 1);
+        }
+        orderNames[count] = name;
+      } else {
+        keys[slot] = key;
+        if (count == orderKeys.length) {
+          orderKeys = PApplet.expand(orderKeys, count << 1);
+        }
+        orderKeys[count] = key;
+      }
+      ids[slot] = count;
+      return count++;
+    }
+
+    void grow() {
+      allocate(used.length << 1);
+      for (int id = 0; id < count; id++) {
+        long key = strings ? 0 : orderKeys[id];
+        String name = strings ? orderNames[id] : null;
+        int slot = slot(key, name);
+        while (used[slot]) {
+          slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        if (strings) {
+          names[slot] = name;
+        } else {
+          keys[slot] = key;
+        }
+        ids[slot] = id;
+      }
+    }
+  }
+}
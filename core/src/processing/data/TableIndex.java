@@ -0,0 +1,421 @@
+package processing.data;
+
+import processing.core.PApplet;
+
+
+/**
+ * Hash index for a single Table column, used by findRowIndex() and
+ * findRowIndices() instead of comparing the String version of each entry.
+ * INT, LONG, FLOAT, DOUBLE, and CATEGORY columns are keyed by their
+ * primitive values (category columns by their index), STRING columns by
+ * the String itself.
+ * <p/>
+ * The rows with each key are kept in a linked list, in row order, so the
+ * first match is available immediately. Changing an entry or adding a row
+ * updates the index in place. Operations that move rows around (removing,
+ * inserting, or sorting rows) just mark it as stale, and it's rebuilt the
+ * next time it's used.
+ * <p/>
+ * Lookups give the same results as comparing against getString(): an int
+ * column only matches "12", not "012" or "12.0", and float and double
+ * columns match null for NaN entries.
+ * <p/>
+ * Advanced users only, not official API.
+ *
+ * @see Table#createIndex(int)
+ */
+class TableIndex {
+  static final int MIN_CAPACITY = 16;
+
+  Table table;
+  int column;
+  int type;
+  boolean stale = true;
+
+  // open addressing table of the distinct keys, with the first and last
+  // row for each; a key stays in the table (with head -1) if its rows are
+  // changed to other values, until the next rehash
+  long[] keys;
+  String[] names;
+  boolean[] used;
+  int[] heads;
+  int[] tails;
+  int slotCount;
+  int mask;
+
+  // for each row, the slot for its key and its neighbors with the same key
+  int[] slots;
+  int[] next;
+  int[] prev;
+  int rowCount;
+
+
+  TableIndex(Table table, int column) {
+    this.table = table;
+    this.column = column;
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** First row whose entry matches the value, or -1 if there are none. */
+  int first(String value) {
+    if (stale) {
+      build();
+    }
+    int outgoing = -1;
+    if (type == Table.CATEGORY) {
+      for (int code : categoryCodes(value)) {
+        int slot = findSlot(code, null, false);
+        if (slot != -1 && heads[slot] != -1 &&
+            (outgoing == -1 || heads[slot] < outgoing)) {
+          outgoing = heads[slot];
+        }
+      }
+    } else {
+      int slot = lookup(value);
+      if (slot != -1) {
+        outgoing = heads[slot];
+      }
+    }
+    return outgoing;
+  }
+
+
+  /** All rows whose entry matches the value, in order. */
+  int[] all(String value) {
+    if (stale) {
+      build();
+    }
+    if (type == Table.CATEGORY) {
+      int[] codes = categoryCodes(value);
+      if (codes.length == 1) {
+        return collect(findSlot(codes[0], null, false));
+      }
+      // missingString is also the name of a category, merge the two lists
+      IntList list = new IntList();
+      for (int code : codes) {
+        list.append(collect(findSlot(code, null, false)));
+      }
+      list.sort();
+      return list.array();
+    }
+    return collect(lookup(value));
+  }
+
+
+  protected int[] collect(int slot) {
+    if (slot == -1) {
+      return new int[0];
+    }
+    int count = 0;
+    for (int row = heads[slot]; row != -1; row = next[row]) {
+      count++;
+    }
+    int[] outgoing = new int[count];
+    int index = 0;
+    for (int row = heads[slot]; row != -1; row = next[row]) {
+      outgoing[index++] = row;
+    }
+    return outgoing;
+  }
+
+
+  /**
+   * Find the slot for the key that would have this value from getString(),
+   * or -1 if no entry could. Not used for CATEGORY columns.
+   */
+  protected int lookup(String value) {
+    switch (type) {
+    case Table.STRING:
+      return findSlot(0, value, false);
+
+    case Table.INT:
+      if (value != null) {
+        try {
+          int i = Integer.parseInt(value);
+          if (String.valueOf(i).equals(value)) {
+            return findSlot(i, null, false);
+          }
+        } catch (NumberFormatException nfe) { }
+      }
+      return -1;
+
+    case Table.LONG:
+      if (value != null) {
+        try {
+          long l = Long.parseLong(value);
+          if (String.valueOf(l).equals(value)) {
+            return findSlot(l, null, false);
+          }
+        } catch (NumberFormatException nfe) { }
+      }
+      return -1;
+
+    case Table.FLOAT:
+      if (value == null) {  // NaN entries are returned as null
+        return findSlot(Float.floatToIntBits(Float.NaN), null, false);
+      }
+      try {
+        float f = Float.parseFloat(value);
+        if (!Float.isNaN(f) && String.valueOf(f).equals(value)) {
+          return findSlot(Float.floatToIntBits(f), null, false);
+        }
+      } catch (NumberFormatException nfe) { }
+      return -1;
+
+    case Table.DOUBLE:
+      if (value == null) {
+        return findSlot(Double.doubleToLongBits(Double.NaN), null, false);
+      }
+      try {
+        double d = Double.parseDouble(value);
+        if (!Double.isNaN(d) && String.valueOf(d).equals(value)) {
+          return findSlot(Double.doubleToLongBits(d), null, false);
+        }
+      } catch (NumberFormatException nfe) { }
+      return -1;
+    }
+    return -1;
+  }
+
+
+  /**
+   * Category indices whose name matches the value. Entries with the
+   * missing category are returned by getString() as missingString.
+   */
+  protected int[] categoryCodes(String value) {
+    Table.HashMapBlows categories = table.columnCategories[column];
+    int missing = table.missingCategory;
+    IntList codes = new IntList();
+    if (value == null ? table.missingString == null :
+        value.equals(table.missingString)) {
+      codes.append(missing);
+    }
+    int count = categories.indexToData.size();
+    if (categories.dataToIndex.size() == count) {
+      // names are unique, so the map can be used directly
+      Integer code = categories.dataToIndex.get(value);
+      if (code != null && code != missing && code < count &&
+          equals(categories.key(code), value)) {
+        codes.append(code);
+      }
+    } else {
+      // a category was renamed or set twice by setRow()
+      for (int code = 0; code < count; code++) {
+        if (code != missing && equals(categories.key(code), value)) {
+          codes.append(code);
+        }
+      }
+    }
+    return codes.array();
+  }
+
+
+  static boolean equals(String a, String b) {
+    return (a == null) ? b == null : a.equals(b);
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  /** Rebuild the index from scratch. */
+  void build() {
+    type = table.getColumnType(column);
+    rowCount = 0;
+    int count = table.getRowCount();
+    allocateSlots(MIN_CAPACITY);
+    allocateRows(Math.max(count, MIN_CAPACITY));
+    // working backwards means each row is added to the front of its list
+    for (int row = count - 1; row >= 0; row--) {
+      link(row, findRow(row));
+    }
+    rowCount = count;
+    stale = false;
+  }
+
+
+  /** Update the index after an entry has changed, or rows were added. */
+  void update(int row) {
+    if (stale) {
+      return;  // will be rebuilt on next use
+    }
+    if (row < rowCount) {
+      unlink(row);
+      link(row, findRow(row));
+    } else {
+      if (row >= slots.length) {
+        growRows(row + 1);
+      }
+      for (int r = rowCount; r <= row; r++) {
+        link(r, findRow(r));
+      }
+      rowCount = row + 1;
+    }
+  }
+
+
+  protected int findRow(int row) {
+    switch (type) {
+    case Table.STRING:
+      return findSlot(0, table.getString(row, column), true);
+    case Table.INT:
+    case Table.CATEGORY:
+      return findSlot(table.getInt(row, column), null, true);
+    case Table.LONG:
+      return findSlot(table.getLong(row, column), null, true);
+    case Table.FLOAT:
+      return findSlot(Float.floatToIntBits(table.getFloat(row, column)), null, true);
+    case Table.DOUBLE:
+      return findSlot(Double.doubleToLongBits(table.getDouble(row, column)), null, true);
+    }
+    throw new IllegalArgumentException("Invalid column type: " + type);
+  }
+
+
+  protected int hash(long key, String name) {
+    long h = (type == Table.STRING) ?
+      (name == null ? 0 : name.hashCode()) : key;
+    h *= 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+
+  /** Find the slot for a key, optionally adding it, or return -1. */
+  protected int findSlot(long key, String name, boolean create) {
+    int slot = hash(key, name);
+    while (used[slot]) {
+      if (type == Table.STRING ?
+          equals(names[slot], name) : keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (!create) {
+      return -1;
+    }
+    if ((slotCount + 1) * 2 > used.length) {
+      rehash();
+      return findSlot(key, name, true);
+    }
+    used[slot] = true;
+    keys[slot] = key;
+    if (names != null) {
+      names[slot] = name;
+    }
+    heads[slot] = -1;
+    tails[slot] = -1;
+    slotCount++;
+    return slot;
+  }
+
+
+  protected void allocateSlots(int capacity) {
+    keys = new long[capacity];
+    names = (type == Table.STRING) ? new String[capacity] : null;
+    used = new boolean[capacity];
+    heads = new int[capacity];
+    tails = new int[capacity];
+    mask = capacity - 1;
+    slotCount = 0;
+  }
+
+
+  protected void allocateRows(int capacity) {
+    slots = new int[capacity];
+    next = new int[capacity];
+    prev = new int[capacity];
+  }
+
+
+  protected void growRows(int minimum) {
+    int capacity = Math.max(minimum, slots.length << 1);
+    slots = PApplet.expand(slots, capacity);
+    next = PApplet.expand(next, capacity);
+    prev = PApplet.expand(prev, capacity);
+  }
+
+
+  /** Move keys that still have rows into a larger table. */
+  protected void rehash() {
+    long[] oldKeys = keys;
+    String[] oldNames = names;
+    boolean[] oldUsed = used;
+    int[] oldHeads = heads;
+    int[] oldTails = tails;
+
+    int live = 0;
+    for (int i = 0; i < oldUsed.length; i++) {
+      if (oldUsed[i] && oldHeads[i] != -1) {
+        live++;
+      }
+    }
+    int capacity = MIN_CAPACITY;
+    while (capacity < live * 4) {
+      capacity <<= 1;
+    }
+    allocateSlots(capacity);
+    for (int i = 0; i < oldUsed.length; i++) {
+      if (oldUsed[i] && oldHeads[i] != -1) {
+        int slot = findSlot(oldKeys[i], oldNames == null ? null : oldNames[i], true);
+        heads[slot] = oldHeads[i];
+        tails[slot] = oldTails[i];
+        for (int row = heads[slot]; row != -1; row = next[row]) {
+          slots[row] = slot;
+        }
+      }
+    }
+  }
+
+
+  /** Add a row to the list for a slot, keeping the rows in order. */
+  protected void link(int row, int slot) {
+    slots[row] = slot;
+    int head = heads[slot];
+    if (head == -1) {
+      prev[row] = -1;
+      next[row] = -1;
+      heads[slot] = row;
+      tails[slot] = row;
+
+    } else if (row > tails[slot]) {  // the usual case, from addRow()
+      prev[row] = tails[slot];
+      next[row] = -1;
+      next[tails[slot]] = row;
+      tails[slot] = row;
+
+    } else if (row < head) {
+      prev[row] = -1;
+      next[row] = head;
+      prev[head] = row;
+      heads[slot] = row;
+
+    } else {
+      int after = head;
+      while (next[after] < row) {
+        after = next[after];
+      }
+      prev[row] = after;
+      next[row] = next[after];
+      prev[next[after]] = row;
+      next[after] = row;
+    }
+  }
+
+
+  protected void unlink(int row) {
+    int slot = slots[row];
+    if (prev[row] == -1) {
+      heads[slot] = next[row];
+    } else {
+      next[prev[row]] = next[row];
+    }
+    if (next[row] == -1) {
+      tails[slot] = prev[row];
+    } else {
+      prev[next[row]] = prev[row];
+    }
+  }
+}
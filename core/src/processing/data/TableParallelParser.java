@@ -0,0 +1,308 @@
+package processing.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Loads CSV or TSV data using several threads. The data is split into
+ * chunks on row boundaries (taking quoted entries into account for CSV),
+ * each chunk is parsed by a TableTokenizer into a segment table of its
+ * own, and the segments are then copied into the Table's columns in order.
+ * <p/>
+ * Files are memory-mapped rather than read, so files larger than 2 GB can
+ * be used, and only the chunks being parsed are paged in. Splitting CSV
+ * relies on the quotes being balanced, so files with stray (unescaped)
+ * quotes inside quoted entries should be loaded without "parallel".
+ * <p/>
+ * Used when the "parallel" option is passed to loadTable().
+ * Advanced users only, not official API.
+ */
+class TableParallelParser {
+  // chunks are at least this size, otherwise the thread overhead dominates
+  static final long MIN_CHUNK = 1 << 20;
+  // keep each chunk small enough to decode into a single char[]
+  static final long MAX_CHUNK = 1 << 28;
+
+  // Placeholder for category 0 in each segment. Rows with fewer entries
+  // leave their category index at 0, which has to stay 0 after stitching.
+  // An entry can't contain \r, since it's converted to \n inside quotes.
+  static final String UNSET_CATEGORY = "\r";
+
+  Table table;
+  boolean tsv;
+  Charset charset;
+
+  // the data is either a mapped file, or an array already in memory
+  FileChannel channel;
+  byte[] bytes;
+  long length;
+
+
+  TableParallelParser(Table table, FileChannel channel, boolean tsv,
+                      Charset charset) throws IOException {
+    this.table = table;
+    this.channel = channel;
+    this.length = channel.size();
+    this.tsv = tsv;
+    this.charset = charset;
+  }
+
+
+  TableParallelParser(Table table, byte[] bytes, boolean tsv, Charset charset) {
+    this.table = table;
+    this.bytes = bytes;
+    this.length = bytes.length;
+    this.tsv = tsv;
+    this.charset = charset;
+  }
+
+
+  /**
+   * Rows can only be split at a newline byte if the encoding never uses
+   * that byte (or the quote and delimiter bytes) inside other characters.
+   */
+  static boolean supports(Charset charset) {
+    String name = charset.name();
+    return name.equals("UTF-8") ||
+      name.equals("US-ASCII") ||
+      name.equals("ISO-8859-1") ||
+      name.equals("windows-1252");
+  }
+
+
+  /** Memory-map and parse a file. */
+  static void parse(Table table, File file, boolean header, boolean tsv,
+                    Charset charset) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      new TableParallelParser(table, raf.getChannel(), tsv, charset).parse(header);
+    } finally {
+      raf.close();
+    }
+  }
+
+
+  void parse(boolean header) throws IOException {
+    long start = 0;
+    // strip out the Unicode BOM, if present
+    if (charset.name().equals("UTF-8") && length >= 3) {
+      ByteBuffer bom = map(0, 3);
+      if ((bom.get(0) & 0xff) == 0xEF &&
+          (bom.get(1) & 0xff) == 0xBB &&
+          (bom.get(2) & 0xff) == 0xBF) {
+        start = 3;
+      }
+    }
+    if (header) {
+      long stop = nextRow(start, false);
+      CharBuffer chars = decode(start, stop);
+      new TableTokenizer(table, chars.array(), chars.arrayOffset(),
+                         chars.arrayOffset() + chars.limit(), tsv).parse(true);
+      start = stop;
+    }
+
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    long remaining = length - start;
+    int count = (int) Math.min(pool.getParallelism() * 4, remaining / MIN_CHUNK);
+    count = (int) Math.max(count, (remaining + MAX_CHUNK - 1) / MAX_CHUNK);
+    count = Math.max(1, count);
+
+    final long[] splits = new long[count + 1];
+    for (int i = 0; i <= count; i++) {
+      splits[i] = start + remaining * i / count;
+    }
+
+    // Whether each split point is inside a quoted entry, based on the
+    // number of quotes in the data before it. Count each chunk in parallel.
+    boolean[] quoted = new boolean[count + 1];
+    if (!tsv && count > 1) {
+      List<Callable<Long>> counters = new ArrayList<>();
+      for (int i = 0; i < count - 1; i++) {
+        final int index = i;
+        counters.add(new Callable<Long>() {
+          public Long call() throws IOException {
+            return countQuotes(splits[index], splits[index + 1]);
+          }
+        });
+      }
+      List<Long> quotes = invoke(pool, counters);
+      for (int i = 1; i < count; i++) {
+        quoted[i] = quoted[i-1] ^ ((quotes.get(i-1) & 1) == 1);
+      }
+    }
+
+    // move each split forward to the start of the next row
+    long[] bounds = new long[count + 1];
+    bounds[0] = start;
+    bounds[count] = length;
+    for (int i = 1; i < count; i++) {
+      bounds[i] = Math.max(bounds[i-1], nextRow(splits[i], quoted[i]));
+    }
+
+    List<Callable<Table>> parsers = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      final long chunkStart = bounds[i];
+      final long chunkStop = bounds[i + 1];
+      if (chunkStart < chunkStop) {
+        parsers.add(new Callable<Table>() {
+          public Table call() throws IOException {
+            return parseSegment(chunkStart, chunkStop);
+          }
+        });
+      }
+    }
+    stitch(invoke(pool, parsers));
+  }
+
+
+  static protected <T> List<T> invoke(ForkJoinPool pool,
+                                      List<Callable<T>> tasks) throws IOException {
+    List<T> outgoing = new ArrayList<>(tasks.size());
+    try {
+      for (Future<T> future : pool.invokeAll(tasks)) {
+        outgoing.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted while loading table", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    return outgoing;
+  }
+
+
+  protected ByteBuffer map(long start, long stop) throws IOException {
+    long len = Math.min(stop - start, Integer.MAX_VALUE);
+    if (channel != null) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+    }
+    return ByteBuffer.wrap(bytes, (int) start, (int) len).slice();
+  }
+
+
+  protected CharBuffer decode(long start, long stop) throws IOException {
+    return charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE)
+      .decode(map(start, stop));
+  }
+
+
+  protected long countQuotes(long start, long stop) throws IOException {
+    long count = 0;
+    while (start < stop) {
+      ByteBuffer buffer = map(start, stop);
+      int len = buffer.limit();
+      for (int i = 0; i < len; i++) {
+        if (buffer.get(i) == '\"') {
+          count++;
+        }
+      }
+      start += len;
+    }
+    return count;
+  }
+
+
+  /**
+   * Find the start of the row after the specified offset, skipping any
+   * newlines that are inside quotes. Returns the data length if not found.
+   */
+  protected long nextRow(long offset, boolean inQuote) throws IOException {
+    while (offset < length) {
+      ByteBuffer buffer = map(offset, length);
+      int len = buffer.limit();
+      for (int i = 0; i < len; i++) {
+        byte b = buffer.get(i);
+        if (b == '\n' && !inQuote) {
+          return offset + i + 1;
+        } else if (b == '\"' && !tsv) {
+          inQuote = !inQuote;
+        }
+      }
+      offset += len;
+    }
+    return length;
+  }
+
+
+  protected Table parseSegment(long start, long stop) throws IOException {
+    Table segment = new Table();
+    segment.setColumnTypes(table.columnTypes);
+    segment.missingString = table.missingString;
+    segment.missingInt = table.missingInt;
+    segment.missingLong = table.missingLong;
+    segment.missingFloat = table.missingFloat;
+    segment.missingDouble = table.missingDouble;
+    segment.missingCategory = table.missingCategory;
+    for (int col = 0; col < segment.getColumnCount(); col++) {
+      if (segment.columnTypes[col] == Table.CATEGORY) {
+        segment.columnCategories[col].setCategory(0, UNSET_CATEGORY);
+      }
+    }
+
+    CharBuffer chars = decode(start, stop);
+    new TableTokenizer(segment, chars.array(), chars.arrayOffset(),
+                       chars.arrayOffset() + chars.limit(), tsv).parse(false);
+    return segment;
+  }
+
+
+  /**
+   * Copy the segments into the table. Categories are added in segment
+   * order, so the indices are the same as when parsing on a single thread.
+   */
+  protected void stitch(List<Table> segments) {
+    int total = 0;
+    int columnCount = table.getColumnCount();
+    for (Table segment : segments) {
+      total += segment.rowCount;
+      columnCount = Math.max(columnCount, segment.getColumnCount());
+    }
+    table.ensureColumn(columnCount - 1);
+    table.resizeRows(total);
+
+    int offset = 0;
+    for (Table segment : segments) {
+      for (int col = 0; col < segment.getColumnCount(); col++) {
+        if (table.columnTypes[col] == Table.CATEGORY) {
+          Table.HashMapBlows categories = segment.columnCategories[col];
+          int[] remap = new int[categories.size()];
+          for (int i = 1; i < remap.length; i++) {
+            remap[i] = table.columnCategories[col].index(categories.key(i));
+          }
+          int[] source = (int[]) segment.columns[col];
+          int[] target = (int[]) table.columns[col];
+          for (int row = 0; row < segment.rowCount; row++) {
+            int index = source[row];
+            target[offset + row] =
+              (index == table.missingCategory) ? index : remap[index];
+          }
+        } else {
+          System.arraycopy(segment.columns[col], 0,
+                           table.columns[col], offset, segment.rowCount);
+        }
+      }
+      offset += segment.rowCount;
+    }
+  }
+}
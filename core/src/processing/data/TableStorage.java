@@ -0,0 +1,124 @@
+package processing.data;
+
+
+/**
+ * Storage for the values in a single column of a Table. By default, each
+ * column is kept in an on-heap array (int[], float[], String[], etc.), but
+ * a column can use a TableStorage instead, for instance to keep very large
+ * tables outside the Java heap, or to read values directly from a
+ * memory-mapped file.
+ * <p/>
+ * Subclasses implement the methods that match the column's type: getInt()
+ * and setInt() for INT and CATEGORY columns, getString() and setString()
+ * for STRING, and so on. Storage that can change size should also return
+ * true from isResizable() and implement resize(), copyRows(), and
+ * reorder(), which are used by addRow(), insertRow(), removeRow(), sort()
+ * and the like. Otherwise those operations first copy the column back into
+ * an array using toArray().
+ * <p/>
+ * Advanced users only, not official API.
+ *
+ * @see Table#setColumnStorage(int, TableStorage)
+ * @see Table#setOffHeap()
+ */
+public abstract class TableStorage {
+
+  public TableStorage() { }
+
+
+  /** Number of rows held by this storage. */
+  abstract public int size();
+
+
+  /**
+   * Copy the values to a new array of the type used by Table for this
+   * column: int[] for INT and CATEGORY, long[] for LONG, float[] for
+   * FLOAT, double[] for DOUBLE, or String[] for STRING.
+   */
+  abstract public Object toArray();
+
+
+  /**
+   * True if this storage implements resize(), copyRows(), and reorder(),
+   * so that rows can be added, removed, or sorted without moving the
+   * column back into an array.
+   */
+  public boolean isResizable() {
+    return false;
+  }
+
+
+  /**
+   * Change the number of rows. Values in rows that are kept stay the same,
+   * and new rows are 0 (or null for STRING), same as PApplet.expand().
+   */
+  public void resize(int count) {
+    throw new UnsupportedOperationException("This storage cannot be resized");
+  }
+
+
+  /**
+   * Copy rows from one place to another, the same as System.arraycopy()
+   * does for the arrays, including when the two ranges overlap.
+   */
+  public void copyRows(int from, int to, int length) {
+    throw new UnsupportedOperationException("This storage cannot be resized");
+  }
+
+
+  /** Rearrange the rows so that row i has the value from row order[i]. */
+  public void reorder(int[] order) {
+    throw new UnsupportedOperationException("This storage cannot be resized");
+  }
+
+
+  public int getInt(int row) {
+    throw new UnsupportedOperationException("This storage does not hold int values");
+  }
+
+
+  public void setInt(int row, int value) {
+    throw new UnsupportedOperationException("This storage does not hold int values");
+  }
+
+
+  public long getLong(int row) {
+    throw new UnsupportedOperationException("This storage does not hold long values");
+  }
+
+
+  public void setLong(int row, long value) {
+    throw new UnsupportedOperationException("This storage does not hold long values");
+  }
+
+
+  public float getFloat(int row) {
+    throw new UnsupportedOperationException("This storage does not hold float values");
+  }
+
+
+  public void setFloat(int row, float value) {
+    throw new UnsupportedOperationException("This storage does not hold float values");
+  }
+
+
+  public double getDouble(int row) {
+    throw new UnsupportedOperationException("This storage does not hold double values");
+  }
+
+
+  public void setDouble(int row, double value) {
+    throw new UnsupportedOperationException("This storage does not hold double values");
+  }
+
+
+  /** Only used for STRING columns. */
+  public String getString(int row) {
+    throw new UnsupportedOperationException("This storage does not hold String values");
+  }
+
+
+  public void setString(int row, String value) {
+    throw new UnsupportedOperationException("This storage does not hold String values");
+  }
+}
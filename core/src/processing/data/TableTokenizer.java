@@ -0,0 +1,543 @@
+package processing.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+import processing.core.PApplet;
+
+
+/**
+ * Tokenizer for CSV and TSV data that works directly on a char buffer,
+ * rather than reading a line at a time and splitting it into a String[].
+ * INT, LONG, FLOAT, and DOUBLE columns are parsed in place from the buffer
+ * and written straight into the column arrays of the Table, so no
+ * intermediate String objects are created for them.
+ * <p/>
+ * Quoting follows the rules used by Table.parseBasic(): quoted entries can
+ * contain commas, newlines, and escaped ("") quotes. Used when the "fast"
+ * option is passed to loadTable().
+ * <p/>
+ * Advanced users only, not official API.
+ */
+class TableTokenizer {
+  static final int BUFFER_SIZE = 1 << 16;
+
+  static final float[] FLOAT_POW10 = {
+    1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+  };
+  static final double[] DOUBLE_POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  Table table;
+  Reader reader;
+  char delim;
+
+  char[] buffer;
+  int pos;    // next char to be read
+  int limit;  // end of the valid data in the buffer
+  boolean eof;
+  boolean skipLF;  // previous entry ended with \r, so ignore a following \n
+
+  // location of the most recent entry (after removing quotes)
+  int entryStart;
+  int entryStop;
+  boolean entryQuoted;
+
+
+  TableTokenizer(Table table, Reader reader, boolean tsv) {
+    this.table = table;
+    this.reader = reader;
+    this.delim = tsv ? '\t' : ',';
+    buffer = new char[BUFFER_SIZE];
+  }
+
+
+  /**
+   * Tokenize a block of data that's already in memory. The array may be
+   * modified while parsing (to remove escaped quotes).
+   */
+  TableTokenizer(Table table, char[] data, int start, int stop, boolean tsv) {
+    this.table = table;
+    this.delim = tsv ? '\t' : ',';
+    buffer = data;
+    pos = start;
+    limit = stop;
+    eof = true;
+  }
+
+
+  /**
+   * Parse all rows into the table, starting at row 0. Returns the number
+   * of rows that were read (not including the header row).
+   */
+  int parse(boolean header) {
+    ArrayList<String> titles = header ? new ArrayList<String>() : null;
+    int row = 0;
+    int col = 0;
+    if (table.rowCount == 0) {
+      table.resizeRows(10);
+    }
+    try {
+      while (true) {
+        int end = nextEntry();
+        if (end == -1 && col == 0 && !entryQuoted && entryStart == entryStop) {
+          break;  // nothing after the final newline
+        }
+        if (header) {
+          titles.add(new String(buffer, entryStart, entryStop - entryStart));
+        } else {
+          if (col == 0 && row == table.rowCount) {
+            table.resizeRows(row << 1);
+          }
+          table.ensureColumn(col);
+          store(row, col);
+        }
+        if (end == delim) {
+          col++;
+        } else {
+          if (header) {
+            table.setColumnTitles(titles.toArray(new String[0]));
+            header = false;
+          } else {
+            row++;
+          }
+          col = 0;
+          if (end == -1) {
+            break;
+          }
+        }
+      }
+    } catch (Exception e) {
+      throw new RuntimeException("Error reading table on line " + row, e);
+    }
+    // shorten or lengthen based on what's left
+    if (row != table.rowCount) {
+      table.resizeRows(row);
+    }
+    return row;
+  }
+
+
+  /**
+   * Move the data starting at 'keep' to the front of the buffer, and read
+   * more after it. The buffer is expanded when a single entry fills it.
+   * Returns the amount that indices into the buffer have shifted by.
+   */
+  protected int fill(int keep) throws IOException {
+    if (eof) {
+      return 0;
+    }
+    if (keep == 0 && limit == buffer.length) {
+      buffer = PApplet.expand(buffer);
+    } else if (keep != 0) {
+      System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+      limit -= keep;
+      pos -= keep;
+    }
+    int count;
+    do {
+      count = reader.read(buffer, limit, buffer.length - limit);
+    } while (count == 0);
+    if (count == -1) {
+      eof = true;
+    } else {
+      limit += count;
+    }
+    return keep;
+  }
+
+
+  /**
+   * Read the next entry, setting entryStart and entryStop. Returns the
+   * character that ended it: the delimiter, '\n' for the end of a row
+   * (for any of \n, \r\n, or \r), or -1 at the end of the data.
+   */
+  protected int nextEntry() throws IOException {
+    if (pos == limit) {
+      fill(pos);
+    }
+    if (skipLF) {
+      skipLF = false;
+      if (pos < limit && buffer[pos] == '\n') {
+        pos++;
+        if (pos == limit) {
+          fill(pos);
+        }
+      }
+    }
+    entryQuoted = delim == ',' && pos < limit && buffer[pos] == '\"';
+    return entryQuoted ? nextQuoted() : nextPlain();
+  }
+
+
+  protected int nextPlain() throws IOException {
+    int start = pos;
+    int i = start;
+    int w = start;  // write position, lags behind i after an escaped quote
+    while (true) {
+      if (i == limit) {
+        int shift = fill(start);
+        start -= shift;
+        i -= shift;
+        w -= shift;
+        if (i == limit) {
+          return endEntry(start, w, i, -1);
+        }
+      }
+      char c = buffer[i];
+      if (c == delim) {
+        return endEntry(start, w, i + 1, delim);
+      } else if (c == '\n') {
+        return endEntry(start, w, i + 1, '\n');
+      } else if (c == '\r') {
+        skipLF = true;
+        return endEntry(start, w, i + 1, '\n');
+      } else if (c == '\"' && delim == ',') {
+        // an unquoted entry can only contain escaped ("") quotes
+        if (i + 1 == limit) {
+          int shift = fill(start);
+          start -= shift;
+          i -= shift;
+          w -= shift;
+        }
+        if (i + 1 == limit) {
+          throw new RuntimeException("Unterminated quote at end of line");
+        } else if (buffer[i + 1] != '\"') {
+          throw new RuntimeException("Unterminated quoted field mid-line");
+        }
+        buffer[w++] = '\"';
+        i += 2;
+      } else {
+        if (w != i) {
+          buffer[w] = c;
+        }
+        w++;
+        i++;
+      }
+    }
+  }
+
+
+  protected int nextQuoted() throws IOException {
+    int start = pos + 1;  // step over the quote
+    int i = start;
+    int w = start;
+    boolean prevCR = false;
+    while (true) {
+      if (i + 1 >= limit) {  // need one char of lookahead for quotes
+        int shift = fill(start);
+        start -= shift;
+        i -= shift;
+        w -= shift;
+        if (i == limit) {
+          throw new IOException("Found a quoted line that wasn't terminated properly.");
+        }
+      }
+      char c = buffer[i];
+      if (c == '\"') {
+        if (i + 1 == limit) {
+          // closing quote at the very end of the data
+          return endEntry(start, w, i + 1, -1);
+        }
+        char next = buffer[i + 1];
+        if (next == '\"') {
+          buffer[w++] = '\"';
+          i += 2;
+        } else if (next == delim) {
+          return endEntry(start, w, i + 2, delim);
+        } else if (next == '\n') {
+          return endEntry(start, w, i + 2, '\n');
+        } else if (next == '\r') {
+          skipLF = true;
+          return endEntry(start, w, i + 2, '\n');
+        } else {
+          // A lone-wolf quote in the middle of some other text,
+          // not escaped properly. Keep it and pray for the best.
+          buffer[w++] = c;
+          i++;
+        }
+        prevCR = false;
+
+      } else if (c == '\r') {
+        // newlines inside quotes are converted to \n, same as parseBasic()
+        buffer[w++] = '\n';
+        i++;
+        prevCR = true;
+
+      } else if (c == '\n' && prevCR) {
+        i++;
+        prevCR = false;
+
+      } else {
+        buffer[w++] = c;
+        i++;
+        prevCR = false;
+      }
+    }
+  }
+
+
+  private int endEntry(int start, int stop, int next, int end) {
+    entryStart = start;
+    entryStop = stop;
+    pos = next;
+    return end;
+  }
+
+
+  /** Write the current entry to the table, converting to the column type. */
+  protected void store(int row, int col) {
+    switch (table.columnTypes[col]) {
+    case Table.STRING:
+      String[] stringData = (String[]) table.columns[col];
+      stringData[row] = new String(buffer, entryStart, entryStop - entryStart);
+      break;
+    case Table.INT:
+      int[] intData = (int[]) table.columns[col];
+      intData[row] = parseInt(buffer, entryStart, entryStop, table.missingInt);
+      break;
+    case Table.LONG:
+      long[] longData = (long[]) table.columns[col];
+      longData[row] = parseLong(buffer, entryStart, entryStop, table.missingLong);
+      break;
+    case Table.FLOAT:
+      float[] floatData = (float[]) table.columns[col];
+      floatData[row] = parseFloat(buffer, entryStart, entryStop, table.missingFloat);
+      break;
+    case Table.DOUBLE:
+      double[] doubleData = (double[]) table.columns[col];
+      doubleData[row] = parseDouble(buffer, entryStart, entryStop, table.missingDouble);
+      break;
+    case Table.CATEGORY:
+      int[] indexData = (int[]) table.columns[col];
+      String peace = new String(buffer, entryStart, entryStop - entryStart);
+      if (peace.equals(table.missingString)) {
+        indexData[row] = table.missingCategory;
+      } else {
+        indexData[row] = table.columnCategories[col].index(peace);
+      }
+      break;
+    default:
+      throw new IllegalArgumentException("That's not a valid column type.");
+    }
+  }
+
+
+  // . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . . .
+
+
+  // The number parsers handle plain ASCII numbers directly from the buffer.
+  // Anything unusual (whitespace, exponents too large for an exact result,
+  // "NaN", hex floats, non-ASCII digits) falls back to the same String-based
+  // parsing used by setRowCol(), so the results are always identical.
+
+
+  /** Same result as PApplet.parseInt(new String(c, start, stop - start)). */
+  static int parseInt(char[] c, int start, int stop, int otherwise) {
+    if (start == stop) {
+      return otherwise;
+    }
+    int i = start;
+    boolean negative = c[i] == '-';
+    if (negative || c[i] == '+') {
+      i++;
+    }
+    // accumulate negatively, so that Integer.MIN_VALUE works
+    int value = 0;
+    int digits = 0;
+    while (i < stop) {
+      char ch = c[i];
+      if (ch >= '0' && ch <= '9') {
+        if (value < -214748364 ||
+            (value == -214748364 && ch - '0' > (negative ? 8 : 7))) {
+          return otherwise;  // overflow
+        }
+        value = value * 10 - (ch - '0');
+        digits++;
+        i++;
+      } else if (ch == '.') {
+        break;  // parseInt() ignores everything after the decimal point
+      } else {
+        return PApplet.parseInt(new String(c, start, stop - start), otherwise);
+      }
+    }
+    if (digits == 0) {
+      return otherwise;
+    }
+    return negative ? value : -value;
+  }
+
+
+  /** Same result as Long.parseLong(), returning 'otherwise' on error. */
+  static long parseLong(char[] c, int start, int stop, long otherwise) {
+    if (start == stop) {
+      return otherwise;
+    }
+    int i = start;
+    boolean negative = c[i] == '-';
+    if (negative || c[i] == '+') {
+      i++;
+    }
+    if (i == stop) {
+      return otherwise;
+    }
+    long value = 0;
+    while (i < stop) {
+      char ch = c[i];
+      if (ch >= '0' && ch <= '9') {
+        if (value < -922337203685477580L ||
+            (value == -922337203685477580L && ch - '0' > (negative ? 8 : 7))) {
+          return otherwise;
+        }
+        value = value * 10 - (ch - '0');
+        i++;
+      } else {
+        try {
+          return Long.parseLong(new String(c, start, stop - start));
+        } catch (NumberFormatException nfe) {
+          return otherwise;
+        }
+      }
+    }
+    return negative ? value : -value;
+  }
+
+
+  /** Same result as PApplet.parseFloat(new String(c, start, stop - start)). */
+  static float parseFloat(char[] c, int start, int stop, float otherwise) {
+    if (start == stop) {
+      return otherwise;
+    }
+    long bits = parseDecimal(c, start, stop);
+    if (bits != INEXACT) {
+      long mantissa = bits >> 8;
+      int exponent = (byte) bits;
+      boolean negative = mantissa < 0;
+      if (negative) {
+        mantissa = -mantissa;
+      }
+      // Both values exact as floats, so one operation rounds correctly
+      if (mantissa <= (1 << 24) && exponent >= -10 && exponent <= 10) {
+        float f = mantissa;
+        if (exponent < 0) {
+          f /= FLOAT_POW10[-exponent];
+        } else {
+          f *= FLOAT_POW10[exponent];
+        }
+        return negative ? -f : f;
+      }
+    }
+    return PApplet.parseFloat(new String(c, start, stop - start), otherwise);
+  }
+
+
+  /** Same result as Double.parseDouble(), returning 'otherwise' on error. */
+  static double parseDouble(char[] c, int start, int stop, double otherwise) {
+    if (start == stop) {
+      return otherwise;
+    }
+    long bits = parseDecimal(c, start, stop);
+    if (bits != INEXACT) {
+      long mantissa = bits >> 8;
+      int exponent = (byte) bits;
+      boolean negative = mantissa < 0;
+      if (negative) {
+        mantissa = -mantissa;
+      }
+      if (mantissa <= (1L << 53) && exponent >= -22 && exponent <= 22) {
+        double d = mantissa;
+        if (exponent < 0) {
+          d /= DOUBLE_POW10[-exponent];
+        } else {
+          d *= DOUBLE_POW10[exponent];
+        }
+        return negative ? -d : d;
+      }
+    }
+    try {
+      return Double.parseDouble(new String(c, start, stop - start));
+    } catch (NumberFormatException nfe) {
+      return otherwise;
+    }
+  }
+
+
+  static final long INEXACT = Long.MIN_VALUE;
+
+  /**
+   * Parse a plain decimal number like -12.5e3 into a mantissa and a power
+   * of ten, packed as (mantissa << 8) | (exponent & 0xff). Negative zero is
+   * not representable this way, so it's reported as INEXACT along with
+   * anything too long or unusual, and left for the String-based parsers.
+   */
+  static long parseDecimal(char[] c, int start, int stop) {
+    int i = start;
+    boolean negative = c[i] == '-';
+    if (negative || c[i] == '+') {
+      i++;
+    }
+    long mantissa = 0;
+    int exponent = 0;
+    int digits = 0;
+    int significant = 0;
+    while (i < stop && c[i] >= '0' && c[i] <= '9') {
+      if (significant != 0 || c[i] != '0') {
+        if (++significant > 16) return INEXACT;
+      }
+      mantissa = mantissa * 10 + (c[i++] - '0');
+      digits++;
+    }
+    if (i < stop && c[i] == '.') {
+      i++;
+      while (i < stop && c[i] >= '0' && c[i] <= '9') {
+        if (significant != 0 || c[i] != '0') {
+          if (++significant > 16) return INEXACT;
+        }
+        mantissa = mantissa * 10 + (c[i++] - '0');
+        exponent--;
+        digits++;
+      }
+    }
+    if (digits == 0) {
+      return INEXACT;
+    }
+    if (i < stop && (c[i] == 'e' || c[i] == 'E')) {
+      i++;
+      boolean negativeExp = false;
+      if (i < stop && (c[i] == '-' || c[i] == '+')) {
+        negativeExp = c[i++] == '-';
+      }
+      int exp = 0;
+      int expDigits = 0;
+      while (i < stop && c[i] >= '0' && c[i] <= '9') {
+        exp = exp * 10 + (c[i++] - '0');
+        if (++expDigits > 3) return INEXACT;
+      }
+      if (expDigits == 0) {
+        return INEXACT;
+      }
+      exponent += negativeExp ? -exp : exp;
+    }
+    if (i != stop) {
+      return INEXACT;  // trailing text, e.g. the 'f' in 1.5f
+    }
+    // drop trailing zeros, so 12.500000 isn't treated as a long mantissa
+    while (mantissa != 0 && exponent < 0 && mantissa % 10 == 0) {
+      mantissa /= 10;
+      exponent++;
+    }
+    if (mantissa == 0) {
+      if (negative) {
+        return INEXACT;
+      }
+      exponent = 0;
+    }
+    if (exponent < -100 || exponent > 100) {
+      return INEXACT;
+    }
+    return ((negative ? -mantissa : mantissa) << 8) | (exponent & 0xff);
+  }
+}
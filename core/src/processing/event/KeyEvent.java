@@ -28,10 +28,10 @@ public class KeyEvent extends Event {
   static public final int RELEASE = 2;
   static public final int TYPE = 3;
 
-  char key;
-  int keyCode;
+  protected char key;
+  protected int keyCode;
 
-  boolean isAutoRepeat;
+  protected boolean isAutoRepeat;
 
 
   public KeyEvent(Object nativeObject,
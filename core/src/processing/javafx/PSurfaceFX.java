@@ -865,9 +865,9 @@ public class PSurfaceFX implements PSurface {
     int x = (int) fxEvent.getX();  // getSceneX()?
     int y = (int) fxEvent.getY();
 
-    sketch.postEvent(new processing.event.MouseEvent(fxEvent, when,
-                                                     action, modifiers,
-                                                     x, y, button, count));
+    sketch.postMouseEvent(fxEvent, when,
+                          action, modifiers,
+                          x, y, button, count);
   }
 
   // https://docs.oracle.com/javase/8/javafx/api/javafx/scene/input/ScrollEvent.html
@@ -898,9 +898,9 @@ public class PSurfaceFX implements PSurface {
     int x = (int) fxEvent.getX();  // getSceneX()?
     int y = (int) fxEvent.getY();
 
-    sketch.postEvent(new processing.event.MouseEvent(fxEvent, when,
-                                                     action, modifiers,
-                                                     x, y, button, count));
+    sketch.postMouseEvent(fxEvent, when,
+                          action, modifiers,
+                          x, y, button, count);
   }
 
 
@@ -933,9 +933,9 @@ public class PSurfaceFX implements PSurface {
 
     char keyChar = getKeyChar(fxEvent);
     int keyCode = getKeyCode(fxEvent);
-    sketch.postEvent(new processing.event.KeyEvent(fxEvent, when,
-                                                   action, modifiers,
-                                                   keyChar, keyCode));
+    sketch.postKeyEvent(fxEvent, when,
+                        action, modifiers,
+                        keyChar, keyCode, false);
   }
 
 
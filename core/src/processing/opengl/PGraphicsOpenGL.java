@@ -5827,12 +5827,16 @@ public class PGraphicsOpenGL extends PGraphics {
         PImage target = asyncImageSaver.getAvailableTarget(widths[tail],
                                                            heights[tail],
                                                            format);
-        if (target == null) return;
-        readBuffer.rewind();
-        readBuffer.asIntBuffer().get(target.pixels);
+        // null when the frame is dropped, but the buffer is done either way
+        if (target != null) {
+          readBuffer.rewind();
+          readBuffer.asIntBuffer().get(target.pixels);
+        }
         pgl.unmapBuffer(PGL.PIXEL_PACK_BUFFER);
-        asyncImageSaver.saveTargetAsync(PGraphicsOpenGL.this, target,
-                                        files[tail]);
+        if (target != null) {
+          asyncImageSaver.saveTargetAsync(PGraphicsOpenGL.this, target,
+                                          files[tail]);
+        }
       }
 
       pgl.bindBuffer(PGL.PIXEL_PACK_BUFFER, 0);
@@ -6580,6 +6584,12 @@ public class PGraphicsOpenGL extends PGraphics {
   }
 
 
+  @Override
+  public void resize(int wide, int high, int filter) {
+    PGraphics.showMethodWarning("resize");
+  }
+
+
   //////////////////////////////////////////////////////////////
 
   // INITIALIZATION ROUTINES
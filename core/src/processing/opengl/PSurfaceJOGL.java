@@ -68,6 +68,7 @@ import com.jogamp.opengl.util.FPSAnimator;
 
 import processing.core.PApplet;
 import processing.core.PConstants;
+import processing.core.PFrameProfiler;
 import processing.core.PGraphics;
 import processing.core.PImage;
 import processing.core.PSurface;
@@ -872,6 +873,11 @@ public class PSurfaceJOGL implements PSurface {
           pgl.endRender(sketch.sketchWindowColor());
         }
         PGraphicsOpenGL.completeFinishedPixelTransfers();
+
+        PFrameProfiler profiler = sketch.frameProfiler();
+        if (profiler != null) {
+          profiler.frameRendered();
+        }
       }
 
       if (sketch.exitCalled()) {
@@ -1066,13 +1072,11 @@ public class PSurfaceJOGL implements PSurface {
       }
     }
 
-    MouseEvent me = new MouseEvent(nativeEvent, nativeEvent.getWhen(),
-                                   peAction, peModifiers,
-                                   mx, my,
-                                   peButton,
-                                   peCount);
-
-    sketch.postEvent(me);
+    sketch.postMouseEvent(nativeEvent, nativeEvent.getWhen(),
+                          peAction, peModifiers,
+                          mx, my,
+                          peButton,
+                          peCount);
   }
 
 
@@ -1107,25 +1111,21 @@ public class PSurfaceJOGL implements PSurface {
     // Returns the virtual key code using a fixed mapping to the US keyboard layout.
     // In contrast to key symbol, key code uses a fixed US keyboard layout and therefore is keyboard layout independent.
     // E.g. virtual key code VK_Y denotes the same physical key regardless whether keyboard layout QWERTY or QWERTZ is active. The key symbol of the former is VK_Y, where the latter produces VK_Y.
-    KeyEvent ke = new KeyEvent(nativeEvent, nativeEvent.getWhen(),
-                               peAction, peModifiers,
-                               keyChar,
-                               keyCode,
-                               nativeEvent.isAutoRepeat());
-
-    sketch.postEvent(ke);
+    sketch.postKeyEvent(nativeEvent, nativeEvent.getWhen(),
+                        peAction, peModifiers,
+                        keyChar,
+                        keyCode,
+                        nativeEvent.isAutoRepeat());
 
     if (!isPCodedKey(code) && !isHackyKey(code)) {
       if (peAction == KeyEvent.PRESS) {
         // Create key typed event
         // TODO: combine dead keys with the following key
-        KeyEvent tke = new KeyEvent(nativeEvent, nativeEvent.getWhen(),
-                                    KeyEvent.TYPE, peModifiers,
-                                    keyChar,
-                                    0,
-                                    nativeEvent.isAutoRepeat());
-
-        sketch.postEvent(tke);
+        sketch.postKeyEvent(nativeEvent, nativeEvent.getWhen(),
+                            KeyEvent.TYPE, peModifiers,
+                            keyChar,
+                            0,
+                            nativeEvent.isAutoRepeat());
       }
     }
   }